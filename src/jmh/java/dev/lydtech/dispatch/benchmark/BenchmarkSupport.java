@@ -0,0 +1,76 @@
+package dev.lydtech.dispatch.benchmark;
+
+import java.io.OutputStream;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.Logger;
+import ch.qos.logback.classic.LoggerContext;
+import ch.qos.logback.classic.encoder.PatternLayoutEncoder;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.core.OutputStreamAppender;
+import dev.lydtech.dispatch.client.StockServiceClient;
+import org.slf4j.LoggerFactory;
+import org.springframework.kafka.core.DefaultKafkaProducerFactory;
+import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.kafka.support.SendResult;
+
+/**
+ * Collaborators for running the dispatch code outside of the application context.  The stubs return immediately, so the
+ * benchmarks measure the dispatch code rather than the broker or the stock service.
+ */
+final class BenchmarkSupport {
+
+    private BenchmarkSupport() {
+    }
+
+    /**
+     * Format log events as the application does, but write them nowhere, so that the cost of logging is measured without
+     * the cost of the console.
+     */
+    static void discardLogOutput(String loggerName, Level level) {
+        LoggerContext context = (LoggerContext) LoggerFactory.getILoggerFactory();
+        Logger root = context.getLogger(org.slf4j.Logger.ROOT_LOGGER_NAME);
+        root.detachAndStopAllAppenders();
+        root.setLevel(Level.WARN);
+
+        PatternLayoutEncoder encoder = new PatternLayoutEncoder();
+        encoder.setContext(context);
+        encoder.setPattern("%d{yyyy-MM-dd'T'HH:mm:ss.SSSXXX} %5p --- [%t] %-40.40logger{39} : %m%n");
+        encoder.start();
+
+        OutputStreamAppender<ILoggingEvent> appender = new OutputStreamAppender<>();
+        appender.setContext(context);
+        appender.setEncoder(encoder);
+        appender.setOutputStream(OutputStream.nullOutputStream());
+        appender.start();
+        root.addAppender(appender);
+
+        context.getLogger(loggerName).setLevel(level);
+    }
+
+    static KafkaTemplate<String, Object> stubKafkaTemplate() {
+        return new KafkaTemplate<>(new DefaultKafkaProducerFactory<>(Map.of())) {
+            @Override
+            public CompletableFuture<SendResult<String, Object>> send(String topic, String key, Object data) {
+                return CompletableFuture.completedFuture(null);
+            }
+        };
+    }
+
+    static StockServiceClient stubStockServiceClient(boolean available) {
+        return new StockServiceClient(null, null, null, null, null, null, null, null, Duration.ZERO, false, Duration.ZERO, 0) {
+            @Override
+            public String checkAvailability(String item) {
+                return String.valueOf(available);
+            }
+
+            @Override
+            public CompletableFuture<Boolean> checkAvailabilityAsync(String item) {
+                return CompletableFuture.completedFuture(available);
+            }
+        };
+    }
+}
@@ -0,0 +1,84 @@
+package dev.lydtech.dispatch.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import ch.qos.logback.classic.Level;
+import dev.lydtech.dispatch.logging.LogSampler;
+import dev.lydtech.dispatch.message.OrderCreated;
+import dev.lydtech.dispatch.metrics.DispatchMetrics;
+import dev.lydtech.dispatch.service.DispatchService;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import static java.util.UUID.randomUUID;
+
+/**
+ * DispatchService.process with stubbed collaborators that complete immediately, so the result is the cost of the
+ * service itself: building the outbound events, handing them to the template, and logging.
+ *
+ * The orders are cycled through a fixed set of order ids, so that with a log sample rate above 1 the sampled share of
+ * orders is logged.  Run with -Djmh.args="-prof gc" to compare the allocation per order (gc.alloc.rate.norm) across the
+ * log levels and sample rates.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class DispatchServiceBenchmark {
+
+    @Param({"false", "true"})
+    public boolean pipelined;
+
+    @Param({"INFO", "WARN"})
+    public String logLevel;
+
+    @Param({"1", "100"})
+    public int logSampleRate;
+
+    private DispatchService dispatchService;
+
+    private String key;
+
+    private OrderCreated[] orders;
+
+    private int next;
+
+    @Setup
+    public void setUp() {
+        BenchmarkSupport.discardLogOutput(DispatchService.class.getName(), Level.toLevel(logLevel));
+        dispatchService = new DispatchService(BenchmarkSupport.stubKafkaTemplate(), BenchmarkSupport.stubStockServiceClient(true),
+                new DispatchMetrics(new SimpleMeterRegistry()), new LogSampler(logSampleRate), pipelined);
+        key = randomUUID().toString();
+        orders = new OrderCreated[1024];
+        for (int i = 0; i < orders.length; i++) {
+            orders[i] = OrderCreated.builder().orderId(randomUUID()).item("my-item").build();
+        }
+    }
+
+    @Benchmark
+    public void process() throws Exception {
+        dispatchService.process(key, nextOrder());
+    }
+
+    @Benchmark
+    public Object processAsync() {
+        return dispatchService.processAsync(key, nextOrder()).join();
+    }
+
+    private OrderCreated nextOrder() {
+        next = (next + 1) & (orders.length - 1);
+        return orders[next];
+    }
+}
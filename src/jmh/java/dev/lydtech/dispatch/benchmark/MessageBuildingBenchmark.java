@@ -0,0 +1,88 @@
+package dev.lydtech.dispatch.benchmark;
+
+import java.time.LocalDate;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import ch.qos.logback.classic.Level;
+import dev.lydtech.dispatch.message.DispatchCompleted;
+import dev.lydtech.dispatch.message.DispatchPreparing;
+import dev.lydtech.dispatch.message.OrderCreated;
+import dev.lydtech.dispatch.message.OrderDispatched;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import static java.util.UUID.randomUUID;
+
+/**
+ * The per-order overheads in DispatchService outside of the sends: building the three outbound events, and the log
+ * statement written for each dispatched order, both when the level is enabled and when it is not.  The log statement is
+ * measured both as a concatenated message, which is built whatever the level, and as the guarded, parameterized form
+ * that DispatchService uses.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class MessageBuildingBenchmark {
+
+    private static final Logger log = LoggerFactory.getLogger(MessageBuildingBenchmark.class);
+
+    private static final UUID APPLICATION_ID = randomUUID();
+
+    @Param({"INFO", "WARN"})
+    public String logLevel;
+
+    private String key;
+
+    private OrderCreated orderCreated;
+
+    @Setup
+    public void setUp() {
+        BenchmarkSupport.discardLogOutput(MessageBuildingBenchmark.class.getName(), Level.toLevel(logLevel));
+        key = randomUUID().toString();
+        orderCreated = OrderCreated.builder().orderId(randomUUID()).item("my-item").build();
+    }
+
+    @Benchmark
+    public void buildOutboundEvents(Blackhole blackhole) {
+        blackhole.consume(DispatchPreparing.builder()
+                .orderId(orderCreated.getOrderId())
+                .build());
+        blackhole.consume(OrderDispatched.builder()
+                .orderId(orderCreated.getOrderId())
+                .processedById(APPLICATION_ID)
+                .notes("Dispatched: " + orderCreated.getItem())
+                .build());
+        blackhole.consume(DispatchCompleted.builder()
+                .orderId(orderCreated.getOrderId())
+                .dispatchedDate(LocalDate.now().toString())
+                .build());
+    }
+
+    @Benchmark
+    public void logSentMessagesConcatenated() {
+        log.info("Sent messages: key: " + key + " - orderId: " + orderCreated.getOrderId() + " - processedById: " + APPLICATION_ID);
+    }
+
+    @Benchmark
+    public void logSentMessagesParameterized() {
+        if (log.isInfoEnabled()) {
+            log.info("Sent messages: key: {} - orderId: {} - processedById: {}", key, orderCreated.getOrderId(), APPLICATION_ID);
+        }
+    }
+}
@@ -0,0 +1,94 @@
+package dev.lydtech.dispatch.benchmark;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import dev.lydtech.dispatch.message.OrderCreated;
+import dev.lydtech.dispatch.serialization.OrderCreatedJsonDeserializer;
+import org.apache.kafka.common.header.Header;
+import org.apache.kafka.common.header.internals.RecordHeader;
+import org.apache.kafka.common.header.internals.RecordHeaders;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.kafka.support.mapping.AbstractJavaTypeMapper;
+import org.springframework.kafka.support.serializer.ErrorHandlingDeserializer;
+import org.springframework.kafka.support.serializer.JsonDeserializer;
+import org.springframework.kafka.support.serializer.JsonSerializer;
+
+import static java.util.UUID.randomUUID;
+
+/**
+ * Reading an OrderCreated event with the JsonDeserializer, as before, against the OrderCreatedJsonDeserializer, each
+ * wrapped in the ErrorHandlingDeserializer as in DispatchConfiguration.  The type header, if any, is removed as the event
+ * is read, so a fresh set of headers is used per call.  The poison pill is not JSON, so the OrderCreatedJsonDeserializer
+ * tries it and then passes it to the JsonDeserializer.
+ *
+ * Run with: mvn verify -Pjmh -DskipTests -Djmh.includes=OrderCreatedDeserializationBenchmark [-Djmh.args="-prof gc"]
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class OrderCreatedDeserializationBenchmark {
+
+    private static final String TOPIC = "order.created";
+
+    @Param({"JsonDeserializer", "OrderCreatedJsonDeserializer"})
+    public String reader;
+
+    @Param({"false", "true"})
+    public boolean typeHeader;
+
+    private ErrorHandlingDeserializer<Object> deserializer;
+
+    private byte[] orderCreatedBytes;
+
+    private byte[] poisonPillBytes;
+
+    private Header typeIdHeader;
+
+    @Setup
+    public void setUp() {
+        deserializer = new ErrorHandlingDeserializer<>();
+        deserializer.configure(Map.of(
+                ErrorHandlingDeserializer.VALUE_DESERIALIZER_CLASS, reader.equals("JsonDeserializer") ? JsonDeserializer.class : OrderCreatedJsonDeserializer.class,
+                JsonDeserializer.VALUE_DEFAULT_TYPE, OrderCreated.class.getCanonicalName()), false);
+        try (JsonSerializer<Object> serializer = new JsonSerializer<>()) {
+            orderCreatedBytes = serializer.serialize(TOPIC, OrderCreated.builder().orderId(randomUUID()).item("my-item").build());
+        }
+        poisonPillBytes = "not json".getBytes(StandardCharsets.UTF_8);
+        typeIdHeader = new RecordHeader(AbstractJavaTypeMapper.DEFAULT_CLASSID_FIELD_NAME, OrderCreated.class.getName().getBytes(StandardCharsets.UTF_8));
+    }
+
+    @TearDown
+    public void tearDown() {
+        deserializer.close();
+    }
+
+    @Benchmark
+    public Object deserializeOrderCreated() {
+        return deserializer.deserialize(TOPIC, headers(), orderCreatedBytes);
+    }
+
+    @Benchmark
+    public Object deserializePoisonPill() {
+        return deserializer.deserialize(TOPIC, headers(), poisonPillBytes);
+    }
+
+    private RecordHeaders headers() {
+        return typeHeader ? new RecordHeaders(new Header[] {typeIdHeader}) : new RecordHeaders();
+    }
+}
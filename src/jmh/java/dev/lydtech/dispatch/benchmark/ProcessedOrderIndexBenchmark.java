@@ -0,0 +1,85 @@
+package dev.lydtech.dispatch.benchmark;
+
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import dev.lydtech.dispatch.dedup.ProcessedOrderIndex;
+import org.apache.kafka.common.TopicPartition;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import static java.util.UUID.randomUUID;
+
+/**
+ * The duplicate check made for each OrderCreated event, against a partition holding a full window of processed orders.
+ * The ids looked up are cycled through so that the lookups are not all for the same table slots.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ProcessedOrderIndexBenchmark {
+
+    private static final int ORDERS = 1024;
+
+    @Param({"4096", "65536"})
+    public int windowSize;
+
+    private ProcessedOrderIndex index;
+
+    private UUID[] processed;
+
+    private UUID[] unprocessed;
+
+    private int next;
+
+    private long sequence;
+
+    @Setup
+    public void setUp() {
+        index = new ProcessedOrderIndex(true, windowSize);
+        index.onPartitionsAssigned(null, List.of(new TopicPartition("order.created", 0)));
+        processed = new UUID[ORDERS];
+        unprocessed = new UUID[ORDERS];
+        for (int i = 0; i < windowSize; i++) {
+            UUID orderId = randomUUID();
+            index.markProcessed(0, orderId);
+            if (i >= windowSize - ORDERS) {
+                processed[i - (windowSize - ORDERS)] = orderId;
+            }
+        }
+        for (int i = 0; i < ORDERS; i++) {
+            unprocessed[i] = randomUUID();
+        }
+    }
+
+    @Benchmark
+    public boolean isProcessed_Duplicate() {
+        return index.isProcessed(0, processed[next++ & (ORDERS - 1)]);
+    }
+
+    @Benchmark
+    public boolean isProcessed_NewOrder() {
+        return index.isProcessed(0, unprocessed[next++ & (ORDERS - 1)]);
+    }
+
+    /**
+     * Sequential ids, as randomUUID would dominate the time.  The window fills and rotates as it would in use.
+     */
+    @Benchmark
+    public void markProcessed() {
+        index.markProcessed(0, new UUID(sequence++, 1L));
+    }
+}
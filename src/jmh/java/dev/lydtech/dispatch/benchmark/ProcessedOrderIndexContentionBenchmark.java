@@ -0,0 +1,79 @@
+package dev.lydtech.dispatch.benchmark;
+
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import dev.lydtech.dispatch.dedup.ProcessedOrderIndex;
+import org.apache.kafka.common.TopicPartition;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import static java.util.UUID.randomUUID;
+
+/**
+ * The duplicate checks of the async dispatch workers against one partition, made while another worker marks its orders
+ * as processed.  Three threads look up orders and one adds them, sharing the partition's OrderIdSet.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Group)
+public class ProcessedOrderIndexContentionBenchmark {
+
+    private static final int ORDERS = 1024;
+
+    private static final int WINDOW_SIZE = 4096;
+
+    private ProcessedOrderIndex index;
+
+    private UUID[] orderIds;
+
+    @Setup
+    public void setUp() {
+        index = new ProcessedOrderIndex(true, WINDOW_SIZE);
+        index.onPartitionsAssigned(null, List.of(new TopicPartition("order.created", 0)));
+        orderIds = new UUID[ORDERS];
+        for (int i = 0; i < ORDERS; i++) {
+            orderIds[i] = randomUUID();
+            index.markProcessed(0, orderIds[i]);
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Cursor {
+
+        private int next;
+
+        private long sequence;
+    }
+
+    @Benchmark
+    @Group("readWrite")
+    @GroupThreads(3)
+    public boolean isProcessed(Cursor cursor) {
+        return index.isProcessed(0, orderIds[cursor.next++ & (ORDERS - 1)]);
+    }
+
+    /**
+     * Sequential ids, as randomUUID would dominate the time.  The window fills and rotates as it would in use.
+     */
+    @Benchmark
+    @Group("readWrite")
+    @GroupThreads(1)
+    public void markProcessed(Cursor cursor) {
+        index.markProcessed(0, new UUID(cursor.sequence++, 1L));
+    }
+}
@@ -0,0 +1,131 @@
+package dev.lydtech.dispatch.benchmark;
+
+import java.time.LocalDate;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import dev.lydtech.dispatch.message.DispatchCompleted;
+import dev.lydtech.dispatch.message.DispatchPreparing;
+import dev.lydtech.dispatch.message.OrderCreated;
+import dev.lydtech.dispatch.message.OrderDispatched;
+import dev.lydtech.dispatch.serialization.BinaryMessageSerializer;
+import dev.lydtech.dispatch.serialization.MessageFormat;
+import org.apache.kafka.common.header.Header;
+import org.apache.kafka.common.header.internals.RecordHeaders;
+import org.apache.kafka.common.serialization.Serializer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.kafka.support.serializer.ErrorHandlingDeserializer;
+import org.springframework.kafka.support.serializer.JsonDeserializer;
+import org.springframework.kafka.support.serializer.JsonSerializer;
+
+import static java.util.UUID.randomUUID;
+
+/**
+ * Serialization of the inbound and outbound events, with the serializer and deserializer configured as in
+ * DispatchConfiguration for each dispatch.serialization.format.  The JSON serializer adds type headers to each record,
+ * so a fresh set of headers is used per call.  The size of each record's value and headers is printed at setup.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class SerializationBenchmark {
+
+    private static final String TOPIC = "topic";
+
+    @Param({"JSON", "BINARY"})
+    public MessageFormat format;
+
+    private Serializer<Object> serializer;
+
+    private ErrorHandlingDeserializer<Object> deserializer;
+
+    private OrderCreated orderCreated;
+
+    private DispatchPreparing dispatchPreparing;
+
+    private OrderDispatched orderDispatched;
+
+    private DispatchCompleted dispatchCompleted;
+
+    private byte[] orderCreatedBytes;
+
+    @Setup
+    public void setUp() {
+        serializer = format == MessageFormat.BINARY ? new BinaryMessageSerializer() : new JsonSerializer<>();
+        serializer.configure(Map.of(), false);
+        deserializer = new ErrorHandlingDeserializer<>();
+        deserializer.configure(Map.of(
+                ErrorHandlingDeserializer.VALUE_DESERIALIZER_CLASS, format.getDeserializer(),
+                JsonDeserializer.VALUE_DEFAULT_TYPE, OrderCreated.class.getCanonicalName()), false);
+
+        orderCreated = OrderCreated.builder().orderId(randomUUID()).item("my-item").build();
+        dispatchPreparing = DispatchPreparing.builder().orderId(orderCreated.getOrderId()).build();
+        orderDispatched = OrderDispatched.builder()
+                .orderId(orderCreated.getOrderId())
+                .processedById(randomUUID())
+                .notes("Dispatched: " + orderCreated.getItem())
+                .build();
+        dispatchCompleted = DispatchCompleted.builder()
+                .orderId(orderCreated.getOrderId())
+                .dispatchedDate(LocalDate.now().toString())
+                .build();
+        // The upstream service does not send type headers, so the default type is used.
+        orderCreatedBytes = serializer.serialize(TOPIC, orderCreated);
+
+        for (Object event : List.of(orderCreated, dispatchPreparing, orderDispatched, dispatchCompleted)) {
+            RecordHeaders headers = new RecordHeaders();
+            int valueBytes = serializer.serialize(TOPIC, headers, event).length;
+            int headerBytes = 0;
+            for (Header header : headers) {
+                headerBytes += header.key().length() + header.value().length;
+            }
+            System.out.printf("%n%s %s: value %d bytes, headers %d bytes%n", format, event.getClass().getSimpleName(), valueBytes, headerBytes);
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        serializer.close();
+        deserializer.close();
+    }
+
+    @Benchmark
+    public Object deserializeOrderCreated() {
+        return deserializer.deserialize(TOPIC, new RecordHeaders(), orderCreatedBytes);
+    }
+
+    @Benchmark
+    public byte[] serializeOrderCreated() {
+        return serializer.serialize(TOPIC, new RecordHeaders(), orderCreated);
+    }
+
+    @Benchmark
+    public byte[] serializeDispatchPreparing() {
+        return serializer.serialize(TOPIC, new RecordHeaders(), dispatchPreparing);
+    }
+
+    @Benchmark
+    public byte[] serializeOrderDispatched() {
+        return serializer.serialize(TOPIC, new RecordHeaders(), orderDispatched);
+    }
+
+    @Benchmark
+    public byte[] serializeDispatchCompleted() {
+        return serializer.serialize(TOPIC, new RecordHeaders(), dispatchCompleted);
+    }
+}
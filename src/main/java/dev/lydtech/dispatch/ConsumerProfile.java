@@ -0,0 +1,49 @@
+package dev.lydtech.dispatch;
+
+import java.util.Map;
+
+import org.apache.kafka.clients.consumer.ConsumerConfig;
+
+/**
+ * The consumer fetch tunings selected by dispatch.consumer.profile.
+ *
+ * The profiles differ in how much data the broker waits for before answering a fetch, and how many records each poll
+ * returns.  max.poll.interval.ms is set separately, with dispatch.consumer.maxPollInterval.
+ */
+public enum ConsumerProfile {
+
+    /**
+     * The client defaults: a fetch is answered as soon as any data is available.
+     */
+    LOW_LATENCY(1, 500, 500),
+
+    /**
+     * The broker waits up to 100ms for 16KB of data per fetch.
+     */
+    BALANCED(16384, 100, 500),
+
+    /**
+     * The broker waits up to 500ms for 256KB of data per fetch, and polls return up to 2000 records.  Best paired with
+     * the batch listener and the adaptive poll limit.
+     */
+    HIGH_THROUGHPUT(262144, 500, 2000);
+
+    private final int fetchMinBytes;
+
+    private final int fetchMaxWaitMs;
+
+    private final int maxPollRecords;
+
+    ConsumerProfile(int fetchMinBytes, int fetchMaxWaitMs, int maxPollRecords) {
+        this.fetchMinBytes = fetchMinBytes;
+        this.fetchMaxWaitMs = fetchMaxWaitMs;
+        this.maxPollRecords = maxPollRecords;
+    }
+
+    public Map<String, Object> consumerConfig() {
+        return Map.of(
+                ConsumerConfig.FETCH_MIN_BYTES_CONFIG, fetchMinBytes,
+                ConsumerConfig.FETCH_MAX_WAIT_MS_CONFIG, fetchMaxWaitMs,
+                ConsumerConfig.MAX_POLL_RECORDS_CONFIG, maxPollRecords);
+    }
+}
@@ -2,12 +2,17 @@ package dev.lydtech.dispatch;
 
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.context.ConfigurableApplicationContext;
 
 @SpringBootApplication
 public class DispatchApplication {
 
 	public static void main(String[] args) {
-		SpringApplication.run(DispatchApplication.class, args);
+		ConfigurableApplicationContext context = SpringApplication.run(DispatchApplication.class, args);
+		if (context.getEnvironment().getProperty("dispatch.replay.enabled", Boolean.class, false)) {
+			// The replay is a one-shot command, run to completion by the DltReplayRunner on startup.
+			System.exit(SpringApplication.exit(context));
+		}
 	}
 
 }
@@ -1,57 +1,295 @@
 package dev.lydtech.dispatch;
 
+import java.net.http.HttpClient;
+import java.time.Duration;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.function.Supplier;
 
+import dev.lydtech.dispatch.client.StockAvailabilityCache;
+import dev.lydtech.dispatch.client.StockAvailabilityTable;
+import dev.lydtech.dispatch.client.StockServiceCircuitBreaker;
+import dev.lydtech.dispatch.client.StockServiceConcurrencyLimiter;
+import dev.lydtech.dispatch.consumer.AdaptivePollConsumerFactory;
+import dev.lydtech.dispatch.dedup.ProcessedOrderIndex;
 import dev.lydtech.dispatch.exception.NotRetryableException;
 import dev.lydtech.dispatch.exception.RetryableException;
+import dev.lydtech.dispatch.exception.StockServiceUnavailableException;
+import dev.lydtech.dispatch.handler.AsyncDispatchExecutor;
+import dev.lydtech.dispatch.handler.OrderCreatedBatchHandler;
+import dev.lydtech.dispatch.handler.BackPressureController;
+import dev.lydtech.dispatch.logging.LogSampler;
 import dev.lydtech.dispatch.message.OrderCreated;
+import dev.lydtech.dispatch.metrics.DispatchMetrics;
+import dev.lydtech.dispatch.metrics.DispatchMetrics.Outcome;
+import dev.lydtech.dispatch.serialization.MessageFormat;
+import dev.lydtech.dispatch.service.DispatchService;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.apache.hc.client5.http.config.RequestConfig;
+import org.apache.hc.client5.http.impl.classic.CloseableHttpClient;
+import org.apache.hc.client5.http.impl.classic.HttpClients;
+import org.apache.hc.client5.http.impl.io.PoolingHttpClientConnectionManager;
+import org.apache.hc.client5.http.impl.io.PoolingHttpClientConnectionManagerBuilder;
+import org.apache.hc.core5.http.io.SocketConfig;
+import org.apache.hc.core5.util.TimeValue;
+import org.apache.hc.core5.util.Timeout;
+import org.apache.kafka.clients.consumer.Consumer;
 import org.apache.kafka.clients.consumer.ConsumerConfig;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
 import org.apache.kafka.clients.producer.ProducerConfig;
+import org.apache.kafka.common.TopicPartition;
 import org.apache.kafka.common.serialization.StringDeserializer;
 import org.apache.kafka.common.serialization.StringSerializer;
+import org.springframework.beans.factory.ObjectProvider;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.ComponentScan;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.ImportRuntimeHints;
+import org.springframework.http.client.HttpComponentsClientHttpRequestFactory;
 import org.springframework.kafka.config.ConcurrentKafkaListenerContainerFactory;
 import org.springframework.kafka.core.ConsumerFactory;
 import org.springframework.kafka.core.DefaultKafkaConsumerFactory;
 import org.springframework.kafka.core.DefaultKafkaProducerFactory;
 import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.kafka.core.MicrometerConsumerListener;
+import org.springframework.kafka.core.MicrometerProducerListener;
 import org.springframework.kafka.core.ProducerFactory;
+import org.springframework.kafka.listener.ConsumerAwareRebalanceListener;
+import org.springframework.kafka.listener.ContainerProperties;
 import org.springframework.kafka.listener.DeadLetterPublishingRecoverer;
+import org.springframework.kafka.listener.DefaultAfterRollbackProcessor;
 import org.springframework.kafka.listener.DefaultErrorHandler;
+import org.springframework.kafka.listener.RetryListener;
 import org.springframework.kafka.support.serializer.ErrorHandlingDeserializer;
 import org.springframework.kafka.support.serializer.JsonDeserializer;
-import org.springframework.kafka.support.serializer.JsonSerializer;
+import org.springframework.kafka.transaction.KafkaTransactionManager;
+import org.springframework.util.backoff.BackOff;
 import org.springframework.util.backoff.FixedBackOff;
 import org.springframework.web.client.RestTemplate;
 
 @ComponentScan(basePackages = {"dev.lydtech"})
 @Configuration
+@ImportRuntimeHints(DispatchRuntimeHints.class)
 public class DispatchConfiguration {
 
+    /**
+     * With dispatch.transactions.enabled each record is processed in a transaction that also commits its offset.  A
+     * failure rolls the transaction back, and the after rollback processor retries the record, then dead letters it and
+     * commits its offset in a new transaction.
+     */
     @Bean
-    public ConcurrentKafkaListenerContainerFactory<String, Object> kafkaListenerContainerFactory(ConsumerFactory<String, Object> consumerFactory, KafkaTemplate<String, Object> kafkaTemplate) {
+    public ConcurrentKafkaListenerContainerFactory<String, Object> kafkaListenerContainerFactory(ConsumerFactory<String, Object> consumerFactory, KafkaTemplate<String, Object> kafkaTemplate, DispatchMetrics dispatchMetrics,
+                                                                                                 ObjectProvider<KafkaTransactionManager<String, Object>> kafkaTransactionManager,
+                                                                                                 ProcessedOrderIndex processedOrderIndex) {
         ConcurrentKafkaListenerContainerFactory<String, Object> factory = new ConcurrentKafkaListenerContainerFactory<>();
         factory.setConsumerFactory(consumerFactory);
-        DefaultErrorHandler errorHandler = new DefaultErrorHandler(new DeadLetterPublishingRecoverer(kafkaTemplate), new FixedBackOff(100L, 3L));
-        errorHandler.addRetryableExceptions(RetryableException.class);
-        errorHandler.addNotRetryableExceptions(NotRetryableException.class);
+        factory.getContainerProperties().setConsumerRebalanceListener(processedOrderIndex);
+        KafkaTransactionManager<String, Object> transactionManager = kafkaTransactionManager.getIfAvailable();
+        if (transactionManager != null) {
+            factory.getContainerProperties().setTransactionManager(transactionManager);
+            factory.setAfterRollbackProcessor(afterRollbackProcessor(kafkaTemplate, dispatchMetrics));
+        } else {
+            factory.setCommonErrorHandler(errorHandler(kafkaTemplate, dispatchMetrics));
+        }
+        return factory;
+    }
+
+    /**
+     * Used by the OrderCreatedBatchHandler when dispatch.listener.mode=batch.  The DefaultErrorHandler applies the same
+     * retry and dead letter handling to the record identified by a BatchListenerFailedException.
+     *
+     * With dispatch.transactions.enabled the whole batch is processed in one transaction, so its cost is spread over the
+     * records in the poll.  The DefaultErrorHandler would commit the offsets ahead of the failed record outside of the
+     * transaction, so it is not used: a failure rolls back the batch, the after rollback processor seeks back to the
+     * start of the batch and backs off, and the handler dead letters records that have used up their retries.  The handler
+     * is the rebalance listener, so that it can forget the failed records of revoked partitions.
+     */
+    @Bean
+    public ConcurrentKafkaListenerContainerFactory<String, Object> kafkaBatchListenerContainerFactory(ConsumerFactory<String, Object> consumerFactory, KafkaTemplate<String, Object> kafkaTemplate, DispatchMetrics dispatchMetrics,
+                                                                                                      ObjectProvider<KafkaTransactionManager<String, Object>> kafkaTransactionManager,
+                                                                                                      ProcessedOrderIndex processedOrderIndex,
+                                                                                                      ObjectProvider<OrderCreatedBatchHandler> batchHandler) {
+        ConcurrentKafkaListenerContainerFactory<String, Object> factory = new ConcurrentKafkaListenerContainerFactory<>();
+        factory.setConsumerFactory(consumerFactory);
+        factory.getContainerProperties().setConsumerRebalanceListener(batchRebalanceListener(batchHandler, processedOrderIndex));
+        factory.setBatchListener(true);
+        KafkaTransactionManager<String, Object> transactionManager = kafkaTransactionManager.getIfAvailable();
+        if (transactionManager != null) {
+            factory.getContainerProperties().setTransactionManager(transactionManager);
+            factory.setAfterRollbackProcessor(new DefaultAfterRollbackProcessor<>(retryBackOff()));
+        } else {
+            factory.setCommonErrorHandler(errorHandler(kafkaTemplate, dispatchMetrics));
+        }
+        return factory;
+    }
+
+    /**
+     * Looks the handler up on each rebalance, as its listener needs the container factory before the handler is created.
+     */
+    private static ConsumerAwareRebalanceListener batchRebalanceListener(ObjectProvider<OrderCreatedBatchHandler> batchHandler, ProcessedOrderIndex processedOrderIndex) {
+        Supplier<ConsumerAwareRebalanceListener> listener = () -> {
+            OrderCreatedBatchHandler handler = batchHandler.getIfAvailable();
+            return handler != null ? handler : processedOrderIndex;
+        };
+        return new ConsumerAwareRebalanceListener() {
+            @Override
+            public void onPartitionsAssigned(Consumer<?, ?> consumer, Collection<TopicPartition> partitions) {
+                listener.get().onPartitionsAssigned(consumer, partitions);
+            }
+
+            @Override
+            public void onPartitionsRevokedAfterCommit(Consumer<?, ?> consumer, Collection<TopicPartition> partitions) {
+                listener.get().onPartitionsRevokedAfterCommit(consumer, partitions);
+            }
+
+            @Override
+            public void onPartitionsLost(Consumer<?, ?> consumer, Collection<TopicPartition> partitions) {
+                listener.get().onPartitionsLost(consumer, partitions);
+            }
+        };
+    }
+
+    /**
+     * Used by the OrderCreatedAsyncHandler when dispatch.listener.mode=async.  Records complete out of order on the
+     * dispatch threads, so the container does not commit offsets itself.  The AsyncDispatchExecutor commits the highest
+     * contiguous completed offset from the consumer thread, either when the next record arrives or when the container
+     * is idle, and drains revoked partitions on a rebalance.  While the partitions are paused at the in-flight cap no
+     * records arrive, so the idle event is published every 100ms to resume them soon after there is room.  The error
+     * handler only sees failures that happen before the listener is invoked, such as deserialization errors, and must
+     * not commit the recovered record's offset past records still in flight.
+     */
+    @Bean
+    @ConditionalOnProperty(name = "dispatch.listener.mode", havingValue = "async")
+    public ConcurrentKafkaListenerContainerFactory<String, Object> kafkaAsyncListenerContainerFactory(ConsumerFactory<String, Object> consumerFactory, KafkaTemplate<String, Object> kafkaTemplate,
+                                                                                                      AsyncDispatchExecutor asyncDispatchExecutor, DispatchMetrics dispatchMetrics,
+                                                                                                      @Value("${dispatch.transactions.enabled}") boolean transactional) {
+        if (transactional) {
+            throw new IllegalStateException("dispatch.transactions.enabled is not supported with dispatch.listener.mode=async, as offsets are committed outside of the listener");
+        }
+        ConcurrentKafkaListenerContainerFactory<String, Object> factory = new ConcurrentKafkaListenerContainerFactory<>();
+        factory.setConsumerFactory(consumerFactory);
+        factory.getContainerProperties().setAckMode(ContainerProperties.AckMode.MANUAL);
+        factory.getContainerProperties().setIdleEventInterval(100L);
+        factory.getContainerProperties().setConsumerRebalanceListener(asyncDispatchExecutor);
+        DefaultErrorHandler errorHandler = errorHandler(kafkaTemplate, dispatchMetrics);
+        errorHandler.setAckAfterHandle(false);
         factory.setCommonErrorHandler(errorHandler);
         return factory;
     }
 
     @Bean
-    public ConsumerFactory<String, Object> consumerFactory(@Value("${kafka.bootstrap-servers}") String bootstrapServers) {
-        Map<String, Object> config = new HashMap<>();
+    @ConditionalOnProperty(name = "dispatch.listener.mode", havingValue = "async")
+    public AsyncDispatchExecutor asyncDispatchExecutor(DispatchService dispatchService, KafkaTemplate<String, Object> kafkaTemplate, DispatchMetrics dispatchMetrics,
+                                                       LogSampler logSampler, ProcessedOrderIndex processedOrderIndex, @Value("${dispatch.async.maxInFlight}") int maxInFlight,
+                                                       @Value("${dispatch.async.nonBlocking}") boolean nonBlocking) {
+        return new AsyncDispatchExecutor(dispatchService, deadLetterPublishingRecoverer(kafkaTemplate), retryBackOff(), dispatchMetrics, logSampler, processedOrderIndex, maxInFlight, nonBlocking);
+    }
+
+    @Bean
+    @ConditionalOnProperty(name = "dispatch.listener.mode", havingValue = "async")
+    public MeterBinder asyncDispatchMetrics(AsyncDispatchExecutor asyncDispatchExecutor) {
+        return registry -> Gauge.builder("dispatch.async.in.flight", asyncDispatchExecutor, AsyncDispatchExecutor::getInFlight)
+                .description("Orders submitted for async dispatch and not yet completed")
+                .register(registry);
+    }
+
+    private DefaultErrorHandler errorHandler(KafkaTemplate<String, Object> kafkaTemplate, DispatchMetrics dispatchMetrics) {
+        DefaultErrorHandler errorHandler = new DefaultErrorHandler(deadLetterPublishingRecoverer(kafkaTemplate), retryBackOff());
+        errorHandler.addRetryableExceptions(RetryableException.class);
+        errorHandler.addNotRetryableExceptions(NotRetryableException.class);
+        errorHandler.setRetryListeners(deadLetterCounter(dispatchMetrics));
+        errorHandler.setBackOffFunction(DispatchConfiguration::stockServiceUnavailableBackOff);
+        return errorHandler;
+    }
+
+    private DefaultAfterRollbackProcessor<String, Object> afterRollbackProcessor(KafkaTemplate<String, Object> kafkaTemplate, DispatchMetrics dispatchMetrics) {
+        DefaultAfterRollbackProcessor<String, Object> afterRollbackProcessor = new DefaultAfterRollbackProcessor<>(deadLetterPublishingRecoverer(kafkaTemplate), retryBackOff(), kafkaTemplate, true);
+        afterRollbackProcessor.addRetryableExceptions(RetryableException.class);
+        afterRollbackProcessor.addNotRetryableExceptions(NotRetryableException.class);
+        afterRollbackProcessor.setRetryListeners(deadLetterCounter(dispatchMetrics));
+        afterRollbackProcessor.setBackOffFunction(DispatchConfiguration::stockServiceUnavailableBackOff);
+        return afterRollbackProcessor;
+    }
+
+    /**
+     * A record that failed because the stock service circuit breaker or concurrency limiter turned it away is retried
+     * after the time given, for as long as it is turned away, so that it is not dead lettered while the stock service is
+     * being protected.  The retry state is reset when the record fails with a different exception, so a genuine failure
+     * still gets the full retry back off.  The interval is never below StockServiceUnavailableException.MIN_RETRY_AFTER,
+     * so a breaker with its trial call in flight does not turn the retries into a busy loop.  Returns null, for the retry
+     * back off, for any other failure.
+     */
+    static BackOff stockServiceUnavailableBackOff(ConsumerRecord<?, ?> record, Exception exception) {
+        for (Throwable cause = exception; cause != null; cause = cause.getCause()) {
+            if (cause instanceof StockServiceUnavailableException unavailable) {
+                return new FixedBackOff(unavailable.getRetryAfter().toMillis(), FixedBackOff.UNLIMITED_ATTEMPTS);
+            }
+        }
+        return null;
+    }
+
+    private RetryListener deadLetterCounter(DispatchMetrics dispatchMetrics) {
+        return new RetryListener() {
+            @Override
+            public void failedDelivery(ConsumerRecord<?, ?> record, Exception ex, int deliveryAttempt) {
+            }
+
+            @Override
+            public void recovered(ConsumerRecord<?, ?> record, Exception ex) {
+                dispatchMetrics.count(Outcome.DEAD_LETTERED);
+            }
+        };
+    }
+
+    @Bean
+    public DeadLetterPublishingRecoverer deadLetterPublishingRecoverer(KafkaTemplate<String, Object> kafkaTemplate) {
+        return new DeadLetterPublishingRecoverer(kafkaTemplate);
+    }
+
+    @Bean
+    public BackOff retryBackOff() {
+        return new FixedBackOff(100L, 3L);
+    }
+
+    /**
+     * The Kafka client metrics, including the consumer lag (kafka.consumer.fetch.manager.records.lag.max), are bound to
+     * the meter registry.  The JsonDeserializer default type also applies to JSON events read in the binary format.
+     *
+     * With dispatch.consumer.adaptive.enabled each poll is limited to the records that can be processed in the target
+     * cycle time, at the measured rate, so that a slow stock service does not push the poll cycle past the poll interval.
+     */
+    @Bean
+    public ConsumerFactory<String, Object> consumerFactory(@Value("${kafka.bootstrap-servers}") String bootstrapServers, MeterRegistry meterRegistry,
+                                                           @Value("${dispatch.transactions.enabled}") boolean transactional,
+                                                           @Value("${dispatch.serialization.format}") MessageFormat messageFormat,
+                                                           @Value("${dispatch.consumer.profile}") ConsumerProfile consumerProfile,
+                                                           @Value("${dispatch.consumer.maxPollInterval}") Duration maxPollInterval,
+                                                           @Value("${dispatch.consumer.adaptive.enabled}") boolean adaptive,
+                                                           @Value("${dispatch.consumer.adaptive.targetCycleTime}") Duration targetCycleTime) {
+        if (adaptive && targetCycleTime.compareTo(maxPollInterval) >= 0) {
+            throw new IllegalStateException("The adaptive poll target cycle time must be less than the max poll interval");
+        }
+        Map<String, Object> config = new HashMap<>(consumerProfile.consumerConfig());
         config.put(ConsumerConfig.BOOTSTRAP_SERVERS_CONFIG, bootstrapServers);
+        config.put(ConsumerConfig.MAX_POLL_INTERVAL_MS_CONFIG, (int) maxPollInterval.toMillis());
+        if (transactional) {
+            config.put(ConsumerConfig.ISOLATION_LEVEL_CONFIG, "read_committed");
+        }
         config.put(ConsumerConfig.VALUE_DESERIALIZER_CLASS_CONFIG, ErrorHandlingDeserializer.class);
-        config.put(ErrorHandlingDeserializer.VALUE_DESERIALIZER_CLASS, JsonDeserializer.class);
+        config.put(ErrorHandlingDeserializer.VALUE_DESERIALIZER_CLASS, messageFormat.getDeserializer());
         config.put(JsonDeserializer.VALUE_DEFAULT_TYPE, OrderCreated.class.getCanonicalName());
         config.put(ConsumerConfig.KEY_DESERIALIZER_CLASS_CONFIG, StringDeserializer.class);
-        return new DefaultKafkaConsumerFactory<>(config);
+        DefaultKafkaConsumerFactory<String, Object> consumerFactory = adaptive
+                ? new AdaptivePollConsumerFactory<>(config, targetCycleTime)
+                : new DefaultKafkaConsumerFactory<>(config);
+        consumerFactory.addListener(new MicrometerConsumerListener<>(meterRegistry));
+        return consumerFactory;
     }
 
     @Bean
@@ -59,17 +297,166 @@ public class DispatchConfiguration {
         return new KafkaTemplate<>(producerFactory);
     }
 
+    /**
+     * With dispatch.transactions.enabled the producers are transactional, so every send must be made in a transaction.
+     * The listener containers start one for each record or batch.  The batching and compression settings come from the
+     * dispatch.producer.profile.
+     */
     @Bean
-    public ProducerFactory<String, Object> producerFactory(@Value("${kafka.bootstrap-servers}") String bootstrapServers) {
-        Map<String, Object> config = new HashMap<>();
+    public ProducerFactory<String, Object> producerFactory(@Value("${kafka.bootstrap-servers}") String bootstrapServers, MeterRegistry meterRegistry,
+                                                           @Value("${dispatch.transactions.enabled}") boolean transactional,
+                                                           @Value("${dispatch.transactions.idPrefix}") String transactionIdPrefix,
+                                                           @Value("${dispatch.serialization.format}") MessageFormat messageFormat,
+                                                           @Value("${dispatch.producer.profile}") ProducerProfile producerProfile) {
+        Map<String, Object> config = new HashMap<>(producerProfile.producerConfig());
         config.put(ProducerConfig.BOOTSTRAP_SERVERS_CONFIG, bootstrapServers);
-        config.put(ProducerConfig.VALUE_SERIALIZER_CLASS_CONFIG, JsonSerializer.class);
+        config.put(ProducerConfig.VALUE_SERIALIZER_CLASS_CONFIG, messageFormat.getSerializer());
         config.put(ProducerConfig.KEY_SERIALIZER_CLASS_CONFIG, StringSerializer.class);
-        return new DefaultKafkaProducerFactory<>(config);
+        DefaultKafkaProducerFactory<String, Object> producerFactory = new DefaultKafkaProducerFactory<>(config);
+        producerFactory.addListener(new MicrometerProducerListener<>(meterRegistry));
+        if (transactional) {
+            producerFactory.setTransactionIdPrefix(transactionIdPrefix);
+        }
+        return producerFactory;
+    }
+
+    @Bean
+    @ConditionalOnProperty(name = "dispatch.transactions.enabled", havingValue = "true")
+    public KafkaTransactionManager<String, Object> kafkaTransactionManager(ProducerFactory<String, Object> producerFactory) {
+        return new KafkaTransactionManager<>(producerFactory);
+    }
+
+    /**
+     * Pooled connections to the stock service.  All requests go to the same route, so the per-route limit is normally
+     * the one that applies.
+     */
+    @Bean
+    public PoolingHttpClientConnectionManager stockServiceConnectionManager(@Value("${dispatch.stock.maxConnections}") int maxConnections,
+                                                                            @Value("${dispatch.stock.maxConnectionsPerRoute}") int maxConnectionsPerRoute,
+                                                                            @Value("${dispatch.stock.readTimeout}") Duration readTimeout) {
+        return PoolingHttpClientConnectionManagerBuilder.create()
+                .setMaxConnTotal(maxConnections)
+                .setMaxConnPerRoute(maxConnectionsPerRoute)
+                .setDefaultSocketConfig(SocketConfig.custom().setSoTimeout(Timeout.ofMilliseconds(readTimeout.toMillis())).build())
+                .build();
+    }
+
+    /**
+     * The timeouts bound how long a listener thread can be held by a slow stock service, keeping it well inside
+     * max.poll.interval.ms.  Timeouts surface as a ResourceAccessException, so they are retryable.
+     */
+    @Bean(destroyMethod = "close")
+    public CloseableHttpClient stockServiceHttpClient(PoolingHttpClientConnectionManager stockServiceConnectionManager,
+                                                      @Value("${dispatch.stock.connectTimeout}") Duration connectTimeout,
+                                                      @Value("${dispatch.stock.readTimeout}") Duration readTimeout,
+                                                      @Value("${dispatch.stock.connectionRequestTimeout}") Duration connectionRequestTimeout,
+                                                      @Value("${dispatch.stock.keepAlive}") Duration keepAlive,
+                                                      @Value("${dispatch.stock.idleEviction}") Duration idleEviction) {
+        RequestConfig requestConfig = RequestConfig.custom()
+                .setConnectTimeout(Timeout.ofMilliseconds(connectTimeout.toMillis()))
+                .setResponseTimeout(Timeout.ofMilliseconds(readTimeout.toMillis()))
+                .setConnectionRequestTimeout(Timeout.ofMilliseconds(connectionRequestTimeout.toMillis()))
+                .build();
+        return HttpClients.custom()
+                .setConnectionManager(stockServiceConnectionManager)
+                .setDefaultRequestConfig(requestConfig)
+                .setKeepAliveStrategy((response, context) -> TimeValue.ofMilliseconds(keepAlive.toMillis()))
+                .evictExpiredConnections()
+                .evictIdleConnections(TimeValue.ofMilliseconds(idleEviction.toMillis()))
+                .build();
+    }
+
+    /**
+     * Non-blocking client used by StockServiceClient.checkAvailabilityAsync.  The read timeout is applied per request.
+     */
+    @Bean
+    public HttpClient stockServiceAsyncHttpClient(@Value("${dispatch.stock.connectTimeout}") Duration connectTimeout) {
+        return HttpClient.newBuilder()
+                .connectTimeout(connectTimeout)
+                .build();
+    }
+
+    @Bean
+    @ConditionalOnProperty(name = "dispatch.stock.cache.enabled", havingValue = "true")
+    public MeterBinder stockAvailabilityCacheMetrics(StockAvailabilityCache availabilityCache) {
+        return registry -> {
+            FunctionCounter.builder("dispatch.stock.cache.hits", availabilityCache, StockAvailabilityCache::getHitCount)
+                    .description("Stock availability lookups answered from the cache")
+                    .register(registry);
+            FunctionCounter.builder("dispatch.stock.cache.misses", availabilityCache, StockAvailabilityCache::getMissCount)
+                    .description("Stock availability lookups not in the cache")
+                    .register(registry);
+            FunctionCounter.builder("dispatch.stock.cache.evictions", availabilityCache, StockAvailabilityCache::getEvictionCount)
+                    .description("Stock availability cache entries evicted for size or expiry")
+                    .register(registry);
+        };
+    }
+
+    @Bean
+    public MeterBinder stockServiceConnectionPoolMetrics(PoolingHttpClientConnectionManager stockServiceConnectionManager) {
+        return registry -> {
+            Gauge.builder("dispatch.stock.pool.leased", stockServiceConnectionManager, connectionManager -> connectionManager.getTotalStats().getLeased())
+                    .description("Stock service connections in use")
+                    .register(registry);
+            Gauge.builder("dispatch.stock.pool.pending", stockServiceConnectionManager, connectionManager -> connectionManager.getTotalStats().getPending())
+                    .description("Requests waiting for a stock service connection")
+                    .register(registry);
+            Gauge.builder("dispatch.stock.pool.available", stockServiceConnectionManager, connectionManager -> connectionManager.getTotalStats().getAvailable())
+                    .description("Idle stock service connections")
+                    .register(registry);
+            Gauge.builder("dispatch.stock.pool.max", stockServiceConnectionManager, connectionManager -> connectionManager.getTotalStats().getMax())
+                    .description("Maximum stock service connections")
+                    .register(registry);
+        };
+    }
+
+    @Bean
+    public MeterBinder stockServiceProtectionMetrics(StockServiceCircuitBreaker circuitBreaker, StockServiceConcurrencyLimiter concurrencyLimiter) {
+        return registry -> {
+            if (circuitBreaker.isEnabled()) {
+                Gauge.builder("dispatch.stock.breaker.open", circuitBreaker, breaker -> breaker.getState() == StockServiceCircuitBreaker.State.CLOSED ? 0 : 1)
+                        .description("Whether the stock service circuit breaker is open or half open")
+                        .register(registry);
+            }
+            if (concurrencyLimiter.isEnabled()) {
+                Gauge.builder("dispatch.stock.limiter.limit", concurrencyLimiter, StockServiceConcurrencyLimiter::getLimit)
+                        .description("Stock service calls allowed in flight")
+                        .register(registry);
+                Gauge.builder("dispatch.stock.limiter.in.flight", concurrencyLimiter, StockServiceConcurrencyLimiter::getInFlight)
+                        .description("Stock service calls in flight")
+                        .register(registry);
+            }
+        };
+    }
+
+    @Bean
+    @ConditionalOnProperty(name = "dispatch.stock.table.enabled", havingValue = "true")
+    public MeterBinder stockAvailabilityTableMetrics(StockAvailabilityTable availabilityTable) {
+        return registry -> {
+            Gauge.builder("dispatch.stock.table.size", availabilityTable, StockAvailabilityTable::size)
+                    .description("Items in the stock availability table")
+                    .register(registry);
+            Gauge.builder("dispatch.stock.table.current", availabilityTable, table -> table.isCurrent() ? 1 : 0)
+                    .description("Whether the stock availability table is caught up with its topic within the max lag")
+                    .register(registry);
+        };
+    }
+
+    @Bean
+    @ConditionalOnProperty(name = "dispatch.backpressure.enabled", havingValue = "true")
+    public MeterBinder backPressureMetrics(BackPressureController backPressureController) {
+        return registry -> {
+            Gauge.builder("dispatch.backpressure.pressure", backPressureController, BackPressureController::getPressure)
+                    .description("Highest back-pressure at the last sample, from 0 to 1")
+                    .register(registry);
+            Gauge.builder("dispatch.backpressure.paused.partitions", backPressureController, BackPressureController::getPausedPartitions)
+                    .description("Order partitions paused for back-pressure")
+                    .register(registry);
+        };
     }
 
     @Bean
-    public RestTemplate restTemplate() {
-        return new RestTemplate();
+    public RestTemplate restTemplate(CloseableHttpClient stockServiceHttpClient) {
+        return new RestTemplate(new HttpComponentsClientHttpRequestFactory(stockServiceHttpClient));
     }
 }
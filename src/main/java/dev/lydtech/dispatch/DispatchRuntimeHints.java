@@ -0,0 +1,33 @@
+package dev.lydtech.dispatch;
+
+import dev.lydtech.dispatch.message.DispatchCompleted;
+import dev.lydtech.dispatch.message.DispatchPreparing;
+import dev.lydtech.dispatch.message.OrderCreated;
+import dev.lydtech.dispatch.message.OrderDispatched;
+import dev.lydtech.dispatch.serialization.MessageFormat;
+import org.springframework.aot.hint.BindingReflectionHintsRegistrar;
+import org.springframework.aot.hint.MemberCategory;
+import org.springframework.aot.hint.RuntimeHints;
+import org.springframework.aot.hint.RuntimeHintsRegistrar;
+
+/**
+ * The reflection that a native image cannot see from the bean definitions, used by the native profile.
+ *
+ * The message classes are bound by Jackson through their Lombok generated constructors, getters and setters.  Only
+ * OrderCreated is known from the listener methods; the outbound events are only ever passed to the KafkaTemplate as
+ * Objects.  The value serializers and deserializers of each MessageFormat are named in the producer and consumer config,
+ * and created by Kafka by reflection.  The Spring Kafka and Kafka serializers have hints of their own.
+ */
+public class DispatchRuntimeHints implements RuntimeHintsRegistrar {
+
+    private static final Class<?>[] MESSAGE_CLASSES = {OrderCreated.class, DispatchPreparing.class, OrderDispatched.class, DispatchCompleted.class};
+
+    @Override
+    public void registerHints(RuntimeHints hints, ClassLoader classLoader) {
+        new BindingReflectionHintsRegistrar().registerReflectionHints(hints.reflection(), MESSAGE_CLASSES);
+        for (MessageFormat messageFormat : MessageFormat.values()) {
+            hints.reflection().registerType(messageFormat.getSerializer(), MemberCategory.INVOKE_PUBLIC_CONSTRUCTORS);
+            hints.reflection().registerType(messageFormat.getDeserializer(), MemberCategory.INVOKE_PUBLIC_CONSTRUCTORS);
+        }
+    }
+}
@@ -0,0 +1,53 @@
+package dev.lydtech.dispatch;
+
+import java.util.Map;
+
+import org.apache.kafka.clients.producer.ProducerConfig;
+
+/**
+ * The producer tunings selected by dispatch.producer.profile.
+ *
+ * Every profile keeps acks=all with the idempotent producer, so that the outbound events are durable, per-key ordering
+ * is kept across retries with several requests in flight, and transactions can be enabled.  The profiles differ in how
+ * long records wait to fill a batch and how the batches are compressed.
+ */
+public enum ProducerProfile {
+
+    /**
+     * The client defaults: each record is sent as soon as the sender thread is free, uncompressed.  Lowest latency for
+     * the one event at a time sends of record mode.
+     */
+    LOW_LATENCY(0, 16384, "none"),
+
+    /**
+     * Waits up to 5ms to fill a batch, with lz4 for its low CPU cost.  Suited to pipelined sends and batch mode.
+     */
+    BALANCED(5, 65536, "lz4"),
+
+    /**
+     * Waits up to 20ms for large zstd compressed batches, trading latency for fewer, smaller requests to the brokers.
+     */
+    HIGH_THROUGHPUT(20, 262144, "zstd");
+
+    private final int lingerMs;
+
+    private final int batchSize;
+
+    private final String compressionType;
+
+    ProducerProfile(int lingerMs, int batchSize, String compressionType) {
+        this.lingerMs = lingerMs;
+        this.batchSize = batchSize;
+        this.compressionType = compressionType;
+    }
+
+    public Map<String, Object> producerConfig() {
+        return Map.of(
+                ProducerConfig.LINGER_MS_CONFIG, lingerMs,
+                ProducerConfig.BATCH_SIZE_CONFIG, batchSize,
+                ProducerConfig.COMPRESSION_TYPE_CONFIG, compressionType,
+                ProducerConfig.ACKS_CONFIG, "all",
+                ProducerConfig.ENABLE_IDEMPOTENCE_CONFIG, true,
+                ProducerConfig.MAX_IN_FLIGHT_REQUESTS_PER_CONNECTION, 5);
+    }
+}
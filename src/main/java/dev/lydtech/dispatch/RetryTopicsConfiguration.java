@@ -0,0 +1,143 @@
+package dev.lydtech.dispatch;
+
+import java.time.Duration;
+import java.util.function.Consumer;
+
+import dev.lydtech.dispatch.exception.RetryableException;
+import dev.lydtech.dispatch.exception.StockServiceUnavailableException;
+import dev.lydtech.dispatch.metrics.DispatchMetrics;
+import dev.lydtech.dispatch.metrics.DispatchMetrics.Outcome;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.kafka.listener.RetryListener;
+import org.springframework.kafka.retrytopic.DeadLetterPublishingRecovererFactory;
+import org.springframework.kafka.retrytopic.RetryTopicConfiguration;
+import org.springframework.kafka.retrytopic.RetryTopicConfigurationBuilder;
+import org.springframework.kafka.retrytopic.RetryTopicConfigurationSupport;
+import org.springframework.kafka.retrytopic.RetryTopicSchedulerWrapper;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskScheduler;
+
+/**
+ * Non-blocking retries for the record listener, enabled with dispatch.retry.topics.enabled.
+ *
+ * An order that fails with a RetryableException is forwarded to order.created-retry-0, then -retry-1 and so on, with an
+ * exponentially increasing delay before each is consumed.  The delay is applied by pausing the retry topic's partition,
+ * so the consumer of order.created keeps dispatching the healthy orders at full rate.  An order that fails its last
+ * attempt, or that fails with any other exception, is sent to the existing order.created.DLT.
+ *
+ * The retry topics are not created by the application, in the same way as the dead letter topic.  They must have at
+ * least as many partitions as order.created, as a forwarded order keeps its partition.  A forwarded order carries the
+ * order.created partition it came from in its original partition header, which the OrderCreatedHandler looks it up by
+ * in the ProcessedOrderIndex.
+ */
+@Configuration
+@ConditionalOnProperty(name = "dispatch.retry.topics.enabled", havingValue = "true")
+public class RetryTopicsConfiguration extends RetryTopicConfigurationSupport {
+
+    private static final String ORDER_CREATED_TOPIC = "order.created";
+    private static final String RETRY_TOPIC_SUFFIX = "-retry";
+    private static final String DLT_SUFFIX = ".DLT";
+
+    private final DispatchMetrics dispatchMetrics;
+
+    private final int maxAttempts;
+
+    public RetryTopicsConfiguration(DispatchMetrics dispatchMetrics, @Value("${dispatch.retry.topics.maxAttempts}") int maxAttempts,
+                                    @Value("${dispatch.listener.mode}") String listenerMode, @Value("${dispatch.transactions.enabled}") boolean transactional) {
+        if (!"record".equals(listenerMode) || transactional) {
+            throw new IllegalStateException("dispatch.retry.topics.enabled is only supported with dispatch.listener.mode=record, without transactions");
+        }
+        this.dispatchMetrics = dispatchMetrics;
+        this.maxAttempts = maxAttempts;
+    }
+
+    @Bean
+    public RetryTopicConfiguration orderCreatedRetryTopics(KafkaTemplate<String, Object> kafkaTemplate,
+                                                           @Value("${dispatch.retry.topics.initialDelay}") Duration initialDelay,
+                                                           @Value("${dispatch.retry.topics.multiplier}") double multiplier,
+                                                           @Value("${dispatch.retry.topics.maxDelay}") Duration maxDelay) {
+        return RetryTopicConfigurationBuilder.newInstance()
+                .includeTopic(ORDER_CREATED_TOPIC)
+                .maxAttempts(maxAttempts)
+                .exponentialBackoff(initialDelay.toMillis(), multiplier, maxDelay.toMillis())
+                .retryOn(RetryableException.class)
+                .retryTopicSuffix(RETRY_TOPIC_SUFFIX)
+                .suffixTopicsWithIndexValues()
+                .dltSuffix(DLT_SUFFIX)
+                .doNotAutoCreateRetryTopics()
+                .create(kafkaTemplate);
+    }
+
+    /**
+     * The scheduler that wakes the paused retry topic partitions when their delay is up.
+     */
+    @Bean
+    public RetryTopicSchedulerWrapper retryTopicScheduler() {
+        ThreadPoolTaskScheduler taskScheduler = new ThreadPoolTaskScheduler();
+        taskScheduler.setThreadNamePrefix("retry-topic-");
+        taskScheduler.initialize();
+        return new RetryTopicSchedulerWrapper(taskScheduler);
+    }
+
+    /**
+     * The original headers are not appended again on each forward, so that an order keeps those of its order.created
+     * record all the way to the dead letter topic, and the original partition header maps to a single value.
+     */
+    @Override
+    protected Consumer<DeadLetterPublishingRecovererFactory> configureDeadLetterPublishingContainerFactory() {
+        return factory -> factory.setDeadLetterPublishingRecovererCustomizer(recoverer -> recoverer.setAppendOriginalHeaders(false));
+    }
+
+    @Override
+    protected void configureCustomizers(CustomizersConfigurer customizersConfigurer) {
+        customizersConfigurer.customizeErrorHandler(errorHandler -> {
+            errorHandler.setRetryListeners(forwardCounter());
+            // An order turned away by the stock service circuit breaker or concurrency limiter waits in place, rather
+            // than being forwarded to the next retry topic.
+            errorHandler.addRetryableExceptions(StockServiceUnavailableException.class);
+            errorHandler.setBackOffFunction(DispatchConfiguration::stockServiceUnavailableBackOff);
+        });
+    }
+
+    /**
+     * Counts each order forwarded to a retry topic, by the topic it failed on, and each order sent to the dead letter
+     * topic.
+     */
+    private RetryListener forwardCounter() {
+        String lastRetryTopic = maxAttempts > 1 ? ORDER_CREATED_TOPIC + RETRY_TOPIC_SUFFIX + "-" + (maxAttempts - 2) : ORDER_CREATED_TOPIC;
+        return new RetryListener() {
+            @Override
+            public void failedDelivery(ConsumerRecord<?, ?> record, Exception ex, int deliveryAttempt) {
+            }
+
+            @Override
+            public void recovered(ConsumerRecord<?, ?> record, Exception ex) {
+                if (record.topic().endsWith(DLT_SUFFIX)) {
+                    return;
+                }
+                if (isRetryable(ex) && !record.topic().equals(lastRetryTopic)) {
+                    dispatchMetrics.countRetryForwarded(record.topic());
+                } else {
+                    dispatchMetrics.count(Outcome.DEAD_LETTERED);
+                }
+            }
+        };
+    }
+
+    /**
+     * The listener's exception reaches the error handler wrapped in a ListenerExecutionFailedException and a
+     * TimestampedException, so the whole cause chain is checked.
+     */
+    private static boolean isRetryable(Throwable ex) {
+        for (Throwable cause = ex; cause != null; cause = cause.getCause()) {
+            if (cause instanceof RetryableException) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
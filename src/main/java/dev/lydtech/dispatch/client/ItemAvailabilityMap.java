@@ -0,0 +1,187 @@
+package dev.lydtech.dispatch.client;
+
+import java.io.IOException;
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * The entries of the StockAvailabilityTable: a map of item to a primitive long, written by one thread and read by many.
+ *
+ * The items and their entries are held in parallel arrays, an open addressing table with linear probing that is grown
+ * once it is three quarters full.  An item costs its key and two array slots, rather than a map node and a boxed Long
+ * as well.  A removed item's slot is filled by shifting back the items after it, so no tombstones build up.
+ *
+ * Writes take the write lock.  A lookup is first made as an optimistic read, only taking the read lock if a write ran
+ * alongside it.  An optimistic lookup can see a write part way through, so its probe is bounded and its result is
+ * discarded unless the stamp validates.
+ */
+class ItemAvailabilityMap {
+
+    /**
+     * Returned by get for an item that is not in the map.  Not a valid entry, as that would need a record time of about
+     * 146 million years before the epoch.
+     */
+    static final long ABSENT = Long.MIN_VALUE;
+
+    private static final int INITIAL_CAPACITY = 16;
+
+    private final StampedLock lock = new StampedLock();
+
+    /**
+     * Replaced when the table is grown, so that a lookup always reads the keys and entries of the same table.
+     */
+    private Table table = new Table(INITIAL_CAPACITY);
+
+    private volatile int size;
+
+    long get(String item) {
+        long stamp = lock.tryOptimisticRead();
+        if (stamp != 0L) {
+            long entry = table.get(item);
+            if (lock.validate(stamp)) {
+                return entry;
+            }
+        }
+        stamp = lock.readLock();
+        try {
+            return table.get(item);
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    void put(String item, long entry) {
+        long stamp = lock.writeLock();
+        try {
+            int index = table.indexOf(item);
+            if (table.items[index] != null) {
+                table.entries[index] = entry;
+                return;
+            }
+            if ((size + 1) * 4L > table.items.length * 3L) {
+                table = table.grow();
+                index = table.indexOf(item);
+            }
+            table.entries[index] = entry;
+            table.items[index] = item;
+            size++;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    void remove(String item) {
+        long stamp = lock.writeLock();
+        try {
+            if (table.remove(item)) {
+                size--;
+            }
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    int size() {
+        return size;
+    }
+
+    /**
+     * Only called from the writing thread, so the map does not change underneath it.
+     */
+    void forEach(EntryWriter writer) throws IOException {
+        Table current = table;
+        for (int i = 0; i < current.items.length; i++) {
+            if (current.items[i] != null) {
+                writer.write(current.items[i], current.entries[i]);
+            }
+        }
+    }
+
+    @FunctionalInterface
+    interface EntryWriter {
+
+        void write(String item, long entry) throws IOException;
+    }
+
+    private static final class Table {
+
+        private final String[] items;
+
+        private final long[] entries;
+
+        private final int mask;
+
+        Table(int capacity) {
+            this.items = new String[capacity];
+            this.entries = new long[capacity];
+            this.mask = capacity - 1;
+        }
+
+        long get(String item) {
+            int index = hash(item) & mask;
+            for (int probes = 0; probes <= mask; probes++) {
+                String candidate = items[index];
+                if (candidate == null) {
+                    return ABSENT;
+                }
+                if (candidate.equals(item)) {
+                    return entries[index];
+                }
+                index = (index + 1) & mask;
+            }
+            return ABSENT;
+        }
+
+        /**
+         * The slot holding the item, or the empty slot it would be added at.  Only called under the write lock, when the
+         * table always has an empty slot.
+         */
+        int indexOf(String item) {
+            int index = hash(item) & mask;
+            while (items[index] != null && !items[index].equals(item)) {
+                index = (index + 1) & mask;
+            }
+            return index;
+        }
+
+        Table grow() {
+            Table grown = new Table(items.length * 2);
+            for (int i = 0; i < items.length; i++) {
+                if (items[i] != null) {
+                    int index = grown.indexOf(items[i]);
+                    grown.items[index] = items[i];
+                    grown.entries[index] = entries[i];
+                }
+            }
+            return grown;
+        }
+
+        /**
+         * Each item after the removed one in its run is moved back into the gap, unless its home slot lies after the gap,
+         * so that every item stays reachable from its home slot.
+         */
+        boolean remove(String item) {
+            int gap = indexOf(item);
+            if (items[gap] == null) {
+                return false;
+            }
+            int next = (gap + 1) & mask;
+            while (items[next] != null) {
+                int home = hash(items[next]) & mask;
+                if (((next - home) & mask) >= ((next - gap) & mask)) {
+                    items[gap] = items[next];
+                    entries[gap] = entries[next];
+                    gap = next;
+                }
+                next = (next + 1) & mask;
+            }
+            items[gap] = null;
+            entries[gap] = 0L;
+            return true;
+        }
+
+        private static int hash(String item) {
+            int hash = item.hashCode() * 0x9E3779B9;
+            return hash ^ (hash >>> 16);
+        }
+    }
+}
@@ -0,0 +1,90 @@
+package dev.lydtech.dispatch.client;
+
+import java.time.Duration;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * Collects stock availability lookups into micro-batches, so that a single bulk request to the stock service answers the
+ * lookups of many concurrent callers.
+ *
+ * A batch is opened by the first lookup after the previous batch was sent, and is sent when the window has elapsed or
+ * when it holds the maximum number of items, whichever comes first.  Lookups for an item already in the open batch share
+ * its result.  Each caller's future is completed with the availability returned for its item, or with the bulk
+ * request's failure.  An item missing from the response fails with a not-retryable exception.
+ */
+class StockAvailabilityBatcher {
+
+    private final long windowMillis;
+
+    private final int maxItems;
+
+    private final Function<Set<String>, CompletableFuture<Map<String, String>>> bulkLookup;
+
+    private Map<String, CompletableFuture<String>> pending = new LinkedHashMap<>();
+
+    StockAvailabilityBatcher(Duration window, int maxItems, Function<Set<String>, CompletableFuture<Map<String, String>>> bulkLookup) {
+        this.windowMillis = window.toMillis();
+        this.maxItems = maxItems;
+        this.bulkLookup = bulkLookup;
+    }
+
+    CompletableFuture<String> lookup(String item) {
+        Map<String, CompletableFuture<String>> full = null;
+        CompletableFuture<String> result;
+        synchronized (this) {
+            result = pending.get(item);
+            if (result == null) {
+                result = new CompletableFuture<>();
+                pending.put(item, result);
+                if (pending.size() == 1) {
+                    Map<String, CompletableFuture<String>> batch = pending;
+                    CompletableFuture.delayedExecutor(windowMillis, TimeUnit.MILLISECONDS).execute(() -> flush(batch));
+                }
+                if (pending.size() >= maxItems) {
+                    full = pending;
+                    pending = new LinkedHashMap<>();
+                }
+            }
+        }
+        if (full != null) {
+            send(full);
+        }
+        return result;
+    }
+
+    private void flush(Map<String, CompletableFuture<String>> batch) {
+        synchronized (this) {
+            if (pending != batch) {
+                // Already sent on reaching the maximum size.
+                return;
+            }
+            pending = new LinkedHashMap<>();
+        }
+        send(batch);
+    }
+
+    private void send(Map<String, CompletableFuture<String>> batch) {
+        CompletableFuture<Map<String, String>> response;
+        try {
+            response = bulkLookup.apply(Collections.unmodifiableSet(batch.keySet()));
+        } catch (RuntimeException e) {
+            response = CompletableFuture.failedFuture(e);
+        }
+        response.whenComplete((availabilityByItem, error) -> batch.forEach((item, result) -> {
+            if (error != null) {
+                result.completeExceptionally(error instanceof CompletionException && error.getCause() != null ? error.getCause() : error);
+            } else if (availabilityByItem.containsKey(item)) {
+                result.complete(availabilityByItem.get(item));
+            } else {
+                result.completeExceptionally(new RuntimeException("No availability returned for item: " + item));
+            }
+        }));
+    }
+}
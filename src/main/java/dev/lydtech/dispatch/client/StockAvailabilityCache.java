@@ -0,0 +1,96 @@
+package dev.lydtech.dispatch.client;
+
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.Function;
+
+import com.github.benmanes.caffeine.cache.AsyncCache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * In-process cache of stock service responses keyed by item.
+ *
+ * Entries expire a fixed time after they are written, and the least recently used entries are evicted once the maximum
+ * size is reached.  Concurrent lookups for an item that is not cached share a single call to the stock service: the
+ * first caller performs the lookup on its own thread and the others wait for its result.  A failed lookup is not cached,
+ * and every waiting caller receives the original exception or error.
+ */
+@Component
+public class StockAvailabilityCache {
+
+    private final boolean enabled;
+
+    private final AsyncCache<String, String> cache;
+
+    public StockAvailabilityCache(@Value("${dispatch.stock.cache.enabled}") boolean enabled,
+                                  @Value("${dispatch.stock.cache.ttl}") Duration ttl,
+                                  @Value("${dispatch.stock.cache.maxSize}") long maxSize) {
+        this.enabled = enabled;
+        // Housekeeping runs on the calling thread so that evictions are applied as soon as the size limit is exceeded.
+        this.cache = Caffeine.newBuilder()
+                .expireAfterWrite(ttl)
+                .maximumSize(maxSize)
+                .executor(Runnable::run)
+                .recordStats()
+                .buildAsync();
+    }
+
+    public String get(String item, Function<String, String> lookup) {
+        if (!enabled) {
+            return lookup.apply(item);
+        }
+        CompletableFuture<String> lookupResult = new CompletableFuture<>();
+        CompletableFuture<String> cached = cache.get(item, (key, executor) -> lookupResult);
+        if (cached == lookupResult) {
+            // Any failure, errors included, completes the pending entry, so that it is removed rather than left for later
+            // callers to wait on forever.
+            try {
+                lookupResult.complete(lookup.apply(item));
+            } catch (Throwable e) {
+                lookupResult.completeExceptionally(e);
+                throw e;
+            }
+        }
+        return join(cached);
+    }
+
+    /**
+     * Non-blocking variant of get.  The lookup is started by the first caller for an uncached item, and every concurrent
+     * caller for that item receives the same future.
+     */
+    public CompletableFuture<String> getAsync(String item, Function<String, CompletableFuture<String>> lookup) {
+        if (!enabled) {
+            return lookup.apply(item);
+        }
+        return cache.get(item, (key, executor) -> lookup.apply(key));
+    }
+
+    public long getHitCount() {
+        return cache.synchronous().stats().hitCount();
+    }
+
+    public long getMissCount() {
+        return cache.synchronous().stats().missCount();
+    }
+
+    public long getEvictionCount() {
+        return cache.synchronous().stats().evictionCount();
+    }
+
+    private String join(CompletableFuture<String> cached) {
+        try {
+            return cached.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+            if (e.getCause() instanceof Error cause) {
+                throw cause;
+            }
+            throw e;
+        }
+    }
+}
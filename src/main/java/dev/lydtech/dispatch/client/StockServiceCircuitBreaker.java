@@ -0,0 +1,172 @@
+package dev.lydtech.dispatch.client;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+import java.util.function.LongSupplier;
+
+import dev.lydtech.dispatch.metrics.DispatchMetrics;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * Stops calls to the stock service while it is failing.
+ *
+ * The breaker opens when failureThreshold calls in a row fail with a retryable error, and rejects every call until
+ * openDuration has passed.  The next call is then let through as a trial, with any others rejected while it is in
+ * flight.  The breaker closes if the trial succeeds, and opens again if it fails.  A not-retryable error, such as a 4xx
+ * response, shows the stock service is up, so it counts as a success.  A call rejected while the trial is in flight is
+ * retried after trialRetryInterval, rather than straight away.
+ *
+ * Each state change is counted in dispatch.stock.breaker.transitions, and passed to the state listeners.
+ */
+@Slf4j
+@Component
+public class StockServiceCircuitBreaker {
+
+    public enum State {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    private final boolean enabled;
+
+    private final int failureThreshold;
+
+    private final long openDurationNanos;
+
+    private final Duration trialRetryInterval;
+
+    private final DispatchMetrics dispatchMetrics;
+
+    private final LongSupplier nanoClock;
+
+    private final List<Consumer<State>> stateListeners = new CopyOnWriteArrayList<>();
+
+    private State state = State.CLOSED;
+
+    private int consecutiveFailures;
+
+    private long openedAtNanos;
+
+    private boolean trialInFlight;
+
+    @Autowired
+    public StockServiceCircuitBreaker(@Value("${dispatch.stock.breaker.enabled}") boolean enabled,
+                                      @Value("${dispatch.stock.breaker.failureThreshold}") int failureThreshold,
+                                      @Value("${dispatch.stock.breaker.openDuration}") Duration openDuration,
+                                      @Value("${dispatch.stock.breaker.trialRetryInterval}") Duration trialRetryInterval,
+                                      DispatchMetrics dispatchMetrics) {
+        this(enabled, failureThreshold, openDuration, trialRetryInterval, dispatchMetrics, System::nanoTime);
+    }
+
+    StockServiceCircuitBreaker(boolean enabled, int failureThreshold, Duration openDuration, Duration trialRetryInterval, DispatchMetrics dispatchMetrics,
+                               LongSupplier nanoClock) {
+        if (trialRetryInterval.isNegative() || trialRetryInterval.isZero()) {
+            throw new IllegalArgumentException("The circuit breaker trial retry interval must be positive, got " + trialRetryInterval);
+        }
+        this.enabled = enabled;
+        this.failureThreshold = failureThreshold;
+        this.openDurationNanos = openDuration.toNanos();
+        this.trialRetryInterval = trialRetryInterval;
+        this.dispatchMetrics = dispatchMetrics;
+        this.nanoClock = nanoClock;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Whether the call may be made.  A permitted call must be followed by onSuccess or onFailure.
+     */
+    public boolean tryAcquirePermission() {
+        if (!enabled) {
+            return true;
+        }
+        State changed = null;
+        synchronized (this) {
+            if (state == State.OPEN) {
+                if (nanoClock.getAsLong() - openedAtNanos < openDurationNanos) {
+                    return false;
+                }
+                state = changed = State.HALF_OPEN;
+            }
+            if (state == State.HALF_OPEN) {
+                if (trialInFlight) {
+                    return false;
+                }
+                trialInFlight = true;
+            }
+        }
+        transitioned(changed);
+        return true;
+    }
+
+    public void onSuccess() {
+        if (!enabled) {
+            return;
+        }
+        State changed = null;
+        synchronized (this) {
+            consecutiveFailures = 0;
+            if (state == State.HALF_OPEN) {
+                trialInFlight = false;
+                state = changed = State.CLOSED;
+            }
+        }
+        transitioned(changed);
+    }
+
+    public void onFailure() {
+        if (!enabled) {
+            return;
+        }
+        State changed = null;
+        synchronized (this) {
+            consecutiveFailures++;
+            if (state == State.HALF_OPEN || (state == State.CLOSED && consecutiveFailures >= failureThreshold)) {
+                trialInFlight = false;
+                openedAtNanos = nanoClock.getAsLong();
+                state = changed = State.OPEN;
+            }
+        }
+        transitioned(changed);
+    }
+
+    public synchronized State getState() {
+        return state;
+    }
+
+    /**
+     * The time until the breaker lets a trial call through, the trial retry interval while a trial call is in flight, or
+     * zero if it is closed.
+     */
+    public synchronized Duration getRetryAfter() {
+        if (state == State.CLOSED) {
+            return Duration.ZERO;
+        }
+        if (state == State.HALF_OPEN) {
+            return trialRetryInterval;
+        }
+        return Duration.ofNanos(Math.max(0, openDurationNanos - (nanoClock.getAsLong() - openedAtNanos)));
+    }
+
+    /**
+     * The listener is called on the thread that made the change, outside of the breaker's lock.
+     */
+    public void addStateListener(Consumer<State> listener) {
+        stateListeners.add(listener);
+    }
+
+    private void transitioned(State changed) {
+        if (changed == null) {
+            return;
+        }
+        log.warn("Stock service circuit breaker {}", changed);
+        dispatchMetrics.countBreakerTransition(changed.name().toLowerCase());
+        stateListeners.forEach(listener -> listener.accept(changed));
+    }
+}
@@ -1,47 +1,297 @@
 package dev.lydtech.dispatch.client;
 
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.Supplier;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import dev.lydtech.dispatch.exception.RetryableException;
+import dev.lydtech.dispatch.exception.StockServiceUnavailableException;
+import dev.lydtech.dispatch.metrics.DispatchMetrics;
+import io.micrometer.core.instrument.Timer;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatusCode;
 import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Component;
+import org.springframework.web.client.HttpClientErrorException;
 import org.springframework.web.client.HttpServerErrorException;
 import org.springframework.web.client.ResourceAccessException;
 import org.springframework.web.client.RestTemplate;
+import org.springframework.web.util.UriComponentsBuilder;
 
 @Slf4j
 @Component
 public class StockServiceClient {
 
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+
+    /**
+     * How soon a call rejected by the concurrency limiter is retried.
+     */
+    private static final Duration LIMITED_RETRY_AFTER = Duration.ofMillis(20);
+
     private final RestTemplate restTemplate;
 
+    private final HttpClient asyncHttpClient;
+
+    private final StockAvailabilityCache availabilityCache;
+
+    private final StockAvailabilityTable availabilityTable;
+
+    private final DispatchMetrics dispatchMetrics;
+
     private final String stockServiceEndpoint;
 
-    public StockServiceClient(@Autowired RestTemplate restTemplate, @Value("${dispatch.stockServiceEndpoint}") String stockServiceEndpoint) {
+    private final Duration readTimeout;
+
+    private final StockAvailabilityBatcher bulkBatcher;
+
+    private final StockServiceCircuitBreaker circuitBreaker;
+
+    private final StockServiceConcurrencyLimiter concurrencyLimiter;
+
+    public StockServiceClient(@Autowired RestTemplate restTemplate, @Autowired HttpClient asyncHttpClient, @Autowired StockAvailabilityCache availabilityCache,
+                              @Autowired StockAvailabilityTable availabilityTable, @Autowired DispatchMetrics dispatchMetrics,
+                              @Autowired StockServiceCircuitBreaker circuitBreaker, @Autowired StockServiceConcurrencyLimiter concurrencyLimiter,
+                              @Value("${dispatch.stockServiceEndpoint}") String stockServiceEndpoint, @Value("${dispatch.stock.readTimeout}") Duration readTimeout,
+                              @Value("${dispatch.stock.bulk.enabled}") boolean bulkEnabled, @Value("${dispatch.stock.bulk.window}") Duration bulkWindow,
+                              @Value("${dispatch.stock.bulk.maxItems}") int bulkMaxItems) {
         this.restTemplate = restTemplate;
+        this.asyncHttpClient = asyncHttpClient;
+        this.availabilityCache = availabilityCache;
+        this.availabilityTable = availabilityTable;
+        this.dispatchMetrics = dispatchMetrics;
+        this.circuitBreaker = circuitBreaker;
+        this.concurrencyLimiter = concurrencyLimiter;
         this.stockServiceEndpoint = stockServiceEndpoint;
+        this.readTimeout = readTimeout;
+        this.bulkBatcher = bulkEnabled ? new StockAvailabilityBatcher(bulkWindow, bulkMaxItems, items -> guardedAsync(() -> callStockServiceBulk(items))) : null;
     }
 
     /**
      * The stock service returns true if item is available, false otherwise.
+     *
+     * When the availability table is enabled, and holds a current entry for the item, that is returned without calling
+     * the stock service.
+     *
+     * When the availability cache is enabled a cached response is returned if present, otherwise the stock service is
+     * called with any concurrent lookups for the same item sharing the call.
+     *
+     * When bulk lookups are enabled the item is looked up with any others requested within the batching window, in a
+     * single request to the stock service's bulk endpoint.
+     *
+     * Each request to the stock service is subject to the circuit breaker and the concurrency limiter, when enabled.  A
+     * request that either rejects is not made, and a StockServiceUnavailableException is thrown.
      */
     public String checkAvailability(String item) {
+        String availability = availabilityTable.lookup(item);
+        if (availability != null) {
+            return availability;
+        }
+        return availabilityCache.get(item, bulkBatcher != null ? this::lookupInBulk : lookupItem -> guarded(() -> callStockService(lookupItem)));
+    }
+
+    /**
+     * Non-blocking variant of checkAvailability.  Failures complete the future exceptionally with the same exceptions the
+     * blocking call throws: a RetryableException for a 5xx response or an I/O failure, a StockServiceUnavailableException
+     * if the request was not made, otherwise a not-retryable exception.
+     */
+    public CompletableFuture<Boolean> checkAvailabilityAsync(String item) {
+        String availability = availabilityTable.lookup(item);
+        if (availability != null) {
+            return CompletableFuture.completedFuture(Boolean.valueOf(availability));
+        }
+        return availabilityCache.getAsync(item, bulkBatcher != null ? bulkBatcher::lookup : lookupItem -> guardedAsync(() -> callStockServiceAsync(lookupItem)))
+                .thenApply(Boolean::valueOf);
+    }
+
+    private String lookupInBulk(String item) {
+        try {
+            return bulkBatcher.lookup(item).join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+            throw e;
+        }
+    }
+
+    private <T> T guarded(Supplier<T> call) {
+        acquirePermit();
+        long startNanos = System.nanoTime();
+        try {
+            T result = call.get();
+            releasePermit(startNanos, null);
+            return result;
+        } catch (RuntimeException e) {
+            releasePermit(startNanos, e);
+            throw e;
+        }
+    }
+
+    private <T> CompletableFuture<T> guardedAsync(Supplier<CompletableFuture<T>> call) {
+        try {
+            acquirePermit();
+        } catch (StockServiceUnavailableException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+        long startNanos = System.nanoTime();
+        CompletableFuture<T> result;
+        try {
+            result = call.get();
+        } catch (RuntimeException e) {
+            releasePermit(startNanos, e);
+            throw e;
+        }
+        return result.whenComplete((value, error) -> releasePermit(startNanos, error instanceof CompletionException && error.getCause() != null ? error.getCause() : error));
+    }
+
+    /**
+     * The limiter is checked first, so that a trial call let through by a half open breaker is always made.
+     */
+    private void acquirePermit() {
+        if (!concurrencyLimiter.tryAcquire()) {
+            throw new StockServiceUnavailableException("Stock service concurrency limit reached", LIMITED_RETRY_AFTER);
+        }
+        if (!circuitBreaker.tryAcquirePermission()) {
+            concurrencyLimiter.cancel();
+            throw new StockServiceUnavailableException("Stock service circuit breaker is open", circuitBreaker.getRetryAfter());
+        }
+    }
+
+    /**
+     * Only a retryable failure counts against the stock service.  Any other response shows that it is up.
+     */
+    private void releasePermit(long startNanos, Throwable error) {
+        boolean failed = error instanceof RetryableException;
+        concurrencyLimiter.release(startNanos, failed);
+        if (failed) {
+            circuitBreaker.onFailure();
+        } else {
+            circuitBreaker.onSuccess();
+        }
+    }
+
+    private String callStockService(String item) {
+        Timer.Sample sample = dispatchMetrics.startTimer();
         try {
             ResponseEntity<String> response = restTemplate.getForEntity(stockServiceEndpoint+"?item="+item, String.class);
             if (response.getStatusCodeValue() != 200) {
                 throw new RuntimeException("error " + response.getStatusCodeValue());
             }
+            dispatchMetrics.recordStockLookup(sample, "single", null);
             return response.getBody();
         } catch (HttpServerErrorException e) {
+            dispatchMetrics.recordStockLookup(sample, "single", e);
             log.error("Server exception error code: " + e.getRawStatusCode(), e);
             throw new RetryableException(e);
         } catch (ResourceAccessException e) {
+            dispatchMetrics.recordStockLookup(sample, "single", e);
             log.error("Resource access exception.", e);
             throw new RetryableException(e);
         } catch (Exception e) {
+            dispatchMetrics.recordStockLookup(sample, "single", e);
+            log.error("Exception thrown: " + e.getClass().getName(), e);
+            throw e;
+        }
+    }
+
+    private CompletableFuture<String> callStockServiceAsync(String item) {
+        Timer.Sample sample = dispatchMetrics.startTimer();
+        HttpRequest request = HttpRequest.newBuilder(stockServiceUri(item))
+                .timeout(readTimeout)
+                .GET()
+                .build();
+        return asyncHttpClient.sendAsync(request, HttpResponse.BodyHandlers.ofString())
+                .handle((response, error) -> {
+                    if (error != null) {
+                        throw toStockServiceException(error instanceof CompletionException && error.getCause() != null ? error.getCause() : error);
+                    }
+                    return toResponseBody(response);
+                })
+                .whenComplete((availability, error) -> dispatchMetrics.recordStockLookup(sample, "single", error));
+    }
+
+    /**
+     * The bulk endpoint takes the items as a repeated item parameter, and returns a JSON object holding the availability
+     * of each item, for example {"item-1": true, "item-2": false}.
+     */
+    private CompletableFuture<Map<String, String>> callStockServiceBulk(Set<String> items) {
+        Timer.Sample sample = dispatchMetrics.startTimer();
+        URI uri = UriComponentsBuilder.fromUriString(stockServiceEndpoint+"/bulk")
+                .queryParam("item", items.toArray())
+                .encode()
+                .build()
+                .toUri();
+        HttpRequest request = HttpRequest.newBuilder(uri)
+                .timeout(readTimeout)
+                .GET()
+                .build();
+        return asyncHttpClient.sendAsync(request, HttpResponse.BodyHandlers.ofString())
+                .handle((response, error) -> {
+                    if (error != null) {
+                        throw toStockServiceException(error instanceof CompletionException && error.getCause() != null ? error.getCause() : error);
+                    }
+                    return toAvailabilityByItem(toResponseBody(response));
+                })
+                .whenComplete((availabilityByItem, error) -> dispatchMetrics.recordStockLookup(sample, "bulk", error));
+    }
+
+    /**
+     * Builds the same URI that the RestTemplate expands from the endpoint and item.
+     */
+    private URI stockServiceUri(String item) {
+        return UriComponentsBuilder.fromUriString(stockServiceEndpoint+"?item="+item).encode().build().toUri();
+    }
+
+    private String toResponseBody(HttpResponse<String> response) {
+        int statusCode = response.statusCode();
+        if (statusCode >= 500) {
+            HttpServerErrorException e = HttpServerErrorException.create(HttpStatusCode.valueOf(statusCode), "", null, response.body().getBytes(StandardCharsets.UTF_8), StandardCharsets.UTF_8);
+            log.error("Server exception error code: " + statusCode, e);
+            throw new RetryableException(e);
+        }
+        if (statusCode >= 400) {
+            HttpClientErrorException e = HttpClientErrorException.create(HttpStatusCode.valueOf(statusCode), "", null, response.body().getBytes(StandardCharsets.UTF_8), StandardCharsets.UTF_8);
             log.error("Exception thrown: " + e.getClass().getName(), e);
             throw e;
         }
+        if (statusCode != 200) {
+            throw new RuntimeException("error " + statusCode);
+        }
+        return response.body();
+    }
+
+    private Map<String, String> toAvailabilityByItem(String body) {
+        try {
+            Map<String, String> availabilityByItem = new LinkedHashMap<>();
+            OBJECT_MAPPER.readTree(body).fields().forEachRemaining(field -> availabilityByItem.put(field.getKey(), field.getValue().asText()));
+            return availabilityByItem;
+        } catch (JsonProcessingException e) {
+            log.error("Exception thrown: " + e.getClass().getName(), e);
+            throw new RuntimeException("Invalid bulk stock service response", e);
+        }
+    }
+
+    private RuntimeException toStockServiceException(Throwable error) {
+        if (error instanceof IOException e) {
+            log.error("Resource access exception.", e);
+            return new RetryableException(new ResourceAccessException(e.getMessage(), e));
+        }
+        log.error("Exception thrown: " + error.getClass().getName(), error);
+        return error instanceof RuntimeException e ? e : new CompletionException(error);
     }
 }
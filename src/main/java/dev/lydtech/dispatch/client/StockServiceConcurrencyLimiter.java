@@ -0,0 +1,145 @@
+package dev.lydtech.dispatch.client;
+
+import java.time.Duration;
+import java.util.function.LongSupplier;
+
+import dev.lydtech.dispatch.metrics.DispatchMetrics;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * Limits the number of stock service calls in flight, adjusting the limit to the latency observed (AIMD).
+ *
+ * A call that succeeds within the latency threshold raises the limit by 1/limit, so by about one per round trip of calls
+ * at the limit.  The limit is only raised once at least half of it has been in use since it last changed, so that it does
+ * not grow without bound while the load is light.  A call that fails with a retryable error or takes longer than the
+ * threshold cuts the limit by a tenth, at most once for the calls that were in flight at the time, so that a burst of
+ * slow responses to calls made under the old limit only counts once.
+ *
+ * Each change of the whole limit is counted in dispatch.stock.limiter.adjustments, by direction.
+ */
+@Component
+public class StockServiceConcurrencyLimiter {
+
+    private static final double BACKOFF_RATIO = 0.9;
+
+    private final boolean enabled;
+
+    private final int minLimit;
+
+    private final int maxLimit;
+
+    private final long latencyThresholdNanos;
+
+    private final DispatchMetrics dispatchMetrics;
+
+    private final LongSupplier nanoClock;
+
+    private double limit;
+
+    private int inFlight;
+
+    private int peakInFlight;
+
+    private long lastDecreaseNanos;
+
+    @Autowired
+    public StockServiceConcurrencyLimiter(@Value("${dispatch.stock.limiter.enabled}") boolean enabled,
+                                          @Value("${dispatch.stock.limiter.initialLimit}") int initialLimit,
+                                          @Value("${dispatch.stock.limiter.minLimit}") int minLimit,
+                                          @Value("${dispatch.stock.limiter.maxLimit}") int maxLimit,
+                                          @Value("${dispatch.stock.limiter.latencyThreshold}") Duration latencyThreshold,
+                                          DispatchMetrics dispatchMetrics) {
+        this(enabled, initialLimit, minLimit, maxLimit, latencyThreshold, dispatchMetrics, System::nanoTime);
+    }
+
+    StockServiceConcurrencyLimiter(boolean enabled, int initialLimit, int minLimit, int maxLimit, Duration latencyThreshold, DispatchMetrics dispatchMetrics,
+                                   LongSupplier nanoClock) {
+        if (minLimit < 1 || minLimit > initialLimit || initialLimit > maxLimit) {
+            throw new IllegalArgumentException("The stock service concurrency limits must satisfy 1 <= minLimit <= initialLimit <= maxLimit");
+        }
+        this.enabled = enabled;
+        this.limit = initialLimit;
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.latencyThresholdNanos = latencyThreshold.toNanos();
+        this.dispatchMetrics = dispatchMetrics;
+        this.nanoClock = nanoClock;
+        this.lastDecreaseNanos = nanoClock.getAsLong();
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Whether the call may be made.  A permitted call must be followed by release, or by cancel if it is not made.
+     */
+    public boolean tryAcquire() {
+        if (!enabled) {
+            return true;
+        }
+        synchronized (this) {
+            if (inFlight >= (int) limit) {
+                dispatchMetrics.countLimiterRejected();
+                return false;
+            }
+            inFlight++;
+            peakInFlight = Math.max(peakInFlight, inFlight);
+        }
+        return true;
+    }
+
+    /**
+     * Release a permit without adjusting the limit, for a call that was not made.
+     */
+    public void cancel() {
+        if (!enabled) {
+            return;
+        }
+        synchronized (this) {
+            inFlight--;
+        }
+    }
+
+    /**
+     * @param startNanos the System.nanoTime at which the call was made
+     * @param overloaded whether the call failed with a retryable error
+     */
+    public void release(long startNanos, boolean overloaded) {
+        if (!enabled) {
+            return;
+        }
+        long now = nanoClock.getAsLong();
+        int before;
+        int after;
+        synchronized (this) {
+            before = (int) limit;
+            if (overloaded || now - startNanos > latencyThresholdNanos) {
+                if (startNanos - lastDecreaseNanos >= 0) {
+                    limit = Math.max(minLimit, limit * BACKOFF_RATIO);
+                    lastDecreaseNanos = now;
+                }
+            } else if (peakInFlight * 2 >= limit) {
+                limit = Math.min(maxLimit, limit + 1 / limit);
+            }
+            inFlight--;
+            after = (int) limit;
+            if (after != before) {
+                peakInFlight = inFlight;
+            }
+        }
+        if (after != before) {
+            dispatchMetrics.countLimiterAdjustment(after > before ? "increase" : "decrease");
+        }
+    }
+
+    public synchronized int getLimit() {
+        return (int) limit;
+    }
+
+    public synchronized int getInFlight() {
+        return inFlight;
+    }
+}
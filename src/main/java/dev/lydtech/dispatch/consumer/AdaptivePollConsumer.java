@@ -0,0 +1,64 @@
+package dev.lydtech.dispatch.consumer;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.BiConsumer;
+
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.consumer.ConsumerRecords;
+import org.apache.kafka.clients.consumer.KafkaConsumer;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.serialization.Deserializer;
+
+/**
+ * A KafkaConsumer whose polls return at most the current AdaptivePollLimit of records.
+ *
+ * max.poll.records can not be changed on a running consumer, so it is left at the profile's maximum and each poll is cut
+ * down to the limit.  The limit is shared evenly between the partitions in the poll, and each partition that had records
+ * held back is sought back to the first of them, so that they are fetched again by a later poll.  Polls are only cut
+ * down when processing is slow, when the cost of the repeated fetch is small in comparison.
+ */
+class AdaptivePollConsumer<K, V> extends KafkaConsumer<K, V> {
+
+    private final AdaptivePollLimit pollLimit;
+
+    private int lastPollCount;
+
+    private long lastPollReturnedAt;
+
+    AdaptivePollConsumer(Map<String, Object> configs, Deserializer<K> keyDeserializer, Deserializer<V> valueDeserializer, AdaptivePollLimit pollLimit) {
+        super(configs, keyDeserializer, valueDeserializer);
+        this.pollLimit = pollLimit;
+    }
+
+    @Override
+    public ConsumerRecords<K, V> poll(Duration timeout) {
+        if (lastPollCount > 0) {
+            pollLimit.cycleCompleted(lastPollCount, System.nanoTime() - lastPollReturnedAt);
+        }
+        ConsumerRecords<K, V> records = limit(super.poll(timeout), pollLimit.limit(), this::seek);
+        lastPollCount = records.count();
+        lastPollReturnedAt = System.nanoTime();
+        return records;
+    }
+
+    static <K, V> ConsumerRecords<K, V> limit(ConsumerRecords<K, V> records, int limit, BiConsumer<TopicPartition, Long> seek) {
+        if (records.count() <= limit) {
+            return records;
+        }
+        int share = Math.max(1, limit / records.partitions().size());
+        Map<TopicPartition, List<ConsumerRecord<K, V>>> kept = new HashMap<>();
+        for (TopicPartition partition : records.partitions()) {
+            List<ConsumerRecord<K, V>> partitionRecords = records.records(partition);
+            if (partitionRecords.size() <= share) {
+                kept.put(partition, partitionRecords);
+            } else {
+                kept.put(partition, partitionRecords.subList(0, share));
+                seek.accept(partition, partitionRecords.get(share).offset());
+            }
+        }
+        return new ConsumerRecords<>(kept);
+    }
+}
@@ -0,0 +1,30 @@
+package dev.lydtech.dispatch.consumer;
+
+import java.time.Duration;
+import java.util.Map;
+
+import org.apache.kafka.clients.consumer.Consumer;
+import org.apache.kafka.clients.consumer.ConsumerConfig;
+import org.springframework.kafka.core.DefaultKafkaConsumerFactory;
+
+/**
+ * Creates AdaptivePollConsumers, each limiting its polls to the records it can process in the target cycle time, up to
+ * max.poll.records.
+ */
+public class AdaptivePollConsumerFactory<K, V> extends DefaultKafkaConsumerFactory<K, V> {
+
+    private static final int DEFAULT_MAX_POLL_RECORDS = 500;
+
+    private final Duration targetCycleTime;
+
+    public AdaptivePollConsumerFactory(Map<String, Object> configs, Duration targetCycleTime) {
+        super(configs);
+        this.targetCycleTime = targetCycleTime;
+    }
+
+    @Override
+    protected Consumer<K, V> createRawConsumer(Map<String, Object> configProps) {
+        int maxPollRecords = Integer.parseInt(String.valueOf(configProps.getOrDefault(ConsumerConfig.MAX_POLL_RECORDS_CONFIG, DEFAULT_MAX_POLL_RECORDS)));
+        return new AdaptivePollConsumer<>(configProps, getKeyDeserializer(), getValueDeserializer(), new AdaptivePollLimit(maxPollRecords, targetCycleTime));
+    }
+}
@@ -0,0 +1,50 @@
+package dev.lydtech.dispatch.consumer;
+
+import java.time.Duration;
+
+/**
+ * The number of records to hand to the listener from each poll, so that processing them takes about the target cycle
+ * time.
+ *
+ * The time per record is measured over each poll cycle, from the return of one poll to the start of the next.  A slower
+ * cycle is taken at once, so that the limit drops as soon as processing slows down, and a faster one is smoothed, so
+ * that it recovers over several cycles.  Until the first cycle has been measured the limit is kept small, as nothing
+ * is known of the processing time.
+ */
+class AdaptivePollLimit {
+
+    private static final double SMOOTHING = 0.2;
+
+    private static final int INITIAL_LIMIT = 10;
+
+    private final int maxRecords;
+
+    private final long targetCycleNanos;
+
+    private double nanosPerRecord;
+
+    private int limit;
+
+    AdaptivePollLimit(int maxRecords, Duration targetCycleTime) {
+        this.maxRecords = maxRecords;
+        this.targetCycleNanos = targetCycleTime.toNanos();
+        this.limit = Math.min(INITIAL_LIMIT, maxRecords);
+    }
+
+    int limit() {
+        return limit;
+    }
+
+    void cycleCompleted(int records, long elapsedNanos) {
+        if (records == 0) {
+            return;
+        }
+        double sample = (double) elapsedNanos / records;
+        if (nanosPerRecord == 0 || sample > nanosPerRecord) {
+            nanosPerRecord = sample;
+        } else {
+            nanosPerRecord += SMOOTHING * (sample - nanosPerRecord);
+        }
+        limit = (int) Math.max(1, Math.min(maxRecords, targetCycleNanos / Math.max(nanosPerRecord, 1)));
+    }
+}
@@ -0,0 +1,148 @@
+package dev.lydtech.dispatch.dedup;
+
+import java.util.Arrays;
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * A set of order ids in a fixed amount of memory, holding at least the most recent windowSize ids added.
+ *
+ * Each id is held as its two longs in an open addressing table with linear probing, so neither a lookup nor an add
+ * allocates.  Ids are added to the current generation of the set.  When it is full it becomes the previous generation,
+ * and the old previous generation is cleared and reused as the current one, so between windowSize and twice windowSize
+ * ids are held.  The tables are sized so that they are never more than half full.
+ *
+ * Lookups are made by every consumer or dispatch thread for each order, and adds once an order is processed.  Adds take
+ * the write lock, and a lookup is first made as an optimistic read, only taking the read lock if an add ran alongside
+ * it.  An optimistic lookup can see an add or a clear part way through, so its probe is bounded and its result is
+ * discarded unless the stamp validates.
+ */
+class OrderIdSet {
+
+    private final int windowSize;
+
+    private final StampedLock lock = new StampedLock();
+
+    private Generation current;
+
+    private Generation previous;
+
+    OrderIdSet(int windowSize) {
+        this.windowSize = windowSize;
+        this.current = new Generation(windowSize);
+        this.previous = new Generation(windowSize);
+    }
+
+    boolean contains(long mostSignificantBits, long leastSignificantBits) {
+        long stamp = lock.tryOptimisticRead();
+        if (stamp != 0L) {
+            boolean contains = containsUnlocked(mostSignificantBits, leastSignificantBits);
+            if (lock.validate(stamp)) {
+                return contains;
+            }
+        }
+        stamp = lock.readLock();
+        try {
+            return containsUnlocked(mostSignificantBits, leastSignificantBits);
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    void add(long mostSignificantBits, long leastSignificantBits) {
+        long stamp = lock.writeLock();
+        try {
+            if (current.contains(mostSignificantBits, leastSignificantBits)) {
+                return;
+            }
+            if (current.size == windowSize) {
+                Generation cleared = previous;
+                cleared.clear();
+                previous = current;
+                current = cleared;
+            }
+            current.add(mostSignificantBits, leastSignificantBits);
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    private boolean containsUnlocked(long mostSignificantBits, long leastSignificantBits) {
+        return current.contains(mostSignificantBits, leastSignificantBits) || previous.contains(mostSignificantBits, leastSignificantBits);
+    }
+
+    private static final class Generation {
+
+        /**
+         * The two longs of each id in adjacent slots.  An empty entry is two zeros, so the all zero id is flagged
+         * separately.
+         */
+        private final long[] entries;
+
+        private final int mask;
+
+        private int size;
+
+        private boolean containsZero;
+
+        Generation(int windowSize) {
+            int capacity = Integer.highestOneBit(Math.max(windowSize, 1) * 2 - 1) << 1;
+            this.entries = new long[capacity * 2];
+            this.mask = capacity - 1;
+        }
+
+        boolean contains(long mostSignificantBits, long leastSignificantBits) {
+            if (mostSignificantBits == 0L && leastSignificantBits == 0L) {
+                return containsZero;
+            }
+            int index = hash(mostSignificantBits, leastSignificantBits) & mask;
+            for (int probes = 0; probes <= mask; probes++) {
+                long most = entries[index * 2];
+                long least = entries[index * 2 + 1];
+                if (most == mostSignificantBits && least == leastSignificantBits) {
+                    return true;
+                }
+                if (most == 0L && least == 0L) {
+                    return false;
+                }
+                index = (index + 1) & mask;
+            }
+            return false;
+        }
+
+        void add(long mostSignificantBits, long leastSignificantBits) {
+            if (mostSignificantBits == 0L && leastSignificantBits == 0L) {
+                if (!containsZero) {
+                    containsZero = true;
+                    size++;
+                }
+                return;
+            }
+            int index = hash(mostSignificantBits, leastSignificantBits) & mask;
+            while (true) {
+                long most = entries[index * 2];
+                long least = entries[index * 2 + 1];
+                if (most == mostSignificantBits && least == leastSignificantBits) {
+                    return;
+                }
+                if (most == 0L && least == 0L) {
+                    entries[index * 2] = mostSignificantBits;
+                    entries[index * 2 + 1] = leastSignificantBits;
+                    size++;
+                    return;
+                }
+                index = (index + 1) & mask;
+            }
+        }
+
+        void clear() {
+            Arrays.fill(entries, 0L);
+            size = 0;
+            containsZero = false;
+        }
+
+        private static int hash(long mostSignificantBits, long leastSignificantBits) {
+            long hash = (mostSignificantBits ^ Long.rotateLeft(leastSignificantBits, 32)) * 0x9E3779B97F4A7C15L;
+            return (int) (hash ^ (hash >>> 32));
+        }
+    }
+}
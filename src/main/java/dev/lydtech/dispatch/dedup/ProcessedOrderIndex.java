@@ -0,0 +1,107 @@
+package dev.lydtech.dispatch.dedup;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.UUID;
+
+import org.apache.kafka.clients.consumer.Consumer;
+import org.apache.kafka.common.TopicPartition;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.kafka.listener.ConsumerAwareRebalanceListener;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+/**
+ * The ids of the orders recently processed from each assigned order.created partition, so that a redelivered or
+ * duplicated OrderCreated event is not dispatched again.
+ *
+ * Each partition has an OrderIdSet holding at least the last dispatch.dedup.windowSize order ids processed from it.  The
+ * set is created when the partition is assigned and dropped when it is revoked or lost, as another consumer may process
+ * the partition in the meantime.  Redeliveries within an assignment, from retries and from upstream duplicates, are
+ * caught, but not those to a different consumer after a rebalance; transactions cover those.
+ *
+ * When a transaction is active an order is only marked as processed once the transaction commits, so that the orders of
+ * a rolled back transaction are processed again when they are redelivered.
+ */
+@Component
+public class ProcessedOrderIndex implements ConsumerAwareRebalanceListener {
+
+    private static final String ORDER_CREATED_TOPIC = "order.created";
+
+    private final boolean enabled;
+
+    private final int windowSize;
+
+    /**
+     * Indexed by partition.  Replaced rather than updated on a rebalance, so that lookups need no lock.
+     */
+    private volatile OrderIdSet[] partitions = new OrderIdSet[0];
+
+    public ProcessedOrderIndex(@Value("${dispatch.dedup.enabled}") boolean enabled, @Value("${dispatch.dedup.windowSize}") int windowSize) {
+        this.enabled = enabled;
+        this.windowSize = windowSize;
+    }
+
+    public boolean isProcessed(int partition, UUID orderId) {
+        OrderIdSet orderIds = orderIds(partition);
+        return orderIds != null && orderId != null && orderIds.contains(orderId.getMostSignificantBits(), orderId.getLeastSignificantBits());
+    }
+
+    public void markProcessed(int partition, UUID orderId) {
+        OrderIdSet orderIds = orderIds(partition);
+        if (orderIds == null || orderId == null) {
+            return;
+        }
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    orderIds.add(orderId.getMostSignificantBits(), orderId.getLeastSignificantBits());
+                }
+            });
+        } else {
+            orderIds.add(orderId.getMostSignificantBits(), orderId.getLeastSignificantBits());
+        }
+    }
+
+    @Override
+    public void onPartitionsAssigned(Consumer<?, ?> consumer, Collection<TopicPartition> assigned) {
+        update(assigned, true);
+    }
+
+    @Override
+    public void onPartitionsRevokedAfterCommit(Consumer<?, ?> consumer, Collection<TopicPartition> revoked) {
+        update(revoked, false);
+    }
+
+    @Override
+    public void onPartitionsLost(Consumer<?, ?> consumer, Collection<TopicPartition> lost) {
+        update(lost, false);
+    }
+
+    private OrderIdSet orderIds(int partition) {
+        OrderIdSet[] current = partitions;
+        return partition < current.length ? current[partition] : null;
+    }
+
+    private synchronized void update(Collection<TopicPartition> topicPartitions, boolean assigned) {
+        if (!enabled) {
+            return;
+        }
+        OrderIdSet[] updated = partitions;
+        for (TopicPartition topicPartition : topicPartitions) {
+            if (!ORDER_CREATED_TOPIC.equals(topicPartition.topic())) {
+                continue;
+            }
+            int partition = topicPartition.partition();
+            if (updated == partitions) {
+                updated = Arrays.copyOf(updated, Math.max(updated.length, partition + 1));
+            } else if (partition >= updated.length) {
+                updated = Arrays.copyOf(updated, partition + 1);
+            }
+            updated[partition] = assigned ? new OrderIdSet(windowSize) : null;
+        }
+        partitions = updated;
+    }
+}
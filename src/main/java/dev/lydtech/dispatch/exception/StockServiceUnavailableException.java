@@ -0,0 +1,33 @@
+package dev.lydtech.dispatch.exception;
+
+import java.time.Duration;
+
+/**
+ * The stock service was not called, as its circuit breaker is open or its concurrency limit has been reached.  This is
+ * not a RetryableException: the order has not failed, so it is retried after the given time without using up any of its
+ * retries, and is never dead lettered.  The retry after time is at least MIN_RETRY_AFTER, so that a retry never spins.
+ */
+public class StockServiceUnavailableException extends RuntimeException {
+
+    public static final Duration MIN_RETRY_AFTER = Duration.ofMillis(10);
+
+    private final Duration retryAfter;
+
+    public StockServiceUnavailableException(String message, Duration retryAfter) {
+        super(message);
+        this.retryAfter = atLeastMinimum(retryAfter);
+    }
+
+    public StockServiceUnavailableException(String message, Duration retryAfter, Throwable cause) {
+        super(message, cause);
+        this.retryAfter = atLeastMinimum(retryAfter);
+    }
+
+    public Duration getRetryAfter() {
+        return retryAfter;
+    }
+
+    private static Duration atLeastMinimum(Duration retryAfter) {
+        return retryAfter.compareTo(MIN_RETRY_AFTER) < 0 ? MIN_RETRY_AFTER : retryAfter;
+    }
+}
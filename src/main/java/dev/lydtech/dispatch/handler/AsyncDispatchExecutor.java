@@ -0,0 +1,380 @@
+package dev.lydtech.dispatch.handler;
+
+import java.time.Duration;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+import dev.lydtech.dispatch.dedup.ProcessedOrderIndex;
+import dev.lydtech.dispatch.exception.NotRetryableException;
+import dev.lydtech.dispatch.exception.RetryableException;
+import dev.lydtech.dispatch.exception.StockServiceUnavailableException;
+import dev.lydtech.dispatch.logging.LogSampler;
+import dev.lydtech.dispatch.message.OrderCreated;
+import dev.lydtech.dispatch.metrics.DispatchMetrics;
+import dev.lydtech.dispatch.metrics.DispatchMetrics.Outcome;
+import dev.lydtech.dispatch.service.DispatchService;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.kafka.clients.consumer.Consumer;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.consumer.OffsetAndMetadata;
+import org.apache.kafka.common.TopicPartition;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.kafka.listener.ConsumerAwareRebalanceListener;
+import org.springframework.kafka.listener.ConsumerRecordRecoverer;
+import org.springframework.kafka.listener.MessageListenerContainer;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.util.backoff.BackOff;
+import org.springframework.util.backoff.BackOffExecution;
+
+/**
+ * Runs DispatchService.process off the consumer thread, so that a single consumer can keep many blocking stock service
+ * calls and produce acks in flight.
+ *
+ * Records with the same key are processed in the order they were received, records with different keys from the same
+ * partition run concurrently, so throughput is no longer bounded by the partition count.  Completed offsets are tracked
+ * per partition and the consumer commits the highest contiguous completed offset, so a record is never committed ahead of
+ * one below it that is still in flight.  Work is not held back at poll boundaries: a slow key only delays the records
+ * queued behind it.  The number of records in flight is capped.  A record submitted at the cap is not queued: the assigned
+ * partitions are paused, the record's partition is sought back to it, and the rest of the poll from that partition is
+ * skipped, so the consumer thread never waits for a dispatch and keeps polling within the max poll interval.  The
+ * partitions are resumed once the records in flight have fallen below the cap, and the records are fetched again.  They
+ * are paused and resumed through the listener container, as the back-pressure controller does, so that a container
+ * paused by the circuit breaker is not resumed here, and the resume waits until the container has been resumed.
+ *
+ * A record's offset is completed however its dispatch ends, and the next record with the same key runs after it either
+ * way, so a failure that escapes the retries and the recoverer, such as an Error or a dispatch rejected at shutdown, is
+ * logged rather than holding back the partition and the key.
+ *
+ * On revocation the in-flight records of the revoked partitions are given time to complete, and their offsets are
+ * committed, before the partitions are handed over.  A record still running after that completes against the assignment
+ * it was started in, and not the partition's next one.  Rebalances are passed on to the ProcessedOrderIndex, which is
+ * checked before each record is dispatched.
+ *
+ * Virtual threads are used when the runtime supports them, otherwise a pool of platform threads sized to the in-flight
+ * cap.  In non-blocking mode DispatchService.processAsync is used instead, so no thread is held while the stock lookup
+ * and the sends are outstanding.  Failures are retried and recovered here rather than by the container's error handler,
+ * with the same back off and dead letter recoverer.  An order turned away by the stock service circuit breaker or
+ * concurrency limiter is retried after the time given, without using up its retries.
+ */
+@Slf4j
+public class AsyncDispatchExecutor implements ConsumerAwareRebalanceListener, DisposableBean {
+
+    private static final Duration REVOCATION_TIMEOUT = Duration.ofSeconds(10);
+
+    private final DispatchService dispatchService;
+
+    private final ConsumerRecordRecoverer recoverer;
+
+    private final BackOff backOff;
+
+    private final DispatchMetrics dispatchMetrics;
+
+    private final LogSampler logSampler;
+
+    private final ProcessedOrderIndex processedOrderIndex;
+
+    private final int maxInFlight;
+
+    private final boolean nonBlocking;
+
+    private final Semaphore inFlightPermits;
+
+    private final ExecutorService executor;
+
+    private final Map<OrderingKey, CompletableFuture<Void>> tails = new ConcurrentHashMap<>();
+
+    private final OffsetTracker offsetTracker = new OffsetTracker();
+
+    // Only used on the consumer thread.
+    private final Set<TopicPartition> pausedAtCap = new HashSet<>();
+
+    private final Map<TopicPartition, Long> rewoundTo = new HashMap<>();
+
+    public AsyncDispatchExecutor(DispatchService dispatchService, ConsumerRecordRecoverer recoverer, BackOff backOff, DispatchMetrics dispatchMetrics,
+                                 LogSampler logSampler, ProcessedOrderIndex processedOrderIndex, int maxInFlight, boolean nonBlocking) {
+        this.dispatchService = dispatchService;
+        this.recoverer = recoverer;
+        this.backOff = backOff;
+        this.dispatchMetrics = dispatchMetrics;
+        this.logSampler = logSampler;
+        this.processedOrderIndex = processedOrderIndex;
+        this.maxInFlight = maxInFlight;
+        this.nonBlocking = nonBlocking;
+        this.inFlightPermits = new Semaphore(maxInFlight);
+        this.executor = newExecutor(maxInFlight);
+    }
+
+    /**
+     * Queue the record behind any in-flight record with the same key, or, at the in-flight cap, pause the assigned
+     * partitions and seek back to the record so that it is redelivered once they are resumed.  Must be called on the
+     * consumer thread, in offset order.
+     */
+    public void submit(ConsumerRecord<String, OrderCreated> record, Consumer<?, ?> consumer, MessageListenerContainer container) {
+        TopicPartition topicPartition = new TopicPartition(record.topic(), record.partition());
+        Long rewound = rewoundTo.get(topicPartition);
+        if (rewound != null && record.offset() > rewound) {
+            // The rest of the poll the partition was sought back from.
+            return;
+        }
+        if (!inFlightPermits.tryAcquire()) {
+            pauseAtCap(consumer, container, topicPartition, record.offset());
+            return;
+        }
+        rewoundTo.remove(topicPartition);
+        long generation = offsetTracker.started(topicPartition, record.offset());
+        OrderingKey orderingKey = new OrderingKey(record.partition(), record.key());
+        CompletableFuture<Void> task = tails.compute(orderingKey, (key, previous) -> {
+            // The record runs once its predecessor has finished, however it finished.
+            CompletableFuture<Object> predecessor = previous == null ? CompletableFuture.completedFuture(null) : previous.handle((result, error) -> null);
+            return nonBlocking
+                    ? predecessor.thenComposeAsync(ignored -> dispatchAsync(record, backOff.start()), executor)
+                    : predecessor.thenRunAsync(() -> dispatch(record), executor);
+        });
+        task.whenComplete((result, error) -> {
+            if (error != null) {
+                log.error("Dispatch did not complete: partition: " + record.partition() + " - offset: " + record.offset(), error);
+            }
+            offsetTracker.completed(topicPartition, generation, record.offset());
+            tails.remove(orderingKey, task);
+            inFlightPermits.release();
+        });
+    }
+
+    /**
+     * Commit the offsets that have advanced since the last commit, and resume the partitions paused at the in-flight cap
+     * once there is room below it and the container itself is not paused.  Must be called on the consumer thread.
+     */
+    public void commitCompleted(Consumer<?, ?> consumer, MessageListenerContainer container) {
+        Map<TopicPartition, OffsetAndMetadata> offsets = offsetTracker.committable();
+        if (!offsets.isEmpty()) {
+            consumer.commitAsync(offsets, (committed, e) -> {
+                if (e != null) {
+                    log.warn("Failed to commit offsets: " + committed, e);
+                }
+            });
+        }
+        if (!pausedAtCap.isEmpty() && inFlightPermits.availablePermits() > 0 && !container.isPauseRequested()) {
+            Set<TopicPartition> resumed = new HashSet<>(pausedAtCap);
+            resumed.retainAll(consumer.assignment());
+            pausedAtCap.clear();
+            resumed.forEach(container::resumePartition);
+            log.debug("Resumed partitions below the in-flight cap: {}", resumed);
+        }
+    }
+
+    /**
+     * The container pauses the partitions before its next poll, and the rest of this poll is skipped.
+     */
+    private void pauseAtCap(Consumer<?, ?> consumer, MessageListenerContainer container, TopicPartition topicPartition, long offset) {
+        // Partitions already paused, by the back-pressure controller or at the cap, are left for them to resume.
+        Set<TopicPartition> toPause = new HashSet<>(consumer.assignment());
+        toPause.removeIf(container::isPartitionPauseRequested);
+        pausedAtCap.addAll(toPause);
+        toPause.forEach(container::pausePartition);
+        consumer.seek(topicPartition, offset);
+        rewoundTo.put(topicPartition, offset);
+        log.debug("Paused partitions at the in-flight cap of {}, seeking {} back to {}", maxInFlight, topicPartition, offset);
+    }
+
+    @Override
+    public void onPartitionsRevokedBeforeCommit(Consumer<?, ?> consumer, Collection<TopicPartition> partitions) {
+        long deadline = System.nanoTime() + REVOCATION_TIMEOUT.toNanos();
+        while (offsetTracker.inFlight(partitions) > 0 && System.nanoTime() < deadline) {
+            if (!sleep(10L)) {
+                break;
+            }
+        }
+        int remaining = offsetTracker.inFlight(partitions);
+        if (remaining > 0) {
+            log.warn("Revoking partitions with records still in flight, these will be redelivered: " + remaining);
+        }
+        Map<TopicPartition, OffsetAndMetadata> offsets = offsetTracker.committable(partitions);
+        if (!offsets.isEmpty()) {
+            consumer.commitSync(offsets);
+        }
+        offsetTracker.remove(partitions);
+        forgetRewinds(partitions);
+        processedOrderIndex.onPartitionsRevokedAfterCommit(consumer, partitions);
+    }
+
+    @Override
+    public void onPartitionsAssigned(Consumer<?, ?> consumer, Collection<TopicPartition> partitions) {
+        processedOrderIndex.onPartitionsAssigned(consumer, partitions);
+    }
+
+    @Override
+    public void onPartitionsLost(Consumer<?, ?> consumer, Collection<TopicPartition> partitions) {
+        offsetTracker.remove(partitions);
+        forgetRewinds(partitions);
+        processedOrderIndex.onPartitionsLost(consumer, partitions);
+    }
+
+    /**
+     * A partition handed over is fetched from its committed offset by the next owner, and is no longer paused.
+     */
+    private void forgetRewinds(Collection<TopicPartition> partitions) {
+        partitions.forEach(rewoundTo::remove);
+        pausedAtCap.removeAll(partitions);
+    }
+
+    /**
+     * The number of records submitted and not yet completed, including those waiting behind a record with the same key.
+     */
+    public int getInFlight() {
+        return maxInFlight - inFlightPermits.availablePermits();
+    }
+
+    /**
+     * The number of records from the partition submitted and not yet completed.
+     */
+    public int getInFlight(TopicPartition topicPartition) {
+        return offsetTracker.inFlight(List.of(topicPartition));
+    }
+
+    public int getMaxInFlight() {
+        return maxInFlight;
+    }
+
+    private void dispatch(ConsumerRecord<String, OrderCreated> record) {
+        if (skipDuplicate(record)) {
+            return;
+        }
+        BackOffExecution backOffExecution = backOff.start();
+        while (true) {
+            try {
+                dispatchService.process(record.key(), record.value());
+                processedOrderIndex.markProcessed(record.partition(), record.value().getOrderId());
+                return;
+            } catch (StockServiceUnavailableException e) {
+                log.warn("Stock service unavailable: {}", e.getMessage());
+                if (!sleep(e.getRetryAfter().toMillis())) {
+                    return;
+                }
+            } catch (RetryableException e) {
+                dispatchMetrics.count(Outcome.RETRYABLE);
+                long interval = backOffExecution.nextBackOff();
+                if (interval == BackOffExecution.STOP) {
+                    recover(record, e);
+                    return;
+                }
+                log.warn("Retryable exception: {}", e.getMessage());
+                if (!sleep(interval)) {
+                    return;
+                }
+            } catch (Exception e) {
+                dispatchMetrics.count(Outcome.NOT_RETRYABLE);
+                log.error("NotRetryable exception: {}", e.getMessage());
+                recover(record, new NotRetryableException(e));
+                return;
+            }
+        }
+    }
+
+    private CompletableFuture<Void> dispatchAsync(ConsumerRecord<String, OrderCreated> record, BackOffExecution backOffExecution) {
+        if (skipDuplicate(record)) {
+            return CompletableFuture.completedFuture(null);
+        }
+        CompletableFuture<Void> attempt;
+        try {
+            attempt = dispatchService.processAsync(record.key(), record.value());
+        } catch (Exception e) {
+            attempt = CompletableFuture.failedFuture(e);
+        }
+        // Handle the outcome on the dispatch executor: the future may complete on the producer's I/O thread, and the
+        // recoverer blocks until the dead letter is sent.
+        return attempt.handleAsync((result, error) -> {
+            if (error == null) {
+                processedOrderIndex.markProcessed(record.partition(), record.value().getOrderId());
+                return CompletableFuture.<Void>completedFuture(null);
+            }
+            Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+            if (cause instanceof StockServiceUnavailableException e) {
+                log.warn("Stock service unavailable: {}", e.getMessage());
+                return CompletableFuture.runAsync(() -> { }, CompletableFuture.delayedExecutor(e.getRetryAfter().toMillis(), TimeUnit.MILLISECONDS, executor))
+                        .thenCompose(retry -> dispatchAsync(record, backOffExecution));
+            }
+            if (cause instanceof RetryableException e) {
+                dispatchMetrics.count(Outcome.RETRYABLE);
+                long interval = backOffExecution.nextBackOff();
+                if (interval != BackOffExecution.STOP) {
+                    log.warn("Retryable exception: {}", e.getMessage());
+                    return CompletableFuture.runAsync(() -> { }, CompletableFuture.delayedExecutor(interval, TimeUnit.MILLISECONDS, executor))
+                            .thenCompose(retry -> dispatchAsync(record, backOffExecution));
+                }
+                recover(record, e);
+            } else {
+                dispatchMetrics.count(Outcome.NOT_RETRYABLE);
+                log.error("NotRetryable exception: {}", cause.getMessage());
+                recover(record, new NotRetryableException(cause instanceof Exception e ? e : new RuntimeException(cause)));
+            }
+            return CompletableFuture.<Void>completedFuture(null);
+        }, executor).thenCompose(Function.identity());
+    }
+
+    /**
+     * Records with the same key are dispatched one at a time, so a duplicate with the same key sees the original marked
+     * as processed.
+     */
+    private boolean skipDuplicate(ConsumerRecord<String, OrderCreated> record) {
+        if (!processedOrderIndex.isProcessed(record.partition(), record.value().getOrderId())) {
+            return false;
+        }
+        dispatchMetrics.count(Outcome.DUPLICATE);
+        if (log.isInfoEnabled() && logSampler.isSampled(record.value().getOrderId())) {
+            log.info("Skipping duplicate: partition: {} - key: {} - orderId: {}", record.partition(), record.key(), record.value().getOrderId());
+        }
+        return true;
+    }
+
+    private void recover(ConsumerRecord<String, OrderCreated> record, Exception exception) {
+        try {
+            recoverer.accept(record, exception);
+            dispatchMetrics.count(Outcome.DEAD_LETTERED);
+        } catch (Exception e) {
+            log.error("Failed to recover record: partition: " + record.partition() + " - offset: " + record.offset(), e);
+        }
+    }
+
+    private boolean sleep(long interval) {
+        try {
+            TimeUnit.MILLISECONDS.sleep(interval);
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    @Override
+    public void destroy() throws Exception {
+        executor.shutdown();
+        if (!executor.awaitTermination(30, TimeUnit.SECONDS)) {
+            log.warn("In-flight dispatches did not complete before shutdown: " + getInFlight());
+            executor.shutdownNow();
+        }
+    }
+
+    private static ExecutorService newExecutor(int maxInFlight) {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            log.info("Virtual threads are not available, dispatching on " + maxInFlight + " platform threads");
+            return Executors.newFixedThreadPool(maxInFlight, new CustomizableThreadFactory("dispatch-"));
+        }
+    }
+
+    private record OrderingKey(int partition, String key) {
+    }
+}
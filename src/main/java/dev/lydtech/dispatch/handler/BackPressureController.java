@@ -0,0 +1,242 @@
+package dev.lydtech.dispatch.handler;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.DoubleSupplier;
+import java.util.function.ToIntFunction;
+
+import dev.lydtech.dispatch.client.StockServiceConcurrencyLimiter;
+import dev.lydtech.dispatch.metrics.DispatchMetrics;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.hc.client5.http.impl.io.PoolingHttpClientConnectionManager;
+import org.apache.hc.core5.pool.PoolStats;
+import org.apache.kafka.common.TopicPartition;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.kafka.config.KafkaListenerEndpointRegistry;
+import org.springframework.kafka.listener.MessageListenerContainer;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Component;
+
+/**
+ * Pauses order.created partitions of the orderConsumerClient listener while the dispatch is falling behind, so that the
+ * consumer stops fetching orders it can only buffer.  The pressure is sampled every interval from:
+ *
+ *   in-flight       async dispatches in flight, against dispatch.async.maxInFlight (async mode only)
+ *   produce-buffer  producer buffer memory in use, against buffer.memory
+ *   stock-client    stock service calls in flight, against the concurrency limit, or connections leased and awaited,
+ *                   against the pool size
+ *
+ * each from 0 to 1.  Once the highest reaches the high watermark the partitions are paused, and once it has fallen to
+ * the low watermark they are resumed.  The gap between the two stops the partitions flapping on every sample.  When the
+ * in-flight dispatches are the pressure, only the partitions holding at least their share of them are paused, so the
+ * others keep flowing.  The producer and the stock service are shared by all the partitions, so they pause them all.
+ *
+ * The partitions keep their assignment while paused, and the container's own pause, as used by the circuit breaker, is
+ * left alone.  Each pause and resume is published as a BackPressureEvent.
+ */
+@Slf4j
+@Component
+@ConditionalOnProperty(name = "dispatch.backpressure.enabled", havingValue = "true")
+public class BackPressureController implements DisposableBean {
+
+    private static final String LISTENER_ID = "orderConsumerClient";
+
+    /**
+     * A pressure, from 0 to 1.  The partition load, if given, is how much of the pressure each partition accounts for.
+     */
+    record PressureSource(String name, DoubleSupplier pressure, ToIntFunction<TopicPartition> partitionLoad) {
+
+        PressureSource(String name, DoubleSupplier pressure) {
+            this(name, pressure, null);
+        }
+    }
+
+    private final KafkaListenerEndpointRegistry registry;
+
+    private final List<PressureSource> sources;
+
+    private final double highWatermark;
+
+    private final double lowWatermark;
+
+    private final DispatchMetrics dispatchMetrics;
+
+    private final ApplicationEventPublisher eventPublisher;
+
+    private final ScheduledExecutorService scheduler;
+
+    private final Set<TopicPartition> paused = new HashSet<>();
+
+    private volatile double pressure;
+
+    private volatile int pausedPartitions;
+
+    @Autowired
+    public BackPressureController(KafkaListenerEndpointRegistry registry, ObjectProvider<AsyncDispatchExecutor> asyncDispatchExecutor,
+                                  MeterRegistry meterRegistry, StockServiceConcurrencyLimiter concurrencyLimiter,
+                                  PoolingHttpClientConnectionManager stockServiceConnectionManager,
+                                  @Value("${dispatch.backpressure.interval}") Duration interval,
+                                  @Value("${dispatch.backpressure.highWatermark}") double highWatermark,
+                                  @Value("${dispatch.backpressure.lowWatermark}") double lowWatermark,
+                                  DispatchMetrics dispatchMetrics, ApplicationEventPublisher eventPublisher) {
+        this(registry, sources(asyncDispatchExecutor.getIfAvailable(), meterRegistry, concurrencyLimiter, stockServiceConnectionManager),
+                highWatermark, lowWatermark, dispatchMetrics, eventPublisher, Executors.newSingleThreadScheduledExecutor(new CustomizableThreadFactory("backpressure-")));
+        scheduler.scheduleWithFixedDelay(this::sample, interval.toMillis(), interval.toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Without a scheduler the pressure is only sampled when evaluate is called.
+     */
+    BackPressureController(KafkaListenerEndpointRegistry registry, List<PressureSource> sources, double highWatermark, double lowWatermark,
+                           DispatchMetrics dispatchMetrics, ApplicationEventPublisher eventPublisher, ScheduledExecutorService scheduler) {
+        if (lowWatermark < 0 || lowWatermark >= highWatermark || highWatermark > 1) {
+            throw new IllegalArgumentException("Back-pressure watermarks must be 0 <= low < high <= 1, got low " + lowWatermark + ", high " + highWatermark);
+        }
+        this.registry = registry;
+        this.sources = sources;
+        this.highWatermark = highWatermark;
+        this.lowWatermark = lowWatermark;
+        this.dispatchMetrics = dispatchMetrics;
+        this.eventPublisher = eventPublisher;
+        this.scheduler = scheduler;
+    }
+
+    private static List<PressureSource> sources(AsyncDispatchExecutor asyncDispatchExecutor, MeterRegistry meterRegistry,
+                                                StockServiceConcurrencyLimiter concurrencyLimiter, PoolingHttpClientConnectionManager connectionManager) {
+        List<PressureSource> sources = new ArrayList<>();
+        if (asyncDispatchExecutor != null) {
+            sources.add(new PressureSource("in-flight",
+                    () -> (double) asyncDispatchExecutor.getInFlight() / asyncDispatchExecutor.getMaxInFlight(),
+                    asyncDispatchExecutor::getInFlight));
+        }
+        sources.add(new PressureSource("produce-buffer", () -> produceBufferUsed(meterRegistry)));
+        sources.add(new PressureSource("stock-client", () -> {
+            PoolStats stats = connectionManager.getTotalStats();
+            double poolUsed = (double) (stats.getLeased() + stats.getPending()) / stats.getMax();
+            return concurrencyLimiter.isEnabled()
+                    ? Math.max(poolUsed, (double) concurrencyLimiter.getInFlight() / concurrencyLimiter.getLimit())
+                    : poolUsed;
+        }));
+        return sources;
+    }
+
+    /**
+     * The buffer use of all the producers, from the metrics the MicrometerProducerListener binds for each.  A producer is
+     * only counted once both its metrics have a value.
+     */
+    private static double produceBufferUsed(MeterRegistry meterRegistry) {
+        double total = 0;
+        double available = 0;
+        for (Gauge totalBytes : meterRegistry.find("kafka.producer.buffer.total.bytes").gauges()) {
+            Gauge availableBytes = meterRegistry.find("kafka.producer.buffer.available.bytes")
+                    .tag("client.id", totalBytes.getId().getTag("client.id")).gauge();
+            if (availableBytes != null && Double.isFinite(totalBytes.value()) && Double.isFinite(availableBytes.value())) {
+                total += totalBytes.value();
+                available += availableBytes.value();
+            }
+        }
+        return total <= 0 ? 0 : 1 - available / total;
+    }
+
+    private void sample() {
+        try {
+            evaluate();
+        } catch (Exception e) {
+            log.warn("Back-pressure sample failed", e);
+        }
+    }
+
+    /**
+     * Pause or resume the partitions for the current pressure.
+     */
+    synchronized void evaluate() {
+        MessageListenerContainer container = registry.getListenerContainer(LISTENER_ID);
+        if (container == null || !container.isRunning()) {
+            return;
+        }
+        PressureSource highest = null;
+        double highestPressure = 0;
+        for (PressureSource source : sources) {
+            double sourcePressure = source.pressure().getAsDouble();
+            if (highest == null || sourcePressure > highestPressure) {
+                highest = source;
+                highestPressure = sourcePressure;
+            }
+        }
+        pressure = highestPressure;
+
+        Collection<TopicPartition> assigned = container.getAssignedPartitions();
+        if (assigned == null) {
+            return;
+        }
+        // Revoked partitions are not ours to resume.
+        paused.retainAll(assigned);
+        if (paused.isEmpty() && highestPressure >= highWatermark) {
+            Set<TopicPartition> toPause = partitionsToPause(highest, assigned);
+            if (!toPause.isEmpty()) {
+                toPause.forEach(container::pausePartition);
+                paused.addAll(toPause);
+                transitioned(true, highest, highestPressure, toPause);
+            }
+        } else if (!paused.isEmpty() && highestPressure <= lowWatermark) {
+            Set<TopicPartition> toResume = Set.copyOf(paused);
+            toResume.forEach(container::resumePartition);
+            paused.clear();
+            transitioned(false, highest, highestPressure, toResume);
+        }
+        pausedPartitions = paused.size();
+    }
+
+    private static Set<TopicPartition> partitionsToPause(PressureSource source, Collection<TopicPartition> assigned) {
+        Set<TopicPartition> toPause = new HashSet<>(assigned);
+        if (source.partitionLoad() != null && !assigned.isEmpty()) {
+            int total = assigned.stream().mapToInt(source.partitionLoad()).sum();
+            if (total > 0) {
+                toPause.removeIf(topicPartition -> source.partitionLoad().applyAsInt(topicPartition) * assigned.size() < total);
+            }
+        }
+        return toPause;
+    }
+
+    private void transitioned(boolean pausing, PressureSource source, double sourcePressure, Set<TopicPartition> partitions) {
+        if (pausing) {
+            log.warn("Pausing partitions " + partitions + " for back-pressure, " + source.name() + " at " + sourcePressure);
+        } else {
+            log.info("Resuming partitions " + partitions + ", " + source.name() + " pressure down to " + sourcePressure);
+        }
+        dispatchMetrics.countBackPressureTransition(pausing ? "paused" : "resumed");
+        eventPublisher.publishEvent(new BackPressureEvent(this, pausing, source.name(), sourcePressure, partitions));
+    }
+
+    /**
+     * The highest pressure at the last sample, from 0 to 1.
+     */
+    public double getPressure() {
+        return pressure;
+    }
+
+    public int getPausedPartitions() {
+        return pausedPartitions;
+    }
+
+    @Override
+    public void destroy() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,54 @@
+package dev.lydtech.dispatch.handler;
+
+import java.util.Set;
+
+import org.apache.kafka.common.TopicPartition;
+import org.springframework.context.ApplicationEvent;
+
+/**
+ * Published when the order.created partitions are paused or resumed for back-pressure.
+ */
+public class BackPressureEvent extends ApplicationEvent {
+
+    private final boolean paused;
+
+    private final String source;
+
+    private final double pressure;
+
+    private final Set<TopicPartition> partitions;
+
+    /**
+     * @param paused true if the partitions were paused, false if they were resumed
+     * @param source the pressure source that was highest when the partitions were paused or resumed
+     * @param pressure the pressure of that source, from 0 to 1
+     */
+    public BackPressureEvent(Object eventSource, boolean paused, String source, double pressure, Set<TopicPartition> partitions) {
+        super(eventSource);
+        this.paused = paused;
+        this.source = source;
+        this.pressure = pressure;
+        this.partitions = Set.copyOf(partitions);
+    }
+
+    public boolean isPaused() {
+        return paused;
+    }
+
+    public String getSource() {
+        return source;
+    }
+
+    public double getPressure() {
+        return pressure;
+    }
+
+    public Set<TopicPartition> getPartitions() {
+        return partitions;
+    }
+
+    @Override
+    public String toString() {
+        return "BackPressureEvent [paused=" + paused + ", source=" + source + ", pressure=" + pressure + ", partitions=" + partitions + "]";
+    }
+}
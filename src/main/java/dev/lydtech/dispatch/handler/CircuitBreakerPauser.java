@@ -0,0 +1,71 @@
+package dev.lydtech.dispatch.handler;
+
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import dev.lydtech.dispatch.client.StockServiceCircuitBreaker;
+import dev.lydtech.dispatch.client.StockServiceCircuitBreaker.State;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.kafka.config.KafkaListenerEndpointRegistry;
+import org.springframework.kafka.listener.MessageListenerContainer;
+import org.springframework.stereotype.Component;
+
+/**
+ * Pauses the order.created listener containers, including those of the retry topics, while the stock service circuit
+ * breaker is open, so that no more orders are consumed only to be turned away.  The containers keep their partitions
+ * while paused.  They are resumed when the breaker is due to let a trial call through, and the first order consumed makes
+ * it.  If the trial fails the breaker opens again, and the containers are paused again.
+ */
+@Slf4j
+@Component
+@ConditionalOnProperty(name = "dispatch.stock.breaker.enabled", havingValue = "true")
+public class CircuitBreakerPauser {
+
+    private static final String LISTENER_ID_PREFIX = "orderConsumerClient";
+
+    private final KafkaListenerEndpointRegistry registry;
+
+    private final StockServiceCircuitBreaker circuitBreaker;
+
+    public CircuitBreakerPauser(@Autowired KafkaListenerEndpointRegistry registry, @Autowired StockServiceCircuitBreaker circuitBreaker) {
+        this.registry = registry;
+        this.circuitBreaker = circuitBreaker;
+        circuitBreaker.addStateListener(this::onStateChange);
+    }
+
+    private void onStateChange(State state) {
+        if (state == State.OPEN) {
+            log.warn("Pausing the order consumers while the stock service circuit breaker is open");
+            orderContainers(MessageListenerContainer::pause);
+            scheduleResume(circuitBreaker.getRetryAfter());
+        } else {
+            orderContainers(MessageListenerContainer::resume);
+        }
+    }
+
+    /**
+     * Resumes the containers once the breaker would let a trial call through.  The breaker may have opened again by the
+     * time this runs, in which case the resume is put off until it is next due.
+     */
+    private void scheduleResume(Duration delay) {
+        CompletableFuture.delayedExecutor(delay.toMillis(), TimeUnit.MILLISECONDS).execute(() -> {
+            Duration retryAfter = circuitBreaker.getRetryAfter();
+            if (circuitBreaker.getState() != State.OPEN || retryAfter.isZero()) {
+                log.info("Resuming the order consumers for a stock service trial call");
+                orderContainers(MessageListenerContainer::resume);
+            } else {
+                scheduleResume(retryAfter);
+            }
+        });
+    }
+
+    private void orderContainers(Consumer<MessageListenerContainer> action) {
+        registry.getListenerContainers().stream()
+                .filter(container -> container.getListenerId() != null && container.getListenerId().startsWith(LISTENER_ID_PREFIX))
+                .forEach(action);
+    }
+}
@@ -0,0 +1,130 @@
+package dev.lydtech.dispatch.handler;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.kafka.clients.consumer.OffsetAndMetadata;
+import org.apache.kafka.common.TopicPartition;
+
+/**
+ * Tracks the records in flight for each partition when they complete out of order, so that the committed offset never
+ * passes a record that has not completed.
+ *
+ * Records must be started in offset order for each partition.  The committable offset for a partition is the lowest
+ * offset still in flight, or one past the highest started offset when nothing is in flight.
+ *
+ * Each assignment of a partition is tracked as a new generation.  A record is completed against the generation it was
+ * started in, so that a record still running when its partition was revoked does not complete the offset of a record
+ * started after the partition was assigned again.
+ *
+ * Used by the AsyncDispatchExecutor, and by the DltReplayer to commit its progress.
+ */
+public class OffsetTracker {
+
+    private final Map<TopicPartition, PartitionOffsets> partitions = new ConcurrentHashMap<>();
+
+    private final AtomicLong generations = new AtomicLong();
+
+    /**
+     * Returns the generation to complete the record in.
+     */
+    public long started(TopicPartition topicPartition, long offset) {
+        PartitionOffsets partitionOffsets = partitions.computeIfAbsent(topicPartition, tp -> new PartitionOffsets(generations.incrementAndGet()));
+        partitionOffsets.started(offset);
+        return partitionOffsets.generation;
+    }
+
+    /**
+     * Ignored if the partition has been removed since the record was started.
+     */
+    public void completed(TopicPartition topicPartition, long generation, long offset) {
+        PartitionOffsets partitionOffsets = partitions.get(topicPartition);
+        if (partitionOffsets != null && partitionOffsets.generation == generation) {
+            partitionOffsets.completed(offset);
+        }
+    }
+
+    /**
+     * The offsets to commit for the partitions that have advanced since the last call.
+     */
+    public Map<TopicPartition, OffsetAndMetadata> committable() {
+        return committable(partitions.keySet());
+    }
+
+    public Map<TopicPartition, OffsetAndMetadata> committable(Collection<TopicPartition> topicPartitions) {
+        Map<TopicPartition, OffsetAndMetadata> offsets = new HashMap<>();
+        for (TopicPartition topicPartition : topicPartitions) {
+            PartitionOffsets partitionOffsets = partitions.get(topicPartition);
+            if (partitionOffsets != null) {
+                long offset = partitionOffsets.advance();
+                if (offset >= 0) {
+                    offsets.put(topicPartition, new OffsetAndMetadata(offset));
+                }
+            }
+        }
+        return offsets;
+    }
+
+    public int inFlight(Collection<TopicPartition> topicPartitions) {
+        int inFlight = 0;
+        for (TopicPartition topicPartition : topicPartitions) {
+            PartitionOffsets partitionOffsets = partitions.get(topicPartition);
+            if (partitionOffsets != null) {
+                inFlight += partitionOffsets.inFlight();
+            }
+        }
+        return inFlight;
+    }
+
+    public void remove(Collection<TopicPartition> topicPartitions) {
+        topicPartitions.forEach(partitions::remove);
+    }
+
+    private static class PartitionOffsets {
+
+        private final long generation;
+
+        private final TreeSet<Long> inFlight = new TreeSet<>();
+
+        private long highestStarted = -1;
+
+        private long committed = -1;
+
+        PartitionOffsets(long generation) {
+            this.generation = generation;
+        }
+
+        synchronized void started(long offset) {
+            if (highestStarted < 0) {
+                // The consumer position is already at the first record, so there is nothing to commit until it completes.
+                committed = offset;
+            }
+            inFlight.add(offset);
+            highestStarted = Math.max(highestStarted, offset);
+        }
+
+        synchronized void completed(long offset) {
+            inFlight.remove(offset);
+        }
+
+        synchronized int inFlight() {
+            return inFlight.size();
+        }
+
+        /**
+         * Returns the new committable offset, or -1 if it has not moved since the last call.
+         */
+        synchronized long advance() {
+            long committable = inFlight.isEmpty() ? highestStarted + 1 : inFlight.first();
+            if (committable <= committed) {
+                return -1;
+            }
+            committed = committable;
+            return committable;
+        }
+    }
+}
@@ -0,0 +1,59 @@
+package dev.lydtech.dispatch.handler;
+
+import dev.lydtech.dispatch.logging.LogSampler;
+import dev.lydtech.dispatch.message.OrderCreated;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.kafka.clients.consumer.Consumer;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.event.EventListener;
+import org.springframework.kafka.annotation.KafkaListener;
+import org.springframework.kafka.config.KafkaListenerEndpointRegistry;
+import org.springframework.kafka.event.ListenerContainerIdleEvent;
+import org.springframework.kafka.listener.MessageListenerContainer;
+import org.springframework.stereotype.Component;
+
+/**
+ * Asynchronous alternative to the OrderCreatedHandler, enabled with dispatch.listener.mode=async.  Records are handed to
+ * the AsyncDispatchExecutor, and the offsets of completed records are committed on the consumer thread each time a record
+ * arrives or the container is idle.  The partitions paused at the in-flight cap are resumed at the same points.
+ */
+@Slf4j
+@RequiredArgsConstructor
+@Component
+@ConditionalOnProperty(name = "dispatch.listener.mode", havingValue = "async")
+public class OrderCreatedAsyncHandler {
+
+    private static final String LISTENER_ID = "orderConsumerClient";
+
+    private final KafkaListenerEndpointRegistry registry;
+
+    private final AsyncDispatchExecutor asyncDispatchExecutor;
+
+    private final LogSampler logSampler;
+
+    @KafkaListener(
+            id = LISTENER_ID,
+            topics = "order.created",
+            groupId = "dispatch.order.created.consumer",
+            containerFactory = "kafkaAsyncListenerContainerFactory",
+            autoStartup = "#{!${dispatch.replay.enabled}}"
+    )
+    public void listen(ConsumerRecord<String, OrderCreated> record, Consumer<?, ?> consumer) {
+        if (log.isInfoEnabled() && logSampler.isSampled(record.value().getOrderId())) {
+            log.info("Received message: partition: {} - key: {} - orderId: {} - item: {}", record.partition(), record.key(), record.value().getOrderId(), record.value().getItem());
+        }
+        MessageListenerContainer container = registry.getListenerContainer(LISTENER_ID);
+        asyncDispatchExecutor.submit(record, consumer, container);
+        asyncDispatchExecutor.commitCompleted(consumer, container);
+    }
+
+    /**
+     * Idle events are published on the consumer thread, so the consumer can be used to commit from here.
+     */
+    @EventListener(condition = "event.listenerId.startsWith('orderConsumerClient-')")
+    public void onIdle(ListenerContainerIdleEvent event) {
+        asyncDispatchExecutor.commitCompleted(event.getConsumer(), event.getContainer(MessageListenerContainer.class));
+    }
+}
@@ -0,0 +1,259 @@
+package dev.lydtech.dispatch.handler;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+
+import dev.lydtech.dispatch.dedup.ProcessedOrderIndex;
+import dev.lydtech.dispatch.exception.NotRetryableException;
+import dev.lydtech.dispatch.exception.RetryableException;
+import dev.lydtech.dispatch.exception.StockServiceUnavailableException;
+import dev.lydtech.dispatch.logging.LogSampler;
+import dev.lydtech.dispatch.message.OrderCreated;
+import dev.lydtech.dispatch.metrics.DispatchMetrics;
+import dev.lydtech.dispatch.metrics.DispatchMetrics.Outcome;
+import dev.lydtech.dispatch.service.DispatchService;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.kafka.clients.consumer.Consumer;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.common.TopicPartition;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.kafka.annotation.KafkaListener;
+import org.springframework.kafka.listener.BatchListenerFailedException;
+import org.springframework.kafka.listener.ConsumerAwareRebalanceListener;
+import org.springframework.kafka.listener.ConsumerRecordRecoverer;
+import org.springframework.stereotype.Component;
+import org.springframework.util.backoff.BackOff;
+import org.springframework.util.backoff.BackOffExecution;
+
+/**
+ * Batch alternative to the OrderCreatedHandler, enabled with dispatch.listener.mode=batch.
+ *
+ * The whole poll is processed in one call: the stock lookups for its distinct items are all started before the first
+ * order is processed, so they run concurrently and can share bulk requests, and the outbound events for every order are
+ * handed to the producer before the acks are awaited.  A failure is reported against the record that
+ * caused it with a BatchListenerFailedException, so the error handler commits the records before it, retries or dead
+ * letters that record alone, and redelivers the rest.
+ *
+ * With dispatch.transactions.enabled the poll is processed in one transaction, so a failure rolls back the events of
+ * every order in the batch and the whole batch is redelivered.  The after rollback processor cannot dead letter a record
+ * from a batch, so the failed records are tracked here: once a record has used up its retries, or has failed with a
+ * not-retryable exception, it is dead lettered within the transaction on the next delivery and the rest of the batch is
+ * processed as normal.  The failed records of a partition are forgotten when it is revoked or lost, as they are then
+ * redelivered to whichever consumer is assigned it.
+ *
+ * Orders already processed from the partition, or earlier in the same batch, are skipped.  The handler is the batch
+ * container's rebalance listener, and passes rebalances on to the ProcessedOrderIndex.
+ */
+@Slf4j
+@Component
+@ConditionalOnProperty(name = "dispatch.listener.mode", havingValue = "batch")
+public class OrderCreatedBatchHandler implements ConsumerAwareRebalanceListener {
+
+    private final DispatchService dispatchService;
+
+    private final DispatchMetrics dispatchMetrics;
+
+    private final LogSampler logSampler;
+
+    private final ProcessedOrderIndex processedOrderIndex;
+
+    private final ConsumerRecordRecoverer deadLetterRecoverer;
+
+    private final BackOff retryBackOff;
+
+    private final boolean transactional;
+
+    private final Map<RecordPosition, FailedRecord> failedRecords = new ConcurrentHashMap<>();
+
+    public OrderCreatedBatchHandler(@Autowired DispatchService dispatchService, @Autowired DispatchMetrics dispatchMetrics, @Autowired LogSampler logSampler,
+                                    @Autowired ProcessedOrderIndex processedOrderIndex, @Autowired ConsumerRecordRecoverer deadLetterRecoverer, @Autowired BackOff retryBackOff,
+                                    @Value("${dispatch.transactions.enabled}") boolean transactional) {
+        this.dispatchService = dispatchService;
+        this.dispatchMetrics = dispatchMetrics;
+        this.logSampler = logSampler;
+        this.processedOrderIndex = processedOrderIndex;
+        this.deadLetterRecoverer = deadLetterRecoverer;
+        this.retryBackOff = retryBackOff;
+        this.transactional = transactional;
+    }
+
+    @KafkaListener(
+            id = "orderConsumerClient",
+            topics = "order.created",
+            groupId = "dispatch.order.created.consumer",
+            containerFactory = "kafkaBatchListenerContainerFactory",
+            autoStartup = "#{!${dispatch.replay.enabled}}"
+    )
+    public void listen(List<ConsumerRecord<String, OrderCreated>> records) {
+        log.debug("Received batch: size: {}", records.size());
+        boolean[] skipped = new boolean[records.size()];
+        Map<String, CompletableFuture<Boolean>> availabilityByItem = dispatchService.lookUpAvailability(itemsToDispatch(records, skipped));
+        List<CompletableFuture<Void>> sends = new ArrayList<>(records.size());
+        List<ConsumerRecord<String, OrderCreated>> processed = new ArrayList<>(records.size());
+        for (int i = 0; i < records.size(); i++) {
+            ConsumerRecord<String, OrderCreated> record = records.get(i);
+            if (skipped[i]) {
+                sends.add(CompletableFuture.completedFuture(null));
+                continue;
+            }
+            try {
+                if (record.value() == null) {
+                    throw new IllegalArgumentException("Payload could not be deserialized");
+                }
+                sends.add(dispatchService.processInBatch(record.key(), record.value(), availabilityByItem));
+                processed.add(record);
+            } catch (Exception e) {
+                // Make sure the orders ahead of the failed one are fully sent before their offsets are committed.
+                awaitSends(records, sends);
+                throw failed(record, e);
+            }
+        }
+        awaitSends(records, sends);
+        processed.forEach(record -> processedOrderIndex.markProcessed(record.partition(), record.value().getOrderId()));
+        if (transactional && !failedRecords.isEmpty()) {
+            records.forEach(record -> failedRecords.remove(key(record)));
+        }
+    }
+
+    @Override
+    public void onPartitionsAssigned(Consumer<?, ?> consumer, Collection<TopicPartition> partitions) {
+        processedOrderIndex.onPartitionsAssigned(consumer, partitions);
+    }
+
+    @Override
+    public void onPartitionsRevokedAfterCommit(Consumer<?, ?> consumer, Collection<TopicPartition> partitions) {
+        forgetFailedRecords(partitions);
+        processedOrderIndex.onPartitionsRevokedAfterCommit(consumer, partitions);
+    }
+
+    @Override
+    public void onPartitionsLost(Consumer<?, ?> consumer, Collection<TopicPartition> partitions) {
+        forgetFailedRecords(partitions);
+        processedOrderIndex.onPartitionsLost(consumer, partitions);
+    }
+
+    private void forgetFailedRecords(Collection<TopicPartition> partitions) {
+        if (!failedRecords.isEmpty()) {
+            failedRecords.keySet().removeIf(position -> partitions.contains(new TopicPartition(position.topic(), position.partition())));
+        }
+    }
+
+    /**
+     * Flags the records already dead lettered in the transaction and the duplicates as skipped, and returns the items of
+     * the rest, so that only the stock of orders that will be dispatched is looked up.  Stops at a record that could not
+     * be deserialized, as the batch fails there.
+     */
+    private Set<String> itemsToDispatch(List<ConsumerRecord<String, OrderCreated>> records, boolean[] skipped) {
+        Set<String> items = new LinkedHashSet<>();
+        Set<UUID> batchOrderIds = new HashSet<>();
+        for (int i = 0; i < records.size(); i++) {
+            ConsumerRecord<String, OrderCreated> record = records.get(i);
+            if (transactional && deadLetteredInTransaction(record)) {
+                skipped[i] = true;
+            } else if (record.value() == null) {
+                break;
+            } else if (isDuplicate(record, batchOrderIds)) {
+                skipped[i] = true;
+            } else {
+                items.add(record.value().getItem());
+            }
+        }
+        return items;
+    }
+
+    private void awaitSends(List<ConsumerRecord<String, OrderCreated>> records, List<CompletableFuture<Void>> sends) {
+        for (int i = 0; i < sends.size(); i++) {
+            try {
+                sends.get(i).get();
+            } catch (Exception e) {
+                throw failed(records.get(i), e);
+            }
+        }
+    }
+
+    private boolean isDuplicate(ConsumerRecord<String, OrderCreated> record, Set<UUID> batchOrderIds) {
+        if (record.value() == null || record.value().getOrderId() == null) {
+            return false;
+        }
+        UUID orderId = record.value().getOrderId();
+        if (processedOrderIndex.isProcessed(record.partition(), orderId) || !batchOrderIds.add(orderId)) {
+            dispatchMetrics.count(Outcome.DUPLICATE);
+            if (log.isInfoEnabled() && logSampler.isSampled(orderId)) {
+                log.info("Skipping duplicate: partition: {} - key: {} - orderId: {}", record.partition(), record.key(), orderId);
+            }
+            return true;
+        }
+        return false;
+    }
+
+    private RuntimeException failed(ConsumerRecord<String, OrderCreated> record, Exception e) {
+        Exception failure;
+        if (e instanceof StockServiceUnavailableException unavailable) {
+            log.warn("Stock service unavailable: partition: {} - offset: {} - {}", record.partition(), record.offset(), e.getMessage());
+            if (!transactional) {
+                // The record is identified by the cause rather than the other way round, so that the error handler sees
+                // a different exception from a retryable failure of the same record, and resets the record's retries.
+                return new StockServiceUnavailableException(e.getMessage(), unavailable.getRetryAfter(), new BatchListenerFailedException(e.getMessage(), e, record));
+            }
+            failure = e;
+        } else if (e instanceof RetryableException) {
+            dispatchMetrics.count(Outcome.RETRYABLE);
+            log.warn("Retryable exception: partition: {} - offset: {} - {}", record.partition(), record.offset(), e.getMessage());
+            failure = e;
+        } else {
+            dispatchMetrics.count(Outcome.NOT_RETRYABLE);
+            log.error("NotRetryable exception: partition: {} - offset: {} - {}", record.partition(), record.offset(), e.getMessage());
+            failure = new NotRetryableException(e);
+        }
+        if (transactional) {
+            trackFailure(record, failure);
+        }
+        return new BatchListenerFailedException(e.getMessage(), failure, record);
+    }
+
+    private void trackFailure(ConsumerRecord<String, OrderCreated> record, Exception failure) {
+        failedRecords.compute(key(record), (key, previous) -> {
+            BackOffExecution retries = previous == null ? retryBackOff.start() : previous.retries();
+            boolean exhausted = !(failure instanceof StockServiceUnavailableException)
+                    && (!(failure instanceof RetryableException) || retries.nextBackOff() == BackOffExecution.STOP);
+            return new FailedRecord(retries, failure, exhausted);
+        });
+    }
+
+    /**
+     * Dead letter the record if it has no retries left.  The dead letter is sent in the batch's transaction, so it is only
+     * visible, and the record's offset only committed, if the rest of the batch succeeds.
+     */
+    private boolean deadLetteredInTransaction(ConsumerRecord<String, OrderCreated> record) {
+        if (failedRecords.isEmpty()) {
+            return false;
+        }
+        FailedRecord failedRecord = failedRecords.get(key(record));
+        if (failedRecord == null || !failedRecord.exhausted()) {
+            return false;
+        }
+        deadLetterRecoverer.accept(record, failedRecord.failure());
+        dispatchMetrics.count(Outcome.DEAD_LETTERED);
+        return true;
+    }
+
+    private static RecordPosition key(ConsumerRecord<?, ?> record) {
+        return new RecordPosition(record.topic(), record.partition(), record.offset());
+    }
+
+    private record RecordPosition(String topic, int partition, long offset) {
+    }
+
+    private record FailedRecord(BackOffExecution retries, Exception failure, boolean exhausted) {
+    }
+}
@@ -1,11 +1,19 @@
 package dev.lydtech.dispatch.handler;
 
+import java.nio.ByteBuffer;
+
+import dev.lydtech.dispatch.dedup.ProcessedOrderIndex;
 import dev.lydtech.dispatch.exception.NotRetryableException;
 import dev.lydtech.dispatch.exception.RetryableException;
+import dev.lydtech.dispatch.exception.StockServiceUnavailableException;
+import dev.lydtech.dispatch.logging.LogSampler;
 import dev.lydtech.dispatch.message.OrderCreated;
+import dev.lydtech.dispatch.metrics.DispatchMetrics;
+import dev.lydtech.dispatch.metrics.DispatchMetrics.Outcome;
 import dev.lydtech.dispatch.service.DispatchService;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.kafka.annotation.KafkaListener;
 import org.springframework.kafka.support.KafkaHeaders;
 import org.springframework.messaging.handler.annotation.Header;
@@ -15,26 +23,60 @@ import org.springframework.stereotype.Component;
 @Slf4j
 @RequiredArgsConstructor
 @Component
+@ConditionalOnProperty(name = "dispatch.listener.mode", havingValue = "record", matchIfMissing = true)
 public class OrderCreatedHandler {
 
     private final DispatchService dispatchService;
 
+    private final DispatchMetrics dispatchMetrics;
+
+    private final LogSampler logSampler;
+
+    private final ProcessedOrderIndex processedOrderIndex;
+
     @KafkaListener(
             id = "orderConsumerClient",
             topics = "order.created",
             groupId = "dispatch.order.created.consumer",
-            containerFactory = "kafkaListenerContainerFactory"
+            containerFactory = "kafkaListenerContainerFactory",
+            autoStartup = "#{!${dispatch.replay.enabled}}"
     )
-    public void listen(@Header(KafkaHeaders.RECEIVED_PARTITION) Integer partition, @Header(KafkaHeaders.RECEIVED_KEY) String key, @Payload OrderCreated payload) {
-        log.info("Received message: partition: "+partition+" - key: " +key+ " - orderId: " + payload.getOrderId() + " - item: " + payload.getItem());
+    public void listen(@Header(KafkaHeaders.RECEIVED_PARTITION) Integer partition,
+                       @Header(name = KafkaHeaders.DLT_ORIGINAL_PARTITION, required = false) byte[] originalPartition,
+                       @Header(KafkaHeaders.RECEIVED_KEY) String key, @Payload OrderCreated payload) {
+        if (log.isInfoEnabled() && logSampler.isSampled(payload.getOrderId())) {
+            log.info("Received message: partition: {} - key: {} - orderId: {} - item: {}", partition, key, payload.getOrderId(), payload.getItem());
+        }
+        int orderCreatedPartition = orderCreatedPartition(partition, originalPartition);
+        if (processedOrderIndex.isProcessed(orderCreatedPartition, payload.getOrderId())) {
+            dispatchMetrics.count(Outcome.DUPLICATE);
+            if (log.isInfoEnabled() && logSampler.isSampled(payload.getOrderId())) {
+                log.info("Skipping duplicate: partition: {} - key: {} - orderId: {}", partition, key, payload.getOrderId());
+            }
+            return;
+        }
         try {
             dispatchService.process(key, payload);
-        }  catch (RetryableException e) {
-            log.warn("Retryable exception: " + e.getMessage());
+            processedOrderIndex.markProcessed(orderCreatedPartition, payload.getOrderId());
+        } catch (StockServiceUnavailableException e) {
+            log.warn("Stock service unavailable: {}", e.getMessage());
+            throw e;
+        } catch (RetryableException e) {
+            dispatchMetrics.count(Outcome.RETRYABLE);
+            log.warn("Retryable exception: {}", e.getMessage());
             throw e;
         } catch (Exception e) {
-            log.error("NotRetryable exception: " + e.getMessage());
+            dispatchMetrics.count(Outcome.NOT_RETRYABLE);
+            log.error("NotRetryable exception: {}", e.getMessage());
             throw new NotRetryableException(e);
         }
     }
+
+    /**
+     * An order consumed from a retry topic is looked up by the order.created partition it was first consumed from, held in
+     * the original partition header the DeadLetterPublishingRecoverer added when forwarding it.
+     */
+    private static int orderCreatedPartition(int partition, byte[] originalPartition) {
+        return originalPartition != null && originalPartition.length == Integer.BYTES ? ByteBuffer.wrap(originalPartition).getInt() : partition;
+    }
 }
@@ -0,0 +1,27 @@
+package dev.lydtech.dispatch.logging;
+
+import java.util.UUID;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * Decides which orders have their per-message INFO lines written, so that at high volumes only 1 in N successful orders
+ * is logged.  Failures are not sampled and are always logged.
+ *
+ * The decision is taken from the order id, so it is the same for every line logged for an order, across the handler and
+ * the service, without holding any state.
+ */
+@Component
+public class LogSampler {
+
+    private final int sampleRate;
+
+    public LogSampler(@Value("${dispatch.logging.sampleRate}") int sampleRate) {
+        this.sampleRate = Math.max(sampleRate, 1);
+    }
+
+    public boolean isSampled(UUID orderId) {
+        return sampleRate == 1 || orderId == null || Math.floorMod(orderId.hashCode(), sampleRate) == 0;
+    }
+}
@@ -0,0 +1,203 @@
+package dev.lydtech.dispatch.metrics;
+
+import java.time.Duration;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+/**
+ * The dispatch meters.  Tags are limited to small fixed sets of values (outcome, result, topic), so that percentile
+ * histograms can be enabled with the management.metrics.distribution properties without a series per order, key or
+ * item.
+ *
+ *   dispatch.process                    timer: time to process an order, from the stock lookup to the acks of the outbound events
+ *   dispatch.stock.lookup               timer: stock service call latency, single or bulk
+ *   dispatch.send                       timer: time from handing an outbound event to the producer to its ack
+ *   dispatch.orders                     counter: orders by outcome
+ *   dispatch.retry.forwarded            counter: orders forwarded to the next retry topic, by the topic they failed on
+ *   dispatch.stock.breaker.transitions  counter: stock service circuit breaker state changes, by the new state
+ *   dispatch.stock.limiter.adjustments  counter: changes of the stock service concurrency limit, by direction
+ *   dispatch.stock.limiter.rejected     counter: stock service calls rejected by the concurrency limit
+ *   dispatch.backpressure.transitions   counter: order.created partitions paused or resumed for back-pressure, by action
+ *   dispatch.replay.records             counter: dead lettered orders replayed, failed again, skipped or duplicate, by result
+ *   dispatch.stock.table.lookups        counter: stock availability table lookups, by result
+ *   dispatch.startup.warmup             timer: time taken by each step of the startup warm-up, and in total
+ */
+@Component
+public class DispatchMetrics {
+
+    public enum Outcome {
+        AVAILABLE, UNAVAILABLE, DUPLICATE, RETRYABLE, NOT_RETRYABLE, DEAD_LETTERED;
+
+        private String tag() {
+            return name().toLowerCase();
+        }
+    }
+
+    private final MeterRegistry registry;
+
+    private final Map<Outcome, Counter> orders = new EnumMap<>(Outcome.class);
+
+    private final Map<String, Timer> processTimers;
+
+    private final Map<String, Timer[]> stockLookupTimers;
+
+    private final Map<String, Timer[]> sendTimers = new ConcurrentHashMap<>();
+
+    private final Map<String, Counter> retryForwarded = new ConcurrentHashMap<>();
+
+    private final Map<String, Counter> breakerTransitions = new ConcurrentHashMap<>();
+
+    private final Map<String, Counter> limiterAdjustments = new ConcurrentHashMap<>();
+
+    private final Counter limiterRejected;
+
+    private final Map<String, Counter> backPressureTransitions = new ConcurrentHashMap<>();
+
+    private final Map<String, Counter> replayRecords = new ConcurrentHashMap<>();
+
+    private final Map<String, Counter> stockTableLookups = new ConcurrentHashMap<>();
+
+    private final Map<String, Timer> warmupTimers = new ConcurrentHashMap<>();
+
+    public DispatchMetrics(@Autowired MeterRegistry registry) {
+        this.registry = registry;
+        for (Outcome outcome : Outcome.values()) {
+            orders.put(outcome, Counter.builder("dispatch.orders")
+                    .description("Orders by outcome")
+                    .tag("outcome", outcome.tag())
+                    .register(registry));
+        }
+        this.processTimers = Map.of(
+                "dispatched", processTimer("dispatched"),
+                "unavailable", processTimer("unavailable"),
+                "failed", processTimer("failed"));
+        this.stockLookupTimers = Map.of(
+                "single", resultTimers("dispatch.stock.lookup", "Stock service call latency", "type", "single"),
+                "bulk", resultTimers("dispatch.stock.lookup", "Stock service call latency", "type", "bulk"));
+        this.limiterRejected = Counter.builder("dispatch.stock.limiter.rejected")
+                .description("Stock service calls rejected by the concurrency limit")
+                .register(registry);
+    }
+
+    public Timer.Sample startTimer() {
+        return Timer.start(registry);
+    }
+
+    public void count(Outcome outcome) {
+        orders.get(outcome).increment();
+    }
+
+    public void countRetryForwarded(String topic) {
+        retryForwarded.computeIfAbsent(topic, t -> Counter.builder("dispatch.retry.forwarded")
+                .description("Orders forwarded to the next retry topic")
+                .tag("topic", t)
+                .register(registry)).increment();
+    }
+
+    /**
+     * @param state closed, open or half_open
+     */
+    public void countBreakerTransition(String state) {
+        breakerTransitions.computeIfAbsent(state, s -> Counter.builder("dispatch.stock.breaker.transitions")
+                .description("Stock service circuit breaker state changes")
+                .tag("state", s)
+                .register(registry)).increment();
+    }
+
+    /**
+     * @param direction increase or decrease
+     */
+    public void countLimiterAdjustment(String direction) {
+        limiterAdjustments.computeIfAbsent(direction, d -> Counter.builder("dispatch.stock.limiter.adjustments")
+                .description("Changes of the stock service concurrency limit")
+                .tag("direction", d)
+                .register(registry)).increment();
+    }
+
+    public void countLimiterRejected() {
+        limiterRejected.increment();
+    }
+
+    /**
+     * @param action paused or resumed
+     */
+    public void countBackPressureTransition(String action) {
+        backPressureTransitions.computeIfAbsent(action, a -> Counter.builder("dispatch.backpressure.transitions")
+                .description("Order partitions paused or resumed for back-pressure")
+                .tag("action", a)
+                .register(registry)).increment();
+    }
+
+    /**
+     * @param result replayed, failed, skipped or duplicate
+     */
+    public void countReplay(String result) {
+        replayRecords.computeIfAbsent(result, r -> Counter.builder("dispatch.replay.records")
+                .description("Dead lettered orders replayed")
+                .tag("result", r)
+                .register(registry)).increment();
+    }
+
+    /**
+     * @param result hit, miss or stale
+     */
+    public void countStockTableLookup(String result) {
+        stockTableLookups.computeIfAbsent(result, r -> Counter.builder("dispatch.stock.table.lookups")
+                .description("Stock availability table lookups")
+                .tag("result", r)
+                .register(registry)).increment();
+    }
+
+    /**
+     * @param step serializers, stock.connections, producer.metadata or total
+     */
+    public void recordWarmup(String step, Duration duration) {
+        warmupTimers.computeIfAbsent(step, s -> Timer.builder("dispatch.startup.warmup")
+                .description("Startup warm-up duration")
+                .tag("step", s)
+                .register(registry)).record(duration);
+    }
+
+    /**
+     * @param outcome dispatched, unavailable or failed
+     */
+    public void recordProcess(Timer.Sample sample, String outcome) {
+        sample.stop(processTimers.get(outcome));
+    }
+
+    /**
+     * @param type single or bulk
+     */
+    public void recordStockLookup(Timer.Sample sample, String type, Throwable error) {
+        sample.stop(stockLookupTimers.get(type)[error == null ? 0 : 1]);
+    }
+
+    public void recordSend(Timer.Sample sample, String topic, Throwable error) {
+        Timer[] timers = sendTimers.computeIfAbsent(topic, t -> resultTimers("dispatch.send", "Outbound event produce latency", "topic", t));
+        sample.stop(timers[error == null ? 0 : 1]);
+    }
+
+    private Timer processTimer(String outcome) {
+        return Timer.builder("dispatch.process")
+                .description("Order processing time")
+                .tag("outcome", outcome)
+                .register(registry);
+    }
+
+    /**
+     * The success and failure timers for the tag.
+     */
+    private Timer[] resultTimers(String name, String description, String tagKey, String tagValue) {
+        return new Timer[] {
+                Timer.builder(name).description(description).tag(tagKey, tagValue).tag("result", "success").register(registry),
+                Timer.builder(name).description(description).tag(tagKey, tagValue).tag("result", "failure").register(registry)
+        };
+    }
+}
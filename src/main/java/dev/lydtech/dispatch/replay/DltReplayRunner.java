@@ -0,0 +1,55 @@
+package dev.lydtech.dispatch.replay;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.boot.ExitCodeGenerator;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+/**
+ * Runs the replay of the dispatch.replay range as a one-shot command.  The order listeners are not started when the
+ * replay is enabled, the replay runs to completion on startup, and DispatchApplication then exits, with an exit code of
+ * 1 if any order failed to replay.  A replay that is stopped, or is run again with the same request, resumes from its
+ * committed progress.
+ */
+@Slf4j
+@Component
+@ConditionalOnProperty(name = "dispatch.replay.enabled", havingValue = "true")
+public class DltReplayRunner implements ApplicationRunner, ExitCodeGenerator {
+
+    private final DltReplayer replayer;
+
+    private final ReplayRequest request;
+
+    private volatile int exitCode;
+
+    public DltReplayRunner(@Autowired DltReplayer replayer, @Value("${dispatch.replay.partitions}") String partitions,
+                           @Value("${dispatch.replay.from}") String from, @Value("${dispatch.replay.to}") String to,
+                           @Value("${dispatch.replay.exceptions}") String exceptions) {
+        this.replayer = replayer;
+        this.request = ReplayRequest.parse(partitions, from, to, exceptions);
+    }
+
+    @Override
+    public void run(ApplicationArguments args) {
+        try {
+            ReplayProgress progress = replayer.replay(request);
+            exitCode = progress.getFailed() > 0 ? 1 : 0;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            log.warn("Replay interrupted");
+            exitCode = 1;
+        } catch (Exception e) {
+            log.error("Replay failed", e);
+            exitCode = 1;
+        }
+    }
+
+    @Override
+    public int getExitCode() {
+        return exitCode;
+    }
+}
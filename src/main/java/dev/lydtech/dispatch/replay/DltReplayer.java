@@ -0,0 +1,388 @@
+package dev.lydtech.dispatch.replay;
+
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+import dev.lydtech.dispatch.dedup.ProcessedOrderIndex;
+import dev.lydtech.dispatch.exception.NotRetryableException;
+import dev.lydtech.dispatch.exception.RetryableException;
+import dev.lydtech.dispatch.exception.StockServiceUnavailableException;
+import dev.lydtech.dispatch.handler.OffsetTracker;
+import dev.lydtech.dispatch.message.OrderCreated;
+import dev.lydtech.dispatch.metrics.DispatchMetrics;
+import dev.lydtech.dispatch.service.DispatchService;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.kafka.clients.consumer.Consumer;
+import org.apache.kafka.clients.consumer.ConsumerConfig;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.consumer.OffsetAndMetadata;
+import org.apache.kafka.clients.consumer.OffsetAndTimestamp;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.header.Header;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.kafka.core.ConsumerFactory;
+import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.kafka.support.KafkaHeaders;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Component;
+import org.springframework.util.backoff.BackOff;
+import org.springframework.util.backoff.BackOffExecution;
+
+/**
+ * Re-drives dead lettered orders through the DispatchService.  The range of the request is resolved to start and stop
+ * offsets for each partition when the replay starts, so records dead lettered during the replay are left for the next.
+ *
+ * The records are read by a consumer of their own, assigned to the partitions.  Its progress is committed under the
+ * dispatch.replay.groupId group, with the request as the offset metadata, so a replay of the same request that was
+ * stopped or failed resumes from where it got to rather than dispatching its orders again.  A different request starts
+ * from the start of its range.  The records are handed out to parallelism lanes by key, so the orders for a key are
+ * replayed in offset order, at no more than the rate overall, so that the stock service and the brokers shared with the
+ * live instances are not starved.
+ *
+ * Each order is checked against the ProcessedOrderIndex, by its original order.created partition, and marked once
+ * replayed, so an order dead lettered more than once in the range is dispatched once.  The live listener does not run
+ * alongside the replay, see DltReplayRunner, so the index is given all the order.created partitions for the replay.
+ *
+ * A retryable failure is retried with the retry back off, and an order turned away by the stock service circuit breaker
+ * or concurrency limit waits until it would be let through.  An order that still fails is counted and logged, and left
+ * on the dead letter topic.
+ */
+@Slf4j
+@Component
+@ConditionalOnProperty(name = "dispatch.replay.enabled", havingValue = "true")
+public class DltReplayer implements DisposableBean {
+
+    private static final String ORDER_CREATED_TOPIC = "order.created";
+
+    private final ConsumerFactory<String, Object> consumerFactory;
+
+    private final DispatchService dispatchService;
+
+    private final KafkaTemplate<String, Object> kafkaTemplate;
+
+    private final DispatchMetrics dispatchMetrics;
+
+    private final ProcessedOrderIndex processedOrderIndex;
+
+    private final BackOff retryBackOff;
+
+    private final String topic;
+
+    private final String groupId;
+
+    private final int parallelism;
+
+    private final double rate;
+
+    private final Duration progressInterval;
+
+    private volatile boolean stopping;
+
+    public DltReplayer(@Autowired ConsumerFactory<String, Object> consumerFactory, @Autowired DispatchService dispatchService,
+                       @Autowired KafkaTemplate<String, Object> kafkaTemplate, @Autowired DispatchMetrics dispatchMetrics,
+                       @Autowired ProcessedOrderIndex processedOrderIndex, @Autowired BackOff retryBackOff,
+                       @Value("${dispatch.replay.topic}") String topic, @Value("${dispatch.replay.groupId}") String groupId,
+                       @Value("${dispatch.replay.parallelism}") int parallelism,
+                       @Value("${dispatch.replay.rate}") double rate, @Value("${dispatch.replay.progressInterval}") Duration progressInterval) {
+        this.consumerFactory = consumerFactory;
+        this.dispatchService = dispatchService;
+        this.kafkaTemplate = kafkaTemplate;
+        this.dispatchMetrics = dispatchMetrics;
+        this.processedOrderIndex = processedOrderIndex;
+        this.retryBackOff = retryBackOff;
+        this.topic = topic;
+        this.groupId = groupId;
+        this.parallelism = parallelism;
+        this.rate = rate;
+        this.progressInterval = progressInterval;
+    }
+
+    /**
+     * Replay the records in the range, blocking until all have been replayed or have failed.
+     */
+    public ReplayProgress replay(ReplayRequest request) throws InterruptedException {
+        Properties overrides = new Properties();
+        overrides.put(ConsumerConfig.ENABLE_AUTO_COMMIT_CONFIG, "false");
+        try (Consumer<String, Object> consumer = consumerFactory.createConsumer(groupId, "dlt-replay", null, overrides)) {
+            List<TopicPartition> partitions = consumer.partitionsFor(topic).stream()
+                    .filter(partitionInfo -> request.includesPartition(partitionInfo.partition()))
+                    .map(partitionInfo -> new TopicPartition(topic, partitionInfo.partition()))
+                    .collect(Collectors.toList());
+            consumer.assign(partitions);
+            Map<TopicPartition, Long> stopOffsets = stopOffsets(consumer, partitions, request);
+            Map<TopicPartition, Long> startOffsets = startOffsets(consumer, partitions, request);
+            resumeFromCommitted(consumer, partitions, request, startOffsets);
+            long total = 0;
+            for (TopicPartition partition : partitions) {
+                long start = startOffsets.get(partition);
+                long stop = stopOffsets.get(partition);
+                if (start < stop) {
+                    consumer.seek(partition, start);
+                    total += stop - start;
+                } else {
+                    stopOffsets.remove(partition);
+                }
+            }
+            consumer.pause(partitions.stream().filter(partition -> !stopOffsets.containsKey(partition)).collect(Collectors.toList()));
+
+            ReplayProgress progress = new ReplayProgress(total, System::nanoTime);
+            log.info("Replaying {} records from {}: {}", total, topic, request);
+            List<TopicPartition> orderPartitions = consumer.partitionsFor(ORDER_CREATED_TOPIC).stream()
+                    .map(partitionInfo -> new TopicPartition(ORDER_CREATED_TOPIC, partitionInfo.partition()))
+                    .collect(Collectors.toList());
+            processedOrderIndex.onPartitionsAssigned(consumer, orderPartitions);
+            try {
+                replay(consumer, request, stopOffsets, progress);
+            } finally {
+                processedOrderIndex.onPartitionsRevokedAfterCommit(consumer, orderPartitions);
+            }
+            log.info("Replay from {} {}: {}", topic, stopping ? "stopped" : "completed", progress);
+            return progress;
+        }
+    }
+
+    private void replay(Consumer<String, Object> consumer, ReplayRequest request, Map<TopicPartition, Long> stopOffsets, ReplayProgress progress) throws InterruptedException {
+        ReplayRateLimiter rateLimiter = new ReplayRateLimiter(rate);
+        OffsetTracker offsetTracker = new OffsetTracker();
+        int maxInFlight = parallelism * 2;
+        Semaphore inFlight = new Semaphore(maxInFlight);
+        ExecutorService[] lanes = new ExecutorService[parallelism];
+        for (int i = 0; i < parallelism; i++) {
+            lanes[i] = Executors.newSingleThreadExecutor(new CustomizableThreadFactory("dlt-replay-" + i + "-"));
+        }
+        long nextReportNanos = System.nanoTime() + progressInterval.toNanos();
+        try {
+            while (!stopOffsets.isEmpty() && !stopping) {
+                for (ConsumerRecord<String, Object> record : consumer.poll(Duration.ofMillis(500))) {
+                    TopicPartition partition = new TopicPartition(record.topic(), record.partition());
+                    Long stopOffset = stopOffsets.get(partition);
+                    if (stopOffset == null || record.offset() >= stopOffset || stopping) {
+                        continue;
+                    }
+                    long generation = offsetTracker.started(partition, record.offset());
+                    if (!(record.value() instanceof OrderCreated) || !request.matchesException(record.headers())) {
+                        progress.skipped();
+                        dispatchMetrics.countReplay("skipped");
+                        offsetTracker.completed(partition, generation, record.offset());
+                        continue;
+                    }
+                    rateLimiter.acquire();
+                    inFlight.acquire();
+                    lanes[Math.floorMod(record.key() == null ? record.partition() : record.key().hashCode(), parallelism)].execute(() -> {
+                        try {
+                            if (replay(record, progress)) {
+                                offsetTracker.completed(partition, generation, record.offset());
+                            }
+                        } finally {
+                            inFlight.release();
+                        }
+                    });
+                }
+                commit(consumer, offsetTracker.committable(), request, false);
+                // The stop offset may fall in a gap, such as a transaction marker, so go by the position.
+                for (TopicPartition partition : List.copyOf(stopOffsets.keySet())) {
+                    if (consumer.position(partition) >= stopOffsets.get(partition)) {
+                        stopOffsets.remove(partition);
+                        consumer.pause(List.of(partition));
+                    }
+                }
+                if (System.nanoTime() >= nextReportNanos) {
+                    log.info("Replay from {} in progress: {}", topic, progress);
+                    nextReportNanos = System.nanoTime() + progressInterval.toNanos();
+                }
+            }
+            inFlight.acquire(maxInFlight);
+            commit(consumer, offsetTracker.committable(), request, true);
+        } finally {
+            for (ExecutorService lane : lanes) {
+                lane.shutdownNow();
+            }
+        }
+    }
+
+    /**
+     * Returns false if the replay was stopped before the record was replayed or had failed, so that its offset is not
+     * committed and it is replayed on resuming.
+     */
+    private boolean replay(ConsumerRecord<String, Object> record, ReplayProgress progress) {
+        OrderCreated orderCreated = (OrderCreated) record.value();
+        int orderPartition = originalPartition(record);
+        if (processedOrderIndex.isProcessed(orderPartition, orderCreated.getOrderId())) {
+            progress.skipped();
+            dispatchMetrics.countReplay("duplicate");
+            log.debug("Skipping duplicate: partition: {} - offset: {} - orderId: {}", record.partition(), record.offset(), orderCreated.getOrderId());
+            return true;
+        }
+        BackOffExecution backOffExecution = retryBackOff.start();
+        while (!stopping) {
+            try {
+                dispatch(record.key(), orderCreated);
+                processedOrderIndex.markProcessed(orderPartition, orderCreated.getOrderId());
+                progress.replayed();
+                dispatchMetrics.countReplay("replayed");
+                return true;
+            } catch (StockServiceUnavailableException e) {
+                if (!sleep(e.getRetryAfter().toMillis())) {
+                    break;
+                }
+            } catch (RetryableException e) {
+                long backOff = backOffExecution.nextBackOff();
+                if (backOff == BackOffExecution.STOP) {
+                    failed(record, progress, e);
+                    return true;
+                }
+                if (!sleep(backOff)) {
+                    break;
+                }
+            } catch (Exception e) {
+                failed(record, progress, e);
+                return true;
+            }
+        }
+        failed(record, progress, new InterruptedException("Replay stopped"));
+        return false;
+    }
+
+    /**
+     * The order.created partition the record was dead lettered from, going by the header the
+     * DeadLetterPublishingRecoverer adds, or the dead letter partition without it.  The first of the headers, as a
+     * recoverer appending the original headers on each forward through the retry topics adds one for each.
+     */
+    private static int originalPartition(ConsumerRecord<String, Object> record) {
+        Iterator<Header> headers = record.headers().headers(KafkaHeaders.DLT_ORIGINAL_PARTITION).iterator();
+        Header header = headers.hasNext() ? headers.next() : null;
+        return header != null && header.value().length == Integer.BYTES ? ByteBuffer.wrap(header.value()).getInt() : record.partition();
+    }
+
+    /**
+     * The request is the metadata of the committed offsets, so that only a replay of the same request resumes from them.
+     */
+    private void commit(Consumer<String, Object> consumer, Map<TopicPartition, OffsetAndMetadata> committable, ReplayRequest request, boolean sync) {
+        if (committable.isEmpty()) {
+            return;
+        }
+        Map<TopicPartition, OffsetAndMetadata> offsets = new HashMap<>();
+        committable.forEach((partition, offset) -> offsets.put(partition, new OffsetAndMetadata(offset.offset(), request.toString())));
+        if (sync) {
+            consumer.commitSync(offsets);
+        } else {
+            consumer.commitAsync(offsets, (committed, e) -> {
+                if (e != null) {
+                    log.warn("Failed to commit the replay progress: " + committed, e);
+                }
+            });
+        }
+    }
+
+    /**
+     * Moves the start of each partition on to the offset committed by an earlier replay of the same request.
+     */
+    private static void resumeFromCommitted(Consumer<String, Object> consumer, List<TopicPartition> partitions, ReplayRequest request,
+                                            Map<TopicPartition, Long> startOffsets) {
+        Map<TopicPartition, OffsetAndMetadata> committed = consumer.committed(Set.copyOf(partitions));
+        committed.forEach((partition, offset) -> {
+            if (offset != null && request.toString().equals(offset.metadata())) {
+                startOffsets.merge(partition, offset.offset(), Math::max);
+            }
+        });
+    }
+
+    /**
+     * With dispatch.transactions.enabled the outbound events are sent in a transaction of their own.
+     */
+    private void dispatch(String key, OrderCreated orderCreated) {
+        if (kafkaTemplate.isTransactional()) {
+            kafkaTemplate.executeInTransaction(operations -> {
+                process(key, orderCreated);
+                return null;
+            });
+        } else {
+            process(key, orderCreated);
+        }
+    }
+
+    private void process(String key, OrderCreated orderCreated) {
+        try {
+            dispatchService.process(key, orderCreated);
+        } catch (RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new NotRetryableException(e);
+        }
+    }
+
+    private void failed(ConsumerRecord<String, Object> record, ReplayProgress progress, Exception e) {
+        progress.failed();
+        dispatchMetrics.countReplay("failed");
+        log.error("Replay failed: partition: {} - offset: {} - key: {} - {}", record.partition(), record.offset(), record.key(), e.getMessage());
+    }
+
+    private static Map<TopicPartition, Long> startOffsets(Consumer<String, Object> consumer, List<TopicPartition> partitions, ReplayRequest request) {
+        Map<TopicPartition, Long> beginning = consumer.beginningOffsets(partitions);
+        if (request.getFromOffset() != null) {
+            return partitions.stream().collect(Collectors.toMap(Function.identity(), partition -> Math.max(beginning.get(partition), request.getFromOffset())));
+        }
+        if (request.getFromTime() != null) {
+            return offsetsForTime(consumer, partitions, request.getFromTime());
+        }
+        return new HashMap<>(beginning);
+    }
+
+    private static Map<TopicPartition, Long> stopOffsets(Consumer<String, Object> consumer, List<TopicPartition> partitions, ReplayRequest request) {
+        Map<TopicPartition, Long> end = consumer.endOffsets(partitions);
+        if (request.getToOffset() != null) {
+            return partitions.stream().collect(Collectors.toMap(Function.identity(), partition -> Math.min(end.get(partition), request.getToOffset() + 1),
+                    (a, b) -> a, HashMap::new));
+        }
+        if (request.getToTime() != null) {
+            return offsetsForTime(consumer, partitions, request.getToTime());
+        }
+        return new HashMap<>(end);
+    }
+
+    /**
+     * The first offset at or after the time in each partition, or the end offset if there is none.
+     */
+    private static Map<TopicPartition, Long> offsetsForTime(Consumer<String, Object> consumer, List<TopicPartition> partitions, Instant time) {
+        Map<TopicPartition, OffsetAndTimestamp> offsets = consumer.offsetsForTimes(partitions.stream()
+                .collect(Collectors.toMap(Function.identity(), partition -> time.toEpochMilli())));
+        Map<TopicPartition, Long> end = consumer.endOffsets(partitions);
+        Map<TopicPartition, Long> result = new HashMap<>();
+        for (TopicPartition partition : partitions) {
+            OffsetAndTimestamp offset = offsets.get(partition);
+            result.put(partition, offset != null ? offset.offset() : end.get(partition));
+        }
+        return result;
+    }
+
+    private static boolean sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    @Override
+    public void destroy() {
+        stopping = true;
+    }
+}
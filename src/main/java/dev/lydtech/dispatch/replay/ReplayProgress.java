@@ -0,0 +1,73 @@
+package dev.lydtech.dispatch.replay;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+/**
+ * The counts of a replay, updated from the replay threads.
+ */
+public class ReplayProgress {
+
+    private final long total;
+
+    private final LongSupplier nanoClock;
+
+    private final long startNanos;
+
+    private final AtomicLong replayed = new AtomicLong();
+
+    private final AtomicLong skipped = new AtomicLong();
+
+    private final AtomicLong failed = new AtomicLong();
+
+    /**
+     * @param total the records in the range, an upper bound as it may include transaction markers and compacted gaps
+     */
+    ReplayProgress(long total, LongSupplier nanoClock) {
+        this.total = total;
+        this.nanoClock = nanoClock;
+        this.startNanos = nanoClock.getAsLong();
+    }
+
+    void replayed() {
+        replayed.incrementAndGet();
+    }
+
+    void skipped() {
+        skipped.incrementAndGet();
+    }
+
+    void failed() {
+        failed.incrementAndGet();
+    }
+
+    public long getTotal() {
+        return total;
+    }
+
+    public long getReplayed() {
+        return replayed.get();
+    }
+
+    public long getSkipped() {
+        return skipped.get();
+    }
+
+    public long getFailed() {
+        return failed.get();
+    }
+
+    /**
+     * The records replayed or failed per second since the start.
+     */
+    public double getThroughput() {
+        long elapsedNanos = nanoClock.getAsLong() - startNanos;
+        return elapsedNanos <= 0 ? 0 : (double) (getReplayed() + getFailed()) * TimeUnit.SECONDS.toNanos(1) / elapsedNanos;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("replayed %d, failed %d, skipped %d of %d, %.1f records/s", getReplayed(), getFailed(), getSkipped(), total, getThroughput());
+    }
+}
@@ -0,0 +1,50 @@
+package dev.lydtech.dispatch.replay;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/**
+ * Spaces the replayed records out evenly at the rate.  A caller that falls behind does not build up a burst to catch up
+ * with, so the live traffic never sees more than the rate.
+ */
+class ReplayRateLimiter {
+
+    private final long intervalNanos;
+
+    private final LongSupplier nanoClock;
+
+    private long nextNanos;
+
+    ReplayRateLimiter(double recordsPerSecond) {
+        this(recordsPerSecond, System::nanoTime);
+    }
+
+    ReplayRateLimiter(double recordsPerSecond, LongSupplier nanoClock) {
+        if (recordsPerSecond <= 0) {
+            throw new IllegalArgumentException("The replay rate must be more than 0, got " + recordsPerSecond);
+        }
+        this.intervalNanos = (long) (TimeUnit.SECONDS.toNanos(1) / recordsPerSecond);
+        this.nanoClock = nanoClock;
+        this.nextNanos = nanoClock.getAsLong();
+    }
+
+    /**
+     * Blocks until the next record may be replayed.
+     */
+    void acquire() throws InterruptedException {
+        long waitNanos = reserve();
+        if (waitNanos > 0) {
+            TimeUnit.NANOSECONDS.sleep(waitNanos);
+        }
+    }
+
+    /**
+     * Reserve the next slot, and return how long until it comes round.
+     */
+    synchronized long reserve() {
+        long now = nanoClock.getAsLong();
+        long slot = Math.max(nextNanos, now);
+        nextNanos = slot + intervalNanos;
+        return slot - now;
+    }
+}
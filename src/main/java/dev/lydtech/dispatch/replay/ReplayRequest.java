@@ -0,0 +1,130 @@
+package dev.lydtech.dispatch.replay;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.format.DateTimeParseException;
+import java.util.Arrays;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.stream.Collectors;
+
+import org.apache.kafka.common.header.Header;
+import org.apache.kafka.common.header.Headers;
+import org.springframework.kafka.support.KafkaHeaders;
+
+/**
+ * The dead letter records to replay: those in the partitions, from and to an offset or a time, that failed with one of
+ * the exceptions.  Unset parts are not limited, so an empty request replays the whole topic.
+ */
+public class ReplayRequest {
+
+    private final Set<Integer> partitions;
+
+    private final Long fromOffset;
+
+    private final Long toOffset;
+
+    private final Instant fromTime;
+
+    private final Instant toTime;
+
+    private final Set<String> exceptions;
+
+    /**
+     * @param fromOffset the first offset to replay, or null
+     * @param toOffset the last offset to replay, or null
+     * @param fromTime the time of the first record to replay, or null
+     * @param toTime the time after the last record to replay, or null
+     * @param exceptions the exception class names, simple or fully qualified, matched against the exception and its cause
+     */
+    public ReplayRequest(Set<Integer> partitions, Long fromOffset, Long toOffset, Instant fromTime, Instant toTime, Set<String> exceptions) {
+        this.partitions = Set.copyOf(partitions);
+        this.fromOffset = fromOffset;
+        this.toOffset = toOffset;
+        this.fromTime = fromTime;
+        this.toTime = toTime;
+        this.exceptions = Set.copyOf(exceptions);
+    }
+
+    /**
+     * Parse the request from the dispatch.replay properties.  The partitions and exceptions are comma separated, and
+     * from and to are each an offset or an ISO-8601 instant.
+     */
+    public static ReplayRequest parse(String partitions, String from, String to, String exceptions) {
+        Set<Integer> partitionSet = split(partitions).stream().map(Integer::valueOf).collect(Collectors.toSet());
+        return new ReplayRequest(partitionSet, offset(from), offset(to), time(from), time(to), split(exceptions));
+    }
+
+    private static Set<String> split(String value) {
+        return Arrays.stream(value.split(","))
+                .map(String::trim)
+                .filter(part -> !part.isEmpty())
+                .collect(Collectors.toSet());
+    }
+
+    private static Long offset(String value) {
+        String trimmed = value.trim();
+        return !trimmed.isEmpty() && trimmed.chars().allMatch(Character::isDigit) ? Long.valueOf(trimmed) : null;
+    }
+
+    private static Instant time(String value) {
+        String trimmed = value.trim();
+        if (trimmed.isEmpty() || offset(trimmed) != null) {
+            return null;
+        }
+        try {
+            return Instant.parse(trimmed);
+        } catch (DateTimeParseException e) {
+            throw new IllegalArgumentException("Replay position must be an offset or an ISO-8601 instant: " + value, e);
+        }
+    }
+
+    public boolean includesPartition(int partition) {
+        return partitions.isEmpty() || partitions.contains(partition);
+    }
+
+    /**
+     * Whether the dead letter record failed with one of the exceptions, going by the headers the
+     * DeadLetterPublishingRecoverer adds.
+     */
+    public boolean matchesException(Headers headers) {
+        if (exceptions.isEmpty()) {
+            return true;
+        }
+        return matches(headers.lastHeader(KafkaHeaders.DLT_EXCEPTION_FQCN)) || matches(headers.lastHeader(KafkaHeaders.DLT_EXCEPTION_CAUSE_FQCN));
+    }
+
+    private boolean matches(Header header) {
+        if (header == null) {
+            return false;
+        }
+        String className = new String(header.value(), StandardCharsets.UTF_8);
+        String simpleName = className.substring(className.lastIndexOf('.') + 1);
+        return exceptions.contains(className) || exceptions.contains(simpleName);
+    }
+
+    public Long getFromOffset() {
+        return fromOffset;
+    }
+
+    public Long getToOffset() {
+        return toOffset;
+    }
+
+    public Instant getFromTime() {
+        return fromTime;
+    }
+
+    public Instant getToTime() {
+        return toTime;
+    }
+
+    /**
+     * Sorted, so that the same request always gives the same string, as it identifies the replay's committed progress.
+     */
+    @Override
+    public String toString() {
+        return "ReplayRequest [partitions=" + (partitions.isEmpty() ? "all" : new TreeSet<>(partitions)) + ", from=" + (fromOffset != null ? fromOffset : fromTime)
+                + ", to=" + (toOffset != null ? toOffset : toTime) + ", exceptions=" + (exceptions.isEmpty() ? "all" : new TreeSet<>(exceptions)) + "]";
+    }
+}
@@ -0,0 +1,196 @@
+package dev.lydtech.dispatch.serialization;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.UUID;
+
+import dev.lydtech.dispatch.message.DispatchCompleted;
+import dev.lydtech.dispatch.message.DispatchPreparing;
+import dev.lydtech.dispatch.message.OrderCreated;
+import dev.lydtech.dispatch.message.OrderDispatched;
+import org.apache.kafka.common.errors.SerializationException;
+
+/**
+ * The compact binary encoding of the dispatch messages.
+ *
+ *   byte     MAGIC, which can not start a JSON document
+ *   byte     message type
+ *   byte     null mask, bit n set when field n is null
+ *   fields   in declaration order, nulls omitted
+ *
+ * A UUID is its 16 raw bytes, most significant first.  A String is its UTF-8 length as an unsigned varint followed by
+ * the UTF-8 bytes.  Fields may only be appended to a message, so that older readers can ignore them.
+ */
+final class BinaryMessageCodec {
+
+    static final byte MAGIC = (byte) 0xD1;
+
+    private static final byte ORDER_CREATED = 1;
+    private static final byte DISPATCH_PREPARING = 2;
+    private static final byte ORDER_DISPATCHED = 3;
+    private static final byte DISPATCH_COMPLETED = 4;
+
+    private static final VarHandle LONG = MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.BIG_ENDIAN);
+
+    private BinaryMessageCodec() {
+    }
+
+    static byte[] encode(Object message) {
+        if (message instanceof OrderCreated orderCreated) {
+            return new Writer(ORDER_CREATED)
+                    .uuid(orderCreated.getOrderId())
+                    .string(orderCreated.getItem())
+                    .toBytes();
+        }
+        if (message instanceof DispatchPreparing dispatchPreparing) {
+            return new Writer(DISPATCH_PREPARING)
+                    .uuid(dispatchPreparing.getOrderId())
+                    .toBytes();
+        }
+        if (message instanceof OrderDispatched orderDispatched) {
+            return new Writer(ORDER_DISPATCHED)
+                    .uuid(orderDispatched.getOrderId())
+                    .uuid(orderDispatched.getProcessedById())
+                    .string(orderDispatched.getNotes())
+                    .toBytes();
+        }
+        if (message instanceof DispatchCompleted dispatchCompleted) {
+            return new Writer(DISPATCH_COMPLETED)
+                    .uuid(dispatchCompleted.getOrderId())
+                    .string(dispatchCompleted.getDispatchedDate())
+                    .toBytes();
+        }
+        throw new SerializationException("No binary encoding for type: " + message.getClass().getName());
+    }
+
+    static Object decode(byte[] data) {
+        try {
+            if (data[0] != MAGIC) {
+                throw new SerializationException("Not a binary encoded message");
+            }
+            Reader reader = new Reader(data);
+            return switch (data[1]) {
+                case ORDER_CREATED -> new OrderCreated(reader.uuid(), reader.string());
+                case DISPATCH_PREPARING -> new DispatchPreparing(reader.uuid());
+                case ORDER_DISPATCHED -> new OrderDispatched(reader.uuid(), reader.uuid(), reader.string());
+                case DISPATCH_COMPLETED -> new DispatchCompleted(reader.uuid(), reader.string());
+                default -> throw new SerializationException("Unknown message type: " + data[1]);
+            };
+        } catch (IndexOutOfBoundsException e) {
+            throw new SerializationException("Truncated binary message", e);
+        }
+    }
+
+    private static final class Writer {
+
+        private byte[] buffer = new byte[64];
+
+        private int position = 3;
+
+        private int field;
+
+        Writer(byte type) {
+            buffer[0] = MAGIC;
+            buffer[1] = type;
+        }
+
+        Writer uuid(UUID value) {
+            if (isNull(value)) {
+                return this;
+            }
+            ensureCapacity(16);
+            LONG.set(buffer, position, value.getMostSignificantBits());
+            LONG.set(buffer, position + 8, value.getLeastSignificantBits());
+            position += 16;
+            return this;
+        }
+
+        Writer string(String value) {
+            if (isNull(value)) {
+                return this;
+            }
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            ensureCapacity(5 + bytes.length);
+            int length = bytes.length;
+            while ((length & ~0x7F) != 0) {
+                buffer[position++] = (byte) ((length & 0x7F) | 0x80);
+                length >>>= 7;
+            }
+            buffer[position++] = (byte) length;
+            System.arraycopy(bytes, 0, buffer, position, bytes.length);
+            position += bytes.length;
+            return this;
+        }
+
+        byte[] toBytes() {
+            return Arrays.copyOf(buffer, position);
+        }
+
+        private boolean isNull(Object value) {
+            int bit = 1 << field++;
+            if (value == null) {
+                buffer[2] |= bit;
+                return true;
+            }
+            return false;
+        }
+
+        private void ensureCapacity(int bytes) {
+            if (position + bytes > buffer.length) {
+                buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, position + bytes));
+            }
+        }
+    }
+
+    private static final class Reader {
+
+        private final byte[] data;
+
+        private int position = 3;
+
+        private int field;
+
+        Reader(byte[] data) {
+            this.data = data;
+        }
+
+        UUID uuid() {
+            if (isNull()) {
+                return null;
+            }
+            UUID value = new UUID((long) LONG.get(data, position), (long) LONG.get(data, position + 8));
+            position += 16;
+            return value;
+        }
+
+        String string() {
+            if (isNull()) {
+                return null;
+            }
+            int length = 0;
+            int shift = 0;
+            byte next;
+            do {
+                if (shift > 28) {
+                    throw new SerializationException("Malformed string length");
+                }
+                next = data[position++];
+                length |= (next & 0x7F) << shift;
+                shift += 7;
+            } while ((next & 0x80) != 0);
+            if (length < 0 || position + length > data.length) {
+                throw new SerializationException("Truncated binary message");
+            }
+            String value = new String(data, position, length, StandardCharsets.UTF_8);
+            position += length;
+            return value;
+        }
+
+        private boolean isNull() {
+            return (data[2] & (1 << field++)) != 0;
+        }
+    }
+}
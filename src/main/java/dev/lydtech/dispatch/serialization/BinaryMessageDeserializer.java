@@ -0,0 +1,42 @@
+package dev.lydtech.dispatch.serialization;
+
+import java.util.Map;
+
+import org.apache.kafka.common.header.Headers;
+import org.apache.kafka.common.serialization.Deserializer;
+
+/**
+ * Reads the dispatch messages in the compact binary encoding of BinaryMessageCodec.  Anything else is passed to an
+ * OrderCreatedJsonDeserializer, configured with the same properties, so that JSON events from upstream producers, and
+ * those already on the topics when the format is switched, are still read.
+ */
+public class BinaryMessageDeserializer implements Deserializer<Object> {
+
+    private final OrderCreatedJsonDeserializer jsonDeserializer = new OrderCreatedJsonDeserializer();
+
+    @Override
+    public void configure(Map<String, ?> configs, boolean isKey) {
+        jsonDeserializer.configure(configs, isKey);
+    }
+
+    @Override
+    public Object deserialize(String topic, byte[] data) {
+        return deserialize(topic, null, data);
+    }
+
+    @Override
+    public Object deserialize(String topic, Headers headers, byte[] data) {
+        if (data == null) {
+            return null;
+        }
+        if (data.length > 0 && data[0] == BinaryMessageCodec.MAGIC) {
+            return BinaryMessageCodec.decode(data);
+        }
+        return headers == null ? jsonDeserializer.deserialize(topic, data) : jsonDeserializer.deserialize(topic, headers, data);
+    }
+
+    @Override
+    public void close() {
+        jsonDeserializer.close();
+    }
+}
@@ -0,0 +1,22 @@
+package dev.lydtech.dispatch.serialization;
+
+import org.apache.kafka.common.serialization.Serializer;
+
+/**
+ * Writes the dispatch messages in the compact binary encoding of BinaryMessageCodec, without type headers.  A byte
+ * array is written as is, as the dead letter publishing recoverer does with the raw value of an event that could not be
+ * deserialized.
+ */
+public class BinaryMessageSerializer implements Serializer<Object> {
+
+    @Override
+    public byte[] serialize(String topic, Object data) {
+        if (data == null) {
+            return null;
+        }
+        if (data instanceof byte[] bytes) {
+            return bytes;
+        }
+        return BinaryMessageCodec.encode(data);
+    }
+}
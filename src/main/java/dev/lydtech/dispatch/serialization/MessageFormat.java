@@ -0,0 +1,38 @@
+package dev.lydtech.dispatch.serialization;
+
+import org.apache.kafka.common.serialization.Deserializer;
+import org.apache.kafka.common.serialization.Serializer;
+import org.springframework.kafka.support.serializer.JsonSerializer;
+
+/**
+ * The value formats selected by dispatch.serialization.format.
+ */
+public enum MessageFormat {
+
+    /**
+     * JSON, with the type of each outbound event in a header.  OrderCreated events are read by a streaming parser.
+     */
+    JSON(JsonSerializer.class, OrderCreatedJsonDeserializer.class),
+
+    /**
+     * The compact binary encoding of BinaryMessageCodec.  JSON events are still read.
+     */
+    BINARY(BinaryMessageSerializer.class, BinaryMessageDeserializer.class);
+
+    private final Class<? extends Serializer> serializer;
+
+    private final Class<? extends Deserializer> deserializer;
+
+    MessageFormat(Class<? extends Serializer> serializer, Class<? extends Deserializer> deserializer) {
+        this.serializer = serializer;
+        this.deserializer = deserializer;
+    }
+
+    public Class<? extends Serializer> getSerializer() {
+        return serializer;
+    }
+
+    public Class<? extends Deserializer> getDeserializer() {
+        return deserializer;
+    }
+}
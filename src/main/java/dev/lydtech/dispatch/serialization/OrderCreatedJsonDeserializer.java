@@ -0,0 +1,162 @@
+package dev.lydtech.dispatch.serialization;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.UUID;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import dev.lydtech.dispatch.message.OrderCreated;
+import org.apache.kafka.common.header.Header;
+import org.apache.kafka.common.header.Headers;
+import org.apache.kafka.common.serialization.Deserializer;
+import org.springframework.kafka.support.mapping.AbstractJavaTypeMapper;
+import org.springframework.kafka.support.serializer.JsonDeserializer;
+
+/**
+ * Reads OrderCreated events with a streaming parser straight from the bytes, rather than resolving the type and binding
+ * through the ObjectMapper.  Anything else is passed to a JsonDeserializer, configured with the same properties.
+ *
+ * The fast path only takes the usual shape of the event: an object whose orderId is a UUID in its canonical form and
+ * whose item is a string, either of them null or missing, with any other fields ignored.  A record with a type header
+ * for another type, or that the fast path does not recognise, including one that is not valid JSON, is read by the
+ * JsonDeserializer instead.  So the events read, and the errors that the ErrorHandlingDeserializer turns into poison pill
+ * records, are the same as with the JsonDeserializer alone.
+ */
+public class OrderCreatedJsonDeserializer implements Deserializer<Object> {
+
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+    private static final byte[] ORDER_CREATED_TYPE_ID = OrderCreated.class.getName().getBytes(StandardCharsets.UTF_8);
+
+    private final JsonDeserializer<Object> jsonDeserializer = new JsonDeserializer<>();
+
+    private boolean fastPath;
+
+    private boolean removeTypeHeaders = true;
+
+    @Override
+    public void configure(Map<String, ?> configs, boolean isKey) {
+        jsonDeserializer.configure(configs, isKey);
+        Object defaultType = configs.get(JsonDeserializer.VALUE_DEFAULT_TYPE);
+        fastPath = !isKey && (OrderCreated.class.equals(defaultType) || OrderCreated.class.getName().equals(defaultType));
+        Object remove = configs.get(JsonDeserializer.REMOVE_TYPE_INFO_HEADERS);
+        removeTypeHeaders = remove == null || Boolean.parseBoolean(remove.toString());
+    }
+
+    @Override
+    public Object deserialize(String topic, byte[] data) {
+        return deserialize(topic, null, data);
+    }
+
+    @Override
+    public Object deserialize(String topic, Headers headers, byte[] data) {
+        if (data == null) {
+            return null;
+        }
+        if (fastPath && isOrderCreated(headers)) {
+            OrderCreated orderCreated = read(data);
+            if (orderCreated != null) {
+                if (headers != null && removeTypeHeaders) {
+                    headers.remove(AbstractJavaTypeMapper.DEFAULT_CLASSID_FIELD_NAME);
+                    headers.remove(AbstractJavaTypeMapper.DEFAULT_CONTENT_CLASSID_FIELD_NAME);
+                    headers.remove(AbstractJavaTypeMapper.DEFAULT_KEY_CLASSID_FIELD_NAME);
+                }
+                return orderCreated;
+            }
+        }
+        return headers == null ? jsonDeserializer.deserialize(topic, data) : jsonDeserializer.deserialize(topic, headers, data);
+    }
+
+    /**
+     * A record without a type header is read as the default type.
+     */
+    private static boolean isOrderCreated(Headers headers) {
+        Header typeId = headers == null ? null : headers.lastHeader(AbstractJavaTypeMapper.DEFAULT_CLASSID_FIELD_NAME);
+        return typeId == null || Arrays.equals(typeId.value(), ORDER_CREATED_TYPE_ID);
+    }
+
+    /**
+     * @return the event, or null if it is not in the usual shape
+     */
+    static OrderCreated read(byte[] data) {
+        try (JsonParser parser = JSON_FACTORY.createParser(data)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                return null;
+            }
+            UUID orderId = null;
+            String item = null;
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.getCurrentName();
+                JsonToken value = parser.nextToken();
+                if ("orderId".equals(field)) {
+                    if (value == JsonToken.VALUE_STRING) {
+                        orderId = uuid(parser);
+                        if (orderId == null) {
+                            return null;
+                        }
+                    } else if (value != JsonToken.VALUE_NULL) {
+                        return null;
+                    }
+                } else if ("item".equals(field)) {
+                    if (value == JsonToken.VALUE_STRING) {
+                        item = parser.getText();
+                    } else if (value != JsonToken.VALUE_NULL) {
+                        return null;
+                    }
+                } else {
+                    parser.skipChildren();
+                }
+            }
+            return new OrderCreated(orderId, item);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Parse a UUID in its canonical form from the parser's text buffer, or return null.
+     */
+    private static UUID uuid(JsonParser parser) throws IOException {
+        char[] chars = parser.getTextCharacters();
+        int offset = parser.getTextOffset();
+        if (parser.getTextLength() != 36
+                || chars[offset + 8] != '-' || chars[offset + 13] != '-' || chars[offset + 18] != '-' || chars[offset + 23] != '-') {
+            return null;
+        }
+        long[] parts = {
+                hex(chars, offset, 8), hex(chars, offset + 9, 4), hex(chars, offset + 14, 4),
+                hex(chars, offset + 19, 4), hex(chars, offset + 24, 12)
+        };
+        for (long part : parts) {
+            if (part < 0) {
+                return null;
+            }
+        }
+        return new UUID(parts[0] << 32 | parts[1] << 16 | parts[2], parts[3] << 48 | parts[4]);
+    }
+
+    /**
+     * @return the value of the hex digits, or -1 if any is not an ASCII hex digit
+     */
+    private static long hex(char[] chars, int offset, int length) {
+        long value = 0;
+        for (int i = offset; i < offset + length; i++) {
+            char c = chars[i];
+            int digit = c >= '0' && c <= '9' ? c - '0' : c >= 'a' && c <= 'f' ? c - 'a' + 10 : c >= 'A' && c <= 'F' ? c - 'A' + 10 : -1;
+            if (digit < 0) {
+                return -1;
+            }
+            value = value << 4 | digit;
+        }
+        return value;
+    }
+
+    @Override
+    public void close() {
+        jsonDeserializer.close();
+    }
+}
@@ -1,15 +1,25 @@
 package dev.lydtech.dispatch.service;
 
 import java.time.LocalDate;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 
 import dev.lydtech.dispatch.client.StockServiceClient;
+import dev.lydtech.dispatch.logging.LogSampler;
 import dev.lydtech.dispatch.message.DispatchCompleted;
 import dev.lydtech.dispatch.message.DispatchPreparing;
 import dev.lydtech.dispatch.message.OrderCreated;
 import dev.lydtech.dispatch.message.OrderDispatched;
-import lombok.RequiredArgsConstructor;
+import dev.lydtech.dispatch.metrics.DispatchMetrics;
+import dev.lydtech.dispatch.metrics.DispatchMetrics.Outcome;
+import io.micrometer.core.instrument.Timer;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.kafka.core.KafkaTemplate;
 import org.springframework.stereotype.Service;
 
@@ -17,7 +27,6 @@ import static java.util.UUID.randomUUID;
 
 @Slf4j
 @Service
-@RequiredArgsConstructor
 public class DispatchService {
 
     private static final String DISPATCH_TRACKING_TOPIC = "dispatch.tracking";
@@ -25,33 +34,201 @@ public class DispatchService {
     private static final UUID APPLICATION_ID = randomUUID();
     private final KafkaTemplate<String, Object> kafkaProducer;
     private final StockServiceClient stockServiceClient;
+    private final DispatchMetrics dispatchMetrics;
+    private final LogSampler logSampler;
+    private final boolean pipelinedSends;
+
+    public DispatchService(@Autowired KafkaTemplate<String, Object> kafkaProducer, @Autowired StockServiceClient stockServiceClient, @Autowired DispatchMetrics dispatchMetrics,
+                           @Autowired LogSampler logSampler, @Value("${dispatch.producer.pipelined}") boolean pipelinedSends) {
+        this.kafkaProducer = kafkaProducer;
+        this.stockServiceClient = stockServiceClient;
+        this.dispatchMetrics = dispatchMetrics;
+        this.logSampler = logSampler;
+        this.pipelinedSends = pipelinedSends;
+    }
 
     public void process(String key, OrderCreated orderCreated) throws Exception {
+        Timer.Sample sample = dispatchMetrics.startTimer();
+        String outcome = "failed";
+        try {
+            String available = stockServiceClient.checkAvailability(orderCreated.getItem());
 
-        String available = stockServiceClient.checkAvailability(orderCreated.getItem());
+            if(Boolean.valueOf(available)) {
+                dispatchMetrics.count(Outcome.AVAILABLE);
+                if (pipelinedSends) {
+                    sendPipelined(key, orderCreated).get();
+                } else {
+                    sendAndWait(DISPATCH_TRACKING_TOPIC, key, buildDispatchPreparing(orderCreated));
+                    sendAndWait(ORDER_DISPATCHED_TOPIC, key, buildOrderDispatched(orderCreated));
+                    sendAndWait(DISPATCH_TRACKING_TOPIC, key, buildDispatchCompleted(orderCreated));
+                }
+                outcome = "dispatched";
+
+                if (isLogged(orderCreated)) {
+                    log.info("Sent messages: key: {} - orderId: {} - processedById: {}", key, orderCreated.getOrderId(), APPLICATION_ID);
+                }
+            } else {
+                dispatchMetrics.count(Outcome.UNAVAILABLE);
+                outcome = "unavailable";
+                if (isLogged(orderCreated)) {
+                    log.info("Item {} is unavailable.", orderCreated.getItem());
+                }
+            }
+        } finally {
+            dispatchMetrics.recordProcess(sample, outcome);
+        }
+    }
 
-        if(Boolean.valueOf(available)) {
-            DispatchPreparing dispatchPreparing = DispatchPreparing.builder()
-                    .orderId(orderCreated.getOrderId())
-                    .build();
-            kafkaProducer.send(DISPATCH_TRACKING_TOPIC, key, dispatchPreparing).get();
+    /**
+     * Non-blocking variant of process.  The stock lookup and the outbound sends are chained on the returned future, so no
+     * thread is parked waiting for either.  The sends are always pipelined.
+     */
+    public CompletableFuture<Void> processAsync(String key, OrderCreated orderCreated) {
+        Timer.Sample sample = dispatchMetrics.startTimer();
+        return stockServiceClient.checkAvailabilityAsync(orderCreated.getItem())
+                .thenCompose(available -> {
+                    if (available) {
+                        dispatchMetrics.count(Outcome.AVAILABLE);
+                        return sendPipelined(key, orderCreated)
+                                .thenApply(sent -> {
+                                    if (isLogged(orderCreated)) {
+                                        log.info("Sent messages: key: {} - orderId: {} - processedById: {}", key, orderCreated.getOrderId(), APPLICATION_ID);
+                                    }
+                                    return "dispatched";
+                                });
+                    }
+                    dispatchMetrics.count(Outcome.UNAVAILABLE);
+                    if (isLogged(orderCreated)) {
+                        log.info("Item {} is unavailable.", orderCreated.getItem());
+                    }
+                    return CompletableFuture.completedFuture("unavailable");
+                })
+                .whenComplete((outcome, error) -> dispatchMetrics.recordProcess(sample, error == null ? outcome : "failed"))
+                .thenApply(outcome -> null);
+    }
 
-            OrderDispatched orderDispatched = OrderDispatched.builder()
-                    .orderId(orderCreated.getOrderId())
-                    .processedById(APPLICATION_ID)
-                    .notes("Dispatched: " + orderCreated.getItem())
-                    .build();
-            kafkaProducer.send(ORDER_DISPATCHED_TOPIC, key, orderDispatched).get();
+    /**
+     * Start the stock lookups for the distinct items of a batch, for processInBatch to join.  The lookups are all in flight
+     * at once rather than made one order at a time, so with bulk lookups enabled they are merged into bulk requests.
+     */
+    public Map<String, CompletableFuture<Boolean>> lookUpAvailability(Collection<String> items) {
+        Map<String, CompletableFuture<Boolean>> availabilityByItem = new HashMap<>();
+        items.forEach(item -> availabilityByItem.computeIfAbsent(item, this::checkAvailabilityAsync));
+        return availabilityByItem;
+    }
 
-            DispatchCompleted dispatchCompleted = DispatchCompleted.builder()
-                    .orderId(orderCreated.getOrderId())
-                    .dispatchedDate(LocalDate.now().toString())
-                    .build();
-            kafkaProducer.send(DISPATCH_TRACKING_TOPIC, key, dispatchCompleted).get();
+    /**
+     * Process an order as part of a batch.  The order's stock lookup is taken from the supplied batch-scoped map, started
+     * by lookUpAvailability, and is only started here if it is missing from the map.  A failed lookup is thrown as the
+     * exception the stock service client failed with.  The outbound events are handed to the producer without waiting for
+     * the acks, so the caller must join the returned future before committing the batch.
+     */
+    public CompletableFuture<Void> processInBatch(String key, OrderCreated orderCreated, Map<String, CompletableFuture<Boolean>> availabilityByItem) {
+        Timer.Sample sample = dispatchMetrics.startTimer();
+        boolean available;
+        try {
+            available = join(availabilityByItem.computeIfAbsent(orderCreated.getItem(), this::checkAvailabilityAsync));
+        } catch (RuntimeException e) {
+            dispatchMetrics.recordProcess(sample, "failed");
+            throw e;
+        }
 
-            log.info("Sent messages: key: " + key + " - orderId: " + orderCreated.getOrderId() + " - processedById: " + APPLICATION_ID);
+        if(available) {
+            dispatchMetrics.count(Outcome.AVAILABLE);
+            CompletableFuture<Void> sent = sendPipelined(key, orderCreated)
+                    .whenComplete((result, error) -> dispatchMetrics.recordProcess(sample, error == null ? "dispatched" : "failed"));
+            if (isLogged(orderCreated)) {
+                log.info("Sending messages: key: {} - orderId: {} - processedById: {}", key, orderCreated.getOrderId(), APPLICATION_ID);
+            }
+            return sent;
         } else {
-            log.info("Item " + orderCreated.getItem() + " is unavailable.");
+            dispatchMetrics.count(Outcome.UNAVAILABLE);
+            dispatchMetrics.recordProcess(sample, "unavailable");
+            if (isLogged(orderCreated)) {
+                log.info("Item {} is unavailable.", orderCreated.getItem());
+            }
+            return CompletableFuture.completedFuture(null);
         }
     }
+
+    private CompletableFuture<Boolean> checkAvailabilityAsync(String item) {
+        try {
+            return stockServiceClient.checkAvailabilityAsync(item);
+        } catch (RuntimeException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    private static <T> T join(CompletableFuture<T> future) {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Whether to write the INFO lines for this order.  Checked before the log call so that no arguments array is built
+     * when the line is not written.
+     */
+    private boolean isLogged(OrderCreated orderCreated) {
+        return log.isInfoEnabled() && logSampler.isSampled(orderCreated.getOrderId());
+    }
+
+    /**
+     * Hand all three records to the producer back to back so that the acks can be awaited once.  The records share the
+     * same key, and the producer is idempotent (the client default), so per-key ordering on each topic is retained.  A
+     * failed send completes the returned future exceptionally, so the error surfaces from get() as it does in the
+     * sequential path.
+     */
+    private CompletableFuture<Void> sendPipelined(String key, OrderCreated orderCreated) {
+        return CompletableFuture.allOf(
+                send(DISPATCH_TRACKING_TOPIC, key, buildDispatchPreparing(orderCreated)),
+                send(ORDER_DISPATCHED_TOPIC, key, buildOrderDispatched(orderCreated)),
+                send(DISPATCH_TRACKING_TOPIC, key, buildDispatchCompleted(orderCreated)));
+    }
+
+    private void sendAndWait(String topic, String key, Object event) throws Exception {
+        Timer.Sample sample = dispatchMetrics.startTimer();
+        try {
+            kafkaProducer.send(topic, key, event).get();
+            dispatchMetrics.recordSend(sample, topic, null);
+        } catch (Exception e) {
+            dispatchMetrics.recordSend(sample, topic, e);
+            throw e;
+        }
+    }
+
+    /**
+     * Send the event, timing it until the ack is received.
+     */
+    private CompletableFuture<?> send(String topic, String key, Object event) {
+        Timer.Sample sample = dispatchMetrics.startTimer();
+        return kafkaProducer.send(topic, key, event)
+                .whenComplete((result, error) -> dispatchMetrics.recordSend(sample, topic, error));
+    }
+
+    private DispatchPreparing buildDispatchPreparing(OrderCreated orderCreated) {
+        return DispatchPreparing.builder()
+                .orderId(orderCreated.getOrderId())
+                .build();
+    }
+
+    private OrderDispatched buildOrderDispatched(OrderCreated orderCreated) {
+        return OrderDispatched.builder()
+                .orderId(orderCreated.getOrderId())
+                .processedById(APPLICATION_ID)
+                .notes("Dispatched: " + orderCreated.getItem())
+                .build();
+    }
+
+    private DispatchCompleted buildDispatchCompleted(OrderCreated orderCreated) {
+        return DispatchCompleted.builder()
+                .orderId(orderCreated.getOrderId())
+                .dispatchedDate(LocalDate.now().toString())
+                .build();
+    }
 }
@@ -0,0 +1,234 @@
+package dev.lydtech.dispatch.warmup;
+
+import java.net.URI;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import dev.lydtech.dispatch.message.DispatchCompleted;
+import dev.lydtech.dispatch.message.DispatchPreparing;
+import dev.lydtech.dispatch.message.OrderCreated;
+import dev.lydtech.dispatch.message.OrderDispatched;
+import dev.lydtech.dispatch.metrics.DispatchMetrics;
+import dev.lydtech.dispatch.serialization.MessageFormat;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.hc.client5.http.HttpRoute;
+import org.apache.hc.client5.http.impl.DefaultSchemePortResolver;
+import org.apache.hc.client5.http.impl.io.PoolingHttpClientConnectionManager;
+import org.apache.hc.client5.http.io.ConnectionEndpoint;
+import org.apache.hc.client5.http.protocol.HttpClientContext;
+import org.apache.hc.core5.http.HttpHost;
+import org.apache.hc.core5.util.TimeValue;
+import org.apache.hc.core5.util.Timeout;
+import org.apache.kafka.common.header.Headers;
+import org.apache.kafka.common.header.internals.RecordHeaders;
+import org.apache.kafka.common.serialization.Deserializer;
+import org.apache.kafka.common.serialization.Serializer;
+import org.springframework.beans.BeanUtils;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.kafka.core.ConsumerFactory;
+import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.kafka.core.ProducerFactory;
+import org.springframework.kafka.listener.AbstractMessageListenerContainer;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Component;
+
+import static java.util.UUID.randomUUID;
+
+/**
+ * Does the work that would otherwise fall on the first orders after startup, before the listener containers start:
+ *
+ *   serializers         round trips each message class through the configured value serializer and deserializer, so
+ *                       that Jackson and the binary codec are loaded and initialised
+ *   stock.connections   opens connections to the stock service into the pool used by the RestTemplate
+ *   producer.metadata   creates the producer and fetches the metadata of the outbound topics, waiting no longer than
+ *                       the metadata timeout
+ *
+ * The duration of each step, and of the whole warm-up, is recorded in the dispatch.startup.warmup timer.  A step that
+ * fails is logged and the next one run, so that the warm-up never stops the application from starting.
+ */
+@Slf4j
+@Component
+public class DispatchWarmup implements SmartLifecycle {
+
+    private static final List<String> OUTBOUND_TOPICS = List.of("dispatch.tracking", "order.dispatched");
+
+    private final boolean enabled;
+
+    private final MessageFormat messageFormat;
+
+    private final ProducerFactory<String, Object> producerFactory;
+
+    private final ConsumerFactory<String, Object> consumerFactory;
+
+    private final KafkaTemplate<String, Object> kafkaTemplate;
+
+    private final PoolingHttpClientConnectionManager stockServiceConnectionManager;
+
+    private final String stockServiceEndpoint;
+
+    private final int stockConnections;
+
+    private final Duration connectTimeout;
+
+    private final Duration keepAlive;
+
+    private final Duration metadataTimeout;
+
+    private final DispatchMetrics dispatchMetrics;
+
+    private volatile boolean running;
+
+    public DispatchWarmup(@Value("${dispatch.warmup.enabled}") boolean enabled, @Value("${dispatch.serialization.format}") MessageFormat messageFormat,
+                          @Autowired ProducerFactory<String, Object> producerFactory, @Autowired ConsumerFactory<String, Object> consumerFactory,
+                          @Autowired KafkaTemplate<String, Object> kafkaTemplate, @Autowired PoolingHttpClientConnectionManager stockServiceConnectionManager,
+                          @Value("${dispatch.stockServiceEndpoint}") String stockServiceEndpoint, @Value("${dispatch.warmup.stockConnections}") int stockConnections,
+                          @Value("${dispatch.stock.connectTimeout}") Duration connectTimeout, @Value("${dispatch.stock.keepAlive}") Duration keepAlive,
+                          @Value("${dispatch.warmup.metadataTimeout}") Duration metadataTimeout, @Autowired DispatchMetrics dispatchMetrics) {
+        this.enabled = enabled;
+        this.messageFormat = messageFormat;
+        this.producerFactory = producerFactory;
+        this.consumerFactory = consumerFactory;
+        this.kafkaTemplate = kafkaTemplate;
+        this.stockServiceConnectionManager = stockServiceConnectionManager;
+        this.stockServiceEndpoint = stockServiceEndpoint;
+        this.stockConnections = stockConnections;
+        this.connectTimeout = connectTimeout;
+        this.keepAlive = keepAlive;
+        this.metadataTimeout = metadataTimeout;
+        this.dispatchMetrics = dispatchMetrics;
+    }
+
+    @Override
+    public void start() {
+        if (enabled) {
+            long startNanos = System.nanoTime();
+            step("serializers", this::primeSerializers);
+            step("stock.connections", this::openStockConnections);
+            step("producer.metadata", this::fetchProducerMetadata);
+            Duration duration = Duration.ofNanos(System.nanoTime() - startNanos);
+            dispatchMetrics.recordWarmup("total", duration);
+            log.info("Warm-up completed in {} ms", duration.toMillis());
+        }
+        running = true;
+    }
+
+    @Override
+    public void stop() {
+        running = false;
+    }
+
+    @Override
+    public boolean isRunning() {
+        return running;
+    }
+
+    /**
+     * Started just before the listener containers.
+     */
+    @Override
+    public int getPhase() {
+        return AbstractMessageListenerContainer.DEFAULT_PHASE - 1;
+    }
+
+    private void step(String name, Step step) {
+        long startNanos = System.nanoTime();
+        try {
+            step.run();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            log.warn("Warm-up step {} interrupted", name);
+        } catch (Exception e) {
+            log.warn("Warm-up step " + name + " failed", e);
+        } finally {
+            dispatchMetrics.recordWarmup(name, Duration.ofNanos(System.nanoTime() - startNanos));
+        }
+    }
+
+    /**
+     * Fresh instances, configured as the producer and consumer configure theirs.  The classes they load and initialise,
+     * such as Jackson's, are shared with the producer's and consumer's instances.
+     */
+    @SuppressWarnings("unchecked")
+    private void primeSerializers() {
+        UUID orderId = randomUUID();
+        List<Object> messages = List.of(
+                OrderCreated.builder().orderId(orderId).item("warm-up").build(),
+                DispatchPreparing.builder().orderId(orderId).build(),
+                OrderDispatched.builder().orderId(orderId).processedById(randomUUID()).notes("warm-up").build(),
+                DispatchCompleted.builder().orderId(orderId).dispatchedDate("warm-up").build());
+        try (Serializer<Object> serializer = BeanUtils.instantiateClass(messageFormat.getSerializer());
+             Deserializer<Object> deserializer = BeanUtils.instantiateClass(messageFormat.getDeserializer())) {
+            serializer.configure(producerFactory.getConfigurationProperties(), false);
+            deserializer.configure(consumerFactory.getConfigurationProperties(), false);
+            for (Object message : messages) {
+                Headers headers = new RecordHeaders();
+                byte[] data = serializer.serialize(OUTBOUND_TOPICS.get(0), headers, message);
+                deserializer.deserialize(OUTBOUND_TOPICS.get(0), headers, data);
+            }
+        }
+    }
+
+    /**
+     * The connections are all leased before any is released, so that each is a new one.  A connection that cannot be
+     * opened ends the step, as the stock service is likely not up yet.
+     */
+    private void openStockConnections() throws Exception {
+        HttpHost host = HttpHost.create(URI.create(stockServiceEndpoint));
+        HttpRoute route = new HttpRoute(new HttpHost(host.getSchemeName(), host.getHostName(), DefaultSchemePortResolver.INSTANCE.resolve(host)),
+                null, "https".equalsIgnoreCase(host.getSchemeName()));
+        List<ConnectionEndpoint> endpoints = new ArrayList<>();
+        try {
+            for (int i = 0; i < Math.min(stockConnections, stockServiceConnectionManager.getMaxPerRoute(route)); i++) {
+                ConnectionEndpoint endpoint = stockServiceConnectionManager.lease("warm-up-" + i, route, null)
+                        .get(Timeout.ofMilliseconds(connectTimeout.toMillis()));
+                endpoints.add(endpoint);
+                stockServiceConnectionManager.connect(endpoint, TimeValue.ofMilliseconds(connectTimeout.toMillis()), HttpClientContext.create());
+            }
+        } finally {
+            for (ConnectionEndpoint endpoint : endpoints) {
+                stockServiceConnectionManager.release(endpoint, null, TimeValue.of(keepAlive.toMillis(), TimeUnit.MILLISECONDS));
+            }
+        }
+    }
+
+    /**
+     * A transactional template only produces within a transaction, which also initialises the transactional producer.
+     *
+     * The fetch blocks for up to the producer's max.block.ms per topic while the brokers are unreachable, so it runs on
+     * its own thread and the step waits no longer than the metadata timeout.  A fetch still running is left to finish in
+     * the background, as the producer needs the metadata for the first orders anyway.
+     */
+    private void fetchProducerMetadata() throws Exception {
+        FutureTask<Void> fetch = new FutureTask<>(() -> {
+            for (String topic : OUTBOUND_TOPICS) {
+                if (kafkaTemplate.isTransactional()) {
+                    kafkaTemplate.executeInTransaction(operations -> operations.partitionsFor(topic));
+                } else {
+                    kafkaTemplate.partitionsFor(topic);
+                }
+            }
+            return null;
+        });
+        Thread thread = new CustomizableThreadFactory("warm-up-").newThread(fetch);
+        thread.setDaemon(true);
+        thread.start();
+        try {
+            fetch.get(metadataTimeout.toMillis(), TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            log.warn("Warm-up step producer.metadata timed out after {} ms, continuing", metadataTimeout.toMillis());
+        }
+    }
+
+    @FunctionalInterface
+    private interface Step {
+
+        void run() throws Exception;
+    }
+}
@@ -0,0 +1,44 @@
+package dev.lydtech.dispatch;
+
+import java.util.UUID;
+
+import dev.lydtech.dispatch.message.DispatchCompleted;
+import dev.lydtech.dispatch.message.DispatchPreparing;
+import dev.lydtech.dispatch.message.OrderCreated;
+import dev.lydtech.dispatch.message.OrderDispatched;
+import dev.lydtech.dispatch.serialization.BinaryMessageDeserializer;
+import dev.lydtech.dispatch.serialization.BinaryMessageSerializer;
+import dev.lydtech.dispatch.serialization.OrderCreatedJsonDeserializer;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+import org.springframework.aot.hint.RuntimeHints;
+import org.springframework.aot.hint.predicate.RuntimeHintsPredicates;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+
+class DispatchRuntimeHintsTest {
+
+    private RuntimeHints hints;
+
+    @BeforeEach
+    void setUp() {
+        hints = new RuntimeHints();
+        new DispatchRuntimeHints().registerHints(hints, getClass().getClassLoader());
+    }
+
+    @ParameterizedTest
+    @ValueSource(classes = {OrderCreated.class, DispatchPreparing.class, OrderDispatched.class, DispatchCompleted.class})
+    void registersTheMessageClassesForJacksonBinding(Class<?> messageClass) throws Exception {
+        assertThat(RuntimeHintsPredicates.reflection().onConstructor(messageClass.getDeclaredConstructor()).test(hints), equalTo(true));
+        assertThat(RuntimeHintsPredicates.reflection().onMethod(messageClass, "getOrderId").test(hints), equalTo(true));
+        assertThat(RuntimeHintsPredicates.reflection().onMethod(messageClass.getMethod("setOrderId", UUID.class)).test(hints), equalTo(true));
+    }
+
+    @ParameterizedTest
+    @ValueSource(classes = {OrderCreatedJsonDeserializer.class, BinaryMessageSerializer.class, BinaryMessageDeserializer.class})
+    void registersTheSerializersForKafkaToCreate(Class<?> serializerClass) throws Exception {
+        assertThat(RuntimeHintsPredicates.reflection().onConstructor(serializerClass.getConstructor()).test(hints), equalTo(true));
+    }
+}
@@ -0,0 +1,129 @@
+package dev.lydtech.dispatch.client;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.jupiter.api.Test;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+
+class ItemAvailabilityMapTest {
+
+    @Test
+    void get_PutItems() {
+        ItemAvailabilityMap entries = new ItemAvailabilityMap();
+
+        entries.put("item-1", 3L);
+        entries.put("item-2", 4L);
+
+        assertThat(entries.get("item-1"), equalTo(3L));
+        assertThat(entries.get("item-2"), equalTo(4L));
+        assertThat(entries.get("item-3"), equalTo(ItemAvailabilityMap.ABSENT));
+        assertThat(entries.size(), equalTo(2));
+    }
+
+    @Test
+    void put_ReplacesTheEntry() {
+        ItemAvailabilityMap entries = new ItemAvailabilityMap();
+
+        entries.put("item-1", 3L);
+        entries.put("item-1", 2L);
+
+        assertThat(entries.get("item-1"), equalTo(2L));
+        assertThat(entries.size(), equalTo(1));
+    }
+
+    @Test
+    void put_GrowsTheTable() {
+        ItemAvailabilityMap entries = new ItemAvailabilityMap();
+
+        for (int i = 0; i < 10_000; i++) {
+            entries.put("item-" + i, i);
+        }
+
+        for (int i = 0; i < 10_000; i++) {
+            assertThat(entries.get("item-" + i), equalTo((long) i));
+        }
+        assertThat(entries.size(), equalTo(10_000));
+    }
+
+    @Test
+    void remove_KeepsTheItemsAfterItReachable() {
+        // "Aa" and "BB" have the same hash code, so share a home slot.
+        ItemAvailabilityMap entries = new ItemAvailabilityMap();
+        entries.put("Aa", 1L);
+        entries.put("BB", 2L);
+        entries.put("AaAa", 3L);
+        entries.put("BBBB", 4L);
+
+        entries.remove("Aa");
+        entries.remove("item-1");
+
+        assertThat(entries.get("Aa"), equalTo(ItemAvailabilityMap.ABSENT));
+        assertThat(entries.get("BB"), equalTo(2L));
+        assertThat(entries.get("AaAa"), equalTo(3L));
+        assertThat(entries.get("BBBB"), equalTo(4L));
+        assertThat(entries.size(), equalTo(3));
+    }
+
+    @Test
+    void remove_ManyItems() {
+        ItemAvailabilityMap entries = new ItemAvailabilityMap();
+        for (int i = 0; i < 1_000; i++) {
+            entries.put("item-" + i, i);
+        }
+
+        for (int i = 0; i < 1_000; i += 2) {
+            entries.remove("item-" + i);
+        }
+
+        for (int i = 0; i < 1_000; i++) {
+            assertThat(entries.get("item-" + i), equalTo(i % 2 == 0 ? ItemAvailabilityMap.ABSENT : (long) i));
+        }
+        assertThat(entries.size(), equalTo(500));
+    }
+
+    @Test
+    void forEach_PassesEveryEntry() throws Exception {
+        ItemAvailabilityMap entries = new ItemAvailabilityMap();
+        entries.put("item-1", 3L);
+        entries.put("item-2", 4L);
+        entries.put("item-3", 5L);
+        entries.remove("item-2");
+        Map<String, Long> written = new HashMap<>();
+
+        entries.forEach(written::put);
+
+        assertThat(written, equalTo(Map.of("item-1", 3L, "item-3", 5L)));
+    }
+
+    /**
+     * The writer keeps the item in the map while it adds and removes others, growing and shifting the table under the
+     * lookups.
+     */
+    @Test
+    void get_WhileAnotherThreadWrites() throws Exception {
+        ItemAvailabilityMap entries = new ItemAvailabilityMap();
+        entries.put("retained", 1L);
+        AtomicBoolean stopped = new AtomicBoolean();
+        Thread writer = new Thread(() -> {
+            for (int i = 0; !stopped.get(); i++) {
+                entries.put("item-" + i, i);
+                if (i >= 1_000) {
+                    entries.remove("item-" + (i - 1_000));
+                }
+            }
+        });
+        writer.start();
+        try {
+            for (int i = 0; i < 100_000; i++) {
+                assertThat(entries.get("retained"), equalTo(1L));
+            }
+        } finally {
+            stopped.set(true);
+            writer.join();
+        }
+    }
+}
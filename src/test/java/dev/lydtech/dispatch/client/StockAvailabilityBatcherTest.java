@@ -0,0 +1,99 @@
+package dev.lydtech.dispatch.client;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+
+import dev.lydtech.dispatch.exception.RetryableException;
+import org.junit.jupiter.api.Test;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.instanceOf;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class StockAvailabilityBatcherTest {
+
+    private final List<Set<String>> requests = new CopyOnWriteArrayList<>();
+
+    @Test
+    void lookup_SentAfterWindow() throws Exception {
+        StockAvailabilityBatcher batcher = new StockAvailabilityBatcher(Duration.ofMillis(50), 10,
+                items -> record(items, CompletableFuture.completedFuture(Map.of("item-1", "true", "item-2", "false"))));
+
+        CompletableFuture<String> first = batcher.lookup("item-1");
+        CompletableFuture<String> second = batcher.lookup("item-2");
+
+        assertThat(first.get(), equalTo("true"));
+        assertThat(second.get(), equalTo("false"));
+        assertThat(requests, contains(Set.of("item-1", "item-2")));
+    }
+
+    @Test
+    void lookup_SentOnMaxItems() throws Exception {
+        StockAvailabilityBatcher batcher = new StockAvailabilityBatcher(Duration.ofSeconds(10), 2,
+                items -> record(items, CompletableFuture.completedFuture(Map.of("item-1", "true", "item-2", "true"))));
+
+        CompletableFuture<String> first = batcher.lookup("item-1");
+        CompletableFuture<String> second = batcher.lookup("item-2");
+
+        // Completed without waiting for the window.
+        assertThat(first.getNow(null), equalTo("true"));
+        assertThat(second.getNow(null), equalTo("true"));
+        assertThat(requests.size(), equalTo(1));
+    }
+
+    @Test
+    void lookup_SameItemShared() {
+        StockAvailabilityBatcher batcher = new StockAvailabilityBatcher(Duration.ofSeconds(10), 10,
+                items -> record(items, CompletableFuture.completedFuture(Map.of())));
+
+        assertThat(batcher.lookup("item-1"), sameInstance(batcher.lookup("item-1")));
+    }
+
+    @Test
+    void lookup_BulkRequestFailure() {
+        StockAvailabilityBatcher batcher = new StockAvailabilityBatcher(Duration.ofMillis(10), 10,
+                items -> record(items, CompletableFuture.failedFuture(new RetryableException("Service unavailable"))));
+
+        CompletableFuture<String> first = batcher.lookup("item-1");
+        CompletableFuture<String> second = batcher.lookup("item-2");
+
+        assertThat(assertThrows(ExecutionException.class, first::get).getCause(), instanceOf(RetryableException.class));
+        assertThat(assertThrows(ExecutionException.class, second::get).getCause(), instanceOf(RetryableException.class));
+        assertThat(requests.size(), equalTo(1));
+    }
+
+    @Test
+    void lookup_ItemMissingFromResponse() {
+        StockAvailabilityBatcher batcher = new StockAvailabilityBatcher(Duration.ofMillis(10), 10,
+                items -> record(items, CompletableFuture.completedFuture(Map.of("item-1", "true"))));
+
+        batcher.lookup("item-1");
+        CompletableFuture<String> missing = batcher.lookup("item-2");
+
+        ExecutionException exception = assertThrows(ExecutionException.class, missing::get);
+        assertThat(exception.getCause().getMessage(), equalTo("No availability returned for item: item-2"));
+    }
+
+    @Test
+    void lookup_NewBatchAfterSend() throws Exception {
+        StockAvailabilityBatcher batcher = new StockAvailabilityBatcher(Duration.ofMillis(10), 10,
+                items -> record(items, CompletableFuture.completedFuture(Map.of("item-1", "true"))));
+
+        assertThat(batcher.lookup("item-1").get(), equalTo("true"));
+        assertThat(batcher.lookup("item-1").get(), equalTo("true"));
+        assertThat(requests.size(), equalTo(2));
+    }
+
+    private CompletableFuture<Map<String, String>> record(Set<String> items, CompletableFuture<Map<String, String>> response) {
+        requests.add(Set.copyOf(items));
+        return response;
+    }
+}
@@ -0,0 +1,119 @@
+package dev.lydtech.dispatch.client;
+
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import dev.lydtech.dispatch.DispatchConfiguration;
+import dev.lydtech.dispatch.exception.RetryableException;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class StockAvailabilityCacheTest {
+
+    @Test
+    void get_Disabled() {
+        StockAvailabilityCache cache = new StockAvailabilityCache(false, Duration.ofSeconds(5), 100);
+        AtomicInteger lookups = new AtomicInteger();
+        cache.get("my-item", item -> "true" + lookups.incrementAndGet());
+        assertThat(cache.get("my-item", item -> "true" + lookups.incrementAndGet()), equalTo("true2"));
+        assertThat(lookups.get(), equalTo(2));
+    }
+
+    @Test
+    void get_HitAndMiss() {
+        StockAvailabilityCache cache = new StockAvailabilityCache(true, Duration.ofSeconds(5), 100);
+        assertThat(cache.get("my-item", item -> "true"), equalTo("true"));
+        assertThat(cache.get("my-item", item -> "false"), equalTo("true"));
+        assertThat(cache.getMissCount(), equalTo(1L));
+        assertThat(cache.getHitCount(), equalTo(1L));
+    }
+
+    @Test
+    void get_Expired() throws Exception {
+        StockAvailabilityCache cache = new StockAvailabilityCache(true, Duration.ofMillis(50), 100);
+        cache.get("my-item", item -> "true");
+        TimeUnit.MILLISECONDS.sleep(100);
+        assertThat(cache.get("my-item", item -> "false"), equalTo("false"));
+        assertThat(cache.getMissCount(), equalTo(2L));
+    }
+
+    @Test
+    void get_Evicted() {
+        StockAvailabilityCache cache = new StockAvailabilityCache(true, Duration.ofSeconds(5), 2);
+        for (int i = 0; i < 10; i++) {
+            cache.get("item-" + i, item -> "true");
+        }
+        assertThat(cache.getEvictionCount(), equalTo(8L));
+    }
+
+    @Test
+    void countsAreRegisteredAsMeters() {
+        StockAvailabilityCache cache = new StockAvailabilityCache(true, Duration.ofSeconds(5), 1);
+        SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+        new DispatchConfiguration().stockAvailabilityCacheMetrics(cache).bindTo(meterRegistry);
+        cache.get("item-1", item -> "true");
+        cache.get("item-1", item -> "true");
+        cache.get("item-2", item -> "true");
+        assertThat(meterRegistry.get("dispatch.stock.cache.hits").functionCounter().count(), equalTo(1.0));
+        assertThat(meterRegistry.get("dispatch.stock.cache.misses").functionCounter().count(), equalTo(2.0));
+        assertThat(meterRegistry.get("dispatch.stock.cache.evictions").functionCounter().count(), equalTo(1.0));
+    }
+
+    @Test
+    void get_FailureNotCached() {
+        StockAvailabilityCache cache = new StockAvailabilityCache(true, Duration.ofSeconds(5), 100);
+        assertThrows(RetryableException.class, () -> cache.get("my-item", item -> {
+            throw new RetryableException("Service unavailable");
+        }));
+        assertThat(cache.get("my-item", item -> "true"), equalTo("true"));
+    }
+
+    @Test
+    void get_ErrorNotCached() {
+        StockAvailabilityCache cache = new StockAvailabilityCache(true, Duration.ofSeconds(5), 100);
+        assertThrows(StackOverflowError.class, () -> cache.get("my-item", item -> {
+            throw new StackOverflowError();
+        }));
+        assertThat(cache.get("my-item", item -> "true"), equalTo("true"));
+    }
+
+    @Test
+    void get_ConcurrentLookupsCoalesced() throws Exception {
+        StockAvailabilityCache cache = new StockAvailabilityCache(true, Duration.ofSeconds(5), 100);
+        CountDownLatch lookupStarted = new CountDownLatch(1);
+        CountDownLatch releaseLookup = new CountDownLatch(1);
+        AtomicInteger lookups = new AtomicInteger();
+
+        CompletableFuture<String> first = CompletableFuture.supplyAsync(() -> cache.get("my-item", item -> {
+            lookups.incrementAndGet();
+            lookupStarted.countDown();
+            await(releaseLookup);
+            return "true";
+        }));
+        await(lookupStarted);
+        CompletableFuture<String> second = CompletableFuture.supplyAsync(() -> cache.get("my-item", item -> {
+            lookups.incrementAndGet();
+            return "false";
+        }));
+        releaseLookup.countDown();
+
+        assertThat(first.get(5, TimeUnit.SECONDS), equalTo("true"));
+        assertThat(second.get(5, TimeUnit.SECONDS), equalTo("true"));
+        assertThat(lookups.get(), equalTo(1));
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
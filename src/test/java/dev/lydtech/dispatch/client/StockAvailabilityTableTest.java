@@ -0,0 +1,201 @@
+package dev.lydtech.dispatch.client;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+import dev.lydtech.dispatch.metrics.DispatchMetrics;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.consumer.MockConsumer;
+import org.apache.kafka.clients.consumer.OffsetResetStrategy;
+import org.apache.kafka.common.PartitionInfo;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.header.internals.RecordHeaders;
+import org.apache.kafka.common.record.TimestampType;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.awaitility.Awaitility.await;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.nullValue;
+
+class StockAvailabilityTableTest {
+
+    private static final String TOPIC = "stock.availability";
+    private static final TopicPartition PARTITION_0 = new TopicPartition(TOPIC, 0);
+    private static final TopicPartition PARTITION_1 = new TopicPartition(TOPIC, 1);
+
+    @TempDir
+    Path tempDir;
+
+    private SimpleMeterRegistry meterRegistry;
+
+    private MockConsumer<String, String> consumer;
+
+    private StockAvailabilityTable table;
+
+    @BeforeEach
+    void setUp() {
+        meterRegistry = new SimpleMeterRegistry();
+        consumer = mockConsumer();
+    }
+
+    @AfterEach
+    void tearDown() {
+        if (table != null) {
+            table.stop();
+        }
+    }
+
+    @Test
+    void looksUpTheLatestAvailabilityOfEachItem() {
+        consumer.updateEndOffsets(Map.of(PARTITION_0, 3L, PARTITION_1, 1L));
+        addRecord(PARTITION_0, 0, "item-1", "true");
+        addRecord(PARTITION_0, 1, "item-2", "true");
+        addRecord(PARTITION_1, 0, "item-3", "true");
+        addRecord(PARTITION_0, 2, "item-2", "false");
+        table = table(null, Duration.ZERO);
+
+        table.start();
+
+        await().atMost(5, SECONDS).until(table::isCurrent);
+        assertThat(table.lookup("item-1"), equalTo("true"));
+        assertThat(table.lookup("item-2"), equalTo("false"));
+        assertThat(table.lookup("item-3"), equalTo("true"));
+        assertThat(table.lookup("item-4"), nullValue());
+        assertThat(meterRegistry.get("dispatch.stock.table.lookups").tag("result", "hit").counter().count(), equalTo(3.0));
+        assertThat(meterRegistry.get("dispatch.stock.table.lookups").tag("result", "miss").counter().count(), equalTo(1.0));
+    }
+
+    @Test
+    void removesAnItemOnATombstone() {
+        consumer.updateEndOffsets(Map.of(PARTITION_0, 2L, PARTITION_1, 0L));
+        addRecord(PARTITION_0, 0, "item-1", "true");
+        addRecord(PARTITION_0, 1, "item-1", null);
+        table = table(null, Duration.ZERO);
+
+        table.start();
+
+        await().atMost(5, SECONDS).until(table::isCurrent);
+        assertThat(table.lookup("item-1"), nullValue());
+        assertThat(table.size(), equalTo(0));
+    }
+
+    @Test
+    void fallsBackUntilCaughtUpWithTheTopic() {
+        consumer.updateEndOffsets(Map.of(PARTITION_0, 2L, PARTITION_1, 0L));
+        addRecord(PARTITION_0, 0, "item-1", "true");
+        table = table(null, Duration.ZERO);
+
+        table.start();
+
+        await().atMost(5, SECONDS).until(() -> table.size() == 1);
+        assertThat(table.lookup("item-1"), nullValue());
+        assertThat(meterRegistry.get("dispatch.stock.table.lookups").tag("result", "stale").counter().count(), equalTo(1.0));
+
+        addRecord(PARTITION_0, 1, "item-2", "true");
+        await().atMost(5, SECONDS).until(table::isCurrent);
+        assertThat(table.lookup("item-1"), equalTo("true"));
+    }
+
+    @Test
+    void fallsBackForAnEntryOlderThanTheMaxAge() {
+        consumer.updateEndOffsets(Map.of(PARTITION_0, 2L, PARTITION_1, 0L));
+        addRecord(PARTITION_0, 0, "item-1", "true", System.currentTimeMillis() - 60_000);
+        addRecord(PARTITION_0, 1, "item-2", "true", System.currentTimeMillis());
+        table = table(null, Duration.ofSeconds(30));
+
+        table.start();
+
+        await().atMost(5, SECONDS).until(table::isCurrent);
+        assertThat(table.lookup("item-1"), nullValue());
+        assertThat(table.lookup("item-2"), equalTo("true"));
+    }
+
+    @Test
+    void restoresFromTheSnapshotAndReadsOnlyTheNewRecords() {
+        Path snapshotFile = tempDir.resolve("stock-availability.snapshot");
+        consumer.updateEndOffsets(Map.of(PARTITION_0, 2L, PARTITION_1, 1L));
+        addRecord(PARTITION_0, 0, "item-1", "true");
+        addRecord(PARTITION_0, 1, "item-2", "true");
+        addRecord(PARTITION_1, 0, "item-3", "false");
+        table = table(snapshotFile, Duration.ZERO);
+        table.start();
+        await().atMost(5, SECONDS).until(table::isCurrent);
+        table.stop();
+        assertThat(Files.exists(snapshotFile), equalTo(true));
+
+        consumer = mockConsumer();
+        consumer.updateEndOffsets(Map.of(PARTITION_0, 3L, PARTITION_1, 1L));
+        // Already in the snapshot, so not read again.
+        addRecord(PARTITION_0, 1, "item-2", "false");
+        addRecord(PARTITION_0, 2, "item-4", "true");
+        table = table(snapshotFile, Duration.ZERO);
+        table.start();
+
+        await().atMost(5, SECONDS).until(table::isCurrent);
+        assertThat(table.lookup("item-1"), equalTo("true"));
+        assertThat(table.lookup("item-2"), equalTo("true"));
+        assertThat(table.lookup("item-3"), equalTo("false"));
+        assertThat(table.lookup("item-4"), equalTo("true"));
+    }
+
+    @Test
+    void ignoresASnapshotThatCannotBeRead() throws Exception {
+        Path snapshotFile = tempDir.resolve("stock-availability.snapshot");
+        Files.writeString(snapshotFile, "not a snapshot");
+        consumer.updateEndOffsets(Map.of(PARTITION_0, 1L, PARTITION_1, 0L));
+        addRecord(PARTITION_0, 0, "item-1", "true");
+        table = table(snapshotFile, Duration.ZERO);
+
+        table.start();
+
+        await().atMost(5, SECONDS).until(table::isCurrent);
+        assertThat(table.lookup("item-1"), equalTo("true"));
+    }
+
+    @Test
+    void looksUpNothingWhenDisabled() {
+        table = new StockAvailabilityTable(false, TOPIC, Duration.ofSeconds(30), Duration.ZERO, null, Duration.ofMinutes(1),
+                new DispatchMetrics(meterRegistry), () -> consumer, System::nanoTime);
+
+        table.start();
+
+        assertThat(table.isRunning(), equalTo(false));
+        assertThat(table.lookup("item-1"), nullValue());
+    }
+
+    private StockAvailabilityTable table(Path snapshotFile, Duration maxAge) {
+        MockConsumer<String, String> tableConsumer = consumer;
+        return new StockAvailabilityTable(true, TOPIC, Duration.ofSeconds(30), maxAge, snapshotFile, Duration.ofMinutes(1),
+                new DispatchMetrics(meterRegistry), () -> tableConsumer, System::nanoTime);
+    }
+
+    private static MockConsumer<String, String> mockConsumer() {
+        MockConsumer<String, String> consumer = new MockConsumer<>(OffsetResetStrategy.EARLIEST);
+        consumer.updatePartitions(TOPIC, List.of(new PartitionInfo(TOPIC, 0, null, null, null), new PartitionInfo(TOPIC, 1, null, null, null)));
+        consumer.updateBeginningOffsets(Map.of(PARTITION_0, 0L, PARTITION_1, 0L));
+        return consumer;
+    }
+
+    private void addRecord(TopicPartition partition, long offset, String item, String availability) {
+        addRecord(partition, offset, item, availability, System.currentTimeMillis());
+    }
+
+    /**
+     * Added on a poll, as the mock consumer only takes records for partitions already assigned.
+     */
+    private void addRecord(TopicPartition partition, long offset, String item, String availability, long timestamp) {
+        MockConsumer<String, String> recordConsumer = consumer;
+        recordConsumer.schedulePollTask(() -> recordConsumer.addRecord(new ConsumerRecord<>(TOPIC, partition.partition(), offset, timestamp,
+                TimestampType.CREATE_TIME, 0, 0, item, availability, new RecordHeaders(), Optional.empty())));
+    }
+}
@@ -0,0 +1,135 @@
+package dev.lydtech.dispatch.client;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import dev.lydtech.dispatch.client.StockServiceCircuitBreaker.State;
+import dev.lydtech.dispatch.metrics.DispatchMetrics;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.equalTo;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class StockServiceCircuitBreakerTest {
+
+    private static final Duration OPEN_DURATION = Duration.ofSeconds(10);
+    private static final Duration TRIAL_RETRY_INTERVAL = Duration.ofMillis(100);
+
+    private SimpleMeterRegistry meterRegistry;
+
+    private AtomicLong nanoClock;
+
+    private StockServiceCircuitBreaker circuitBreaker;
+
+    private List<State> transitions;
+
+    @BeforeEach
+    void setUp() {
+        meterRegistry = new SimpleMeterRegistry();
+        nanoClock = new AtomicLong();
+        circuitBreaker = new StockServiceCircuitBreaker(true, 3, OPEN_DURATION, TRIAL_RETRY_INTERVAL, new DispatchMetrics(meterRegistry), nanoClock::get);
+        transitions = new ArrayList<>();
+        circuitBreaker.addStateListener(transitions::add);
+    }
+
+    @Test
+    void opensAfterConsecutiveFailures() {
+        fail(3);
+
+        assertThat(circuitBreaker.getState(), equalTo(State.OPEN));
+        assertThat(circuitBreaker.tryAcquirePermission(), equalTo(false));
+        assertThat(circuitBreaker.getRetryAfter(), equalTo(OPEN_DURATION));
+        assertThat(transitions, contains(State.OPEN));
+        assertThat(meterRegistry.get("dispatch.stock.breaker.transitions").tag("state", "open").counter().count(), equalTo(1.0));
+    }
+
+    @Test
+    void successResetsTheFailureCount() {
+        fail(2);
+        circuitBreaker.tryAcquirePermission();
+        circuitBreaker.onSuccess();
+        fail(2);
+
+        assertThat(circuitBreaker.getState(), equalTo(State.CLOSED));
+    }
+
+    @Test
+    void letsOneTrialCallThroughOnceTheOpenDurationHasPassed() {
+        fail(3);
+        nanoClock.addAndGet(OPEN_DURATION.toNanos());
+
+        assertThat(circuitBreaker.getRetryAfter(), equalTo(Duration.ZERO));
+        assertThat(circuitBreaker.tryAcquirePermission(), equalTo(true));
+        assertThat(circuitBreaker.getState(), equalTo(State.HALF_OPEN));
+        assertThat(circuitBreaker.tryAcquirePermission(), equalTo(false));
+    }
+
+    /**
+     * A call turned away while the trial is in flight must not be retried straight away, or the retries spin until the
+     * trial completes.
+     */
+    @Test
+    void retriesAfterTheTrialRetryIntervalWhileTheTrialCallIsInFlight() {
+        fail(3);
+        nanoClock.addAndGet(OPEN_DURATION.toNanos());
+        circuitBreaker.tryAcquirePermission();
+
+        assertThat(circuitBreaker.getState(), equalTo(State.HALF_OPEN));
+        assertThat(circuitBreaker.tryAcquirePermission(), equalTo(false));
+        assertThat(circuitBreaker.getRetryAfter(), equalTo(TRIAL_RETRY_INTERVAL));
+    }
+
+    @Test
+    void rejectsANonPositiveTrialRetryInterval() {
+        assertThrows(IllegalArgumentException.class, () -> new StockServiceCircuitBreaker(true, 3, OPEN_DURATION, Duration.ZERO, new DispatchMetrics(meterRegistry), nanoClock::get));
+    }
+
+    @Test
+    void closesWhenTheTrialCallSucceeds() {
+        fail(3);
+        nanoClock.addAndGet(OPEN_DURATION.toNanos());
+        circuitBreaker.tryAcquirePermission();
+
+        circuitBreaker.onSuccess();
+
+        assertThat(circuitBreaker.getState(), equalTo(State.CLOSED));
+        assertThat(circuitBreaker.tryAcquirePermission(), equalTo(true));
+        assertThat(transitions, contains(State.OPEN, State.HALF_OPEN, State.CLOSED));
+    }
+
+    @Test
+    void opensAgainWhenTheTrialCallFails() {
+        fail(3);
+        nanoClock.addAndGet(OPEN_DURATION.toNanos());
+        circuitBreaker.tryAcquirePermission();
+
+        circuitBreaker.onFailure();
+
+        assertThat(circuitBreaker.getState(), equalTo(State.OPEN));
+        assertThat(circuitBreaker.getRetryAfter(), equalTo(OPEN_DURATION));
+        assertThat(transitions, contains(State.OPEN, State.HALF_OPEN, State.OPEN));
+    }
+
+    @Test
+    void alwaysPermitsWhenDisabled() {
+        circuitBreaker = new StockServiceCircuitBreaker(false, 1, OPEN_DURATION, TRIAL_RETRY_INTERVAL, new DispatchMetrics(meterRegistry), nanoClock::get);
+
+        fail(5);
+
+        assertThat(circuitBreaker.getState(), equalTo(State.CLOSED));
+        assertThat(circuitBreaker.tryAcquirePermission(), equalTo(true));
+    }
+
+    private void fail(int calls) {
+        for (int i = 0; i < calls; i++) {
+            circuitBreaker.tryAcquirePermission();
+            circuitBreaker.onFailure();
+        }
+    }
+}
@@ -1,26 +1,48 @@
 package dev.lydtech.dispatch.client;
 
+import java.net.ConnectException;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
 import dev.lydtech.dispatch.exception.RetryableException;
+import dev.lydtech.dispatch.exception.StockServiceUnavailableException;
+import dev.lydtech.dispatch.metrics.DispatchMetrics;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.springframework.http.HttpStatusCode;
 import org.springframework.http.ResponseEntity;
+import org.springframework.web.client.HttpClientErrorException;
 import org.springframework.web.client.HttpServerErrorException;
 import org.springframework.web.client.ResourceAccessException;
 import org.springframework.web.client.RestTemplate;
 
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.instanceOf;
 import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.argThat;
 import static org.mockito.Mockito.doThrow;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
 import static org.mockito.Mockito.when;
 
 public class StockServiceClientTest {
 
     private RestTemplate restTemplateMock;
+    private HttpClient httpClientMock;
+    private SimpleMeterRegistry meterRegistry;
+    private StockServiceCircuitBreaker circuitBreaker;
+    private StockServiceConcurrencyLimiter concurrencyLimiter;
+    private StockAvailabilityTable availabilityTableMock;
     private StockServiceClient client;
 
     private static final String STOCK_SERVICE_ENDPOINT = "endpoint";
@@ -28,8 +50,13 @@ public class StockServiceClientTest {
 
     @BeforeEach
     public void setUp() {
+        meterRegistry = new SimpleMeterRegistry();
         restTemplateMock = mock(RestTemplate.class);
-        client = new StockServiceClient(restTemplateMock, "endpoint");
+        httpClientMock = mock(HttpClient.class);
+        availabilityTableMock = mock(StockAvailabilityTable.class);
+        circuitBreaker = new StockServiceCircuitBreaker(false, 5, Duration.ofSeconds(10), Duration.ofMillis(100), new DispatchMetrics(meterRegistry));
+        concurrencyLimiter = new StockServiceConcurrencyLimiter(false, 20, 1, 200, Duration.ofMillis(500), new DispatchMetrics(meterRegistry));
+        client = new StockServiceClient(restTemplateMock, httpClientMock, new StockAvailabilityCache(false, Duration.ofSeconds(5), 100), availabilityTableMock, new DispatchMetrics(meterRegistry), circuitBreaker, concurrencyLimiter, "endpoint", Duration.ofSeconds(1), false, Duration.ofMillis(5), 50);
     }
 
     @Test
@@ -38,6 +65,7 @@ public class StockServiceClientTest {
         when(restTemplateMock.getForEntity(STOCK_SERVICE_QUERY, String.class)).thenReturn(response);
         assertThat(client.checkAvailability("my-item"), equalTo("true"));
         verify(restTemplateMock, times(1)).getForEntity(STOCK_SERVICE_QUERY, String.class);
+        assertThat(meterRegistry.get("dispatch.stock.lookup").tag("type", "single").tag("result", "success").timer().count(), equalTo(1L));
     }
 
     @Test
@@ -45,6 +73,7 @@ public class StockServiceClientTest {
         doThrow(new HttpServerErrorException(HttpStatusCode.valueOf(500))).when(restTemplateMock).getForEntity(STOCK_SERVICE_QUERY, String.class);
         assertThrows(RetryableException.class, () -> client.checkAvailability("my-item"));
         verify(restTemplateMock, times(1)).getForEntity(STOCK_SERVICE_QUERY, String.class);
+        assertThat(meterRegistry.get("dispatch.stock.lookup").tag("type", "single").tag("result", "failure").timer().count(), equalTo(1L));
     }
 
     @Test
@@ -60,4 +89,181 @@ public class StockServiceClientTest {
         assertThrows(Exception.class, () -> client.checkAvailability("my-item"));
         verify(restTemplateMock, times(1)).getForEntity(STOCK_SERVICE_QUERY, String.class);
     }
+
+    @Test
+    public void testCheckAvailability_FromTable() throws Exception {
+        when(availabilityTableMock.lookup("my-item")).thenReturn("false");
+        assertThat(client.checkAvailability("my-item"), equalTo("false"));
+        assertThat(client.checkAvailabilityAsync("my-item").get(), equalTo(false));
+        verifyNoInteractions(restTemplateMock, httpClientMock);
+    }
+
+    @Test
+    public void testCheckAvailability_NotInTable() {
+        when(availabilityTableMock.lookup("my-item")).thenReturn(null);
+        ResponseEntity<String> response = new ResponseEntity<>("true", HttpStatusCode.valueOf(200));
+        when(restTemplateMock.getForEntity(STOCK_SERVICE_QUERY, String.class)).thenReturn(response);
+        assertThat(client.checkAvailability("my-item"), equalTo("true"));
+        verify(restTemplateMock, times(1)).getForEntity(STOCK_SERVICE_QUERY, String.class);
+    }
+
+    @Test
+    public void testCheckAvailability_Cached() {
+        client = new StockServiceClient(restTemplateMock, httpClientMock, new StockAvailabilityCache(true, Duration.ofSeconds(5), 100), availabilityTableMock, new DispatchMetrics(meterRegistry), circuitBreaker, concurrencyLimiter, "endpoint", Duration.ofSeconds(1), false, Duration.ofMillis(5), 50);
+        ResponseEntity<String> response = new ResponseEntity<>("true", HttpStatusCode.valueOf(200));
+        when(restTemplateMock.getForEntity(STOCK_SERVICE_QUERY, String.class)).thenReturn(response);
+        assertThat(client.checkAvailability("my-item"), equalTo("true"));
+        assertThat(client.checkAvailability("my-item"), equalTo("true"));
+        verify(restTemplateMock, times(1)).getForEntity(STOCK_SERVICE_QUERY, String.class);
+    }
+
+    @Test
+    public void testCheckAvailability_Cached_ServerErrorNotCached() {
+        client = new StockServiceClient(restTemplateMock, httpClientMock, new StockAvailabilityCache(true, Duration.ofSeconds(5), 100), availabilityTableMock, new DispatchMetrics(meterRegistry), circuitBreaker, concurrencyLimiter, "endpoint", Duration.ofSeconds(1), false, Duration.ofMillis(5), 50);
+        doThrow(new HttpServerErrorException(HttpStatusCode.valueOf(500))).when(restTemplateMock).getForEntity(STOCK_SERVICE_QUERY, String.class);
+        assertThrows(RetryableException.class, () -> client.checkAvailability("my-item"));
+        assertThrows(RetryableException.class, () -> client.checkAvailability("my-item"));
+        verify(restTemplateMock, times(2)).getForEntity(STOCK_SERVICE_QUERY, String.class);
+    }
+
+    @Test
+    public void testCheckAvailabilityAsync_Success() throws Exception {
+        StockServiceClient asyncClient = buildAsyncClient();
+        stubAsyncResponse(200, "true");
+        assertThat(asyncClient.checkAvailabilityAsync("my-item").get(), equalTo(true));
+        verify(httpClientMock, times(1)).sendAsync(argThat(request -> request.uri().toString().equals(ASYNC_STOCK_SERVICE_QUERY)), any());
+    }
+
+    @Test
+    public void testCheckAvailabilityAsync_Unavailable() throws Exception {
+        StockServiceClient asyncClient = buildAsyncClient();
+        stubAsyncResponse(200, "false");
+        assertThat(asyncClient.checkAvailabilityAsync("my-item").get(), equalTo(false));
+    }
+
+    @Test
+    public void testCheckAvailabilityAsync_ServerError() {
+        StockServiceClient asyncClient = buildAsyncClient();
+        stubAsyncResponse(503, "Service unavailable");
+        ExecutionException exception = assertThrows(ExecutionException.class, () -> asyncClient.checkAvailabilityAsync("my-item").get());
+        assertThat(exception.getCause(), instanceOf(RetryableException.class));
+        assertThat(exception.getCause().getCause(), instanceOf(HttpServerErrorException.class));
+    }
+
+    @Test
+    public void testCheckAvailabilityAsync_ClientError() {
+        StockServiceClient asyncClient = buildAsyncClient();
+        stubAsyncResponse(400, "Bad Request");
+        ExecutionException exception = assertThrows(ExecutionException.class, () -> asyncClient.checkAvailabilityAsync("my-item").get());
+        assertThat(exception.getCause(), instanceOf(HttpClientErrorException.class));
+    }
+
+    @Test
+    public void testCheckAvailabilityAsync_ConnectionFailure() {
+        StockServiceClient asyncClient = buildAsyncClient();
+        when(httpClientMock.sendAsync(any(HttpRequest.class), any(HttpResponse.BodyHandler.class))).thenReturn(CompletableFuture.failedFuture(new ConnectException("connection refused")));
+        ExecutionException exception = assertThrows(ExecutionException.class, () -> asyncClient.checkAvailabilityAsync("my-item").get());
+        assertThat(exception.getCause(), instanceOf(RetryableException.class));
+        assertThat(exception.getCause().getCause(), instanceOf(ResourceAccessException.class));
+    }
+
+    @Test
+    public void testCheckAvailability_Bulk() throws Exception {
+        client = new StockServiceClient(restTemplateMock, httpClientMock, new StockAvailabilityCache(false, Duration.ofSeconds(5), 100), availabilityTableMock, new DispatchMetrics(meterRegistry), circuitBreaker, concurrencyLimiter, ASYNC_STOCK_SERVICE_ENDPOINT, Duration.ofSeconds(1), true, Duration.ofMillis(50), 2);
+        stubAsyncResponse(200, "{\"item-1\": true, \"item-2\": false}");
+
+        CompletableFuture<Boolean> first = client.checkAvailabilityAsync("item-1");
+        assertThat(client.checkAvailability("item-2"), equalTo("false"));
+
+        assertThat(first.get(), equalTo(true));
+        verify(httpClientMock, times(1)).sendAsync(argThat(request -> request.uri().toString().equals(ASYNC_STOCK_SERVICE_ENDPOINT + "/bulk?item=item-1&item=item-2")), any());
+        verifyNoInteractions(restTemplateMock);
+    }
+
+    @Test
+    public void testCheckAvailability_Bulk_ServerError() {
+        client = new StockServiceClient(restTemplateMock, httpClientMock, new StockAvailabilityCache(false, Duration.ofSeconds(5), 100), availabilityTableMock, new DispatchMetrics(meterRegistry), circuitBreaker, concurrencyLimiter, ASYNC_STOCK_SERVICE_ENDPOINT, Duration.ofSeconds(1), true, Duration.ofMillis(5), 50);
+        stubAsyncResponse(503, "Service unavailable");
+        assertThrows(RetryableException.class, () -> client.checkAvailability("my-item"));
+    }
+
+    @Test
+    public void testCheckAvailability_Bulk_ItemMissingFromResponse() {
+        client = new StockServiceClient(restTemplateMock, httpClientMock, new StockAvailabilityCache(false, Duration.ofSeconds(5), 100), availabilityTableMock, new DispatchMetrics(meterRegistry), circuitBreaker, concurrencyLimiter, ASYNC_STOCK_SERVICE_ENDPOINT, Duration.ofSeconds(1), true, Duration.ofMillis(5), 50);
+        stubAsyncResponse(200, "{\"other-item\": true}");
+        RuntimeException exception = assertThrows(RuntimeException.class, () -> client.checkAvailability("my-item"));
+        assertThat(exception.getMessage(), equalTo("No availability returned for item: my-item"));
+    }
+
+    /**
+     * Once the breaker has opened the stock service is not called, and the lookup fails with a
+     * StockServiceUnavailableException.
+     */
+    @Test
+    public void testCheckAvailability_CircuitBreakerOpen() {
+        circuitBreaker = new StockServiceCircuitBreaker(true, 2, Duration.ofSeconds(10), Duration.ofMillis(100), new DispatchMetrics(meterRegistry));
+        client = new StockServiceClient(restTemplateMock, httpClientMock, new StockAvailabilityCache(false, Duration.ofSeconds(5), 100), availabilityTableMock, new DispatchMetrics(meterRegistry), circuitBreaker, concurrencyLimiter, "endpoint", Duration.ofSeconds(1), false, Duration.ofMillis(5), 50);
+        doThrow(new HttpServerErrorException(HttpStatusCode.valueOf(503))).when(restTemplateMock).getForEntity(STOCK_SERVICE_QUERY, String.class);
+        assertThrows(RetryableException.class, () -> client.checkAvailability("my-item"));
+        assertThrows(RetryableException.class, () -> client.checkAvailability("my-item"));
+
+        StockServiceUnavailableException exception = assertThrows(StockServiceUnavailableException.class, () -> client.checkAvailability("my-item"));
+
+        assertThat(exception.getRetryAfter(), greaterThan(Duration.ZERO));
+        verify(restTemplateMock, times(2)).getForEntity(STOCK_SERVICE_QUERY, String.class);
+    }
+
+    /**
+     * A client error shows that the stock service is up, so it does not count towards opening the breaker.
+     */
+    @Test
+    public void testCheckAvailability_ClientErrorDoesNotOpenCircuitBreaker() {
+        circuitBreaker = new StockServiceCircuitBreaker(true, 1, Duration.ofSeconds(10), Duration.ofMillis(100), new DispatchMetrics(meterRegistry));
+        client = new StockServiceClient(restTemplateMock, httpClientMock, new StockAvailabilityCache(false, Duration.ofSeconds(5), 100), availabilityTableMock, new DispatchMetrics(meterRegistry), circuitBreaker, concurrencyLimiter, "endpoint", Duration.ofSeconds(1), false, Duration.ofMillis(5), 50);
+        doThrow(new HttpClientErrorException(HttpStatusCode.valueOf(400))).when(restTemplateMock).getForEntity(STOCK_SERVICE_QUERY, String.class);
+        assertThrows(HttpClientErrorException.class, () -> client.checkAvailability("my-item"));
+        assertThrows(HttpClientErrorException.class, () -> client.checkAvailability("my-item"));
+        assertThat(circuitBreaker.getState(), equalTo(StockServiceCircuitBreaker.State.CLOSED));
+    }
+
+    /**
+     * With a limit of one, a second lookup made while the first is in flight is turned away without calling the stock
+     * service.  Once the first completes the next lookup is made.
+     */
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testCheckAvailabilityAsync_ConcurrencyLimitReached() throws Exception {
+        concurrencyLimiter = new StockServiceConcurrencyLimiter(true, 1, 1, 1, Duration.ofSeconds(1), new DispatchMetrics(meterRegistry));
+        StockServiceClient asyncClient = buildAsyncClient();
+        HttpResponse<String> response = mock(HttpResponse.class);
+        when(response.statusCode()).thenReturn(200);
+        when(response.body()).thenReturn("true");
+        CompletableFuture<HttpResponse<String>> inFlight = new CompletableFuture<>();
+        when(httpClientMock.sendAsync(any(HttpRequest.class), any(HttpResponse.BodyHandler.class))).thenReturn(inFlight, CompletableFuture.completedFuture(response));
+
+        CompletableFuture<Boolean> first = asyncClient.checkAvailabilityAsync("my-item");
+        ExecutionException exception = assertThrows(ExecutionException.class, () -> asyncClient.checkAvailabilityAsync("my-item").get());
+        assertThat(exception.getCause(), instanceOf(StockServiceUnavailableException.class));
+
+        inFlight.complete(response);
+        assertThat(first.get(), equalTo(true));
+        assertThat(asyncClient.checkAvailabilityAsync("my-item").get(), equalTo(true));
+        verify(httpClientMock, times(2)).sendAsync(any(HttpRequest.class), any(HttpResponse.BodyHandler.class));
+        assertThat(meterRegistry.get("dispatch.stock.limiter.rejected").counter().count(), equalTo(1.0));
+    }
+
+    private static final String ASYNC_STOCK_SERVICE_ENDPOINT = "http://localhost/api/stock";
+    private static final String ASYNC_STOCK_SERVICE_QUERY = ASYNC_STOCK_SERVICE_ENDPOINT + "?item=my-item";
+
+    private StockServiceClient buildAsyncClient() {
+        return new StockServiceClient(restTemplateMock, httpClientMock, new StockAvailabilityCache(false, Duration.ofSeconds(5), 100), availabilityTableMock, new DispatchMetrics(meterRegistry), circuitBreaker, concurrencyLimiter, ASYNC_STOCK_SERVICE_ENDPOINT, Duration.ofSeconds(1), false, Duration.ofMillis(5), 50);
+    }
+
+    @SuppressWarnings("unchecked")
+    private void stubAsyncResponse(int statusCode, String body) {
+        HttpResponse<String> response = mock(HttpResponse.class);
+        when(response.statusCode()).thenReturn(statusCode);
+        when(response.body()).thenReturn(body);
+        when(httpClientMock.sendAsync(any(HttpRequest.class), any(HttpResponse.BodyHandler.class))).thenReturn(CompletableFuture.completedFuture(response));
+    }
 }
@@ -0,0 +1,124 @@
+package dev.lydtech.dispatch.client;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicLong;
+
+import dev.lydtech.dispatch.metrics.DispatchMetrics;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class StockServiceConcurrencyLimiterTest {
+
+    private static final long MILLIS = 1_000_000L;
+
+    private SimpleMeterRegistry meterRegistry;
+
+    private AtomicLong nanoClock;
+
+    @BeforeEach
+    void setUp() {
+        meterRegistry = new SimpleMeterRegistry();
+        nanoClock = new AtomicLong(1);
+    }
+
+    @Test
+    void rejectsCallsOverTheLimit() {
+        StockServiceConcurrencyLimiter limiter = limiter(2, 1, 10);
+
+        assertThat(limiter.tryAcquire(), equalTo(true));
+        assertThat(limiter.tryAcquire(), equalTo(true));
+        assertThat(limiter.tryAcquire(), equalTo(false));
+
+        limiter.cancel();
+        assertThat(limiter.tryAcquire(), equalTo(true));
+        assertThat(meterRegistry.get("dispatch.stock.limiter.rejected").counter().count(), equalTo(1.0));
+    }
+
+    @Test
+    void raisesTheLimitByAboutOnePerRoundTripOfFastCalls() {
+        StockServiceConcurrencyLimiter limiter = limiter(4, 1, 10);
+
+        roundTrip(limiter, 4, 10 * MILLIS, false);
+        assertThat(limiter.getLimit(), equalTo(4));
+        roundTrip(limiter, 4, 10 * MILLIS, false);
+
+        assertThat(limiter.getLimit(), equalTo(5));
+        assertThat(limiter.getInFlight(), equalTo(0));
+        assertThat(meterRegistry.get("dispatch.stock.limiter.adjustments").tag("direction", "increase").counter().count(), equalTo(1.0));
+    }
+
+    @Test
+    void doesNotRaiseTheLimitWhileLightlyUsed() {
+        StockServiceConcurrencyLimiter limiter = limiter(10, 1, 20);
+
+        for (int i = 0; i < 50; i++) {
+            roundTrip(limiter, 1, 10 * MILLIS, false);
+        }
+
+        assertThat(limiter.getLimit(), equalTo(10));
+    }
+
+    @Test
+    void cutsTheLimitOnceForABurstOfSlowCalls() {
+        StockServiceConcurrencyLimiter limiter = limiter(10, 1, 20);
+
+        roundTrip(limiter, 10, 600 * MILLIS, false);
+
+        assertThat(limiter.getLimit(), equalTo(9));
+        assertThat(meterRegistry.get("dispatch.stock.limiter.adjustments").tag("direction", "decrease").counter().count(), equalTo(1.0));
+    }
+
+    @Test
+    void cutsTheLimitOnAFailedCall() {
+        StockServiceConcurrencyLimiter limiter = limiter(10, 1, 20);
+
+        roundTrip(limiter, 1, 10 * MILLIS, true);
+        roundTrip(limiter, 1, 10 * MILLIS, true);
+
+        assertThat(limiter.getLimit(), equalTo(8));
+    }
+
+    @Test
+    void staysWithinTheBounds() {
+        StockServiceConcurrencyLimiter limiter = limiter(2, 2, 3);
+
+        for (int i = 0; i < 20; i++) {
+            roundTrip(limiter, limiter.getLimit(), 10 * MILLIS, false);
+        }
+        assertThat(limiter.getLimit(), equalTo(3));
+
+        for (int i = 0; i < 20; i++) {
+            roundTrip(limiter, 1, 10 * MILLIS, true);
+        }
+        assertThat(limiter.getLimit(), equalTo(2));
+    }
+
+    @Test
+    void rejectsInvalidLimits() {
+        assertThrows(IllegalArgumentException.class, () -> limiter(5, 6, 10));
+        assertThrows(IllegalArgumentException.class, () -> limiter(11, 1, 10));
+    }
+
+    private StockServiceConcurrencyLimiter limiter(int initialLimit, int minLimit, int maxLimit) {
+        return new StockServiceConcurrencyLimiter(true, initialLimit, minLimit, maxLimit, Duration.ofMillis(500), new DispatchMetrics(meterRegistry), nanoClock::get);
+    }
+
+    /**
+     * Start the calls together and complete them after the latency.
+     */
+    private void roundTrip(StockServiceConcurrencyLimiter limiter, int calls, long latencyNanos, boolean failed) {
+        long startNanos = nanoClock.get();
+        for (int i = 0; i < calls; i++) {
+            assertThat(limiter.tryAcquire(), equalTo(true));
+        }
+        nanoClock.addAndGet(latencyNanos);
+        for (int i = 0; i < calls; i++) {
+            limiter.release(startNanos, failed);
+        }
+    }
+}
@@ -0,0 +1,78 @@
+package dev.lydtech.dispatch.consumer;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.stream.LongStream;
+
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.consumer.ConsumerRecords;
+import org.apache.kafka.common.TopicPartition;
+import org.junit.jupiter.api.Test;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.anEmptyMap;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.sameInstance;
+
+class AdaptivePollConsumerTest {
+
+    private static final TopicPartition PARTITION_0 = new TopicPartition("order.created", 0);
+    private static final TopicPartition PARTITION_1 = new TopicPartition("order.created", 1);
+
+    private final Map<TopicPartition, Long> seeks = new HashMap<>();
+
+    @Test
+    void limit_UnderLimitReturnedAsIs() {
+        ConsumerRecords<String, String> records = buildRecords(Map.of(PARTITION_0, 5, PARTITION_1, 5));
+
+        assertThat(AdaptivePollConsumer.limit(records, 10, seeks::put), sameInstance(records));
+        assertThat(seeks, anEmptyMap());
+    }
+
+    @Test
+    void limit_SharedBetweenPartitions() {
+        ConsumerRecords<String, String> records = buildRecords(Map.of(PARTITION_0, 10, PARTITION_1, 10));
+
+        ConsumerRecords<String, String> limited = AdaptivePollConsumer.limit(records, 6, seeks::put);
+
+        assertThat(offsets(limited, PARTITION_0), equalTo(List.of(100L, 101L, 102L)));
+        assertThat(offsets(limited, PARTITION_1), equalTo(List.of(100L, 101L, 102L)));
+        assertThat(seeks, equalTo(Map.of(PARTITION_0, 103L, PARTITION_1, 103L)));
+    }
+
+    @Test
+    void limit_SmallPartitionKeptWhole() {
+        ConsumerRecords<String, String> records = buildRecords(Map.of(PARTITION_0, 2, PARTITION_1, 10));
+
+        ConsumerRecords<String, String> limited = AdaptivePollConsumer.limit(records, 8, seeks::put);
+
+        assertThat(offsets(limited, PARTITION_0), equalTo(List.of(100L, 101L)));
+        assertThat(limited.records(PARTITION_1).size(), equalTo(4));
+        assertThat(seeks, equalTo(Map.of(PARTITION_1, 104L)));
+    }
+
+    @Test
+    void limit_AtLeastOnePerPartition() {
+        ConsumerRecords<String, String> records = buildRecords(Map.of(PARTITION_0, 3, PARTITION_1, 3));
+
+        ConsumerRecords<String, String> limited = AdaptivePollConsumer.limit(records, 1, seeks::put);
+
+        assertThat(limited.count(), equalTo(2));
+        assertThat(seeks, equalTo(Map.of(PARTITION_0, 101L, PARTITION_1, 101L)));
+    }
+
+    private static ConsumerRecords<String, String> buildRecords(Map<TopicPartition, Integer> counts) {
+        Map<TopicPartition, List<ConsumerRecord<String, String>>> records = new HashMap<>();
+        counts.forEach((partition, count) -> records.put(partition, LongStream.range(100, 100 + count)
+                .mapToObj(offset -> new ConsumerRecord<>(partition.topic(), partition.partition(), offset, "key", "value"))
+                .collect(Collectors.toCollection(ArrayList::new))));
+        return new ConsumerRecords<>(records);
+    }
+
+    private static List<Long> offsets(ConsumerRecords<String, String> records, TopicPartition partition) {
+        return records.records(partition).stream().map(ConsumerRecord::offset).toList();
+    }
+}
@@ -0,0 +1,75 @@
+package dev.lydtech.dispatch.consumer;
+
+import java.time.Duration;
+
+import org.junit.jupiter.api.Test;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.lessThan;
+
+class AdaptivePollLimitTest {
+
+    private static final long MILLIS = 1_000_000L;
+
+    @Test
+    void limit_SmallBeforeAnyCycle() {
+        assertThat(new AdaptivePollLimit(500, Duration.ofSeconds(10)).limit(), equalTo(10));
+        assertThat(new AdaptivePollLimit(5, Duration.ofSeconds(10)).limit(), equalTo(5));
+    }
+
+    @Test
+    void limit_MaxWhenProcessingIsFast() {
+        AdaptivePollLimit pollLimit = new AdaptivePollLimit(500, Duration.ofSeconds(10));
+
+        pollLimit.cycleCompleted(10, 1 * MILLIS);
+
+        assertThat(pollLimit.limit(), equalTo(500));
+    }
+
+    @Test
+    void limit_DropsAtOnceWhenProcessingSlowsDown() {
+        AdaptivePollLimit pollLimit = new AdaptivePollLimit(500, Duration.ofSeconds(10));
+        pollLimit.cycleCompleted(500, 50 * MILLIS);
+
+        // 100ms per record, so 100 records fit in the 10 second target.
+        pollLimit.cycleCompleted(500, 50_000 * MILLIS);
+
+        assertThat(pollLimit.limit(), equalTo(100));
+    }
+
+    @Test
+    void limit_RecoversGraduallyWhenProcessingSpeedsUp() {
+        AdaptivePollLimit pollLimit = new AdaptivePollLimit(500, Duration.ofSeconds(10));
+        pollLimit.cycleCompleted(100, 10_000 * MILLIS);
+
+        pollLimit.cycleCompleted(100, 100 * MILLIS);
+        int afterOneFastCycle = pollLimit.limit();
+        for (int i = 0; i < 50; i++) {
+            pollLimit.cycleCompleted(pollLimit.limit(), pollLimit.limit() * MILLIS);
+        }
+
+        assertThat(afterOneFastCycle, greaterThan(100));
+        assertThat(afterOneFastCycle, lessThan(500));
+        assertThat(pollLimit.limit(), equalTo(500));
+    }
+
+    @Test
+    void limit_AtLeastOne() {
+        AdaptivePollLimit pollLimit = new AdaptivePollLimit(500, Duration.ofSeconds(1));
+
+        pollLimit.cycleCompleted(1, 5_000 * MILLIS);
+
+        assertThat(pollLimit.limit(), equalTo(1));
+    }
+
+    @Test
+    void cycleCompleted_EmptyPollIgnored() {
+        AdaptivePollLimit pollLimit = new AdaptivePollLimit(500, Duration.ofSeconds(1));
+
+        pollLimit.cycleCompleted(0, 5_000 * MILLIS);
+
+        assertThat(pollLimit.limit(), equalTo(10));
+    }
+}
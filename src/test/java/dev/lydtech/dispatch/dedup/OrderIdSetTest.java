@@ -0,0 +1,115 @@
+package dev.lydtech.dispatch.dedup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.jupiter.api.Test;
+
+import static java.util.UUID.randomUUID;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+
+class OrderIdSetTest {
+
+    @Test
+    void contains_AddedIds() {
+        OrderIdSet orderIds = new OrderIdSet(16);
+        UUID added = randomUUID();
+
+        orderIds.add(added.getMostSignificantBits(), added.getLeastSignificantBits());
+
+        assertThat(contains(orderIds, added), equalTo(true));
+        assertThat(contains(orderIds, randomUUID()), equalTo(false));
+    }
+
+    @Test
+    void contains_ZeroId() {
+        OrderIdSet orderIds = new OrderIdSet(16);
+
+        assertThat(orderIds.contains(0L, 0L), equalTo(false));
+        orderIds.add(0L, 0L);
+        assertThat(orderIds.contains(0L, 0L), equalTo(true));
+    }
+
+    @Test
+    void contains_IdsThatCollide() {
+        // Ids differing only in the bits that the hash folds together.
+        OrderIdSet orderIds = new OrderIdSet(16);
+        orderIds.add(1L, 1L << 32);
+        orderIds.add(1L << 32, 1L);
+
+        assertThat(orderIds.contains(1L, 1L << 32), equalTo(true));
+        assertThat(orderIds.contains(1L << 32, 1L), equalTo(true));
+        assertThat(orderIds.contains(1L, 1L), equalTo(false));
+    }
+
+    @Test
+    void contains_LastWindowSizeIdsAreRetained() {
+        int windowSize = 100;
+        OrderIdSet orderIds = new OrderIdSet(windowSize);
+        List<UUID> added = new ArrayList<>();
+        for (int i = 0; i < windowSize * 10; i++) {
+            UUID orderId = randomUUID();
+            orderIds.add(orderId.getMostSignificantBits(), orderId.getLeastSignificantBits());
+            added.add(orderId);
+        }
+
+        for (UUID orderId : added.subList(added.size() - windowSize, added.size())) {
+            assertThat(contains(orderIds, orderId), equalTo(true));
+        }
+        for (UUID orderId : added.subList(0, added.size() - windowSize * 2)) {
+            assertThat(contains(orderIds, orderId), equalTo(false));
+        }
+    }
+
+    @Test
+    void add_RepeatedIdDoesNotFillTheWindow() {
+        OrderIdSet orderIds = new OrderIdSet(2);
+        UUID first = randomUUID();
+        UUID repeated = randomUUID();
+        add(orderIds, first);
+        add(orderIds, repeated);
+        for (int i = 0; i < 10; i++) {
+            add(orderIds, repeated);
+        }
+
+        assertThat(contains(orderIds, first), equalTo(true));
+    }
+
+    /**
+     * The writer re-adds the id after each new one, so it is always held, while the windows rotate and are cleared under
+     * the lookups.
+     */
+    @Test
+    void contains_WhileAnotherThreadAdds() throws Exception {
+        OrderIdSet orderIds = new OrderIdSet(8);
+        UUID retained = randomUUID();
+        add(orderIds, retained);
+        AtomicBoolean stopped = new AtomicBoolean();
+        Thread writer = new Thread(() -> {
+            for (long sequence = 1; !stopped.get(); sequence++) {
+                orderIds.add(sequence, 1L);
+                add(orderIds, retained);
+            }
+        });
+        writer.start();
+        try {
+            for (int i = 0; i < 100_000; i++) {
+                assertThat(contains(orderIds, retained), equalTo(true));
+            }
+        } finally {
+            stopped.set(true);
+            writer.join();
+        }
+    }
+
+    private static void add(OrderIdSet orderIds, UUID orderId) {
+        orderIds.add(orderId.getMostSignificantBits(), orderId.getLeastSignificantBits());
+    }
+
+    private static boolean contains(OrderIdSet orderIds, UUID orderId) {
+        return orderIds.contains(orderId.getMostSignificantBits(), orderId.getLeastSignificantBits());
+    }
+}
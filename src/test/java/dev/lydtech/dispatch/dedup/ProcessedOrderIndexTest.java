@@ -0,0 +1,122 @@
+package dev.lydtech.dispatch.dedup;
+
+import java.util.List;
+import java.util.UUID;
+
+import org.apache.kafka.common.TopicPartition;
+import org.junit.jupiter.api.Test;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import static java.util.UUID.randomUUID;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+
+class ProcessedOrderIndexTest {
+
+    private static final TopicPartition PARTITION_0 = new TopicPartition("order.created", 0);
+    private static final TopicPartition PARTITION_3 = new TopicPartition("order.created", 3);
+
+    @Test
+    void isProcessed_MarkedOrderOnAssignedPartition() {
+        ProcessedOrderIndex index = new ProcessedOrderIndex(true, 16);
+        index.onPartitionsAssigned(null, List.of(PARTITION_0, PARTITION_3));
+        UUID orderId = randomUUID();
+
+        index.markProcessed(3, orderId);
+
+        assertThat(index.isProcessed(3, orderId), equalTo(true));
+        assertThat(index.isProcessed(0, orderId), equalTo(false));
+        assertThat(index.isProcessed(3, randomUUID()), equalTo(false));
+    }
+
+    @Test
+    void isProcessed_UnassignedPartition() {
+        ProcessedOrderIndex index = new ProcessedOrderIndex(true, 16);
+        UUID orderId = randomUUID();
+
+        index.markProcessed(0, orderId);
+        index.markProcessed(5, orderId);
+
+        assertThat(index.isProcessed(0, orderId), equalTo(false));
+        assertThat(index.isProcessed(5, orderId), equalTo(false));
+    }
+
+    @Test
+    void isProcessed_OtherTopicsAreNotTracked() {
+        ProcessedOrderIndex index = new ProcessedOrderIndex(true, 16);
+        index.onPartitionsAssigned(null, List.of(new TopicPartition("order.created.DLT", 0)));
+        UUID orderId = randomUUID();
+
+        index.markProcessed(0, orderId);
+
+        assertThat(index.isProcessed(0, orderId), equalTo(false));
+    }
+
+    @Test
+    void isProcessed_ForgottenWhenRevoked() {
+        ProcessedOrderIndex index = new ProcessedOrderIndex(true, 16);
+        index.onPartitionsAssigned(null, List.of(PARTITION_0, PARTITION_3));
+        UUID first = randomUUID();
+        UUID second = randomUUID();
+        index.markProcessed(0, first);
+        index.markProcessed(3, second);
+
+        index.onPartitionsRevokedAfterCommit(null, List.of(PARTITION_0));
+        index.onPartitionsAssigned(null, List.of(PARTITION_0));
+
+        assertThat(index.isProcessed(0, first), equalTo(false));
+        assertThat(index.isProcessed(3, second), equalTo(true));
+    }
+
+    @Test
+    void isProcessed_ForgottenWhenLost() {
+        ProcessedOrderIndex index = new ProcessedOrderIndex(true, 16);
+        index.onPartitionsAssigned(null, List.of(PARTITION_0));
+        UUID orderId = randomUUID();
+        index.markProcessed(0, orderId);
+
+        index.onPartitionsLost(null, List.of(PARTITION_0));
+
+        assertThat(index.isProcessed(0, orderId), equalTo(false));
+    }
+
+    @Test
+    void isProcessed_Disabled() {
+        ProcessedOrderIndex index = new ProcessedOrderIndex(false, 16);
+        index.onPartitionsAssigned(null, List.of(PARTITION_0));
+        UUID orderId = randomUUID();
+
+        index.markProcessed(0, orderId);
+
+        assertThat(index.isProcessed(0, orderId), equalTo(false));
+    }
+
+    @Test
+    void markProcessed_InTransactionAppliedOnCommit() {
+        ProcessedOrderIndex index = new ProcessedOrderIndex(true, 16);
+        index.onPartitionsAssigned(null, List.of(PARTITION_0));
+        UUID committed = randomUUID();
+        UUID rolledBack = randomUUID();
+
+        TransactionSynchronizationManager.initSynchronization();
+        try {
+            index.markProcessed(0, committed);
+            assertThat(index.isProcessed(0, committed), equalTo(false));
+            TransactionSynchronizationManager.getSynchronizations().forEach(TransactionSynchronization::afterCommit);
+        } finally {
+            TransactionSynchronizationManager.clearSynchronization();
+        }
+        TransactionSynchronizationManager.initSynchronization();
+        try {
+            index.markProcessed(0, rolledBack);
+            TransactionSynchronizationManager.getSynchronizations()
+                    .forEach(synchronization -> synchronization.afterCompletion(TransactionSynchronization.STATUS_ROLLED_BACK));
+        } finally {
+            TransactionSynchronizationManager.clearSynchronization();
+        }
+
+        assertThat(index.isProcessed(0, committed), equalTo(true));
+        assertThat(index.isProcessed(0, rolledBack), equalTo(false));
+    }
+}
@@ -0,0 +1,469 @@
+package dev.lydtech.dispatch.handler;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import dev.lydtech.dispatch.client.StockServiceCircuitBreaker;
+import dev.lydtech.dispatch.dedup.ProcessedOrderIndex;
+import dev.lydtech.dispatch.exception.NotRetryableException;
+import dev.lydtech.dispatch.exception.RetryableException;
+import dev.lydtech.dispatch.exception.StockServiceUnavailableException;
+import dev.lydtech.dispatch.logging.LogSampler;
+import dev.lydtech.dispatch.message.OrderCreated;
+import dev.lydtech.dispatch.metrics.DispatchMetrics;
+import dev.lydtech.dispatch.service.DispatchService;
+import dev.lydtech.dispatch.util.TestEventData;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.apache.kafka.clients.consumer.Consumer;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.consumer.OffsetAndMetadata;
+import org.apache.kafka.common.TopicPartition;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.kafka.config.KafkaListenerEndpointRegistry;
+import org.springframework.kafka.listener.ConsumerRecordRecoverer;
+import org.springframework.kafka.listener.MessageListenerContainer;
+import org.springframework.util.backoff.FixedBackOff;
+
+import static java.util.UUID.randomUUID;
+import static org.awaitility.Awaitility.await;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.equalTo;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.isA;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class AsyncDispatchExecutorTest {
+
+    private static final TopicPartition TOPIC_PARTITION = new TopicPartition("order.created", 0);
+
+    private DispatchService dispatchServiceMock;
+    private ConsumerRecordRecoverer recovererMock;
+    private Consumer<?, ?> consumerMock;
+    private MessageListenerContainer containerMock;
+    private SimpleMeterRegistry meterRegistry;
+    private AsyncDispatchExecutor executor;
+
+    @BeforeEach
+    void setUp() {
+        meterRegistry = new SimpleMeterRegistry();
+        dispatchServiceMock = mock(DispatchService.class);
+        recovererMock = mock(ConsumerRecordRecoverer.class);
+        consumerMock = mock(Consumer.class);
+        containerMock = mock(MessageListenerContainer.class);
+        executor = new AsyncDispatchExecutor(dispatchServiceMock, recovererMock, new FixedBackOff(10L, 2L), new DispatchMetrics(meterRegistry), new LogSampler(1), new ProcessedOrderIndex(false, 0), 10, false);
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        executor.destroy();
+    }
+
+    @Test
+    void submit_Success() throws Exception {
+        ConsumerRecord<String, OrderCreated> record = buildRecord(randomUUID().toString(), 0L);
+
+        executor.submit(record, consumerMock, containerMock);
+
+        verify(dispatchServiceMock, timeout(1000).times(1)).process(record.key(), record.value());
+        awaitCommitted(1L);
+        verify(recovererMock, never()).accept(any(), any());
+    }
+
+    @Test
+    void submit_SameKeyProcessedInOrder() throws Exception {
+        String key = randomUUID().toString();
+        List<Long> processed = new CopyOnWriteArrayList<>();
+        CountDownLatch releaseFirst = new CountDownLatch(1);
+        ConsumerRecord<String, OrderCreated> first = buildRecord(key, 0L);
+        ConsumerRecord<String, OrderCreated> second = buildRecord(key, 1L);
+        doAnswer(invocation -> {
+            releaseFirst.await(5, TimeUnit.SECONDS);
+            processed.add(0L);
+            return null;
+        }).when(dispatchServiceMock).process(key, first.value());
+        doAnswer(invocation -> processed.add(1L)).when(dispatchServiceMock).process(key, second.value());
+
+        executor.submit(first, consumerMock, containerMock);
+        executor.submit(second, consumerMock, containerMock);
+        TimeUnit.MILLISECONDS.sleep(100);
+        assertThat(processed.size(), equalTo(0));
+
+        releaseFirst.countDown();
+        await().atMost(1, TimeUnit.SECONDS).until(processed::size, equalTo(2));
+        assertThat(processed, contains(0L, 1L));
+    }
+
+    @Test
+    void submit_DifferentKeysProcessedConcurrently() throws Exception {
+        CountDownLatch bothStarted = new CountDownLatch(2);
+        doAnswer(invocation -> {
+            bothStarted.countDown();
+            bothStarted.await(5, TimeUnit.SECONDS);
+            return null;
+        }).when(dispatchServiceMock).process(any(), any());
+
+        executor.submit(buildRecord(randomUUID().toString(), 0L), consumerMock, containerMock);
+        executor.submit(buildRecord(randomUUID().toString(), 1L), consumerMock, containerMock);
+
+        awaitCommitted(2L);
+    }
+
+    @Test
+    void submit_OffsetNotCommittedPastRecordInFlight() throws Exception {
+        CountDownLatch releaseFirst = new CountDownLatch(1);
+        ConsumerRecord<String, OrderCreated> first = buildRecord(randomUUID().toString(), 0L);
+        ConsumerRecord<String, OrderCreated> second = buildRecord(randomUUID().toString(), 1L);
+        doAnswer(invocation -> releaseFirst.await(5, TimeUnit.SECONDS)).when(dispatchServiceMock).process(first.key(), first.value());
+
+        executor.submit(first, consumerMock, containerMock);
+        executor.submit(second, consumerMock, containerMock);
+        verify(dispatchServiceMock, timeout(1000).times(1)).process(second.key(), second.value());
+        executor.commitCompleted(consumerMock, containerMock);
+        verify(consumerMock, never()).commitAsync(any(Map.class), any());
+
+        releaseFirst.countDown();
+        awaitCommitted(2L);
+    }
+
+    @Test
+    void submit_RetryableExceptionThenSuccess() throws Exception {
+        ConsumerRecord<String, OrderCreated> record = buildRecord(randomUUID().toString(), 0L);
+        doThrow(new RetryableException("Service failure")).doNothing().when(dispatchServiceMock).process(record.key(), record.value());
+
+        executor.submit(record, consumerMock, containerMock);
+
+        awaitCommitted(1L);
+        verify(dispatchServiceMock, times(2)).process(record.key(), record.value());
+        verify(recovererMock, never()).accept(any(), any());
+    }
+
+    @Test
+    void submit_RetryableExceptionUntilFailure() throws Exception {
+        ConsumerRecord<String, OrderCreated> record = buildRecord(randomUUID().toString(), 0L);
+        doThrow(new RetryableException("Service failure")).when(dispatchServiceMock).process(record.key(), record.value());
+
+        executor.submit(record, consumerMock, containerMock);
+
+        awaitCommitted(1L);
+        verify(dispatchServiceMock, times(3)).process(record.key(), record.value());
+        verify(recovererMock, times(1)).accept(eq(record), isA(RetryableException.class));
+        assertThat(meterRegistry.get("dispatch.orders").tag("outcome", "retryable").counter().count(), equalTo(3.0));
+        assertThat(meterRegistry.get("dispatch.orders").tag("outcome", "dead_lettered").counter().count(), equalTo(1.0));
+    }
+
+    /**
+     * The record is turned away by the stock service more times than it has retries, but none of them are used up.
+     */
+    @Test
+    void submit_StockServiceUnavailableDoesNotUseUpRetries() throws Exception {
+        ConsumerRecord<String, OrderCreated> record = buildRecord(randomUUID().toString(), 0L);
+        StockServiceUnavailableException unavailable = new StockServiceUnavailableException("Stock service circuit breaker is open", Duration.ofMillis(10));
+        doThrow(unavailable, unavailable, unavailable, unavailable).doNothing().when(dispatchServiceMock).process(record.key(), record.value());
+
+        executor.submit(record, consumerMock, containerMock);
+
+        awaitCommitted(1L);
+        verify(dispatchServiceMock, times(5)).process(record.key(), record.value());
+        verify(recovererMock, never()).accept(any(), any());
+        assertThat(meterRegistry.get("dispatch.orders").tag("outcome", "retryable").counter().count(), equalTo(0.0));
+    }
+
+    @Test
+    void submit_NotRetryableException() throws Exception {
+        ConsumerRecord<String, OrderCreated> record = buildRecord(randomUUID().toString(), 0L);
+        doThrow(new RuntimeException("Service failure")).when(dispatchServiceMock).process(record.key(), record.value());
+
+        executor.submit(record, consumerMock, containerMock);
+
+        awaitCommitted(1L);
+        verify(dispatchServiceMock, times(1)).process(record.key(), record.value());
+        verify(recovererMock, times(1)).accept(eq(record), isA(NotRetryableException.class));
+    }
+
+    /**
+     * An Error escapes the retries and the recoverer, but the record behind it with the same key still runs, and neither
+     * offset holds back the partition.
+     */
+    @Test
+    void submit_SameKeySuccessorRunsAfterPredecessorFailsUnexpectedly() throws Exception {
+        String key = randomUUID().toString();
+        ConsumerRecord<String, OrderCreated> first = buildRecord(key, 0L);
+        ConsumerRecord<String, OrderCreated> second = buildRecord(key, 1L);
+        doThrow(new AssertionError("Unexpected failure")).when(dispatchServiceMock).process(key, first.value());
+
+        executor.submit(first, consumerMock, containerMock);
+        executor.submit(second, consumerMock, containerMock);
+
+        awaitCommitted(2L);
+        verify(dispatchServiceMock, times(1)).process(key, second.value());
+        assertThat(executor.getInFlight(), equalTo(0));
+    }
+
+    @Test
+    void submit_NonBlocking_SameKeySuccessorRunsAfterPredecessorFailsUnexpectedly() throws Exception {
+        executor.destroy();
+        executor = new AsyncDispatchExecutor(dispatchServiceMock, recovererMock, new FixedBackOff(10L, 2L), new DispatchMetrics(meterRegistry), new LogSampler(1), new ProcessedOrderIndex(false, 0), 10, true);
+        String key = randomUUID().toString();
+        ConsumerRecord<String, OrderCreated> first = buildRecord(key, 0L);
+        ConsumerRecord<String, OrderCreated> second = buildRecord(key, 1L);
+        when(dispatchServiceMock.processAsync(key, first.value())).thenThrow(new AssertionError("Unexpected failure"));
+        when(dispatchServiceMock.processAsync(key, second.value())).thenReturn(CompletableFuture.completedFuture(null));
+
+        executor.submit(first, consumerMock, containerMock);
+        executor.submit(second, consumerMock, containerMock);
+
+        awaitCommitted(2L);
+        verify(dispatchServiceMock, times(1)).processAsync(key, second.value());
+    }
+
+    /**
+     * The in-flight records never complete, so the consumer thread must not wait for them: the partition is paused and
+     * sought back to the record turned away, and the rest of the poll is skipped.
+     */
+    @Test
+    void submit_PausesAtInFlightCapWithoutBlocking() throws Exception {
+        executor.destroy();
+        executor = new AsyncDispatchExecutor(dispatchServiceMock, recovererMock, new FixedBackOff(10L, 2L), new DispatchMetrics(meterRegistry), new LogSampler(1), new ProcessedOrderIndex(false, 0), 1, false);
+        CountDownLatch neverReleased = new CountDownLatch(1);
+        doAnswer(invocation -> neverReleased.await(10, TimeUnit.SECONDS)).when(dispatchServiceMock).process(any(), any());
+        when(consumerMock.assignment()).thenReturn(Set.of(TOPIC_PARTITION));
+
+        assertTimeoutPreemptively(Duration.ofSeconds(1), () -> {
+            executor.submit(buildRecord(randomUUID().toString(), 0L), consumerMock, containerMock);
+            executor.submit(buildRecord(randomUUID().toString(), 1L), consumerMock, containerMock);
+            executor.submit(buildRecord(randomUUID().toString(), 2L), consumerMock, containerMock);
+            executor.commitCompleted(consumerMock, containerMock);
+        });
+
+        verify(dispatchServiceMock, timeout(1000).times(1)).process(any(), any());
+        verify(containerMock, times(1)).pausePartition(TOPIC_PARTITION);
+        verify(consumerMock, times(1)).seek(TOPIC_PARTITION, 1L);
+        verify(containerMock, never()).resumePartition(any());
+        assertThat(executor.getInFlight(), equalTo(1));
+        neverReleased.countDown();
+    }
+
+    @Test
+    void commitCompleted_ResumesBelowInFlightCapAndRedeliversTheRecord() throws Exception {
+        executor.destroy();
+        executor = new AsyncDispatchExecutor(dispatchServiceMock, recovererMock, new FixedBackOff(10L, 2L), new DispatchMetrics(meterRegistry), new LogSampler(1), new ProcessedOrderIndex(false, 0), 1, false);
+        CountDownLatch releaseFirst = new CountDownLatch(1);
+        ConsumerRecord<String, OrderCreated> first = buildRecord(randomUUID().toString(), 0L);
+        ConsumerRecord<String, OrderCreated> second = buildRecord(randomUUID().toString(), 1L);
+        doAnswer(invocation -> releaseFirst.await(5, TimeUnit.SECONDS)).when(dispatchServiceMock).process(first.key(), first.value());
+        when(consumerMock.assignment()).thenReturn(Set.of(TOPIC_PARTITION));
+        executor.submit(first, consumerMock, containerMock);
+        executor.submit(second, consumerMock, containerMock);
+
+        releaseFirst.countDown();
+        await().atMost(1, TimeUnit.SECONDS).untilAsserted(() -> {
+            executor.commitCompleted(consumerMock, containerMock);
+            verify(containerMock).resumePartition(TOPIC_PARTITION);
+        });
+        executor.submit(second, consumerMock, containerMock);
+
+        awaitCommitted(2L);
+        verify(dispatchServiceMock, times(1)).process(second.key(), second.value());
+        verify(consumerMock, times(1)).seek(any(TopicPartition.class), anyLong());
+    }
+
+    /**
+     * The circuit breaker opens while the partition is paused at the cap, so the container is paused too.  The partition
+     * stays paused until the breaker lets a trial call through and the container is resumed.
+     */
+    @Test
+    void commitCompleted_DoesNotResumeWhileTheCircuitBreakerHasPausedTheContainer() throws Exception {
+        executor.destroy();
+        executor = new AsyncDispatchExecutor(dispatchServiceMock, recovererMock, new FixedBackOff(10L, 2L), new DispatchMetrics(meterRegistry), new LogSampler(1), new ProcessedOrderIndex(false, 0), 1, false);
+        AtomicBoolean containerPaused = new AtomicBoolean();
+        doAnswer(invocation -> { containerPaused.set(true); return null; }).when(containerMock).pause();
+        doAnswer(invocation -> { containerPaused.set(false); return null; }).when(containerMock).resume();
+        when(containerMock.isPauseRequested()).thenAnswer(invocation -> containerPaused.get());
+        when(containerMock.getListenerId()).thenReturn("orderConsumerClient");
+        KafkaListenerEndpointRegistry registryMock = mock(KafkaListenerEndpointRegistry.class);
+        when(registryMock.getListenerContainers()).thenReturn(List.of(containerMock));
+        StockServiceCircuitBreaker circuitBreaker = new StockServiceCircuitBreaker(true, 1, Duration.ofMillis(500), Duration.ofMillis(100), new DispatchMetrics(meterRegistry));
+        new CircuitBreakerPauser(registryMock, circuitBreaker);
+        CountDownLatch releaseFirst = new CountDownLatch(1);
+        ConsumerRecord<String, OrderCreated> first = buildRecord(randomUUID().toString(), 0L);
+        doAnswer(invocation -> releaseFirst.await(5, TimeUnit.SECONDS)).when(dispatchServiceMock).process(first.key(), first.value());
+        when(consumerMock.assignment()).thenReturn(Set.of(TOPIC_PARTITION));
+        executor.submit(first, consumerMock, containerMock);
+        executor.submit(buildRecord(randomUUID().toString(), 1L), consumerMock, containerMock);
+
+        circuitBreaker.onFailure();
+        releaseFirst.countDown();
+        awaitCommitted(1L);
+
+        verify(containerMock).pause();
+        verify(containerMock, never()).resumePartition(any());
+        await().atMost(2, TimeUnit.SECONDS).untilAsserted(() -> {
+            executor.commitCompleted(consumerMock, containerMock);
+            verify(containerMock).resumePartition(TOPIC_PARTITION);
+        });
+        verify(containerMock).resume();
+    }
+
+    @Test
+    void onPartitionsRevokedBeforeCommit_WaitsForInFlightRecords() throws Exception {
+        CountDownLatch releaseFirst = new CountDownLatch(1);
+        ConsumerRecord<String, OrderCreated> record = buildRecord(randomUUID().toString(), 0L);
+        doAnswer(invocation -> releaseFirst.await(5, TimeUnit.SECONDS)).when(dispatchServiceMock).process(record.key(), record.value());
+        executor.submit(record, consumerMock, containerMock);
+
+        new Thread(() -> {
+            sleep(200);
+            releaseFirst.countDown();
+        }).start();
+        executor.onPartitionsRevokedBeforeCommit(consumerMock, List.of(TOPIC_PARTITION));
+
+        verify(consumerMock, times(1)).commitSync(Map.of(TOPIC_PARTITION, new OffsetAndMetadata(1L)));
+    }
+
+    @Test
+    void submit_NonBlocking_Success() throws Exception {
+        executor.destroy();
+        executor = new AsyncDispatchExecutor(dispatchServiceMock, recovererMock, new FixedBackOff(10L, 2L), new DispatchMetrics(meterRegistry), new LogSampler(1), new ProcessedOrderIndex(false, 0), 10, true);
+        ConsumerRecord<String, OrderCreated> record = buildRecord(randomUUID().toString(), 0L);
+        when(dispatchServiceMock.processAsync(record.key(), record.value())).thenReturn(CompletableFuture.completedFuture(null));
+
+        executor.submit(record, consumerMock, containerMock);
+
+        awaitCommitted(1L);
+        verify(dispatchServiceMock, never()).process(any(), any());
+        verify(recovererMock, never()).accept(any(), any());
+    }
+
+    @Test
+    void submit_NonBlocking_RetryableExceptionThenSuccess() throws Exception {
+        executor.destroy();
+        executor = new AsyncDispatchExecutor(dispatchServiceMock, recovererMock, new FixedBackOff(10L, 2L), new DispatchMetrics(meterRegistry), new LogSampler(1), new ProcessedOrderIndex(false, 0), 10, true);
+        ConsumerRecord<String, OrderCreated> record = buildRecord(randomUUID().toString(), 0L);
+        when(dispatchServiceMock.processAsync(record.key(), record.value()))
+                .thenReturn(CompletableFuture.failedFuture(new RetryableException("Service failure")))
+                .thenReturn(CompletableFuture.completedFuture(null));
+
+        executor.submit(record, consumerMock, containerMock);
+
+        awaitCommitted(1L);
+        verify(dispatchServiceMock, times(2)).processAsync(record.key(), record.value());
+        verify(recovererMock, never()).accept(any(), any());
+    }
+
+    @Test
+    void submit_NonBlocking_RetryableExceptionUntilFailure() throws Exception {
+        executor.destroy();
+        executor = new AsyncDispatchExecutor(dispatchServiceMock, recovererMock, new FixedBackOff(10L, 2L), new DispatchMetrics(meterRegistry), new LogSampler(1), new ProcessedOrderIndex(false, 0), 10, true);
+        ConsumerRecord<String, OrderCreated> record = buildRecord(randomUUID().toString(), 0L);
+        when(dispatchServiceMock.processAsync(record.key(), record.value())).thenReturn(CompletableFuture.failedFuture(new RetryableException("Service failure")));
+
+        executor.submit(record, consumerMock, containerMock);
+
+        awaitCommitted(1L);
+        verify(dispatchServiceMock, times(3)).processAsync(record.key(), record.value());
+        verify(recovererMock, times(1)).accept(eq(record), isA(RetryableException.class));
+    }
+
+    @Test
+    void submit_NonBlocking_StockServiceUnavailableDoesNotUseUpRetries() throws Exception {
+        executor.destroy();
+        executor = new AsyncDispatchExecutor(dispatchServiceMock, recovererMock, new FixedBackOff(10L, 2L), new DispatchMetrics(meterRegistry), new LogSampler(1), new ProcessedOrderIndex(false, 0), 10, true);
+        ConsumerRecord<String, OrderCreated> record = buildRecord(randomUUID().toString(), 0L);
+        CompletableFuture<Void> unavailable = CompletableFuture.failedFuture(new StockServiceUnavailableException("Stock service concurrency limit reached", Duration.ofMillis(10)));
+        when(dispatchServiceMock.processAsync(record.key(), record.value()))
+                .thenReturn(unavailable, unavailable, unavailable, unavailable)
+                .thenReturn(CompletableFuture.completedFuture(null));
+
+        executor.submit(record, consumerMock, containerMock);
+
+        awaitCommitted(1L);
+        verify(dispatchServiceMock, times(5)).processAsync(record.key(), record.value());
+        verify(recovererMock, never()).accept(any(), any());
+    }
+
+    @Test
+    void submit_NonBlocking_NotRetryableException() throws Exception {
+        executor.destroy();
+        executor = new AsyncDispatchExecutor(dispatchServiceMock, recovererMock, new FixedBackOff(10L, 2L), new DispatchMetrics(meterRegistry), new LogSampler(1), new ProcessedOrderIndex(false, 0), 10, true);
+        ConsumerRecord<String, OrderCreated> record = buildRecord(randomUUID().toString(), 0L);
+        when(dispatchServiceMock.processAsync(record.key(), record.value())).thenReturn(CompletableFuture.failedFuture(new RuntimeException("Service failure")));
+
+        executor.submit(record, consumerMock, containerMock);
+
+        awaitCommitted(1L);
+        verify(dispatchServiceMock, times(1)).processAsync(record.key(), record.value());
+        verify(recovererMock, times(1)).accept(eq(record), isA(NotRetryableException.class));
+    }
+
+    private void awaitCommitted(long offset) {
+        await().atMost(1, TimeUnit.SECONDS).untilAsserted(() -> {
+            executor.commitCompleted(consumerMock, containerMock);
+            verify(consumerMock).commitAsync(eq(Map.of(TOPIC_PARTITION, new OffsetAndMetadata(offset))), any());
+        });
+    }
+
+    private static void sleep(long millis) {
+        try {
+            TimeUnit.MILLISECONDS.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Test
+    void submit_DuplicateIsSkippedAndCommitted() throws Exception {
+        ProcessedOrderIndex processedOrderIndex = new ProcessedOrderIndex(true, 16);
+        executor.destroy();
+        executor = new AsyncDispatchExecutor(dispatchServiceMock, recovererMock, new FixedBackOff(10L, 2L), new DispatchMetrics(meterRegistry), new LogSampler(1), processedOrderIndex, 10, false);
+        executor.onPartitionsAssigned(consumerMock, List.of(TOPIC_PARTITION));
+        ConsumerRecord<String, OrderCreated> first = buildRecord(randomUUID().toString(), 0L);
+        ConsumerRecord<String, OrderCreated> duplicate = new ConsumerRecord<>(TOPIC_PARTITION.topic(), TOPIC_PARTITION.partition(), 1L, first.key(), first.value());
+
+        executor.submit(first, consumerMock, containerMock);
+        executor.submit(duplicate, consumerMock, containerMock);
+
+        awaitCommitted(2L);
+        verify(dispatchServiceMock, times(1)).process(first.key(), first.value());
+        assertThat(meterRegistry.get("dispatch.orders").tag("outcome", "duplicate").counter().count(), equalTo(1.0));
+    }
+
+    @Test
+    void onPartitionsRevoked_ProcessedOrdersAreForgotten() throws Exception {
+        ProcessedOrderIndex processedOrderIndex = new ProcessedOrderIndex(true, 16);
+        executor.destroy();
+        executor = new AsyncDispatchExecutor(dispatchServiceMock, recovererMock, new FixedBackOff(10L, 2L), new DispatchMetrics(meterRegistry), new LogSampler(1), processedOrderIndex, 10, false);
+        executor.onPartitionsAssigned(consumerMock, List.of(TOPIC_PARTITION));
+        ConsumerRecord<String, OrderCreated> record = buildRecord(randomUUID().toString(), 0L);
+        executor.submit(record, consumerMock, containerMock);
+        awaitCommitted(1L);
+
+        executor.onPartitionsRevokedBeforeCommit(consumerMock, List.of(TOPIC_PARTITION));
+
+        assertThat(processedOrderIndex.isProcessed(0, record.value().getOrderId()), equalTo(false));
+    }
+
+    private ConsumerRecord<String, OrderCreated> buildRecord(String key, long offset) {
+        OrderCreated testEvent = TestEventData.buildOrderCreatedEvent(randomUUID(), randomUUID().toString());
+        return new ConsumerRecord<>(TOPIC_PARTITION.topic(), TOPIC_PARTITION.partition(), offset, key, testEvent);
+    }
+}
@@ -0,0 +1,176 @@
+package dev.lydtech.dispatch.handler;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicReference;
+
+import dev.lydtech.dispatch.handler.BackPressureController.PressureSource;
+import dev.lydtech.dispatch.metrics.DispatchMetrics;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.apache.kafka.common.TopicPartition;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.kafka.config.KafkaListenerEndpointRegistry;
+import org.springframework.kafka.listener.MessageListenerContainer;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.containsInAnyOrder;
+import static org.hamcrest.Matchers.equalTo;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class BackPressureControllerTest {
+
+    private static final TopicPartition PARTITION_0 = new TopicPartition("order.created", 0);
+    private static final TopicPartition PARTITION_1 = new TopicPartition("order.created", 1);
+    private static final TopicPartition PARTITION_2 = new TopicPartition("order.created", 2);
+
+    private SimpleMeterRegistry meterRegistry;
+
+    private MessageListenerContainer container;
+
+    private KafkaListenerEndpointRegistry registry;
+
+    private AtomicReference<Double> inFlightPressure;
+
+    private AtomicReference<Double> sharedPressure;
+
+    private Map<TopicPartition, Integer> inFlight;
+
+    private List<BackPressureEvent> events;
+
+    private BackPressureController controller;
+
+    @BeforeEach
+    void setUp() {
+        meterRegistry = new SimpleMeterRegistry();
+        container = mock(MessageListenerContainer.class);
+        when(container.isRunning()).thenReturn(true);
+        when(container.getAssignedPartitions()).thenReturn(List.of(PARTITION_0, PARTITION_1, PARTITION_2));
+        registry = mock(KafkaListenerEndpointRegistry.class);
+        when(registry.getListenerContainer("orderConsumerClient")).thenReturn(container);
+        inFlightPressure = new AtomicReference<>(0.0);
+        sharedPressure = new AtomicReference<>(0.0);
+        inFlight = new HashMap<>();
+        events = new ArrayList<>();
+        controller = new BackPressureController(registry, List.of(
+                new PressureSource("in-flight", inFlightPressure::get, partition -> inFlight.getOrDefault(partition, 0)),
+                new PressureSource("produce-buffer", sharedPressure::get)),
+                0.8, 0.5, new DispatchMetrics(meterRegistry), event -> events.add((BackPressureEvent) event), null);
+    }
+
+    @Test
+    void doesNothingBelowTheHighWatermark() {
+        sharedPressure.set(0.7);
+
+        controller.evaluate();
+
+        verify(container, never()).pausePartition(any());
+        assertThat(controller.getPressure(), equalTo(0.7));
+        assertThat(events.isEmpty(), equalTo(true));
+    }
+
+    @Test
+    void pausesAllPartitionsForSharedPressure() {
+        sharedPressure.set(0.8);
+
+        controller.evaluate();
+
+        verify(container).pausePartition(PARTITION_0);
+        verify(container).pausePartition(PARTITION_1);
+        verify(container).pausePartition(PARTITION_2);
+        assertThat(controller.getPausedPartitions(), equalTo(3));
+        assertThat(events.size(), equalTo(1));
+        assertThat(events.get(0).isPaused(), equalTo(true));
+        assertThat(events.get(0).getSource(), equalTo("produce-buffer"));
+        assertThat(meterRegistry.get("dispatch.backpressure.transitions").tag("action", "paused").counter().count(), equalTo(1.0));
+    }
+
+    @Test
+    void pausesOnlyTheBusiestPartitionsForInFlightPressure() {
+        inFlightPressure.set(0.9);
+        inFlight.put(PARTITION_0, 7);
+        inFlight.put(PARTITION_1, 2);
+
+        controller.evaluate();
+
+        verify(container).pausePartition(PARTITION_0);
+        verify(container, never()).pausePartition(PARTITION_1);
+        verify(container, never()).pausePartition(PARTITION_2);
+        assertThat(events.get(0).getPartitions(), contains(PARTITION_0));
+    }
+
+    @Test
+    void staysPausedUntilTheLowWatermark() {
+        sharedPressure.set(0.9);
+        controller.evaluate();
+
+        sharedPressure.set(0.6);
+        controller.evaluate();
+        verify(container, never()).resumePartition(any());
+        assertThat(controller.getPausedPartitions(), equalTo(3));
+
+        sharedPressure.set(0.5);
+        controller.evaluate();
+        verify(container).resumePartition(PARTITION_0);
+        verify(container).resumePartition(PARTITION_1);
+        verify(container).resumePartition(PARTITION_2);
+        assertThat(controller.getPausedPartitions(), equalTo(0));
+        assertThat(events.size(), equalTo(2));
+        assertThat(events.get(1).isPaused(), equalTo(false));
+        assertThat(events.get(1).getPartitions(), containsInAnyOrder(PARTITION_0, PARTITION_1, PARTITION_2));
+        assertThat(meterRegistry.get("dispatch.backpressure.transitions").tag("action", "resumed").counter().count(), equalTo(1.0));
+    }
+
+    @Test
+    void doesNotPauseAgainWhilePaused() {
+        sharedPressure.set(0.9);
+
+        controller.evaluate();
+        controller.evaluate();
+
+        verify(container, times(1)).pausePartition(PARTITION_0);
+        assertThat(events.size(), equalTo(1));
+    }
+
+    @Test
+    void doesNotResumeRevokedPartitions() {
+        sharedPressure.set(0.9);
+        controller.evaluate();
+        when(container.getAssignedPartitions()).thenReturn(Set.of(PARTITION_1));
+
+        sharedPressure.set(0.1);
+        controller.evaluate();
+
+        verify(container).resumePartition(PARTITION_1);
+        verify(container, never()).resumePartition(PARTITION_0);
+        verify(container, never()).resumePartition(PARTITION_2);
+    }
+
+    @Test
+    void skipsTheSampleWhenTheContainerIsNotRunning() {
+        when(container.isRunning()).thenReturn(false);
+        sharedPressure.set(1.0);
+
+        controller.evaluate();
+
+        verify(container, never()).pausePartition(any());
+    }
+
+    @Test
+    void rejectsInvalidWatermarks() {
+        assertThrows(IllegalArgumentException.class, () -> new BackPressureController(registry, List.of(), 0.5, 0.5,
+                new DispatchMetrics(meterRegistry), event -> {}, null));
+        assertThrows(IllegalArgumentException.class, () -> new BackPressureController(registry, List.of(), 1.2, 0.5,
+                new DispatchMetrics(meterRegistry), event -> {}, null));
+    }
+}
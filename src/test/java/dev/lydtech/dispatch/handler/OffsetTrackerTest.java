@@ -0,0 +1,82 @@
+package dev.lydtech.dispatch.handler;
+
+import java.util.List;
+import java.util.Map;
+
+import org.apache.kafka.clients.consumer.OffsetAndMetadata;
+import org.apache.kafka.common.TopicPartition;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.anEmptyMap;
+import static org.hamcrest.Matchers.equalTo;
+
+class OffsetTrackerTest {
+
+    private static final TopicPartition PARTITION_0 = new TopicPartition("order.created", 0);
+    private static final TopicPartition PARTITION_1 = new TopicPartition("order.created", 1);
+
+    private OffsetTracker offsetTracker;
+
+    @BeforeEach
+    void setUp() {
+        offsetTracker = new OffsetTracker();
+    }
+
+    @Test
+    void committable_HighestContiguousCompletedOffset() {
+        long generation = offsetTracker.started(PARTITION_0, 10L);
+        offsetTracker.started(PARTITION_0, 11L);
+        offsetTracker.started(PARTITION_0, 12L);
+
+        offsetTracker.completed(PARTITION_0, generation, 11L);
+        offsetTracker.completed(PARTITION_0, generation, 12L);
+        assertThat(offsetTracker.committable(), anEmptyMap());
+
+        offsetTracker.completed(PARTITION_0, generation, 10L);
+        assertThat(offsetTracker.committable(), equalTo(Map.of(PARTITION_0, new OffsetAndMetadata(13L))));
+    }
+
+    @Test
+    void committable_OnlyPartitionsThatAdvanced() {
+        long generation0 = offsetTracker.started(PARTITION_0, 0L);
+        long generation1 = offsetTracker.started(PARTITION_1, 0L);
+        offsetTracker.completed(PARTITION_0, generation0, 0L);
+        assertThat(offsetTracker.committable(), equalTo(Map.of(PARTITION_0, new OffsetAndMetadata(1L))));
+
+        offsetTracker.completed(PARTITION_1, generation1, 0L);
+        assertThat(offsetTracker.committable(), equalTo(Map.of(PARTITION_1, new OffsetAndMetadata(1L))));
+        assertThat(offsetTracker.committable(), anEmptyMap());
+    }
+
+    @Test
+    void inFlightAndRemove() {
+        long generation = offsetTracker.started(PARTITION_0, 0L);
+        offsetTracker.started(PARTITION_0, 1L);
+        offsetTracker.started(PARTITION_1, 0L);
+        assertThat(offsetTracker.inFlight(List.of(PARTITION_0)), equalTo(2));
+
+        offsetTracker.remove(List.of(PARTITION_0));
+        assertThat(offsetTracker.inFlight(List.of(PARTITION_0, PARTITION_1)), equalTo(1));
+        offsetTracker.completed(PARTITION_0, generation, 0L);
+        assertThat(offsetTracker.committable(List.of(PARTITION_0)), anEmptyMap());
+    }
+
+    /**
+     * A record still running when its partition was revoked completes after the partition has been assigned again.
+     */
+    @Test
+    void completed_IgnoredFromAnEarlierAssignment() {
+        long revokedGeneration = offsetTracker.started(PARTITION_0, 5L);
+        offsetTracker.remove(List.of(PARTITION_0));
+        long generation = offsetTracker.started(PARTITION_0, 5L);
+
+        offsetTracker.completed(PARTITION_0, revokedGeneration, 5L);
+        assertThat(offsetTracker.inFlight(List.of(PARTITION_0)), equalTo(1));
+        assertThat(offsetTracker.committable(), anEmptyMap());
+
+        offsetTracker.completed(PARTITION_0, generation, 5L);
+        assertThat(offsetTracker.committable(), equalTo(Map.of(PARTITION_0, new OffsetAndMetadata(6L))));
+    }
+}
@@ -0,0 +1,43 @@
+package dev.lydtech.dispatch.handler;
+
+import dev.lydtech.dispatch.logging.LogSampler;
+import dev.lydtech.dispatch.message.OrderCreated;
+import dev.lydtech.dispatch.util.TestEventData;
+import org.apache.kafka.clients.consumer.Consumer;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.kafka.config.KafkaListenerEndpointRegistry;
+import org.springframework.kafka.listener.MessageListenerContainer;
+
+import static java.util.UUID.randomUUID;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class OrderCreatedAsyncHandlerTest {
+
+    private OrderCreatedAsyncHandler handler;
+    private AsyncDispatchExecutor asyncDispatchExecutorMock;
+    private MessageListenerContainer containerMock;
+
+    @BeforeEach
+    void setUp() {
+        asyncDispatchExecutorMock = mock(AsyncDispatchExecutor.class);
+        containerMock = mock(MessageListenerContainer.class);
+        KafkaListenerEndpointRegistry registryMock = mock(KafkaListenerEndpointRegistry.class);
+        when(registryMock.getListenerContainer("orderConsumerClient")).thenReturn(containerMock);
+        handler = new OrderCreatedAsyncHandler(registryMock, asyncDispatchExecutorMock, new LogSampler(1));
+    }
+
+    @Test
+    void listen_Success() throws Exception {
+        OrderCreated testEvent = TestEventData.buildOrderCreatedEvent(randomUUID(), randomUUID().toString());
+        ConsumerRecord<String, OrderCreated> record = new ConsumerRecord<>("order.created", 0, 0L, randomUUID().toString(), testEvent);
+        Consumer<?, ?> consumerMock = mock(Consumer.class);
+        handler.listen(record, consumerMock);
+        verify(asyncDispatchExecutorMock, times(1)).submit(record, consumerMock, containerMock);
+        verify(asyncDispatchExecutorMock, times(1)).commitCompleted(consumerMock, containerMock);
+    }
+}
@@ -0,0 +1,344 @@
+package dev.lydtech.dispatch.handler;
+
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+
+import dev.lydtech.dispatch.client.StockAvailabilityCache;
+import dev.lydtech.dispatch.client.StockAvailabilityTable;
+import dev.lydtech.dispatch.client.StockServiceCircuitBreaker;
+import dev.lydtech.dispatch.client.StockServiceClient;
+import dev.lydtech.dispatch.client.StockServiceConcurrencyLimiter;
+import dev.lydtech.dispatch.dedup.ProcessedOrderIndex;
+import dev.lydtech.dispatch.exception.NotRetryableException;
+import dev.lydtech.dispatch.exception.RetryableException;
+import dev.lydtech.dispatch.exception.StockServiceUnavailableException;
+import dev.lydtech.dispatch.logging.LogSampler;
+import dev.lydtech.dispatch.message.OrderCreated;
+import dev.lydtech.dispatch.metrics.DispatchMetrics;
+import dev.lydtech.dispatch.service.DispatchService;
+import dev.lydtech.dispatch.util.TestEventData;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.common.TopicPartition;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.kafka.listener.BatchListenerFailedException;
+import org.springframework.kafka.listener.ConsumerRecordRecoverer;
+import org.springframework.util.backoff.FixedBackOff;
+import org.springframework.web.client.RestTemplate;
+
+import static java.util.UUID.randomUUID;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.instanceOf;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyMap;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class OrderCreatedBatchHandlerTest {
+
+    private OrderCreatedBatchHandler handler;
+    private DispatchService dispatchServiceMock;
+    private ConsumerRecordRecoverer deadLetterRecovererMock;
+    private SimpleMeterRegistry meterRegistry;
+
+    @BeforeEach
+    void setUp() {
+        meterRegistry = new SimpleMeterRegistry();
+        dispatchServiceMock = mock(DispatchService.class);
+        deadLetterRecovererMock = mock(ConsumerRecordRecoverer.class);
+        handler = new OrderCreatedBatchHandler(dispatchServiceMock, new DispatchMetrics(meterRegistry), new LogSampler(1), new ProcessedOrderIndex(false, 0), deadLetterRecovererMock, new FixedBackOff(0L, 2L), false);
+    }
+
+    @Test
+    void listen_Success() {
+        ConsumerRecord<String, OrderCreated> first = buildRecord(0L);
+        ConsumerRecord<String, OrderCreated> second = buildRecord(1L);
+        when(dispatchServiceMock.processInBatch(any(), any(), anyMap())).thenReturn(CompletableFuture.completedFuture(null));
+
+        handler.listen(List.of(first, second));
+
+        verify(dispatchServiceMock, times(1)).processInBatch(eq(first.key()), eq(first.value()), anyMap());
+        verify(dispatchServiceMock, times(1)).processInBatch(eq(second.key()), eq(second.value()), anyMap());
+    }
+
+    /**
+     * The lookups for the whole batch are in flight together, so the distinct items are looked up in one bulk request
+     * rather than one request per order.
+     */
+    @Test
+    @SuppressWarnings("unchecked")
+    void listen_LooksUpTheBatchItemsInOneBulkRequest() throws Exception {
+        HttpClient httpClientMock = mock(HttpClient.class);
+        HttpResponse<String> response = mock(HttpResponse.class);
+        when(response.statusCode()).thenReturn(200);
+        when(response.body()).thenReturn("{\"item-1\": true, \"item-2\": true, \"item-3\": false}");
+        when(httpClientMock.sendAsync(any(HttpRequest.class), any(HttpResponse.BodyHandler.class))).thenReturn(CompletableFuture.completedFuture(response));
+        DispatchMetrics dispatchMetrics = new DispatchMetrics(meterRegistry);
+        StockServiceClient stockServiceClient = new StockServiceClient(mock(RestTemplate.class), httpClientMock, new StockAvailabilityCache(false, Duration.ofSeconds(5), 100),
+                mock(StockAvailabilityTable.class), dispatchMetrics, new StockServiceCircuitBreaker(false, 5, Duration.ofSeconds(10), Duration.ofMillis(100), dispatchMetrics),
+                new StockServiceConcurrencyLimiter(false, 20, 1, 200, Duration.ofMillis(500), dispatchMetrics), "http://localhost/api/stock", Duration.ofSeconds(1),
+                true, Duration.ofMillis(50), 50);
+        KafkaTemplate<String, Object> kafkaTemplateMock = mock(KafkaTemplate.class);
+        when(kafkaTemplateMock.send(any(String.class), any(String.class), any())).thenReturn(CompletableFuture.completedFuture(null));
+        handler = new OrderCreatedBatchHandler(new DispatchService(kafkaTemplateMock, stockServiceClient, dispatchMetrics, new LogSampler(1), false),
+                dispatchMetrics, new LogSampler(1), new ProcessedOrderIndex(false, 0), deadLetterRecovererMock, new FixedBackOff(0L, 2L), false);
+
+        handler.listen(List.of(buildRecord(0L, "item-1"), buildRecord(1L, "item-2"), buildRecord(2L, "item-1"), buildRecord(3L, "item-3")));
+
+        verify(httpClientMock, times(1)).sendAsync(argThat(request -> request.uri().toString().equals("http://localhost/api/stock/bulk?item=item-1&item=item-2&item=item-3")), any());
+        verify(kafkaTemplateMock, times(3)).send(eq("order.dispatched"), any(String.class), any());
+    }
+
+    @Test
+    void listen_ServiceThrowsRetryableException() {
+        ConsumerRecord<String, OrderCreated> first = buildRecord(0L);
+        ConsumerRecord<String, OrderCreated> second = buildRecord(1L);
+        ConsumerRecord<String, OrderCreated> third = buildRecord(2L);
+        when(dispatchServiceMock.processInBatch(eq(first.key()), any(), anyMap())).thenReturn(CompletableFuture.completedFuture(null));
+        when(dispatchServiceMock.processInBatch(eq(second.key()), any(), anyMap())).thenThrow(new RetryableException("Service failure"));
+
+        BatchListenerFailedException exception = assertThrows(BatchListenerFailedException.class, () -> handler.listen(List.of(first, second, third)));
+
+        assertThat(exception.getRecord(), equalTo(second));
+        assertThat(exception.getCause(), instanceOf(RetryableException.class));
+        verify(dispatchServiceMock, never()).processInBatch(eq(third.key()), any(), anyMap());
+    }
+
+    @Test
+    void listen_ServiceThrowsException() {
+        ConsumerRecord<String, OrderCreated> first = buildRecord(0L);
+        ConsumerRecord<String, OrderCreated> second = buildRecord(1L);
+        when(dispatchServiceMock.processInBatch(eq(first.key()), any(), anyMap())).thenThrow(new RuntimeException("Service failure"));
+
+        BatchListenerFailedException exception = assertThrows(BatchListenerFailedException.class, () -> handler.listen(List.of(first, second)));
+
+        assertThat(exception.getRecord(), equalTo(first));
+        assertThat(exception.getCause(), instanceOf(NotRetryableException.class));
+        verify(dispatchServiceMock, never()).processInBatch(eq(second.key()), any(), anyMap());
+    }
+
+    @Test
+    void listen_SendFails() {
+        ConsumerRecord<String, OrderCreated> first = buildRecord(0L);
+        ConsumerRecord<String, OrderCreated> second = buildRecord(1L);
+        when(dispatchServiceMock.processInBatch(eq(first.key()), any(), anyMap())).thenReturn(CompletableFuture.completedFuture(null));
+        when(dispatchServiceMock.processInBatch(eq(second.key()), any(), anyMap())).thenReturn(CompletableFuture.failedFuture(new RuntimeException("Producer failure")));
+
+        BatchListenerFailedException exception = assertThrows(BatchListenerFailedException.class, () -> handler.listen(List.of(first, second)));
+
+        assertThat(exception.getRecord(), equalTo(second));
+        assertThat(exception.getCause(), instanceOf(NotRetryableException.class));
+    }
+
+    @Test
+    void listen_NullPayload() {
+        ConsumerRecord<String, OrderCreated> poisonPill = new ConsumerRecord<>("order.created", 0, 0L, randomUUID().toString(), null);
+
+        BatchListenerFailedException exception = assertThrows(BatchListenerFailedException.class, () -> handler.listen(List.of(poisonPill)));
+
+        assertThat(exception.getRecord(), equalTo(poisonPill));
+        assertThat(exception.getCause(), instanceOf(NotRetryableException.class));
+    }
+
+    @Test
+    void listen_Transactional_RetryableFailureIsRedeliveredUntilRetriesAreUsedUp() {
+        handler = new OrderCreatedBatchHandler(dispatchServiceMock, new DispatchMetrics(meterRegistry), new LogSampler(1), new ProcessedOrderIndex(false, 0), deadLetterRecovererMock, new FixedBackOff(0L, 2L), true);
+        ConsumerRecord<String, OrderCreated> first = buildRecord(0L);
+        ConsumerRecord<String, OrderCreated> second = buildRecord(1L);
+        when(dispatchServiceMock.processInBatch(eq(first.key()), any(), anyMap())).thenReturn(CompletableFuture.completedFuture(null));
+        when(dispatchServiceMock.processInBatch(eq(second.key()), any(), anyMap())).thenThrow(new RetryableException("Service failure"));
+
+        // The first delivery and two retries.
+        for (int i = 0; i < 3; i++) {
+            BatchListenerFailedException exception = assertThrows(BatchListenerFailedException.class, () -> handler.listen(List.of(first, second)));
+            assertThat(exception.getRecord(), equalTo(second));
+        }
+        verify(deadLetterRecovererMock, never()).accept(any(), any());
+
+        handler.listen(List.of(first, second));
+
+        verify(deadLetterRecovererMock, times(1)).accept(eq(second), any(RetryableException.class));
+        verify(dispatchServiceMock, times(4)).processInBatch(eq(first.key()), any(), anyMap());
+        verify(dispatchServiceMock, times(3)).processInBatch(eq(second.key()), any(), anyMap());
+        assertThat(meterRegistry.get("dispatch.orders").tag("outcome", "dead_lettered").counter().count(), equalTo(1.0));
+    }
+
+    /**
+     * The BatchListenerFailedException is the cause, so that the error handler can tell the failure apart from a
+     * retryable failure of the same record.
+     */
+    @Test
+    void listen_StockServiceUnavailable() {
+        ConsumerRecord<String, OrderCreated> first = buildRecord(0L);
+        when(dispatchServiceMock.processInBatch(eq(first.key()), any(), anyMap())).thenThrow(new StockServiceUnavailableException("Stock service circuit breaker is open", Duration.ofSeconds(1)));
+
+        StockServiceUnavailableException exception = assertThrows(StockServiceUnavailableException.class, () -> handler.listen(List.of(first)));
+
+        assertThat(exception.getRetryAfter(), equalTo(Duration.ofSeconds(1)));
+        assertThat(exception.getCause(), instanceOf(BatchListenerFailedException.class));
+        assertThat(((BatchListenerFailedException) exception.getCause()).getRecord(), equalTo(first));
+    }
+
+    @Test
+    void listen_Transactional_StockServiceUnavailableDoesNotUseUpRetries() {
+        handler = new OrderCreatedBatchHandler(dispatchServiceMock, new DispatchMetrics(meterRegistry), new LogSampler(1), new ProcessedOrderIndex(false, 0), deadLetterRecovererMock, new FixedBackOff(0L, 2L), true);
+        ConsumerRecord<String, OrderCreated> first = buildRecord(0L);
+        when(dispatchServiceMock.processInBatch(eq(first.key()), any(), anyMap())).thenThrow(new StockServiceUnavailableException("Stock service circuit breaker is open", Duration.ofSeconds(1)));
+
+        for (int i = 0; i < 5; i++) {
+            assertThrows(BatchListenerFailedException.class, () -> handler.listen(List.of(first)));
+        }
+
+        verify(deadLetterRecovererMock, never()).accept(any(), any());
+        verify(dispatchServiceMock, times(5)).processInBatch(eq(first.key()), any(), anyMap());
+    }
+
+    @Test
+    void listen_Transactional_NotRetryableFailureIsDeadLetteredOnRedelivery() {
+        handler = new OrderCreatedBatchHandler(dispatchServiceMock, new DispatchMetrics(meterRegistry), new LogSampler(1), new ProcessedOrderIndex(false, 0), deadLetterRecovererMock, new FixedBackOff(0L, 2L), true);
+        ConsumerRecord<String, OrderCreated> first = buildRecord(0L);
+        ConsumerRecord<String, OrderCreated> second = buildRecord(1L);
+        when(dispatchServiceMock.processInBatch(eq(first.key()), any(), anyMap())).thenThrow(new RuntimeException("Service failure"));
+        when(dispatchServiceMock.processInBatch(eq(second.key()), any(), anyMap())).thenReturn(CompletableFuture.completedFuture(null));
+
+        assertThrows(BatchListenerFailedException.class, () -> handler.listen(List.of(first, second)));
+        handler.listen(List.of(first, second));
+
+        verify(deadLetterRecovererMock, times(1)).accept(eq(first), any(NotRetryableException.class));
+        verify(dispatchServiceMock, times(1)).processInBatch(eq(first.key()), any(), anyMap());
+        verify(dispatchServiceMock, times(1)).processInBatch(eq(second.key()), any(), anyMap());
+    }
+
+    @Test
+    void listen_Transactional_FailureIsForgottenOnceTheBatchSucceeds() {
+        handler = new OrderCreatedBatchHandler(dispatchServiceMock, new DispatchMetrics(meterRegistry), new LogSampler(1), new ProcessedOrderIndex(false, 0), deadLetterRecovererMock, new FixedBackOff(0L, 1L), true);
+        ConsumerRecord<String, OrderCreated> record = buildRecord(0L);
+        when(dispatchServiceMock.processInBatch(eq(record.key()), any(), anyMap()))
+                .thenThrow(new RetryableException("Service failure"))
+                .thenReturn(CompletableFuture.completedFuture(null))
+                .thenThrow(new RetryableException("Service failure"));
+
+        assertThrows(BatchListenerFailedException.class, () -> handler.listen(List.of(record)));
+        handler.listen(List.of(record));
+        // A later failure of the same record starts with its retries reset.
+        assertThrows(BatchListenerFailedException.class, () -> handler.listen(List.of(record)));
+
+        verify(deadLetterRecovererMock, never()).accept(any(), any());
+    }
+
+    /**
+     * A failed record is not redelivered here once its partition is revoked, so its failure is not kept.  Were it assigned
+     * back, it would be processed again with its retries reset.
+     */
+    @Test
+    void onPartitionsRevoked_Transactional_FailuresAreForgotten() {
+        handler = new OrderCreatedBatchHandler(dispatchServiceMock, new DispatchMetrics(meterRegistry), new LogSampler(1), new ProcessedOrderIndex(false, 0), deadLetterRecovererMock, new FixedBackOff(0L, 2L), true);
+        ConsumerRecord<String, OrderCreated> record = buildRecord(0L);
+        when(dispatchServiceMock.processInBatch(eq(record.key()), any(), anyMap()))
+                .thenThrow(new RuntimeException("Service failure"))
+                .thenReturn(CompletableFuture.completedFuture(null));
+        assertThrows(BatchListenerFailedException.class, () -> handler.listen(List.of(record)));
+
+        handler.onPartitionsRevokedAfterCommit(null, List.of(new TopicPartition("order.created", 0)));
+        handler.listen(List.of(record));
+
+        verify(deadLetterRecovererMock, never()).accept(any(), any());
+        verify(dispatchServiceMock, times(2)).processInBatch(eq(record.key()), any(), anyMap());
+    }
+
+    @Test
+    void onPartitionsRevoked_ProcessedOrdersAreForgotten() {
+        ProcessedOrderIndex processedOrderIndex = new ProcessedOrderIndex(true, 16);
+        handler = new OrderCreatedBatchHandler(dispatchServiceMock, new DispatchMetrics(meterRegistry), new LogSampler(1), processedOrderIndex, deadLetterRecovererMock, new FixedBackOff(0L, 2L), false);
+        handler.onPartitionsAssigned(null, List.of(new TopicPartition("order.created", 0)));
+        ConsumerRecord<String, OrderCreated> record = buildRecord(0L);
+        when(dispatchServiceMock.processInBatch(any(), any(), anyMap())).thenReturn(CompletableFuture.completedFuture(null));
+        handler.listen(List.of(record));
+        assertThat(processedOrderIndex.isProcessed(0, record.value().getOrderId()), equalTo(true));
+
+        handler.onPartitionsRevokedAfterCommit(null, List.of(new TopicPartition("order.created", 0)));
+
+        assertThat(processedOrderIndex.isProcessed(0, record.value().getOrderId()), equalTo(false));
+    }
+
+    @Test
+    void listen_DuplicatesAreSkipped() {
+        ProcessedOrderIndex processedOrderIndex = new ProcessedOrderIndex(true, 16);
+        processedOrderIndex.onPartitionsAssigned(null, List.of(new TopicPartition("order.created", 0)));
+        handler = new OrderCreatedBatchHandler(dispatchServiceMock, new DispatchMetrics(meterRegistry), new LogSampler(1), processedOrderIndex, deadLetterRecovererMock, new FixedBackOff(0L, 2L), false);
+        ConsumerRecord<String, OrderCreated> first = buildRecord(0L);
+        ConsumerRecord<String, OrderCreated> duplicateInBatch = new ConsumerRecord<>("order.created", 0, 1L, first.key(), first.value());
+        ConsumerRecord<String, OrderCreated> redelivered = new ConsumerRecord<>("order.created", 0, 2L, first.key(), first.value());
+        when(dispatchServiceMock.processInBatch(any(), any(), anyMap())).thenReturn(CompletableFuture.completedFuture(null));
+
+        handler.listen(List.of(first, duplicateInBatch));
+        handler.listen(List.of(redelivered));
+
+        verify(dispatchServiceMock, times(1)).processInBatch(eq(first.key()), eq(first.value()), anyMap());
+        assertThat(meterRegistry.get("dispatch.orders").tag("outcome", "duplicate").counter().count(), equalTo(2.0));
+    }
+
+    /**
+     * Only the items of the orders to be dispatched are looked up: not those of duplicates, nor of the records from one
+     * that could not be deserialized on, as the batch fails there.
+     */
+    @Test
+    void listen_SkippedRecordsAreNotLookedUp() {
+        ProcessedOrderIndex processedOrderIndex = new ProcessedOrderIndex(true, 16);
+        processedOrderIndex.onPartitionsAssigned(null, List.of(new TopicPartition("order.created", 0)));
+        handler = new OrderCreatedBatchHandler(dispatchServiceMock, new DispatchMetrics(meterRegistry), new LogSampler(1), processedOrderIndex, deadLetterRecovererMock, new FixedBackOff(0L, 2L), false);
+        ConsumerRecord<String, OrderCreated> redelivered = buildRecord(0L, "item-1");
+        processedOrderIndex.markProcessed(0, redelivered.value().getOrderId());
+        ConsumerRecord<String, OrderCreated> order = buildRecord(1L, "item-2");
+        ConsumerRecord<String, OrderCreated> duplicateInBatch = new ConsumerRecord<>("order.created", 0, 2L, order.key(), order.value());
+        ConsumerRecord<String, OrderCreated> undeserializable = new ConsumerRecord<>("order.created", 0, 3L, randomUUID().toString(), null);
+        ConsumerRecord<String, OrderCreated> afterFailure = buildRecord(4L, "item-3");
+        when(dispatchServiceMock.processInBatch(any(), any(), anyMap())).thenReturn(CompletableFuture.completedFuture(null));
+
+        assertThrows(BatchListenerFailedException.class, () -> handler.listen(List.of(redelivered, order, duplicateInBatch, undeserializable, afterFailure)));
+
+        verify(dispatchServiceMock).lookUpAvailability(Set.of("item-2"));
+        verify(dispatchServiceMock, times(1)).processInBatch(any(), any(), anyMap());
+    }
+
+    @Test
+    void listen_FailedBatchIsNotMarkedProcessed() {
+        ProcessedOrderIndex processedOrderIndex = new ProcessedOrderIndex(true, 16);
+        processedOrderIndex.onPartitionsAssigned(null, List.of(new TopicPartition("order.created", 0)));
+        handler = new OrderCreatedBatchHandler(dispatchServiceMock, new DispatchMetrics(meterRegistry), new LogSampler(1), processedOrderIndex, deadLetterRecovererMock, new FixedBackOff(0L, 2L), false);
+        ConsumerRecord<String, OrderCreated> first = buildRecord(0L);
+        ConsumerRecord<String, OrderCreated> second = buildRecord(1L);
+        when(dispatchServiceMock.processInBatch(eq(first.key()), any(), anyMap())).thenReturn(CompletableFuture.completedFuture(null));
+        when(dispatchServiceMock.processInBatch(eq(second.key()), any(), anyMap()))
+                .thenThrow(new RetryableException("Service failure"))
+                .thenReturn(CompletableFuture.completedFuture(null));
+
+        assertThrows(BatchListenerFailedException.class, () -> handler.listen(List.of(first, second)));
+        handler.listen(List.of(second));
+
+        verify(dispatchServiceMock, times(2)).processInBatch(eq(second.key()), eq(second.value()), anyMap());
+    }
+
+    private ConsumerRecord<String, OrderCreated> buildRecord(long offset) {
+        return buildRecord(offset, randomUUID().toString());
+    }
+
+    private ConsumerRecord<String, OrderCreated> buildRecord(long offset, String item) {
+        OrderCreated testEvent = TestEventData.buildOrderCreatedEvent(randomUUID(), item);
+        return new ConsumerRecord<>("order.created", 0, offset, randomUUID().toString(), testEvent);
+    }
+}
@@ -1,10 +1,20 @@
 package dev.lydtech.dispatch.handler;
 
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.util.List;
+
+import dev.lydtech.dispatch.dedup.ProcessedOrderIndex;
 import dev.lydtech.dispatch.exception.NotRetryableException;
 import dev.lydtech.dispatch.exception.RetryableException;
+import dev.lydtech.dispatch.exception.StockServiceUnavailableException;
+import dev.lydtech.dispatch.logging.LogSampler;
 import dev.lydtech.dispatch.message.OrderCreated;
+import dev.lydtech.dispatch.metrics.DispatchMetrics;
 import dev.lydtech.dispatch.service.DispatchService;
 import dev.lydtech.dispatch.util.TestEventData;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.apache.kafka.common.TopicPartition;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 
@@ -21,18 +31,20 @@ class OrderCreatedHandlerTest {
 
     private OrderCreatedHandler handler;
     private DispatchService dispatchServiceMock;
+    private SimpleMeterRegistry meterRegistry;
 
     @BeforeEach
     void setUp() {
+        meterRegistry = new SimpleMeterRegistry();
         dispatchServiceMock = mock(DispatchService.class);
-        handler = new OrderCreatedHandler(dispatchServiceMock);
+        handler = new OrderCreatedHandler(dispatchServiceMock, new DispatchMetrics(meterRegistry), new LogSampler(1), new ProcessedOrderIndex(false, 0));
     }
 
     @Test
     void listen_Success() throws Exception {
         String key = randomUUID().toString();
         OrderCreated testEvent = TestEventData.buildOrderCreatedEvent(randomUUID(), randomUUID().toString());
-        handler.listen(0, key, testEvent);
+        handler.listen(0, null, key, testEvent);
         verify(dispatchServiceMock, times(1)).process(key, testEvent);
     }
 
@@ -42,9 +54,10 @@ class OrderCreatedHandlerTest {
         OrderCreated testEvent = TestEventData.buildOrderCreatedEvent(randomUUID(), randomUUID().toString());
         doThrow(new RuntimeException("Service failure")).when(dispatchServiceMock).process(key, testEvent);
 
-        Exception exception = assertThrows(NotRetryableException.class, () -> handler.listen(0, key, testEvent));
+        Exception exception = assertThrows(NotRetryableException.class, () -> handler.listen(0, null, key, testEvent));
         assertThat(exception.getMessage(), equalTo("java.lang.RuntimeException: Service failure"));
         verify(dispatchServiceMock, times(1)).process(key, testEvent);
+        assertThat(meterRegistry.get("dispatch.orders").tag("outcome", "not_retryable").counter().count(), equalTo(1.0));
     }
 
     @Test
@@ -53,8 +66,72 @@ class OrderCreatedHandlerTest {
         OrderCreated testEvent = TestEventData.buildOrderCreatedEvent(randomUUID(), randomUUID().toString());
         doThrow(new RetryableException("Service failure")).when(dispatchServiceMock).process(key, testEvent);
 
-        Exception exception = assertThrows(RuntimeException.class, () -> handler.listen(0, key, testEvent));
+        Exception exception = assertThrows(RuntimeException.class, () -> handler.listen(0, null, key, testEvent));
         assertThat(exception.getMessage(), equalTo("Service failure"));
         verify(dispatchServiceMock, times(1)).process(key, testEvent);
+        assertThat(meterRegistry.get("dispatch.orders").tag("outcome", "retryable").counter().count(), equalTo(1.0));
+    }
+
+    @Test
+    void listen_StockServiceUnavailableIsRethrownAsIs() throws Exception {
+        String key = randomUUID().toString();
+        OrderCreated testEvent = TestEventData.buildOrderCreatedEvent(randomUUID(), randomUUID().toString());
+        doThrow(new StockServiceUnavailableException("Stock service circuit breaker is open", Duration.ofSeconds(1))).when(dispatchServiceMock).process(key, testEvent);
+
+        assertThrows(StockServiceUnavailableException.class, () -> handler.listen(0, null, key, testEvent));
+        assertThat(meterRegistry.get("dispatch.orders").tag("outcome", "retryable").counter().count(), equalTo(0.0));
+        assertThat(meterRegistry.get("dispatch.orders").tag("outcome", "not_retryable").counter().count(), equalTo(0.0));
+    }
+
+    @Test
+    void listen_DuplicateIsSkipped() throws Exception {
+        ProcessedOrderIndex processedOrderIndex = new ProcessedOrderIndex(true, 16);
+        processedOrderIndex.onPartitionsAssigned(null, List.of(new TopicPartition("order.created", 0)));
+        handler = new OrderCreatedHandler(dispatchServiceMock, new DispatchMetrics(meterRegistry), new LogSampler(1), processedOrderIndex);
+        String key = randomUUID().toString();
+        OrderCreated testEvent = TestEventData.buildOrderCreatedEvent(randomUUID(), randomUUID().toString());
+
+        handler.listen(0, null, key, testEvent);
+        handler.listen(0, null, key, testEvent);
+
+        verify(dispatchServiceMock, times(1)).process(key, testEvent);
+        assertThat(meterRegistry.get("dispatch.orders").tag("outcome", "duplicate").counter().count(), equalTo(1.0));
+    }
+
+    /**
+     * An order from a retry topic partition is looked up by the order.created partition in its original partition
+     * header, not by the partition of the retry topic.
+     */
+    @Test
+    void listen_RetryTopicDuplicateIsLookedUpByTheOriginalPartition() throws Exception {
+        ProcessedOrderIndex processedOrderIndex = new ProcessedOrderIndex(true, 16);
+        processedOrderIndex.onPartitionsAssigned(null, List.of(new TopicPartition("order.created", 0), new TopicPartition("order.created", 1)));
+        handler = new OrderCreatedHandler(dispatchServiceMock, new DispatchMetrics(meterRegistry), new LogSampler(1), processedOrderIndex);
+        String key = randomUUID().toString();
+        OrderCreated testEvent = TestEventData.buildOrderCreatedEvent(randomUUID(), randomUUID().toString());
+        byte[] originalPartition = ByteBuffer.allocate(Integer.BYTES).putInt(1).array();
+
+        handler.listen(0, originalPartition, key, testEvent);
+        handler.listen(1, null, key, testEvent);
+        handler.listen(0, null, key, testEvent);
+
+        verify(dispatchServiceMock, times(2)).process(key, testEvent);
+        assertThat(processedOrderIndex.isProcessed(1, testEvent.getOrderId()), equalTo(true));
+        assertThat(meterRegistry.get("dispatch.orders").tag("outcome", "duplicate").counter().count(), equalTo(1.0));
+    }
+
+    @Test
+    void listen_FailedOrderIsNotMarkedProcessed() throws Exception {
+        ProcessedOrderIndex processedOrderIndex = new ProcessedOrderIndex(true, 16);
+        processedOrderIndex.onPartitionsAssigned(null, List.of(new TopicPartition("order.created", 0)));
+        handler = new OrderCreatedHandler(dispatchServiceMock, new DispatchMetrics(meterRegistry), new LogSampler(1), processedOrderIndex);
+        String key = randomUUID().toString();
+        OrderCreated testEvent = TestEventData.buildOrderCreatedEvent(randomUUID(), randomUUID().toString());
+        doThrow(new RetryableException("Service failure")).doNothing().when(dispatchServiceMock).process(key, testEvent);
+
+        assertThrows(RetryableException.class, () -> handler.listen(0, null, key, testEvent));
+        handler.listen(0, null, key, testEvent);
+
+        verify(dispatchServiceMock, times(2)).process(key, testEvent);
     }
 }
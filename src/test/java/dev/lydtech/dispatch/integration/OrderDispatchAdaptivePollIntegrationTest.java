@@ -0,0 +1,10 @@
+package dev.lydtech.dispatch.integration;
+
+import org.springframework.test.context.TestPropertySource;
+
+/**
+ * Runs the OrderDispatchIntegrationTest scenarios with the balanced consumer profile and the adaptive poll limit.
+ */
+@TestPropertySource(properties = {"dispatch.consumer.profile=balanced", "dispatch.consumer.adaptive.enabled=true"})
+public class OrderDispatchAdaptivePollIntegrationTest extends OrderDispatchIntegrationTest {
+}
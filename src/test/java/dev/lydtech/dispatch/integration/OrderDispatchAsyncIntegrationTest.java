@@ -0,0 +1,10 @@
+package dev.lydtech.dispatch.integration;
+
+import org.springframework.test.context.TestPropertySource;
+
+/**
+ * Runs the OrderDispatchIntegrationTest scenarios with the async listener enabled.
+ */
+@TestPropertySource(properties = "dispatch.listener.mode=async")
+public class OrderDispatchAsyncIntegrationTest extends OrderDispatchIntegrationTest {
+}
@@ -0,0 +1,56 @@
+package dev.lydtech.dispatch.integration;
+
+import java.util.concurrent.TimeUnit;
+
+import dev.lydtech.dispatch.util.TestEventData;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.test.context.TestPropertySource;
+
+import static java.util.UUID.randomUUID;
+import static org.awaitility.Awaitility.await;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.greaterThan;
+
+/**
+ * Runs the OrderDispatchIntegrationTest scenarios with the async listener and back-pressure enabled.  The in-flight cap
+ * is small, so that a handful of slow orders pauses the partitions.
+ */
+@TestPropertySource(properties = {"dispatch.listener.mode=async", "dispatch.async.maxInFlight=4", "dispatch.backpressure.enabled=true",
+        "dispatch.backpressure.interval=20ms", "dispatch.backpressure.highWatermark=0.75", "dispatch.backpressure.lowWatermark=0.25"})
+public class OrderDispatchBackPressureIntegrationTest extends OrderDispatchIntegrationTest {
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    /**
+     * Slow stock service calls fill up the in-flight dispatches, which pauses the partitions.  They are resumed once the
+     * dispatches complete, and all the orders are dispatched.
+     */
+    @Test
+    public void testOrderDispatchFlow_SlowStockServicePausesPartitions() throws Exception {
+        stubStockServiceWithDelay("my-item", 200, "true", 300);
+        double paused = transitions("paused");
+        double resumed = transitions("resumed");
+
+        for (int i = 0; i < 8; i++) {
+            sendMessage(ORDER_CREATED_TOPIC, randomUUID().toString(), TestEventData.buildOrderCreatedEvent(randomUUID(), "my-item"));
+        }
+
+        await().atMost(10, TimeUnit.SECONDS).pollDelay(100, TimeUnit.MILLISECONDS)
+                .until(testListener.dispatchCompletedCounter::get, equalTo(8));
+        await().atMost(3, TimeUnit.SECONDS).pollDelay(100, TimeUnit.MILLISECONDS)
+                .until(() -> meterRegistry.get("dispatch.backpressure.paused.partitions").gauge().value(), equalTo(0.0));
+        assertThat(transitions("paused") - paused, greaterThan(0.0));
+        assertThat(transitions("resumed") - resumed, equalTo(transitions("paused") - paused));
+        assertThat(testListener.orderCreatedDLTCounter.get(), equalTo(0));
+    }
+
+    private double transitions(String action) {
+        Counter counter = meterRegistry.find("dispatch.backpressure.transitions").tag("action", action).counter();
+        return counter == null ? 0 : counter.count();
+    }
+}
@@ -0,0 +1,10 @@
+package dev.lydtech.dispatch.integration;
+
+import org.springframework.test.context.TestPropertySource;
+
+/**
+ * Runs the OrderDispatchIntegrationTest scenarios with the batch listener enabled.
+ */
+@TestPropertySource(properties = "dispatch.listener.mode=batch")
+public class OrderDispatchBatchIntegrationTest extends OrderDispatchIntegrationTest {
+}
@@ -0,0 +1,10 @@
+package dev.lydtech.dispatch.integration;
+
+import org.springframework.test.context.TestPropertySource;
+
+/**
+ * Runs the OrderDispatchIntegrationTest scenarios with the events written in the binary format.
+ */
+@TestPropertySource(properties = "dispatch.serialization.format=binary")
+public class OrderDispatchBinaryIntegrationTest extends OrderDispatchIntegrationTest {
+}
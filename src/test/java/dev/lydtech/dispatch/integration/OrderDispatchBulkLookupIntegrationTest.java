@@ -0,0 +1,64 @@
+package dev.lydtech.dispatch.integration;
+
+import java.util.concurrent.TimeUnit;
+
+import dev.lydtech.dispatch.message.OrderCreated;
+import dev.lydtech.dispatch.util.TestEventData;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.context.TestPropertySource;
+
+import static com.github.tomakehurst.wiremock.client.WireMock.getRequestedFor;
+import static com.github.tomakehurst.wiremock.client.WireMock.urlPathEqualTo;
+import static com.github.tomakehurst.wiremock.client.WireMock.verify;
+import static dev.lydtech.dispatch.integration.WiremockUtils.stubWiremock;
+import static dev.lydtech.dispatch.integration.WiremockUtils.stubWiremockForPath;
+import static dev.lydtech.dispatch.integration.WiremockUtils.stubWiremockWithDelay;
+import static java.util.UUID.randomUUID;
+import static org.awaitility.Awaitility.await;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+
+/**
+ * Runs the OrderDispatchIntegrationTest scenarios with the async listener looking up stock availability through the
+ * stock service's bulk endpoint.
+ */
+@TestPropertySource(properties = {"dispatch.listener.mode=async", "dispatch.stock.bulk.enabled=true", "dispatch.stock.bulk.window=200ms"})
+public class OrderDispatchBulkLookupIntegrationTest extends OrderDispatchIntegrationTest {
+
+    /**
+     * Orders for different items received within the batching window are looked up in a single bulk request.
+     */
+    @Test
+    public void testOrderDispatchFlow_BulkLookup() throws Exception {
+        stubWiremockForPath("/api/stock/bulk", 200, "{\"item-1\": true, \"item-2\": true, \"item-3\": true}");
+
+        for (String item : new String[] {"item-1", "item-2", "item-3"}) {
+            OrderCreated orderCreated = TestEventData.buildOrderCreatedEvent(randomUUID(), item);
+            sendMessage(ORDER_CREATED_TOPIC, randomUUID().toString(), orderCreated);
+        }
+
+        await().atMost(3, TimeUnit.SECONDS).pollDelay(100, TimeUnit.MILLISECONDS)
+                .until(testListener.dispatchCompletedCounter::get, equalTo(3));
+        assertThat(testListener.orderCreatedDLTCounter.get(), equalTo(0));
+        verify(1, getRequestedFor(urlPathEqualTo("/api/stock/bulk")));
+    }
+
+    @Override
+    protected void stubStockService(String item, int httpStatusResponse, String body) {
+        stubWiremock("/api/stock/bulk?item=" + item, httpStatusResponse, bulkBody(item, httpStatusResponse, body));
+    }
+
+    @Override
+    protected void stubStockService(String item, int httpStatusResponse, String body, String scenario, String initialState, String nextState) {
+        stubWiremock("/api/stock/bulk?item=" + item, httpStatusResponse, bulkBody(item, httpStatusResponse, body), scenario, initialState, nextState);
+    }
+
+    @Override
+    protected void stubStockServiceWithDelay(String item, int httpStatusResponse, String body, int delayMillis) {
+        stubWiremockWithDelay("/api/stock/bulk?item=" + item, httpStatusResponse, bulkBody(item, httpStatusResponse, body), delayMillis);
+    }
+
+    private static String bulkBody(String item, int httpStatusResponse, String body) {
+        return httpStatusResponse == 200 ? "{\"" + item + "\": " + body + "}" : body;
+    }
+}
@@ -0,0 +1,76 @@
+package dev.lydtech.dispatch.integration;
+
+import java.util.concurrent.TimeUnit;
+
+import dev.lydtech.dispatch.message.OrderCreated;
+import dev.lydtech.dispatch.util.TestEventData;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.kafka.config.KafkaListenerEndpointRegistry;
+import org.springframework.test.context.TestPropertySource;
+
+import static java.util.UUID.randomUUID;
+import static org.awaitility.Awaitility.await;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+
+/**
+ * Runs the OrderDispatchIntegrationTest scenarios with the stock service circuit breaker and concurrency limiter enabled.
+ * The failure threshold is more than the failed attempts of two orders, so the scenarios that dead letter an order do
+ * not open the breaker.
+ */
+@TestPropertySource(properties = {"dispatch.stock.breaker.enabled=true", "dispatch.stock.breaker.failureThreshold=9", "dispatch.stock.breaker.openDuration=2s",
+        "dispatch.stock.limiter.enabled=true"})
+public class OrderDispatchCircuitBreakerIntegrationTest extends OrderDispatchIntegrationTest {
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Autowired
+    private KafkaListenerEndpointRegistry registry;
+
+    /**
+     * Orders for an item the stock service keeps failing are sent.  The first two use up their retries and are dead
+     * lettered, and the third opens the breaker, which pauses the consumer.  The third order is then held, rather than
+     * dead lettered, until the stock service recovers.
+     */
+    @Test
+    public void testOrderDispatchFlow_OpenBreakerHoldsOrdersUntilRecovery() throws Exception {
+        stubStockService("my-item", 200, "true");
+        stubStockService("outage-item", 503, "Service unavailable");
+        String key = randomUUID().toString();
+
+        // A success first, so that no failures are carried over from the other scenarios.
+        sendMessage(ORDER_CREATED_TOPIC, key, TestEventData.buildOrderCreatedEvent(randomUUID(), "my-item"));
+        await().atMost(3, TimeUnit.SECONDS).pollDelay(100, TimeUnit.MILLISECONDS)
+                .until(testListener.dispatchCompletedCounter::get, equalTo(1));
+        double opened = transitions("open");
+
+        for (int i = 0; i < 3; i++) {
+            OrderCreated orderCreated = TestEventData.buildOrderCreatedEvent(randomUUID(), "outage-item");
+            sendMessage(ORDER_CREATED_TOPIC, key, orderCreated);
+        }
+
+        await().atMost(10, TimeUnit.SECONDS).pollDelay(100, TimeUnit.MILLISECONDS)
+                .until(() -> registry.getListenerContainer("orderConsumerClient").isPauseRequested());
+        assertThat(transitions("open") - opened, equalTo(1.0));
+        assertThat(testListener.orderCreatedDLTCounter.get(), equalTo(2));
+
+        // Long enough for a failed trial call, which opens the breaker again.
+        TimeUnit.SECONDS.sleep(3);
+        assertThat(testListener.orderCreatedDLTCounter.get(), equalTo(2));
+
+        stubStockService("outage-item", 200, "true");
+        await().atMost(10, TimeUnit.SECONDS).pollDelay(100, TimeUnit.MILLISECONDS)
+                .until(testListener.dispatchCompletedCounter::get, equalTo(2));
+        assertThat(testListener.orderCreatedDLTCounter.get(), equalTo(2));
+        assertThat(registry.getListenerContainer("orderConsumerClient").isPauseRequested(), equalTo(false));
+    }
+
+    private double transitions(String state) {
+        Counter counter = meterRegistry.find("dispatch.stock.breaker.transitions").tag("state", state).counter();
+        return counter == null ? 0 : counter.count();
+    }
+}
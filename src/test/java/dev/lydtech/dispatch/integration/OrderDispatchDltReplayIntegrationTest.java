@@ -0,0 +1,133 @@
+package dev.lydtech.dispatch.integration;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.concurrent.TimeUnit;
+
+import dev.lydtech.dispatch.DispatchConfiguration;
+import dev.lydtech.dispatch.message.OrderCreated;
+import dev.lydtech.dispatch.replay.DltReplayer;
+import dev.lydtech.dispatch.replay.ReplayProgress;
+import dev.lydtech.dispatch.replay.ReplayRequest;
+import dev.lydtech.dispatch.util.TestEventData;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.cloud.contract.wiremock.AutoConfigureWireMock;
+import org.springframework.kafka.config.KafkaListenerEndpointRegistry;
+import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.kafka.listener.MessageListenerContainer;
+import org.springframework.kafka.support.KafkaHeaders;
+import org.springframework.kafka.test.EmbeddedKafkaBroker;
+import org.springframework.kafka.test.context.EmbeddedKafka;
+import org.springframework.kafka.test.utils.ContainerTestUtils;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.TestPropertySource;
+
+import static dev.lydtech.dispatch.integration.WiremockUtils.stubWiremock;
+import static java.util.UUID.randomUUID;
+import static org.awaitility.Awaitility.await;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+
+/**
+ * Runs the dead letter replay as the one-shot command it is with dispatch.replay.enabled.  The order listener is not
+ * started, so the dead lettered orders are sent straight to the dead letter topic with the headers the dead letter
+ * publishing recoverer adds.
+ */
+@SpringBootTest(classes = {DispatchConfiguration.class})
+@AutoConfigureWireMock(port=0)
+@DirtiesContext(classMode = DirtiesContext.ClassMode.AFTER_CLASS)
+@ActiveProfiles("test")
+@EmbeddedKafka(controlledShutdown = true, topics = {"order.created", "order.created.DLT"})
+@TestPropertySource(properties = {"dispatch.replay.enabled=true", "dispatch.replay.rate=1000", "dispatch.dedup.enabled=true"})
+public class OrderDispatchDltReplayIntegrationTest {
+
+    private final static String ORDER_CREATED_DLT_TOPIC = "order.created.DLT";
+
+    @Autowired
+    private KafkaTemplate kafkaTemplate;
+
+    @Autowired
+    private EmbeddedKafkaBroker embeddedKafkaBroker;
+
+    @Autowired
+    private KafkaListenerEndpointRegistry registry;
+
+    @Autowired
+    private OrderDispatchIntegrationTest.KafkaTestListener testListener;
+
+    @Autowired
+    private DltReplayer replayer;
+
+    @BeforeEach
+    public void setUp() {
+        testListener.dispatchPreparingCounter.set(0);
+        testListener.orderDispatchedCounter.set(0);
+        testListener.dispatchCompletedCounter.set(0);
+        testListener.orderCreatedDLTCounter.set(0);
+
+        WiremockUtils.reset();
+
+        // Only the test listener container is running, so wait until its partitions are assigned.
+        registry.getListenerContainers().stream()
+                .filter(MessageListenerContainer::isRunning)
+                .forEach(container -> ContainerTestUtils.waitForAssignment(container,
+                        container.getContainerProperties().getTopics().length * embeddedKafkaBroker.getPartitionsPerTopic()));
+    }
+
+    @Test
+    public void testOrderListenerIsNotStarted() {
+        assertThat(registry.getListenerContainer("orderConsumerClient").isRunning(), equalTo(false));
+    }
+
+    /**
+     * Only the orders that failed with the requested exception are replayed, and an order dead lettered twice is
+     * dispatched once.  Replaying the same request again resumes from the committed progress, so replays none.
+     */
+    @Test
+    public void testDeadLetteredOrdersAreReplayedOnce() throws Exception {
+        Instant from = Instant.now();
+        stubWiremock("/api/stock?item=my-item", 200, "true");
+        String duplicateKey = randomUUID().toString();
+        OrderCreated duplicate = TestEventData.buildOrderCreatedEvent(randomUUID(), "my-item");
+        sendDeadLetter(duplicateKey, duplicate, "NotRetryableException");
+        sendDeadLetter(randomUUID().toString(), TestEventData.buildOrderCreatedEvent(randomUUID(), "my-item"), "NotRetryableException");
+        sendDeadLetter(randomUUID().toString(), TestEventData.buildOrderCreatedEvent(randomUUID(), "my-item"), "RetryableException");
+        sendDeadLetter(duplicateKey, duplicate, "NotRetryableException");
+        await().atMost(3, TimeUnit.SECONDS).pollDelay(100, TimeUnit.MILLISECONDS)
+                .until(testListener.orderCreatedDLTCounter::get, equalTo(4));
+
+        ReplayRequest request = ReplayRequest.parse("", from.toString(), "", "NotRetryableException");
+        ReplayProgress progress = replayer.replay(request);
+
+        assertThat(progress.getReplayed(), equalTo(2L));
+        assertThat(progress.getSkipped(), equalTo(2L));
+        assertThat(progress.getFailed(), equalTo(0L));
+        await().atMost(3, TimeUnit.SECONDS).pollDelay(100, TimeUnit.MILLISECONDS)
+                .until(testListener.dispatchCompletedCounter::get, equalTo(2));
+
+        ReplayProgress rerun = replayer.replay(request);
+
+        assertThat(rerun.getTotal(), equalTo(0L));
+        assertThat(testListener.dispatchCompletedCounter.get(), equalTo(2));
+    }
+
+    /**
+     * All to the same partition, so that the duplicate order comes from the same order.created partition.
+     */
+    private void sendDeadLetter(String key, OrderCreated orderCreated, String exception) throws Exception {
+        kafkaTemplate.send(MessageBuilder
+                .withPayload(orderCreated)
+                .setHeader(KafkaHeaders.KEY, key)
+                .setHeader(KafkaHeaders.TOPIC, ORDER_CREATED_DLT_TOPIC)
+                .setHeader(KafkaHeaders.PARTITION, 0)
+                .setHeader(KafkaHeaders.DLT_ORIGINAL_PARTITION, ByteBuffer.allocate(Integer.BYTES).putInt(0).array())
+                .setHeader(KafkaHeaders.DLT_EXCEPTION_CAUSE_FQCN, ("dev.lydtech.dispatch.exception." + exception).getBytes(StandardCharsets.UTF_8))
+                .build()).get();
+    }
+}
@@ -0,0 +1,10 @@
+package dev.lydtech.dispatch.integration;
+
+import org.springframework.test.context.TestPropertySource;
+
+/**
+ * Runs the OrderDispatchIntegrationTest scenarios with the high-throughput producer profile and pipelined sends.
+ */
+@TestPropertySource(properties = {"dispatch.producer.profile=high-throughput", "dispatch.producer.pipelined=true"})
+public class OrderDispatchHighThroughputIntegrationTest extends OrderDispatchIntegrationTest {
+}
@@ -33,6 +33,7 @@ import org.springframework.test.context.ActiveProfiles;
 
 import static com.github.tomakehurst.wiremock.stubbing.Scenario.STARTED;
 import static dev.lydtech.dispatch.integration.WiremockUtils.stubWiremock;
+import static dev.lydtech.dispatch.integration.WiremockUtils.stubWiremockWithDelay;
 import static java.util.UUID.randomUUID;
 import static org.awaitility.Awaitility.await;
 import static org.hamcrest.MatcherAssert.assertThat;
@@ -47,7 +48,7 @@ import static org.hamcrest.Matchers.notNullValue;
 @EmbeddedKafka(controlledShutdown = true)
 public class OrderDispatchIntegrationTest {
 
-    private final static String ORDER_CREATED_TOPIC = "order.created";
+    protected final static String ORDER_CREATED_TOPIC = "order.created";
     private final static String ORDER_DISPATCHED_TOPIC = "order.dispatched";
     private final static String DISPATCH_TRACKING_TOPIC = "dispatch.tracking";
     private final static String ORDER_CREATED_DLT_TOPIC = "order.created.DLT";
@@ -62,7 +63,7 @@ public class OrderDispatchIntegrationTest {
     private KafkaListenerEndpointRegistry registry;
 
     @Autowired
-    private KafkaTestListener testListener;
+    protected KafkaTestListener testListener;
 
     @Configuration
     static class TestConfig {
@@ -139,7 +140,7 @@ public class OrderDispatchIntegrationTest {
      */
     @Test
     public void testOrderDispatchFlow_Success() throws Exception {
-        stubWiremock("/api/stock?item=my-item", 200, "true");
+        stubStockService("my-item", 200, "true");
 
         OrderCreated orderCreated = TestEventData.buildOrderCreatedEvent(randomUUID(), "my-item");
         sendMessage(ORDER_CREATED_TOPIC, randomUUID().toString(), orderCreated);
@@ -159,7 +160,7 @@ public class OrderDispatchIntegrationTest {
      */
     @Test
     public void testOrderDispatchFlow_NotRetryableException() throws Exception {
-        stubWiremock("/api/stock?item=my-item", 400, "Bad Request");
+        stubStockService("my-item", 400, "Bad Request");
 
         OrderCreated orderCreated = TestEventData.buildOrderCreatedEvent(randomUUID(), "my-item");
         sendMessage(ORDER_CREATED_TOPIC, randomUUID().toString(), orderCreated);
@@ -178,8 +179,8 @@ public class OrderDispatchIntegrationTest {
      */
     @Test
     public void testOrderDispatchFlow_RetryThenSuccess() throws Exception {
-        stubWiremock("/api/stock?item=my-item", 503, "Service unavailable", "failOnce", STARTED, "succeedNextTime");
-        stubWiremock("/api/stock?item=my-item", 200, "true", "failOnce", "succeedNextTime", "succeedNextTime");
+        stubStockService("my-item", 503, "Service unavailable", "failOnce", STARTED, "succeedNextTime");
+        stubStockService("my-item", 200, "true", "failOnce", "succeedNextTime", "succeedNextTime");
 
         OrderCreated orderCreated = TestEventData.buildOrderCreatedEvent(randomUUID(), "my-item");
         sendMessage(ORDER_CREATED_TOPIC, randomUUID().toString(), orderCreated);
@@ -200,7 +201,7 @@ public class OrderDispatchIntegrationTest {
      */
     @Test
     public void testOrderDispatchFlow_RetryUntilFailure() throws Exception {
-        stubWiremock("/api/stock?item=my-item", 503, "Service unavailable");
+        stubStockService("my-item", 503, "Service unavailable");
 
         OrderCreated orderCreated = TestEventData.buildOrderCreatedEvent(randomUUID(), "my-item");
         sendMessage(ORDER_CREATED_TOPIC, randomUUID().toString(), orderCreated);
@@ -212,7 +213,40 @@ public class OrderDispatchIntegrationTest {
         assertThat(testListener.dispatchCompletedCounter.get(), equalTo(0));
     }
 
-    private void sendMessage(String topic, String key, Object data) throws Exception {
+    /**
+     * The call to the stock service is stubbed to respond more slowly than the configured read timeout.  Each attempt
+     * times out with a retryable exception, so the retry limit is exceeded and the event is sent to the dead letter topic.
+     */
+    @Test
+    public void testOrderDispatchFlow_StockServiceTimeout() throws Exception {
+        stubStockServiceWithDelay("my-item", 200, "true", 1000);
+
+        OrderCreated orderCreated = TestEventData.buildOrderCreatedEvent(randomUUID(), "my-item");
+        sendMessage(ORDER_CREATED_TOPIC, randomUUID().toString(), orderCreated);
+
+        await().atMost(10, TimeUnit.SECONDS).pollDelay(100, TimeUnit.MILLISECONDS)
+                .until(testListener.orderCreatedDLTCounter::get, equalTo(1));
+        assertThat(testListener.dispatchPreparingCounter.get(), equalTo(0));
+        assertThat(testListener.orderDispatchedCounter.get(), equalTo(0));
+        assertThat(testListener.dispatchCompletedCounter.get(), equalTo(0));
+    }
+
+    /**
+     * Stub the stock service response for the item.  Subclasses that call the stock service differently override these.
+     */
+    protected void stubStockService(String item, int httpStatusResponse, String body) {
+        stubWiremock("/api/stock?item=" + item, httpStatusResponse, body);
+    }
+
+    protected void stubStockService(String item, int httpStatusResponse, String body, String scenario, String initialState, String nextState) {
+        stubWiremock("/api/stock?item=" + item, httpStatusResponse, body, scenario, initialState, nextState);
+    }
+
+    protected void stubStockServiceWithDelay(String item, int httpStatusResponse, String body, int delayMillis) {
+        stubWiremockWithDelay("/api/stock?item=" + item, httpStatusResponse, body, delayMillis);
+    }
+
+    protected void sendMessage(String topic, String key, Object data) throws Exception {
         kafkaTemplate.send(MessageBuilder
                 .withPayload(data)
                 .setHeader(KafkaHeaders.KEY, key)
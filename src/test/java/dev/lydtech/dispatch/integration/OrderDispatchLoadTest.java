@@ -0,0 +1,281 @@
+package dev.lydtech.dispatch.integration;
+
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import dev.lydtech.dispatch.DispatchConfiguration;
+import dev.lydtech.dispatch.message.DispatchCompleted;
+import dev.lydtech.dispatch.message.DispatchPreparing;
+import dev.lydtech.dispatch.message.OrderCreated;
+import dev.lydtech.dispatch.message.OrderDispatched;
+import dev.lydtech.dispatch.util.TestEventData;
+import lombok.extern.slf4j.Slf4j;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.cloud.contract.wiremock.AutoConfigureWireMock;
+import org.springframework.context.annotation.Bean;
+import org.springframework.core.env.Environment;
+import org.springframework.kafka.annotation.KafkaHandler;
+import org.springframework.kafka.annotation.KafkaListener;
+import org.springframework.kafka.config.ConcurrentKafkaListenerContainerFactory;
+import org.springframework.kafka.config.KafkaListenerEndpointRegistry;
+import org.springframework.kafka.core.ConsumerFactory;
+import org.springframework.kafka.core.KafkaOperations;
+import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.kafka.listener.MessageListenerContainer;
+import org.springframework.kafka.test.EmbeddedKafkaBroker;
+import org.springframework.kafka.test.context.EmbeddedKafka;
+import org.springframework.kafka.test.utils.ContainerTestUtils;
+import org.springframework.messaging.handler.annotation.Payload;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.context.ActiveProfiles;
+
+import static com.github.tomakehurst.wiremock.client.WireMock.aResponse;
+import static com.github.tomakehurst.wiremock.client.WireMock.get;
+import static com.github.tomakehurst.wiremock.client.WireMock.matching;
+import static com.github.tomakehurst.wiremock.client.WireMock.stubFor;
+import static com.github.tomakehurst.wiremock.client.WireMock.urlPathEqualTo;
+import static java.util.UUID.randomUUID;
+import static org.awaitility.Awaitility.await;
+import static org.hamcrest.Matchers.equalTo;
+
+/**
+ * Load harness for the whole dispatch flow, against the embedded broker and a WireMock stock service.  Sends a volume of
+ * order.created events, then reports the throughput and the p50/p99/p999 latency from sending each order to receiving its
+ * DispatchCompleted event.
+ *
+ * The load is configured with system properties:
+ *   load.orders         number of orders (default 10000), after load.warmupOrders (default 1000)
+ *   load.keys           number of distinct keys the orders are spread over (default 1000)
+ *   load.items          number of distinct items the orders are spread over (default 100)
+ *   load.stockLatency   stock service latency in millis (default 0), plus up to load.stockJitter millis (default 0)
+ *   load.stockErrorRate fraction of orders for items the stock service always fails with a 503 (default 0), these end
+ *                       up on the dead letter topic after the retries
+ *   load.timeoutSeconds how long to wait for the orders to complete (default 300)
+ *   load.backlog        send all the orders while the dispatch consumer is paused, then measure how quickly the backlog
+ *                       is drained (default false)
+ *
+ * Any application property can be set in the same way to try out a tuning change, for example:
+ *
+ * mvn test -Pbenchmark -Dtest=OrderDispatchLoadTest -Dload.orders=50000 -Dload.stockLatency=20 -Ddispatch.listener.mode=async
+ *     -Dlogging.level.dev.lydtech.dispatch.service=WARN
+ *
+ * With -Ddispatch.transactions.enabled=true the orders are sent in a transaction, and only the events from committed
+ * transactions are counted.
+ */
+@Slf4j
+@Tag("benchmark")
+@SpringBootTest(classes = {DispatchConfiguration.class, OrderDispatchLoadTest.LoadTestConfig.class})
+@AutoConfigureWireMock(port=0)
+@DirtiesContext(classMode = DirtiesContext.ClassMode.AFTER_CLASS)
+@ActiveProfiles("test")
+@EmbeddedKafka(controlledShutdown = true, partitions = 10, brokerProperties = {"transaction.state.log.replication.factor=1", "transaction.state.log.min.isr=1"})
+public class OrderDispatchLoadTest {
+
+    private final static String ORDER_CREATED_TOPIC = "order.created";
+
+    private static final int ORDERS = Integer.getInteger("load.orders", 10000);
+    private static final int WARMUP_ORDERS = Integer.getInteger("load.warmupOrders", 1000);
+    private static final int KEYS = Integer.getInteger("load.keys", 1000);
+    private static final int ITEMS = Integer.getInteger("load.items", 100);
+    private static final int STOCK_LATENCY = Integer.getInteger("load.stockLatency", 0);
+    private static final int STOCK_JITTER = Integer.getInteger("load.stockJitter", 0);
+    private static final double STOCK_ERROR_RATE = Double.parseDouble(System.getProperty("load.stockErrorRate", "0"));
+    private static final int TIMEOUT_SECONDS = Integer.getInteger("load.timeoutSeconds", 300);
+    private static final boolean BACKLOG = Boolean.getBoolean("load.backlog");
+
+    @Autowired
+    private KafkaTemplate<String, Object> kafkaTemplate;
+
+    @Autowired
+    private EmbeddedKafkaBroker embeddedKafkaBroker;
+
+    @Autowired
+    private KafkaListenerEndpointRegistry registry;
+
+    @Autowired
+    private LoadTestListener testListener;
+
+    @Autowired
+    private Environment environment;
+
+    /**
+     * Not annotated as a configuration class, so that the component scan in DispatchConfiguration does not add this
+     * listener to the other integration tests.
+     */
+    static class LoadTestConfig {
+
+        @Bean
+        public LoadTestListener loadTestListener() {
+            return new LoadTestListener();
+        }
+
+        /**
+         * The listener's own container factory, so that it does not take part in transactions when they are enabled.
+         */
+        @Bean
+        public ConcurrentKafkaListenerContainerFactory<String, Object> loadTestListenerContainerFactory(ConsumerFactory<String, Object> consumerFactory) {
+            ConcurrentKafkaListenerContainerFactory<String, Object> factory = new ConcurrentKafkaListenerContainerFactory<>();
+            factory.setConsumerFactory(consumerFactory);
+            return factory;
+        }
+    }
+
+    /**
+     * Records the latency of each order when its DispatchCompleted event is received.
+     */
+    @KafkaListener(groupId = "OrderDispatchLoadTest", topics = { "dispatch.tracking", "order.dispatched", "order.created.DLT" },
+            containerFactory = "loadTestListenerContainerFactory")
+    public static class LoadTestListener {
+        final Map<UUID, Long> sentAt = new ConcurrentHashMap<>();
+        final ConcurrentLinkedQueue<Long> latencies = new ConcurrentLinkedQueue<>();
+        final AtomicInteger completedCounter = new AtomicInteger(0);
+        final AtomicInteger deadLetterCounter = new AtomicInteger(0);
+        final AtomicLong lastCompletedAt = new AtomicLong();
+
+        @KafkaHandler
+        void receiveDispatchCompleted(@Payload DispatchCompleted payload) {
+            Long sent = sentAt.remove(payload.getOrderId());
+            if (sent != null) {
+                long now = System.nanoTime();
+                latencies.add(now - sent);
+                lastCompletedAt.accumulateAndGet(now, Math::max);
+                completedCounter.incrementAndGet();
+            }
+        }
+
+        @KafkaHandler
+        void receiveOrderCreatedDLT(@Payload OrderCreated payload) {
+            if (sentAt.remove(payload.getOrderId()) != null) {
+                deadLetterCounter.incrementAndGet();
+            }
+        }
+
+        @KafkaHandler
+        void receiveDispatchPreparing(@Payload DispatchPreparing payload) {
+        }
+
+        @KafkaHandler
+        void receiveOrderDispatched(@Payload OrderDispatched payload) {
+        }
+
+        void reset() {
+            sentAt.clear();
+            latencies.clear();
+            completedCounter.set(0);
+            deadLetterCounter.set(0);
+            lastCompletedAt.set(0);
+        }
+    }
+
+    @Test
+    public void loadTest() throws Exception {
+        stubStockService();
+        registry.getListenerContainers().stream()
+                .forEach(container -> ContainerTestUtils.waitForAssignment(container,
+                        container.getContainerProperties().getTopics().length * embeddedKafkaBroker.getPartitionsPerTopic()));
+
+        log.info("Load test: orders: " + ORDERS + " - keys: " + KEYS + " - items: " + ITEMS + " - stock latency: " + STOCK_LATENCY
+                + "ms (+" + STOCK_JITTER + "ms) - stock error rate: " + STOCK_ERROR_RATE
+                + " - listener mode: " + environment.getProperty("dispatch.listener.mode")
+                + " - transactions: " + environment.getProperty("dispatch.transactions.enabled") + " - backlog: " + BACKLOG
+                + " - producer profile: " + environment.getProperty("dispatch.producer.profile")
+                + " - pipelined: " + environment.getProperty("dispatch.producer.pipelined"));
+
+        if (WARMUP_ORDERS > 0) {
+            run(WARMUP_ORDERS);
+            testListener.reset();
+        }
+        long start = run(ORDERS);
+
+        long[] latencies = testListener.latencies.stream().mapToLong(Long::longValue).sorted().toArray();
+        int completed = testListener.completedCounter.get();
+        double elapsedSeconds = (testListener.lastCompletedAt.get() - start) / (double) TimeUnit.SECONDS.toNanos(1);
+        log.info(String.format("Completed: %d - dead lettered: %d - elapsed: %.2fs - throughput: %.0f orders/sec",
+                completed, testListener.deadLetterCounter.get(), elapsedSeconds, completed / elapsedSeconds));
+        log.info(String.format("Latency p50: %.1fms - p99: %.1fms - p999: %.1fms - max: %.1fms",
+                percentile(latencies, 0.5), percentile(latencies, 0.99), percentile(latencies, 0.999), percentile(latencies, 1.0)));
+    }
+
+    /**
+     * Send the orders without waiting for each ack, then wait until every order has completed or been dead lettered.
+     * Returns the time the orders were made available to the dispatch consumer.
+     */
+    private long run(int orders) throws Exception {
+        MessageListenerContainer dispatchContainer = registry.getListenerContainer("orderConsumerClient");
+        if (BACKLOG) {
+            dispatchContainer.pause();
+            await().atMost(10, TimeUnit.SECONDS).until(dispatchContainer::isPauseRequested);
+        }
+        long start = System.nanoTime();
+        if (kafkaTemplate.isTransactional()) {
+            kafkaTemplate.executeInTransaction(operations -> {
+                send(operations, orders);
+                return null;
+            });
+        } else {
+            send(kafkaTemplate, orders);
+            kafkaTemplate.flush();
+        }
+        if (BACKLOG) {
+            start = System.nanoTime();
+            dispatchContainer.resume();
+        }
+
+        await().atMost(TIMEOUT_SECONDS, TimeUnit.SECONDS).pollInterval(100, TimeUnit.MILLISECONDS)
+                .until(() -> testListener.completedCounter.get() + testListener.deadLetterCounter.get(), equalTo(orders));
+        return start;
+    }
+
+    private void send(KafkaOperations<String, Object> operations, int orders) {
+        int errorItems = (int) Math.round(ITEMS * STOCK_ERROR_RATE);
+        for (int i = 0; i < orders; i++) {
+            String item = ThreadLocalRandom.current().nextDouble() < STOCK_ERROR_RATE
+                    ? "error-item-" + (i % Math.max(errorItems, 1))
+                    : "item-" + (i % ITEMS);
+            OrderCreated orderCreated = TestEventData.buildOrderCreatedEvent(randomUUID(), item);
+            testListener.sentAt.put(orderCreated.getOrderId(), System.nanoTime());
+            operations.send(ORDER_CREATED_TOPIC, "key-" + (i % KEYS), orderCreated);
+        }
+    }
+
+    /**
+     * The stock service returns available for every item after the configured latency, apart from the error items which
+     * always fail.  The bulk endpoint returns every available item, so the error items are missing from its response.
+     */
+    private void stubStockService() {
+        stubFor(get(urlPathEqualTo("/api/stock"))
+                .atPriority(2)
+                .willReturn(aResponse().withStatus(200).withHeader("Content-Type", "text/plain").withBody("true")
+                        .withUniformRandomDelay(STOCK_LATENCY, STOCK_LATENCY + STOCK_JITTER)));
+        stubFor(get(urlPathEqualTo("/api/stock"))
+                .withQueryParam("item", matching("error-item-.*"))
+                .atPriority(1)
+                .willReturn(aResponse().withStatus(503).withBody("Service unavailable")
+                        .withUniformRandomDelay(STOCK_LATENCY, STOCK_LATENCY + STOCK_JITTER)));
+        String bulkBody = IntStream.range(0, ITEMS)
+                .mapToObj(i -> "\"item-" + i + "\": true")
+                .collect(Collectors.joining(", ", "{", "}"));
+        stubFor(get(urlPathEqualTo("/api/stock/bulk"))
+                .willReturn(aResponse().withStatus(200).withHeader("Content-Type", "application/json").withBody(bulkBody)
+                        .withUniformRandomDelay(STOCK_LATENCY, STOCK_LATENCY + STOCK_JITTER)));
+    }
+
+    private static double percentile(long[] sortedLatencies, double percentile) {
+        if (sortedLatencies.length == 0) {
+            return 0;
+        }
+        int index = (int) Math.ceil(percentile * sortedLatencies.length) - 1;
+        return sortedLatencies[Math.max(index, 0)] / (double) TimeUnit.MILLISECONDS.toNanos(1);
+    }
+}
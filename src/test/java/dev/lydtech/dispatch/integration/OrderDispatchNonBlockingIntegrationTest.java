@@ -0,0 +1,10 @@
+package dev.lydtech.dispatch.integration;
+
+import org.springframework.test.context.TestPropertySource;
+
+/**
+ * Runs the OrderDispatchIntegrationTest scenarios with the async listener using the non-blocking stock service client.
+ */
+@TestPropertySource(properties = {"dispatch.listener.mode=async", "dispatch.async.nonBlocking=true"})
+public class OrderDispatchNonBlockingIntegrationTest extends OrderDispatchIntegrationTest {
+}
@@ -0,0 +1,58 @@
+package dev.lydtech.dispatch.integration;
+
+import java.util.concurrent.TimeUnit;
+
+import dev.lydtech.dispatch.message.OrderCreated;
+import dev.lydtech.dispatch.util.TestEventData;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.test.context.TestPropertySource;
+
+import static java.util.UUID.randomUUID;
+import static org.awaitility.Awaitility.await;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+
+/**
+ * Runs the OrderDispatchIntegrationTest scenarios with the non-blocking retry topics in place of the blocking retries.
+ */
+@TestPropertySource(properties = {"dispatch.retry.topics.enabled=true", "dispatch.retry.topics.initialDelay=500ms", "dispatch.retry.topics.maxDelay=1s"})
+public class OrderDispatchRetryTopicsIntegrationTest extends OrderDispatchIntegrationTest {
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    /**
+     * An order for an item the stock service keeps failing is sent, followed by an order for a healthy item on the same
+     * partition.  The failing order backs off on the retry topics, so the healthy order is dispatched before the failing
+     * one reaches the dead letter topic.
+     */
+    @Test
+    public void testOrderDispatchFlow_RetriesDoNotBlockThePartition() throws Exception {
+        stubStockService("failing-item", 503, "Service unavailable");
+        stubStockService("my-item", 200, "true");
+        double forwardedBefore = forwarded("order.created");
+        String key = randomUUID().toString();
+
+        OrderCreated failing = TestEventData.buildOrderCreatedEvent(randomUUID(), "failing-item");
+        OrderCreated healthy = TestEventData.buildOrderCreatedEvent(randomUUID(), "my-item");
+        sendMessage(ORDER_CREATED_TOPIC, key, failing);
+        sendMessage(ORDER_CREATED_TOPIC, key, healthy);
+
+        await().atMost(3, TimeUnit.SECONDS).pollDelay(100, TimeUnit.MILLISECONDS)
+                .until(testListener.dispatchCompletedCounter::get, equalTo(1));
+        assertThat(testListener.orderCreatedDLTCounter.get(), equalTo(0));
+
+        await().atMost(10, TimeUnit.SECONDS).pollDelay(100, TimeUnit.MILLISECONDS)
+                .until(testListener.orderCreatedDLTCounter::get, equalTo(1));
+        assertThat(testListener.dispatchCompletedCounter.get(), equalTo(1));
+        assertThat(forwarded("order.created") - forwardedBefore, equalTo(1.0));
+    }
+
+    private double forwarded(String topic) {
+        Counter counter = meterRegistry.find("dispatch.retry.forwarded").tag("topic", topic).counter();
+        return counter == null ? 0 : counter.count();
+    }
+}
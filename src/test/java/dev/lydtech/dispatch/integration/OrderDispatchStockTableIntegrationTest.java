@@ -0,0 +1,62 @@
+package dev.lydtech.dispatch.integration;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import dev.lydtech.dispatch.client.StockAvailabilityTable;
+import dev.lydtech.dispatch.message.OrderCreated;
+import dev.lydtech.dispatch.util.TestEventData;
+import org.apache.kafka.clients.producer.KafkaProducer;
+import org.apache.kafka.clients.producer.ProducerConfig;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.common.serialization.StringSerializer;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.test.context.TestPropertySource;
+
+import static com.github.tomakehurst.wiremock.client.WireMock.getRequestedFor;
+import static com.github.tomakehurst.wiremock.client.WireMock.urlEqualTo;
+import static com.github.tomakehurst.wiremock.client.WireMock.verify;
+import static java.util.UUID.randomUUID;
+import static org.awaitility.Awaitility.await;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.notNullValue;
+
+/**
+ * Runs the OrderDispatchIntegrationTest scenarios with the stock availability table enabled.  Their items are not in the
+ * table, so are looked up from the stock service as before.
+ */
+@TestPropertySource(properties = {"dispatch.stock.table.enabled=true"})
+public class OrderDispatchStockTableIntegrationTest extends OrderDispatchIntegrationTest {
+
+    private final static String STOCK_AVAILABILITY_TOPIC = "stock.availability";
+
+    @Value("${spring.embedded.kafka.brokers}")
+    private String brokers;
+
+    @Autowired
+    private StockAvailabilityTable availabilityTable;
+
+    /**
+     * An order for an item in the table is dispatched without calling the stock service.
+     */
+    @Test
+    public void testOrderDispatchFlow_AvailabilityFromTable() throws Exception {
+        try (KafkaProducer<String, String> producer = new KafkaProducer<>(Map.of(ProducerConfig.BOOTSTRAP_SERVERS_CONFIG, brokers),
+                new StringSerializer(), new StringSerializer())) {
+            producer.send(new ProducerRecord<>(STOCK_AVAILABILITY_TOPIC, "table-item", "true")).get();
+        }
+        await().atMost(15, TimeUnit.SECONDS).pollDelay(100, TimeUnit.MILLISECONDS)
+                .until(() -> availabilityTable.lookup("table-item"), notNullValue());
+
+        OrderCreated orderCreated = TestEventData.buildOrderCreatedEvent(randomUUID(), "table-item");
+        sendMessage(ORDER_CREATED_TOPIC, randomUUID().toString(), orderCreated);
+
+        await().atMost(3, TimeUnit.SECONDS).pollDelay(100, TimeUnit.MILLISECONDS)
+                .until(testListener.dispatchCompletedCounter::get, equalTo(1));
+        assertThat(testListener.orderCreatedDLTCounter.get(), equalTo(0));
+        verify(0, getRequestedFor(urlEqualTo("/api/stock?item=table-item")));
+    }
+}
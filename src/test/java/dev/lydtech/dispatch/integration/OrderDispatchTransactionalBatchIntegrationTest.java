@@ -0,0 +1,46 @@
+package dev.lydtech.dispatch.integration;
+
+import java.util.concurrent.TimeUnit;
+
+import dev.lydtech.dispatch.message.OrderCreated;
+import dev.lydtech.dispatch.util.TestEventData;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.context.TestPropertySource;
+
+import static java.util.UUID.randomUUID;
+import static org.awaitility.Awaitility.await;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+
+/**
+ * Runs the OrderDispatchIntegrationTest scenarios with transactions enabled in batch mode, with a transaction per poll.
+ */
+@TestPropertySource(properties = {"dispatch.transactions.enabled=true", "dispatch.listener.mode=batch"})
+public class OrderDispatchTransactionalBatchIntegrationTest extends OrderDispatchTransactionalIntegrationTest {
+
+    /**
+     * Two orders with the same key are delivered in one batch.  The second always fails with a retryable exception, so
+     * the batch is rolled back and redelivered until the second order is dead lettered.  The events of the first order
+     * are sent on every delivery, but only those in the committed transaction are seen.
+     */
+    @Test
+    public void testOrderDispatchFlow_BatchRolledBackUntilFailedOrderIsDeadLettered() throws Exception {
+        stubStockService("my-item", 200, "true");
+        stubStockService("failing-item", 503, "Service unavailable");
+
+        String key = randomUUID().toString();
+        OrderCreated succeeding = TestEventData.buildOrderCreatedEvent(randomUUID(), "my-item");
+        OrderCreated failing = TestEventData.buildOrderCreatedEvent(randomUUID(), "failing-item");
+        transactionalKafkaTemplate.executeInTransaction(operations -> {
+            operations.send(ORDER_CREATED_TOPIC, key, succeeding);
+            return operations.send(ORDER_CREATED_TOPIC, key, failing);
+        }).get();
+
+        await().atMost(5, TimeUnit.SECONDS).pollDelay(100, TimeUnit.MILLISECONDS)
+                .until(testListener.orderCreatedDLTCounter::get, equalTo(1));
+        await().pollDelay(500, TimeUnit.MILLISECONDS).until(() -> true);
+        assertThat(testListener.dispatchPreparingCounter.get(), equalTo(1));
+        assertThat(testListener.orderDispatchedCounter.get(), equalTo(1));
+        assertThat(testListener.dispatchCompletedCounter.get(), equalTo(1));
+    }
+}
@@ -0,0 +1,30 @@
+package dev.lydtech.dispatch.integration;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.kafka.support.KafkaHeaders;
+import org.springframework.kafka.test.context.EmbeddedKafka;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.test.context.TestPropertySource;
+
+/**
+ * Runs the OrderDispatchIntegrationTest scenarios with transactions enabled, with a transaction per record.  The
+ * application's producer is transactional, so the test events are sent in a transaction too.  The single embedded
+ * broker needs a transaction state log that it can host alone.
+ */
+@EmbeddedKafka(controlledShutdown = true, brokerProperties = {"transaction.state.log.replication.factor=1", "transaction.state.log.min.isr=1"})
+@TestPropertySource(properties = "dispatch.transactions.enabled=true")
+public class OrderDispatchTransactionalIntegrationTest extends OrderDispatchIntegrationTest {
+
+    @Autowired
+    protected KafkaTemplate<String, Object> transactionalKafkaTemplate;
+
+    @Override
+    protected void sendMessage(String topic, String key, Object data) throws Exception {
+        transactionalKafkaTemplate.executeInTransaction(operations -> operations.send(MessageBuilder
+                .withPayload(data)
+                .setHeader(KafkaHeaders.KEY, key)
+                .setHeader(KafkaHeaders.TOPIC, topic)
+                .build())).get();
+    }
+}
@@ -0,0 +1,82 @@
+package dev.lydtech.dispatch.integration;
+
+import java.util.concurrent.TimeUnit;
+
+import dev.lydtech.dispatch.DispatchConfiguration;
+import dev.lydtech.dispatch.client.StockServiceClient;
+import dev.lydtech.dispatch.logging.LogSampler;
+import dev.lydtech.dispatch.message.OrderCreated;
+import dev.lydtech.dispatch.metrics.DispatchMetrics;
+import dev.lydtech.dispatch.service.DispatchService;
+import dev.lydtech.dispatch.util.TestEventData;
+import lombok.extern.slf4j.Slf4j;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.cloud.contract.wiremock.AutoConfigureWireMock;
+import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.kafka.test.context.EmbeddedKafka;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.context.ActiveProfiles;
+
+import static java.util.UUID.randomUUID;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Compares the throughput of the sequential and pipelined send modes of the DispatchService against the embedded
+ * broker.  The stock service is mocked to always return available, so the produce latency dominates.
+ *
+ * Run with: mvn test -Pbenchmark -Dtest=PipelinedSendBenchmarkTest [-Dbenchmark.orders=10000]
+ */
+@Slf4j
+@Tag("benchmark")
+@SpringBootTest(classes = {DispatchConfiguration.class})
+@AutoConfigureWireMock(port=0)
+@DirtiesContext(classMode = DirtiesContext.ClassMode.AFTER_CLASS)
+@ActiveProfiles("test")
+@EmbeddedKafka(controlledShutdown = true)
+public class PipelinedSendBenchmarkTest {
+
+    private static final int ORDERS = Integer.getInteger("benchmark.orders", 5000);
+    private static final int WARMUP_ORDERS = 1000;
+
+    @Autowired
+    private KafkaTemplate<String, Object> kafkaTemplate;
+
+    @Autowired
+    private DispatchMetrics dispatchMetrics;
+
+    @Autowired
+    private LogSampler logSampler;
+
+    @Test
+    public void benchmarkSequentialVersusPipelinedSends() throws Exception {
+        StockServiceClient stockServiceClientMock = mock(StockServiceClient.class);
+        when(stockServiceClientMock.checkAvailability(anyString())).thenReturn("true");
+
+        DispatchService sequential = new DispatchService(kafkaTemplate, stockServiceClientMock, dispatchMetrics, logSampler, false);
+        DispatchService pipelined = new DispatchService(kafkaTemplate, stockServiceClientMock, dispatchMetrics, logSampler, true);
+
+        run(sequential, WARMUP_ORDERS);
+        run(pipelined, WARMUP_ORDERS);
+
+        double sequentialRate = run(sequential, ORDERS);
+        double pipelinedRate = run(pipelined, ORDERS);
+
+        log.info(String.format("Sequential sends: %.0f orders/sec", sequentialRate));
+        log.info(String.format("Pipelined sends:  %.0f orders/sec (%.2fx)", pipelinedRate, pipelinedRate / sequentialRate));
+    }
+
+    private double run(DispatchService service, int orders) throws Exception {
+        long start = System.nanoTime();
+        for (int i = 0; i < orders; i++) {
+            OrderCreated orderCreated = TestEventData.buildOrderCreatedEvent(randomUUID(), "my-item");
+            service.process(orderCreated.getOrderId().toString(), orderCreated);
+        }
+        long elapsed = System.nanoTime() - start;
+        return orders / (elapsed / (double) TimeUnit.SECONDS.toNanos(1));
+    }
+}
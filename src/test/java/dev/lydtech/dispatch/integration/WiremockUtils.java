@@ -6,6 +6,7 @@ import static com.github.tomakehurst.wiremock.client.WireMock.aResponse;
 import static com.github.tomakehurst.wiremock.client.WireMock.get;
 import static com.github.tomakehurst.wiremock.client.WireMock.stubFor;
 import static com.github.tomakehurst.wiremock.client.WireMock.urlEqualTo;
+import static com.github.tomakehurst.wiremock.client.WireMock.urlPathEqualTo;
 
 public class WiremockUtils {
 
@@ -20,6 +21,19 @@ public class WiremockUtils {
         stubWiremock(url, httpStatusResponse, body, null, null, null);
     }
 
+    public static void stubWiremockWithDelay(String url, int httpStatusResponse, String body, int delayMillis) {
+        stubFor(get(urlEqualTo(url))
+                .willReturn(aResponse().withStatus(httpStatusResponse).withHeader("Content-Type", "text/plain").withBody(body).withFixedDelay(delayMillis)));
+    }
+
+    /**
+     * Stub any request to the path, whatever its query parameters.
+     */
+    public static void stubWiremockForPath(String path, int httpStatusResponse, String body) {
+        stubFor(get(urlPathEqualTo(path))
+                .willReturn(aResponse().withStatus(httpStatusResponse).withHeader("Content-Type", "application/json").withBody(body)));
+    }
+
     public static void stubWiremock(String url, int httpStatusResponse, String body, String scenario, String initialState, String nextState) {
         if (scenario != null) {
             stubFor(get(urlEqualTo(url))
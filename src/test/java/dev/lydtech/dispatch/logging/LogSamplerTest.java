@@ -0,0 +1,48 @@
+package dev.lydtech.dispatch.logging;
+
+import java.util.UUID;
+import java.util.stream.IntStream;
+
+import org.junit.jupiter.api.Test;
+
+import static java.util.UUID.randomUUID;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.allOf;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.lessThan;
+
+class LogSamplerTest {
+
+    @Test
+    public void testIsSampled_EveryOrderWhenRateIsOne() {
+        LogSampler sampler = new LogSampler(1);
+        assertThat(IntStream.range(0, 1000).filter(i -> sampler.isSampled(randomUUID())).count(), equalTo(1000L));
+    }
+
+    @Test
+    public void testIsSampled_RateBelowOneLogsEveryOrder() {
+        LogSampler sampler = new LogSampler(0);
+        assertThat(IntStream.range(0, 1000).filter(i -> sampler.isSampled(randomUUID())).count(), equalTo(1000L));
+    }
+
+    @Test
+    public void testIsSampled_OneInN() {
+        LogSampler sampler = new LogSampler(10);
+        long sampled = IntStream.range(0, 100000).filter(i -> sampler.isSampled(randomUUID())).count();
+        assertThat(sampled, allOf(greaterThan(9000L), lessThan(11000L)));
+    }
+
+    @Test
+    public void testIsSampled_SameDecisionForTheSameOrder() {
+        LogSampler sampler = new LogSampler(10);
+        UUID orderId = randomUUID();
+        boolean sampled = sampler.isSampled(orderId);
+        IntStream.range(0, 10).forEach(i -> assertThat(sampler.isSampled(orderId), equalTo(sampled)));
+    }
+
+    @Test
+    public void testIsSampled_NullOrderIdIsLogged() {
+        assertThat(new LogSampler(10).isSampled(null), equalTo(true));
+    }
+}
@@ -0,0 +1,62 @@
+package dev.lydtech.dispatch.metrics;
+
+import dev.lydtech.dispatch.metrics.DispatchMetrics.Outcome;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+
+class DispatchMetricsTest {
+
+    private SimpleMeterRegistry meterRegistry;
+    private DispatchMetrics dispatchMetrics;
+
+    @BeforeEach
+    void setUp() {
+        meterRegistry = new SimpleMeterRegistry();
+        dispatchMetrics = new DispatchMetrics(meterRegistry);
+    }
+
+    @Test
+    void count() {
+        dispatchMetrics.count(Outcome.AVAILABLE);
+        dispatchMetrics.count(Outcome.DEAD_LETTERED);
+        dispatchMetrics.count(Outcome.DEAD_LETTERED);
+
+        assertThat(meterRegistry.get("dispatch.orders").tag("outcome", "available").counter().count(), equalTo(1.0));
+        assertThat(meterRegistry.get("dispatch.orders").tag("outcome", "dead_lettered").counter().count(), equalTo(2.0));
+        assertThat(meterRegistry.get("dispatch.orders").tag("outcome", "unavailable").counter().count(), equalTo(0.0));
+    }
+
+    @Test
+    void recordProcess() {
+        dispatchMetrics.recordProcess(dispatchMetrics.startTimer(), "dispatched");
+        dispatchMetrics.recordProcess(dispatchMetrics.startTimer(), "failed");
+
+        assertThat(meterRegistry.get("dispatch.process").tag("outcome", "dispatched").timer().count(), equalTo(1L));
+        assertThat(meterRegistry.get("dispatch.process").tag("outcome", "failed").timer().count(), equalTo(1L));
+    }
+
+    @Test
+    void recordStockLookup() {
+        dispatchMetrics.recordStockLookup(dispatchMetrics.startTimer(), "single", null);
+        dispatchMetrics.recordStockLookup(dispatchMetrics.startTimer(), "bulk", new RuntimeException("failure"));
+
+        assertThat(meterRegistry.get("dispatch.stock.lookup").tag("type", "single").tag("result", "success").timer().count(), equalTo(1L));
+        assertThat(meterRegistry.get("dispatch.stock.lookup").tag("type", "bulk").tag("result", "failure").timer().count(), equalTo(1L));
+    }
+
+    @Test
+    void recordSend() {
+        dispatchMetrics.recordSend(dispatchMetrics.startTimer(), "order.dispatched", null);
+        dispatchMetrics.recordSend(dispatchMetrics.startTimer(), "order.dispatched", null);
+        dispatchMetrics.recordSend(dispatchMetrics.startTimer(), "dispatch.tracking", new RuntimeException("failure"));
+
+        Timer dispatched = meterRegistry.get("dispatch.send").tag("topic", "order.dispatched").tag("result", "success").timer();
+        assertThat(dispatched.count(), equalTo(2L));
+        assertThat(meterRegistry.get("dispatch.send").tag("topic", "dispatch.tracking").tag("result", "failure").timer().count(), equalTo(1L));
+    }
+}
@@ -0,0 +1,249 @@
+package dev.lydtech.dispatch.replay;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.UUID;
+
+import dev.lydtech.dispatch.dedup.ProcessedOrderIndex;
+import dev.lydtech.dispatch.exception.RetryableException;
+import dev.lydtech.dispatch.message.OrderCreated;
+import dev.lydtech.dispatch.metrics.DispatchMetrics;
+import dev.lydtech.dispatch.service.DispatchService;
+import dev.lydtech.dispatch.util.TestEventData;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.consumer.MockConsumer;
+import org.apache.kafka.clients.consumer.OffsetAndMetadata;
+import org.apache.kafka.clients.consumer.OffsetCommitCallback;
+import org.apache.kafka.clients.consumer.OffsetAndTimestamp;
+import org.apache.kafka.clients.consumer.OffsetResetStrategy;
+import org.apache.kafka.common.PartitionInfo;
+import org.apache.kafka.common.TopicPartition;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.kafka.core.ConsumerFactory;
+import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.kafka.support.KafkaHeaders;
+import org.springframework.util.backoff.FixedBackOff;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.isNull;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class DltReplayerTest {
+
+    private static final String TOPIC = "order.created.DLT";
+    private static final TopicPartition PARTITION_0 = new TopicPartition(TOPIC, 0);
+    private static final TopicPartition PARTITION_1 = new TopicPartition(TOPIC, 1);
+    private static final String GROUP_ID = "dispatch.order.created.replay";
+
+    private SimpleMeterRegistry meterRegistry;
+
+    private MockConsumer<String, Object> consumer;
+
+    private Map<TopicPartition, Long> offsetsForTime;
+
+    private Map<TopicPartition, OffsetAndMetadata> committed;
+
+    private DispatchService dispatchServiceMock;
+
+    private DltReplayer replayer;
+
+    @BeforeEach
+    void setUp() {
+        meterRegistry = new SimpleMeterRegistry();
+        offsetsForTime = new HashMap<>();
+        committed = new HashMap<>();
+        consumer = new MockConsumer<>(OffsetResetStrategy.EARLIEST) {
+            // The MockConsumer forgets its committed offsets on assign, where the group coordinator keeps them.
+            @Override
+            public synchronized void commitAsync(Map<TopicPartition, OffsetAndMetadata> offsets, OffsetCommitCallback callback) {
+                committed.putAll(offsets);
+                super.commitAsync(offsets, callback);
+            }
+
+            @Override
+            public synchronized Map<TopicPartition, OffsetAndMetadata> committed(Set<TopicPartition> partitions) {
+                Map<TopicPartition, OffsetAndMetadata> offsets = new HashMap<>(committed);
+                offsets.keySet().retainAll(partitions);
+                return offsets;
+            }
+
+            @Override
+            public synchronized Map<TopicPartition, OffsetAndTimestamp> offsetsForTimes(Map<TopicPartition, Long> timestampsToSearch) {
+                Map<TopicPartition, OffsetAndTimestamp> offsets = new HashMap<>();
+                timestampsToSearch.forEach((partition, time) -> {
+                    if (offsetsForTime.containsKey(partition)) {
+                        offsets.put(partition, new OffsetAndTimestamp(offsetsForTime.get(partition), time));
+                    }
+                });
+                return offsets;
+            }
+        };
+        consumer.updatePartitions(TOPIC, List.of(new PartitionInfo(TOPIC, 0, null, null, null), new PartitionInfo(TOPIC, 1, null, null, null)));
+        consumer.updatePartitions("order.created", List.of(new PartitionInfo("order.created", 0, null, null, null), new PartitionInfo("order.created", 1, null, null, null)));
+        consumer.updateBeginningOffsets(Map.of(PARTITION_0, 0L, PARTITION_1, 0L));
+        consumer.updateEndOffsets(Map.of(PARTITION_0, 4L, PARTITION_1, 2L));
+
+        ConsumerFactory<String, Object> consumerFactoryMock = mock(ConsumerFactory.class);
+        when(consumerFactoryMock.createConsumer(eq(GROUP_ID), eq("dlt-replay"), isNull(), any(Properties.class))).thenReturn(consumer);
+        dispatchServiceMock = mock(DispatchService.class);
+        replayer = new DltReplayer(consumerFactoryMock, dispatchServiceMock, mock(KafkaTemplate.class), new DispatchMetrics(meterRegistry),
+                new ProcessedOrderIndex(true, 16), new FixedBackOff(0L, 2L), TOPIC, GROUP_ID, 2, 10_000, Duration.ofSeconds(10));
+    }
+
+    @Test
+    void replaysTheWholeTopic() throws Exception {
+        List<OrderCreated> orders = addRecords(PARTITION_0, 4, "RetryableException");
+        addRecords(PARTITION_1, 2, "RetryableException");
+
+        ReplayProgress progress = replayer.replay(ReplayRequest.parse("", "", "", ""));
+
+        assertThat(progress.getTotal(), equalTo(6L));
+        assertThat(progress.getReplayed(), equalTo(6L));
+        verify(dispatchServiceMock, times(6)).process(any(), any());
+        verify(dispatchServiceMock).process("key-0-3", orders.get(3));
+        assertThat(meterRegistry.get("dispatch.replay.records").tag("result", "replayed").counter().count(), equalTo(6.0));
+    }
+
+    @Test
+    void replaysTheOffsetRangeOfThePartition() throws Exception {
+        List<OrderCreated> orders = addRecords(PARTITION_0, 4, "RetryableException");
+        addRecords(PARTITION_1, 2, "RetryableException");
+
+        ReplayProgress progress = replayer.replay(ReplayRequest.parse("0", "1", "2", ""));
+
+        assertThat(progress.getReplayed(), equalTo(2L));
+        verify(dispatchServiceMock).process("key-0-1", orders.get(1));
+        verify(dispatchServiceMock).process("key-0-2", orders.get(2));
+        verify(dispatchServiceMock, times(2)).process(any(), any());
+    }
+
+    @Test
+    void replaysTheTimeRange() throws Exception {
+        addRecords(PARTITION_0, 4, "RetryableException");
+        addRecords(PARTITION_1, 2, "RetryableException");
+        offsetsForTime.put(PARTITION_0, 3L);
+
+        ReplayProgress progress = replayer.replay(ReplayRequest.parse("", Instant.now().toString(), "", ""));
+
+        // Partition 1 has no records after the time.
+        assertThat(progress.getReplayed(), equalTo(1L));
+        verify(dispatchServiceMock).process(eq("key-0-3"), any());
+    }
+
+    @Test
+    void skipsRecordsThatFailedWithOtherExceptions() throws Exception {
+        addRecords(PARTITION_0, 4, "NotRetryableException");
+        addRecords(PARTITION_1, 2, "RetryableException");
+
+        ReplayProgress progress = replayer.replay(ReplayRequest.parse("", "", "", "RetryableException"));
+
+        assertThat(progress.getReplayed(), equalTo(2L));
+        assertThat(progress.getSkipped(), equalTo(4L));
+        verify(dispatchServiceMock, never()).process(eq("key-0-0"), any());
+    }
+
+    @Test
+    void countsARecordFailedOnceItsRetriesAreUsedUp() throws Exception {
+        List<OrderCreated> orders = addRecords(PARTITION_1, 2, "RetryableException");
+        doThrow(new RetryableException("Stock service failed")).when(dispatchServiceMock).process("key-1-0", orders.get(0));
+
+        ReplayProgress progress = replayer.replay(ReplayRequest.parse("1", "", "", ""));
+
+        assertThat(progress.getReplayed(), equalTo(1L));
+        assertThat(progress.getFailed(), equalTo(1L));
+        verify(dispatchServiceMock, times(3)).process("key-1-0", orders.get(0));
+        assertThat(meterRegistry.get("dispatch.replay.records").tag("result", "failed").counter().count(), equalTo(1.0));
+    }
+
+    @Test
+    void commitsTheProgressWithTheRequest() throws Exception {
+        addRecords(PARTITION_0, 4, "RetryableException");
+        addRecords(PARTITION_1, 2, "RetryableException");
+        ReplayRequest request = ReplayRequest.parse("", "", "", "");
+
+        replayer.replay(request);
+
+        assertThat(committed.get(PARTITION_0), equalTo(new OffsetAndMetadata(4L, request.toString())));
+        assertThat(committed.get(PARTITION_1), equalTo(new OffsetAndMetadata(2L, request.toString())));
+    }
+
+    /**
+     * A replay of the same request carries on from the committed progress, so the orders already replayed are not
+     * dispatched again.
+     */
+    @Test
+    void resumesFromTheProgressCommittedForTheSameRequest() throws Exception {
+        List<OrderCreated> orders = addRecords(PARTITION_0, 4, "RetryableException");
+        ReplayRequest request = ReplayRequest.parse("0", "", "", "");
+        consumer.commitSync(Map.of(PARTITION_0, new OffsetAndMetadata(3L, request.toString())));
+
+        ReplayProgress progress = replayer.replay(request);
+
+        assertThat(progress.getTotal(), equalTo(1L));
+        assertThat(progress.getReplayed(), equalTo(1L));
+        verify(dispatchServiceMock).process("key-0-3", orders.get(3));
+        verify(dispatchServiceMock, times(1)).process(any(), any());
+    }
+
+    @Test
+    void ignoresTheProgressCommittedForAnotherRequest() throws Exception {
+        addRecords(PARTITION_0, 4, "RetryableException");
+        consumer.commitSync(Map.of(PARTITION_0, new OffsetAndMetadata(3L, ReplayRequest.parse("0", "", "", "RetryableException").toString())));
+
+        ReplayProgress progress = replayer.replay(ReplayRequest.parse("0", "", "", ""));
+
+        assertThat(progress.getReplayed(), equalTo(4L));
+    }
+
+    /**
+     * An order dead lettered twice, such as one redelivered before its first failure was committed, is dispatched once.
+     */
+    @Test
+    void skipsAnOrderAlreadyReplayed() throws Exception {
+        List<OrderCreated> orders = addRecords(PARTITION_1, 1, "RetryableException");
+        ConsumerRecord<String, Object> duplicate = new ConsumerRecord<>(TOPIC, 1, 1, "key-1-0", orders.get(0));
+        duplicate.headers().add(KafkaHeaders.DLT_ORIGINAL_PARTITION, ByteBuffer.allocate(Integer.BYTES).putInt(1).array());
+        consumer.schedulePollTask(() -> consumer.addRecord(duplicate));
+
+        ReplayProgress progress = replayer.replay(ReplayRequest.parse("1", "", "", ""));
+
+        assertThat(progress.getReplayed(), equalTo(1L));
+        assertThat(progress.getSkipped(), equalTo(1L));
+        verify(dispatchServiceMock, times(1)).process("key-1-0", orders.get(0));
+        assertThat(meterRegistry.get("dispatch.replay.records").tag("result", "duplicate").counter().count(), equalTo(1.0));
+    }
+
+    /**
+     * The records are added one a poll, as the mock consumer only takes records for partitions already assigned.
+     */
+    private List<OrderCreated> addRecords(TopicPartition partition, int count, String exception) {
+        List<OrderCreated> orders = new ArrayList<>();
+        for (int offset = 0; offset < count; offset++) {
+            OrderCreated orderCreated = TestEventData.buildOrderCreatedEvent(UUID.randomUUID(), "my-item");
+            ConsumerRecord<String, Object> record = new ConsumerRecord<>(TOPIC, partition.partition(), offset, "key-" + partition.partition() + "-" + offset, orderCreated);
+            record.headers().add(KafkaHeaders.DLT_ORIGINAL_PARTITION, ByteBuffer.allocate(Integer.BYTES).putInt(partition.partition()).array());
+            record.headers().add(KafkaHeaders.DLT_EXCEPTION_CAUSE_FQCN, ("dev.lydtech.dispatch.exception." + exception).getBytes(StandardCharsets.UTF_8));
+            orders.add(orderCreated);
+            consumer.schedulePollTask(() -> consumer.addRecord(record));
+        }
+        return orders;
+    }
+}
@@ -0,0 +1,41 @@
+package dev.lydtech.dispatch.replay;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.jupiter.api.Test;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class ReplayRateLimiterTest {
+
+    private static final long MILLIS = 1_000_000L;
+
+    private final AtomicLong nanoClock = new AtomicLong(1);
+
+    @Test
+    void spacesTheRecordsOutAtTheRate() {
+        ReplayRateLimiter rateLimiter = new ReplayRateLimiter(100, nanoClock::get);
+
+        assertThat(rateLimiter.reserve(), equalTo(0L));
+        assertThat(rateLimiter.reserve(), equalTo(10 * MILLIS));
+        assertThat(rateLimiter.reserve(), equalTo(20 * MILLIS));
+    }
+
+    @Test
+    void doesNotBuildUpABurstWhileIdle() {
+        ReplayRateLimiter rateLimiter = new ReplayRateLimiter(100, nanoClock::get);
+        rateLimiter.reserve();
+
+        nanoClock.addAndGet(1000 * MILLIS);
+
+        assertThat(rateLimiter.reserve(), equalTo(0L));
+        assertThat(rateLimiter.reserve(), equalTo(10 * MILLIS));
+    }
+
+    @Test
+    void rejectsARateOfZero() {
+        assertThrows(IllegalArgumentException.class, () -> new ReplayRateLimiter(0, nanoClock::get));
+    }
+}
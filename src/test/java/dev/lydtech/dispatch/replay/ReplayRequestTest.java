@@ -0,0 +1,66 @@
+package dev.lydtech.dispatch.replay;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+
+import org.apache.kafka.common.header.Headers;
+import org.apache.kafka.common.header.internals.RecordHeaders;
+import org.junit.jupiter.api.Test;
+import org.springframework.kafka.support.KafkaHeaders;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class ReplayRequestTest {
+
+    @Test
+    void parsesAnEmptyRequestAsTheWholeTopic() {
+        ReplayRequest request = ReplayRequest.parse("", "", "", "");
+
+        assertThat(request.includesPartition(5), equalTo(true));
+        assertThat(request.getFromOffset(), nullValue());
+        assertThat(request.getFromTime(), nullValue());
+        assertThat(request.getToOffset(), nullValue());
+        assertThat(request.getToTime(), nullValue());
+        assertThat(request.matchesException(new RecordHeaders()), equalTo(true));
+    }
+
+    @Test
+    void parsesPartitionsAndOffsets() {
+        ReplayRequest request = ReplayRequest.parse("0, 2", "100", "250", "");
+
+        assertThat(request.includesPartition(0), equalTo(true));
+        assertThat(request.includesPartition(1), equalTo(false));
+        assertThat(request.includesPartition(2), equalTo(true));
+        assertThat(request.getFromOffset(), equalTo(100L));
+        assertThat(request.getToOffset(), equalTo(250L));
+    }
+
+    @Test
+    void parsesTimes() {
+        ReplayRequest request = ReplayRequest.parse("", "2026-10-18T09:00:00Z", "2026-10-18T10:30:00Z", "");
+
+        assertThat(request.getFromTime(), equalTo(Instant.parse("2026-10-18T09:00:00Z")));
+        assertThat(request.getToTime(), equalTo(Instant.parse("2026-10-18T10:30:00Z")));
+        assertThat(request.getFromOffset(), nullValue());
+    }
+
+    @Test
+    void rejectsAnInvalidPosition() {
+        assertThrows(IllegalArgumentException.class, () -> ReplayRequest.parse("", "yesterday", "", ""));
+    }
+
+    @Test
+    void matchesTheExceptionOrItsCauseBySimpleOrQualifiedName() {
+        Headers headers = new RecordHeaders();
+        headers.add(KafkaHeaders.DLT_EXCEPTION_FQCN, "org.springframework.kafka.listener.ListenerExecutionFailedException".getBytes(StandardCharsets.UTF_8));
+        headers.add(KafkaHeaders.DLT_EXCEPTION_CAUSE_FQCN, "dev.lydtech.dispatch.exception.RetryableException".getBytes(StandardCharsets.UTF_8));
+
+        assertThat(ReplayRequest.parse("", "", "", "RetryableException").matchesException(headers), equalTo(true));
+        assertThat(ReplayRequest.parse("", "", "", "dev.lydtech.dispatch.exception.RetryableException").matchesException(headers), equalTo(true));
+        assertThat(ReplayRequest.parse("", "", "", "NotRetryableException").matchesException(headers), equalTo(false));
+        assertThat(ReplayRequest.parse("", "", "", "RetryableException").matchesException(new RecordHeaders()), equalTo(false));
+    }
+}
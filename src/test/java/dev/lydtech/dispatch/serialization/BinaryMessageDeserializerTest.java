@@ -0,0 +1,59 @@
+package dev.lydtech.dispatch.serialization;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Map;
+
+import dev.lydtech.dispatch.message.OrderCreated;
+import org.apache.kafka.common.errors.SerializationException;
+import org.apache.kafka.common.header.internals.RecordHeaders;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.kafka.support.serializer.JsonDeserializer;
+
+import static java.util.UUID.randomUUID;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class BinaryMessageDeserializerTest {
+
+    private BinaryMessageDeserializer deserializer;
+
+    @BeforeEach
+    void setUp() {
+        deserializer = new BinaryMessageDeserializer();
+        deserializer.configure(Map.of(JsonDeserializer.VALUE_DEFAULT_TYPE, OrderCreated.class.getCanonicalName()), false);
+    }
+
+    @Test
+    void deserialize_Json() {
+        OrderCreated orderCreated = OrderCreated.builder().orderId(randomUUID()).item("my-item").build();
+        byte[] json = ("{\"orderId\":\"" + orderCreated.getOrderId() + "\",\"item\":\"my-item\"}").getBytes(StandardCharsets.UTF_8);
+
+        assertThat(deserializer.deserialize("topic", new RecordHeaders(), json), equalTo(orderCreated));
+        assertThat(deserializer.deserialize("topic", json), equalTo(orderCreated));
+    }
+
+    @Test
+    void deserialize_Null() {
+        assertThat(deserializer.deserialize("topic", new RecordHeaders(), null), nullValue());
+    }
+
+    @Test
+    void deserialize_UnknownType() {
+        byte[] bytes = new BinaryMessageSerializer().serialize("topic", OrderCreated.builder().orderId(randomUUID()).item("my-item").build());
+        bytes[1] = 99;
+
+        assertThrows(SerializationException.class, () -> deserializer.deserialize("topic", new RecordHeaders(), bytes));
+    }
+
+    @Test
+    void deserialize_Truncated() {
+        byte[] bytes = new BinaryMessageSerializer().serialize("topic", OrderCreated.builder().orderId(randomUUID()).item("my-item").build());
+
+        assertThrows(SerializationException.class, () -> deserializer.deserialize("topic", new RecordHeaders(), Arrays.copyOf(bytes, bytes.length - 1)));
+        assertThrows(SerializationException.class, () -> deserializer.deserialize("topic", new RecordHeaders(), Arrays.copyOf(bytes, 10)));
+    }
+}
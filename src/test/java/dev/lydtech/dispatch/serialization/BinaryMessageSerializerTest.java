@@ -0,0 +1,93 @@
+package dev.lydtech.dispatch.serialization;
+
+import dev.lydtech.dispatch.message.DispatchCompleted;
+import dev.lydtech.dispatch.message.DispatchPreparing;
+import dev.lydtech.dispatch.message.OrderCreated;
+import dev.lydtech.dispatch.message.OrderDispatched;
+import org.apache.kafka.common.errors.SerializationException;
+import org.junit.jupiter.api.Test;
+
+import static java.util.UUID.randomUUID;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.nullValue;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class BinaryMessageSerializerTest {
+
+    private final BinaryMessageSerializer serializer = new BinaryMessageSerializer();
+
+    private final BinaryMessageDeserializer deserializer = new BinaryMessageDeserializer();
+
+    @Test
+    void serialize_OrderCreated() {
+        OrderCreated orderCreated = OrderCreated.builder().orderId(randomUUID()).item("my-item").build();
+
+        byte[] bytes = serializer.serialize("topic", orderCreated);
+
+        assertThat(bytes.length, equalTo(3 + 16 + 1 + "my-item".length()));
+        assertThat(deserializer.deserialize("topic", bytes), equalTo(orderCreated));
+    }
+
+    @Test
+    void serialize_DispatchPreparing() {
+        DispatchPreparing dispatchPreparing = DispatchPreparing.builder().orderId(randomUUID()).build();
+
+        byte[] bytes = serializer.serialize("topic", dispatchPreparing);
+
+        assertThat(bytes.length, equalTo(3 + 16));
+        assertThat(deserializer.deserialize("topic", bytes), equalTo(dispatchPreparing));
+    }
+
+    @Test
+    void serialize_OrderDispatched() {
+        OrderDispatched orderDispatched = OrderDispatched.builder()
+                .orderId(randomUUID())
+                .processedById(randomUUID())
+                .notes("Dispatched: my-item é")
+                .build();
+
+        assertThat(deserializer.deserialize("topic", serializer.serialize("topic", orderDispatched)), equalTo(orderDispatched));
+    }
+
+    @Test
+    void serialize_DispatchCompleted() {
+        DispatchCompleted dispatchCompleted = DispatchCompleted.builder().orderId(randomUUID()).dispatchedDate("2023-04-01").build();
+
+        assertThat(deserializer.deserialize("topic", serializer.serialize("topic", dispatchCompleted)), equalTo(dispatchCompleted));
+    }
+
+    @Test
+    void serialize_NullFields() {
+        OrderDispatched orderDispatched = OrderDispatched.builder().processedById(randomUUID()).build();
+
+        byte[] bytes = serializer.serialize("topic", orderDispatched);
+
+        assertThat(bytes.length, equalTo(3 + 16));
+        assertThat(deserializer.deserialize("topic", bytes), equalTo(orderDispatched));
+    }
+
+    @Test
+    void serialize_LongString() {
+        OrderCreated orderCreated = OrderCreated.builder().orderId(randomUUID()).item("x".repeat(20000)).build();
+
+        byte[] bytes = serializer.serialize("topic", orderCreated);
+
+        assertThat(bytes.length, equalTo(3 + 16 + 3 + 20000));
+        assertThat(deserializer.deserialize("topic", bytes), equalTo(orderCreated));
+    }
+
+    @Test
+    void serialize_BytesWrittenAsIs() {
+        byte[] raw = new byte[] {1, 2, 3};
+
+        assertThat(serializer.serialize("topic", raw), sameInstance(raw));
+        assertThat(serializer.serialize("topic", null), nullValue());
+    }
+
+    @Test
+    void serialize_UnknownType() {
+        assertThrows(SerializationException.class, () -> serializer.serialize("topic", "not a message"));
+    }
+}
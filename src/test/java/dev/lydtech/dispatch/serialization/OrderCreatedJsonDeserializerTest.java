@@ -0,0 +1,158 @@
+package dev.lydtech.dispatch.serialization;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.UUID;
+
+import dev.lydtech.dispatch.message.DispatchPreparing;
+import dev.lydtech.dispatch.message.OrderCreated;
+import org.apache.kafka.common.header.Headers;
+import org.apache.kafka.common.header.internals.RecordHeaders;
+import org.apache.kafka.common.serialization.Deserializer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+import org.springframework.kafka.support.mapping.AbstractJavaTypeMapper;
+import org.springframework.kafka.support.serializer.ErrorHandlingDeserializer;
+import org.springframework.kafka.support.serializer.JsonDeserializer;
+import org.springframework.kafka.support.serializer.JsonSerializer;
+import org.springframework.kafka.support.serializer.SerializationUtils;
+
+import static java.util.UUID.randomUUID;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.notNullValue;
+import static org.hamcrest.Matchers.nullValue;
+
+class OrderCreatedJsonDeserializerTest {
+
+    private static final Map<String, Object> CONFIG = Map.of(JsonDeserializer.VALUE_DEFAULT_TYPE, OrderCreated.class.getCanonicalName());
+
+    private OrderCreatedJsonDeserializer deserializer;
+
+    private JsonDeserializer<Object> jsonDeserializer;
+
+    @BeforeEach
+    void setUp() {
+        deserializer = new OrderCreatedJsonDeserializer();
+        deserializer.configure(CONFIG, false);
+        jsonDeserializer = new JsonDeserializer<>();
+        jsonDeserializer.configure(CONFIG, false);
+    }
+
+    @AfterEach
+    void tearDown() {
+        deserializer.close();
+        jsonDeserializer.close();
+    }
+
+    @Test
+    void readsTheEvent() {
+        UUID orderId = randomUUID();
+        byte[] json = json("{\"orderId\":\"" + orderId + "\",\"item\":\"my-item\"}");
+
+        assertThat(deserializer.deserialize("topic", new RecordHeaders(), json), equalTo(new OrderCreated(orderId, "my-item")));
+        assertThat(deserializer.deserialize("topic", json), equalTo(new OrderCreated(orderId, "my-item")));
+    }
+
+    @Test
+    void readsTheEventWithItsTypeHeaderAndRemovesTheHeader() {
+        OrderCreated orderCreated = new OrderCreated(randomUUID(), "my-item");
+        Headers headers = new RecordHeaders();
+        byte[] json;
+        try (JsonSerializer<Object> serializer = new JsonSerializer<>()) {
+            json = serializer.serialize("topic", headers, orderCreated);
+        }
+        Headers expectedHeaders = new RecordHeaders(headers.toArray());
+
+        assertThat(deserializer.deserialize("topic", headers, json), equalTo(orderCreated));
+        assertThat(jsonDeserializer.deserialize("topic", expectedHeaders, json), equalTo(orderCreated));
+        assertThat(headers, equalTo(expectedHeaders));
+        assertThat(headers.lastHeader(AbstractJavaTypeMapper.DEFAULT_CLASSID_FIELD_NAME), nullValue());
+    }
+
+    @Test
+    void passesOtherTypesToTheJsonDeserializer() {
+        DispatchPreparing dispatchPreparing = DispatchPreparing.builder().orderId(randomUUID()).build();
+        Headers headers = new RecordHeaders();
+        byte[] json;
+        try (JsonSerializer<Object> serializer = new JsonSerializer<>()) {
+            json = serializer.serialize("topic", headers, dispatchPreparing);
+        }
+
+        assertThat(deserializer.deserialize("topic", headers, json), equalTo(dispatchPreparing));
+    }
+
+    @Test
+    void readsWithTheParserOnlyWhenTheDefaultTypeIsOrderCreated() {
+        OrderCreatedJsonDeserializer deserializer = new OrderCreatedJsonDeserializer();
+        deserializer.configure(Map.of(JsonDeserializer.VALUE_DEFAULT_TYPE, DispatchPreparing.class.getCanonicalName()), false);
+        UUID orderId = randomUUID();
+
+        assertThat(deserializer.deserialize("topic", new RecordHeaders(), json("{\"orderId\":\"" + orderId + "\"}")),
+                equalTo(DispatchPreparing.builder().orderId(orderId).build()));
+    }
+
+    @Test
+    void readsTheUsualShapeWithTheParser() {
+        UUID orderId = randomUUID();
+
+        assertThat(OrderCreatedJsonDeserializer.read(json("{\"orderId\":\"" + orderId + "\",\"item\":\"my-item\"}")), equalTo(new OrderCreated(orderId, "my-item")));
+        assertThat(OrderCreatedJsonDeserializer.read(json("{\"orderId\":\"" + orderId.toString().toUpperCase() + "\"}")), equalTo(new OrderCreated(orderId, null)));
+        assertThat(OrderCreatedJsonDeserializer.read(json("{\"orderId\":null,\"item\":null}")), equalTo(new OrderCreated()));
+        assertThat(OrderCreatedJsonDeserializer.read(json("{\"notes\":{\"a\":[1,2]},\"item\":\"my-item\"}")), equalTo(new OrderCreated(null, "my-item")));
+    }
+
+    @Test
+    void leavesAnythingElseToTheJsonDeserializer() {
+        assertThat(OrderCreatedJsonDeserializer.read(json("{\"orderId\":\"1-2-3-4-5\"}")), nullValue());
+        assertThat(OrderCreatedJsonDeserializer.read(json("{\"item\":5}")), nullValue());
+        assertThat(OrderCreatedJsonDeserializer.read(json("[]")), nullValue());
+        assertThat(OrderCreatedJsonDeserializer.read(json("{\"item\":")), nullValue());
+    }
+
+    /**
+     * The events that the parser leaves, valid or not, are read or rejected just as by the JsonDeserializer.
+     */
+    @ParameterizedTest
+    @ValueSource(strings = {
+            "{\"item\":5}",
+            "{\"orderId\":\"\"}",
+            "{\"orderId\":\"1-2-3-4-5\"}",
+            "{\"orderId\":\"0000000g-0000-0000-0000-000000000000\"}",
+            "{\"orderId\":12}",
+            "{\"item\":\"my-item\"",
+            "not json",
+            ""
+    })
+    void handlesPoisonPillsAsTheJsonDeserializer(String value) {
+        byte[] data = json(value);
+        Headers headers = new RecordHeaders();
+        Headers expectedHeaders = new RecordHeaders();
+
+        Object result = errorHandling(deserializer).deserialize("topic", headers, data);
+        Object expected = errorHandling(jsonDeserializer).deserialize("topic", expectedHeaders, data);
+
+        assertThat(result, equalTo(expected));
+        assertThat(headers.lastHeader(SerializationUtils.VALUE_DESERIALIZER_EXCEPTION_HEADER) != null,
+                equalTo(expectedHeaders.lastHeader(SerializationUtils.VALUE_DESERIALIZER_EXCEPTION_HEADER) != null));
+    }
+
+    @Test
+    void turnsInvalidJsonIntoAPoisonPill() {
+        Headers headers = new RecordHeaders();
+
+        assertThat(errorHandling(deserializer).deserialize("topic", headers, json("not json")), nullValue());
+        assertThat(headers.lastHeader(SerializationUtils.VALUE_DESERIALIZER_EXCEPTION_HEADER), notNullValue());
+    }
+
+    private static ErrorHandlingDeserializer<Object> errorHandling(Deserializer<Object> delegate) {
+        return new ErrorHandlingDeserializer<>(delegate);
+    }
+
+    private static byte[] json(String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+}
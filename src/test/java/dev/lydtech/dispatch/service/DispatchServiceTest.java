@@ -1,13 +1,21 @@
 package dev.lydtech.dispatch.service;
 
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
 
 import dev.lydtech.dispatch.client.StockServiceClient;
+import dev.lydtech.dispatch.exception.RetryableException;
+import dev.lydtech.dispatch.logging.LogSampler;
 import dev.lydtech.dispatch.message.DispatchCompleted;
 import dev.lydtech.dispatch.message.DispatchPreparing;
 import dev.lydtech.dispatch.message.OrderCreated;
 import dev.lydtech.dispatch.message.OrderDispatched;
+import dev.lydtech.dispatch.metrics.DispatchMetrics;
 import dev.lydtech.dispatch.util.TestEventData;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.springframework.kafka.core.KafkaTemplate;
@@ -31,13 +39,15 @@ class DispatchServiceTest {
 
     private KafkaTemplate kafkaProducerMock;
     private StockServiceClient stockServiceClientMock;
+    private SimpleMeterRegistry meterRegistry;
     private DispatchService service;
 
     @BeforeEach
     void setUp() {
+        meterRegistry = new SimpleMeterRegistry();
         kafkaProducerMock = mock(KafkaTemplate.class);
         stockServiceClientMock = mock(StockServiceClient.class);
-        service = new DispatchService(kafkaProducerMock, stockServiceClientMock);
+        service = new DispatchService(kafkaProducerMock, stockServiceClientMock, new DispatchMetrics(meterRegistry), new LogSampler(1), false);
     }
 
     @Test
@@ -55,6 +65,10 @@ class DispatchServiceTest {
         verify(kafkaProducerMock, times(1)).send(eq("order.dispatched"), eq(key), any(OrderDispatched.class));
         verify(kafkaProducerMock, times(1)).send(eq("dispatch.tracking"), eq(key), any(DispatchCompleted.class));
         verify(stockServiceClientMock, times(1)).checkAvailability(testEvent.getItem());
+        assertThat(meterRegistry.get("dispatch.orders").tag("outcome", "available").counter().count(), equalTo(1.0));
+        assertThat(meterRegistry.get("dispatch.process").tag("outcome", "dispatched").timer().count(), equalTo(1L));
+        assertThat(meterRegistry.get("dispatch.send").tag("topic", "dispatch.tracking").tag("result", "success").timer().count(), equalTo(2L));
+        assertThat(meterRegistry.get("dispatch.send").tag("topic", "order.dispatched").tag("result", "success").timer().count(), equalTo(1L));
     }
 
     @Test
@@ -66,6 +80,8 @@ class DispatchServiceTest {
         service.process(key, testEvent);
         verifyNoInteractions(kafkaProducerMock);
         verify(stockServiceClientMock, times(1)).checkAvailability(testEvent.getItem());
+        assertThat(meterRegistry.get("dispatch.orders").tag("outcome", "unavailable").counter().count(), equalTo(1.0));
+        assertThat(meterRegistry.get("dispatch.process").tag("outcome", "unavailable").timer().count(), equalTo(1L));
     }
 
     @Test
@@ -132,4 +148,121 @@ class DispatchServiceTest {
         verifyNoInteractions(kafkaProducerMock);
         verify(stockServiceClientMock, times(1)).checkAvailability(testEvent.getItem());
     }
+
+    @Test
+    public void testProcess_Pipelined_Success() throws Exception {
+        service = new DispatchService(kafkaProducerMock, stockServiceClientMock, new DispatchMetrics(meterRegistry), new LogSampler(1), true);
+        when(kafkaProducerMock.send(anyString(), anyString(), any())).thenReturn(CompletableFuture.completedFuture(null));
+        when(stockServiceClientMock.checkAvailability(anyString())).thenReturn("true");
+
+        String key = randomUUID().toString();
+        OrderCreated testEvent = TestEventData.buildOrderCreatedEvent(randomUUID(), randomUUID().toString());
+        service.process(key, testEvent);
+
+        verify(kafkaProducerMock, times(1)).send(eq("dispatch.tracking"), eq(key), any(DispatchPreparing.class));
+        verify(kafkaProducerMock, times(1)).send(eq("order.dispatched"), eq(key), any(OrderDispatched.class));
+        verify(kafkaProducerMock, times(1)).send(eq("dispatch.tracking"), eq(key), any(DispatchCompleted.class));
+        verify(stockServiceClientMock, times(1)).checkAvailability(testEvent.getItem());
+    }
+
+    @Test
+    public void testProcess_Pipelined_SendFailure() {
+        service = new DispatchService(kafkaProducerMock, stockServiceClientMock, new DispatchMetrics(meterRegistry), new LogSampler(1), true);
+        when(kafkaProducerMock.send(anyString(), anyString(), any(DispatchPreparing.class))).thenReturn(CompletableFuture.completedFuture(null));
+        when(kafkaProducerMock.send(anyString(), anyString(), any(OrderDispatched.class))).thenReturn(CompletableFuture.failedFuture(new RuntimeException("order dispatched producer failure")));
+        when(kafkaProducerMock.send(anyString(), anyString(), any(DispatchCompleted.class))).thenReturn(CompletableFuture.completedFuture(null));
+        when(stockServiceClientMock.checkAvailability(anyString())).thenReturn("true");
+
+        String key = randomUUID().toString();
+        OrderCreated testEvent = TestEventData.buildOrderCreatedEvent(randomUUID(), randomUUID().toString());
+        Exception exception = assertThrows(ExecutionException.class, () -> service.process(key, testEvent));
+
+        // All three records are handed to the producer before the acks are awaited.
+        verify(kafkaProducerMock, times(1)).send(eq("dispatch.tracking"), eq(key), any(DispatchPreparing.class));
+        verify(kafkaProducerMock, times(1)).send(eq("order.dispatched"), eq(key), any(OrderDispatched.class));
+        verify(kafkaProducerMock, times(1)).send(eq("dispatch.tracking"), eq(key), any(DispatchCompleted.class));
+        assertThat(exception.getCause().getMessage(), equalTo("order dispatched producer failure"));
+    }
+
+    @Test
+    public void testProcessInBatch_ChecksStockOncePerItem() throws Exception {
+        when(kafkaProducerMock.send(anyString(), anyString(), any())).thenReturn(CompletableFuture.completedFuture(null));
+        when(stockServiceClientMock.checkAvailabilityAsync(anyString())).thenReturn(CompletableFuture.completedFuture(true));
+
+        Map<String, CompletableFuture<Boolean>> availabilityByItem = service.lookUpAvailability(List.of("my-item"));
+        String key = randomUUID().toString();
+        OrderCreated firstEvent = TestEventData.buildOrderCreatedEvent(randomUUID(), "my-item");
+        OrderCreated secondEvent = TestEventData.buildOrderCreatedEvent(randomUUID(), "my-item");
+        service.processInBatch(key, firstEvent, availabilityByItem).get();
+        service.processInBatch(key, secondEvent, availabilityByItem).get();
+
+        verify(stockServiceClientMock, times(1)).checkAvailabilityAsync("my-item");
+        verify(kafkaProducerMock, times(2)).send(eq("dispatch.tracking"), eq(key), any(DispatchPreparing.class));
+        verify(kafkaProducerMock, times(2)).send(eq("order.dispatched"), eq(key), any(OrderDispatched.class));
+        verify(kafkaProducerMock, times(2)).send(eq("dispatch.tracking"), eq(key), any(DispatchCompleted.class));
+    }
+
+    @Test
+    public void testProcessInBatch_StockUnavailable() throws Exception {
+        when(stockServiceClientMock.checkAvailabilityAsync(anyString())).thenReturn(CompletableFuture.completedFuture(false));
+
+        String key = randomUUID().toString();
+        OrderCreated testEvent = TestEventData.buildOrderCreatedEvent(randomUUID(), randomUUID().toString());
+        service.processInBatch(key, testEvent, new HashMap<>()).get();
+
+        verifyNoInteractions(kafkaProducerMock);
+        verify(stockServiceClientMock, times(1)).checkAvailabilityAsync(testEvent.getItem());
+    }
+
+    /**
+     * A failed lookup is thrown as the stock service client's exception, so the batch handler can tell whether to retry.
+     */
+    @Test
+    public void testProcessInBatch_StockServiceClient_Fails() {
+        when(stockServiceClientMock.checkAvailabilityAsync(anyString())).thenReturn(CompletableFuture.failedFuture(new RetryableException("stock service client failure")));
+
+        OrderCreated testEvent = TestEventData.buildOrderCreatedEvent(randomUUID(), randomUUID().toString());
+        Map<String, CompletableFuture<Boolean>> availabilityByItem = service.lookUpAvailability(List.of(testEvent.getItem()));
+
+        assertThrows(RetryableException.class, () -> service.processInBatch(randomUUID().toString(), testEvent, availabilityByItem));
+        verifyNoInteractions(kafkaProducerMock);
+    }
+
+    @Test
+    public void testProcessAsync_Success() throws Exception {
+        when(kafkaProducerMock.send(anyString(), anyString(), any())).thenReturn(CompletableFuture.completedFuture(null));
+        when(stockServiceClientMock.checkAvailabilityAsync(anyString())).thenReturn(CompletableFuture.completedFuture(true));
+
+        String key = randomUUID().toString();
+        OrderCreated testEvent = TestEventData.buildOrderCreatedEvent(randomUUID(), randomUUID().toString());
+        service.processAsync(key, testEvent).get();
+
+        verify(kafkaProducerMock, times(1)).send(eq("dispatch.tracking"), eq(key), any(DispatchPreparing.class));
+        verify(kafkaProducerMock, times(1)).send(eq("order.dispatched"), eq(key), any(OrderDispatched.class));
+        verify(kafkaProducerMock, times(1)).send(eq("dispatch.tracking"), eq(key), any(DispatchCompleted.class));
+        verify(stockServiceClientMock, times(1)).checkAvailabilityAsync(testEvent.getItem());
+    }
+
+    @Test
+    public void testProcessAsync_StockUnavailable() throws Exception {
+        when(stockServiceClientMock.checkAvailabilityAsync(anyString())).thenReturn(CompletableFuture.completedFuture(false));
+
+        String key = randomUUID().toString();
+        OrderCreated testEvent = TestEventData.buildOrderCreatedEvent(randomUUID(), randomUUID().toString());
+        service.processAsync(key, testEvent).get();
+
+        verifyNoInteractions(kafkaProducerMock);
+    }
+
+    @Test
+    public void testProcessAsync_StockServiceClient_Fails() {
+        when(stockServiceClientMock.checkAvailabilityAsync(anyString())).thenReturn(CompletableFuture.failedFuture(new RuntimeException("stock service client failure")));
+
+        String key = randomUUID().toString();
+        OrderCreated testEvent = TestEventData.buildOrderCreatedEvent(randomUUID(), randomUUID().toString());
+        Exception exception = assertThrows(ExecutionException.class, () -> service.processAsync(key, testEvent).get());
+
+        assertThat(exception.getCause().getMessage(), equalTo("stock service client failure"));
+        verifyNoInteractions(kafkaProducerMock);
+    }
 }
@@ -0,0 +1,151 @@
+package dev.lydtech.dispatch.warmup;
+
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import dev.lydtech.dispatch.message.OrderCreated;
+import dev.lydtech.dispatch.metrics.DispatchMetrics;
+import dev.lydtech.dispatch.serialization.MessageFormat;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.apache.hc.client5.http.impl.io.PoolingHttpClientConnectionManager;
+import org.apache.hc.client5.http.impl.io.PoolingHttpClientConnectionManagerBuilder;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.kafka.core.ConsumerFactory;
+import org.springframework.kafka.core.KafkaOperations;
+import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.kafka.core.ProducerFactory;
+import org.springframework.kafka.support.serializer.JsonDeserializer;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.lessThan;
+import static org.hamcrest.Matchers.nullValue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class DispatchWarmupTest {
+
+    private SimpleMeterRegistry meterRegistry;
+
+    private KafkaTemplate<String, Object> kafkaTemplateMock;
+
+    private PoolingHttpClientConnectionManager connectionManager;
+
+    private ServerSocket stockService;
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    void setUp() throws Exception {
+        meterRegistry = new SimpleMeterRegistry();
+        kafkaTemplateMock = mock(KafkaTemplate.class);
+        connectionManager = PoolingHttpClientConnectionManagerBuilder.create().setMaxConnPerRoute(3).build();
+        stockService = new ServerSocket(0, 10);
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        connectionManager.close();
+        stockService.close();
+    }
+
+    @Test
+    void opensStockConnectionsAndFetchesTheProducerMetadata() throws Exception {
+        DispatchWarmup warmup = warmup(true, MessageFormat.JSON, "http://localhost:" + stockService.getLocalPort() + "/api/stock", 2);
+
+        warmup.start();
+
+        assertThat(connectionManager.getTotalStats().getAvailable(), equalTo(2));
+        stockService.setSoTimeout(1000);
+        try (Socket first = stockService.accept(); Socket second = stockService.accept()) {
+            assertThat(first.isConnected() && second.isConnected(), equalTo(true));
+        }
+        verify(kafkaTemplateMock).partitionsFor("dispatch.tracking");
+        verify(kafkaTemplateMock).partitionsFor("order.dispatched");
+        assertThat(warmup.isRunning(), equalTo(true));
+        for (String step : new String[] {"serializers", "stock.connections", "producer.metadata", "total"}) {
+            assertThat(meterRegistry.get("dispatch.startup.warmup").tag("step", step).timer().count(), equalTo(1L));
+        }
+    }
+
+    @Test
+    void opensNoMoreStockConnectionsThanThePoolAllowsPerRoute() {
+        warmup(true, MessageFormat.BINARY, "http://localhost:" + stockService.getLocalPort() + "/api/stock", 5).start();
+
+        assertThat(connectionManager.getTotalStats().getAvailable(), equalTo(3));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void fetchesTheMetadataInATransactionWhenTransactional() {
+        when(kafkaTemplateMock.isTransactional()).thenReturn(true);
+
+        warmup(true, MessageFormat.JSON, "http://localhost:" + stockService.getLocalPort() + "/api/stock", 1).start();
+
+        verify(kafkaTemplateMock, times(2)).executeInTransaction(any(KafkaOperations.OperationsCallback.class));
+        verify(kafkaTemplateMock, never()).partitionsFor(any());
+    }
+
+    @Test
+    void carriesOnWhenTheStockServiceIsDown() throws Exception {
+        int port = stockService.getLocalPort();
+        stockService.close();
+
+        warmup(true, MessageFormat.JSON, "http://localhost:" + port + "/api/stock", 2).start();
+
+        assertThat(connectionManager.getTotalStats().getLeased(), equalTo(0));
+        verify(kafkaTemplateMock).partitionsFor("order.dispatched");
+    }
+
+    @Test
+    void carriesOnWhenTheProducerMetadataTimesOut() throws Exception {
+        CountDownLatch brokersDown = new CountDownLatch(1);
+        when(kafkaTemplateMock.partitionsFor(any())).thenAnswer(invocation -> {
+            brokersDown.await();
+            return List.of();
+        });
+        DispatchWarmup warmup = warmup(true, MessageFormat.JSON, "http://localhost:" + stockService.getLocalPort() + "/api/stock", 1);
+
+        try {
+            warmup.start();
+        } finally {
+            brokersDown.countDown();
+        }
+
+        assertThat(warmup.isRunning(), equalTo(true));
+        assertThat(meterRegistry.get("dispatch.startup.warmup").tag("step", "producer.metadata").timer().totalTime(TimeUnit.MILLISECONDS), lessThan(5000.0));
+    }
+
+    @Test
+    void doesNothingWhenDisabled() {
+        DispatchWarmup warmup = warmup(false, MessageFormat.JSON, "http://localhost:" + stockService.getLocalPort() + "/api/stock", 2);
+
+        warmup.start();
+
+        assertThat(warmup.isRunning(), equalTo(true));
+        assertThat(connectionManager.getTotalStats().getAvailable(), equalTo(0));
+        verify(kafkaTemplateMock, never()).partitionsFor(any());
+        assertThat(meterRegistry.find("dispatch.startup.warmup").timer(), nullValue());
+    }
+
+    @SuppressWarnings("unchecked")
+    private DispatchWarmup warmup(boolean enabled, MessageFormat messageFormat, String stockServiceEndpoint, int stockConnections) {
+        ProducerFactory<String, Object> producerFactoryMock = mock(ProducerFactory.class);
+        when(producerFactoryMock.getConfigurationProperties()).thenReturn(Map.of());
+        ConsumerFactory<String, Object> consumerFactoryMock = mock(ConsumerFactory.class);
+        when(consumerFactoryMock.getConfigurationProperties()).thenReturn(Map.of(JsonDeserializer.VALUE_DEFAULT_TYPE, OrderCreated.class.getCanonicalName()));
+        return new DispatchWarmup(enabled, messageFormat, producerFactoryMock, consumerFactoryMock, kafkaTemplateMock, connectionManager,
+                stockServiceEndpoint, stockConnections, Duration.ofSeconds(1), Duration.ofSeconds(30), Duration.ofMillis(200),
+                new DispatchMetrics(meterRegistry));
+    }
+}